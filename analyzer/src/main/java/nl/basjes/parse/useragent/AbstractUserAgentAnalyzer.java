@@ -23,16 +23,120 @@ import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 import nl.basjes.parse.useragent.UserAgent.ImmutableUserAgent;
 import nl.basjes.parse.useragent.UserAgent.MutableUserAgent;
-import org.apache.commons.collections4.map.LRUMap;
+import nl.basjes.parse.useragent.analyze.InvalidParserConfigurationException;
+import nl.basjes.parse.useragent.metrics.MetricsListener;
+import nl.basjes.parse.useragent.utils.ConcurrentClockCache;
 
 import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 @DefaultSerializer(AbstractUserAgentAnalyzer.KryoSerializer.class)
 public class AbstractUserAgentAnalyzer extends AbstractUserAgentAnalyzerDirect implements Serializable {
     public static final int DEFAULT_PARSE_CACHE_SIZE = 10000;
 
     protected int cacheSize = DEFAULT_PARSE_CACHE_SIZE;
-    private transient LRUMap<String, ImmutableUserAgent> parseCache = null;
+    private CacheInstantiator cacheInstantiator = new DefaultCacheInstantiator();
+    private transient volatile Map<String, ImmutableUserAgent> parseCache = null;
+
+    /**
+     * Creates the Map that is used as the parse cache.
+     * The returned Map MUST be safe to use by many threads at the same time (without any external locking)
+     * because the analyzer does not synchronize any access to it.
+     * An implementation is stored as part of the analyzer so it must be Serializable.
+     * If Kryo is used then a custom implementation must also be registered with Kryo.
+     */
+    @FunctionalInterface
+    public interface CacheInstantiator extends Serializable {
+        /**
+         * Create a new parse cache.
+         * @param cacheSize The maximum number of entries (always at least 1).
+         * @return The new (empty) cache.
+         */
+        Map<String, ImmutableUserAgent> instantiateCache(int cacheSize);
+    }
+
+    /**
+     * The default cache: a ConcurrentClockCache which has lock free reads and
+     * optionally an upper limit on the estimated memory usage and an expire-after-write.
+     */
+    public static class DefaultCacheInstantiator implements CacheInstantiator {
+        private static final long serialVersionUID = 1L;
+
+        private final long maximumBytes;
+        private final long expireAfterWriteMillis;
+
+        public DefaultCacheInstantiator() {
+            this(0, 0);
+        }
+
+        /**
+         * @param maximumBytes The upper limit of the estimated memory usage of the cache (0 = no limit).
+         * @param expireAfterWriteMillis After how many milliseconds an entry expires (0 = never).
+         */
+        public DefaultCacheInstantiator(long maximumBytes, long expireAfterWriteMillis) {
+            if (maximumBytes < 0 || expireAfterWriteMillis < 0) {
+                throw new InvalidParserConfigurationException("The cache limits cannot be negative.");
+            }
+            this.maximumBytes = maximumBytes;
+            this.expireAfterWriteMillis = expireAfterWriteMillis;
+        }
+
+        public long getMaximumBytes() {
+            return maximumBytes;
+        }
+
+        public long getExpireAfterWriteMillis() {
+            return expireAfterWriteMillis;
+        }
+
+        public DefaultCacheInstantiator withMaximumBytes(long newMaximumBytes) {
+            return new DefaultCacheInstantiator(newMaximumBytes, expireAfterWriteMillis);
+        }
+
+        public DefaultCacheInstantiator withExpireAfterWrite(long duration, TimeUnit unit) {
+            return new DefaultCacheInstantiator(maximumBytes, unit.toMillis(duration));
+        }
+
+        @Override
+        public Map<String, ImmutableUserAgent> instantiateCache(int cacheSize) {
+            return new ConcurrentClockCache<>(
+                cacheSize,
+                maximumBytes,
+                maximumBytes == 0 ? null : DefaultCacheInstantiator::estimateBytes,
+                expireAfterWriteMillis,
+                TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * A rough estimate of the memory used by a single cache entry.
+         * @param userAgentString The key of the cache entry.
+         * @param userAgent The value of the cache entry.
+         * @return The estimated number of bytes.
+         */
+        public static long estimateBytes(String userAgentString, ImmutableUserAgent userAgent) {
+            // The key is stored both as the key and inside the value.
+            long bytes = 128 + 2L * estimateBytes(userAgentString);
+            for (String fieldName : userAgent.getAvailableFieldNamesSorted()) {
+                // The field names are shared constants, the values are not.
+                bytes += 64 + estimateBytes(userAgent.getValue(fieldName));
+            }
+            return bytes;
+        }
+
+        private static long estimateBytes(String value) {
+            return value == null ? 0 : 40 + 2L * value.length();
+        }
+
+        @Override
+        public String toString() {
+            return "DefaultCacheInstantiator{" +
+                "maximumBytes=" + maximumBytes +
+                ", expireAfterWriteMillis=" + expireAfterWriteMillis +
+                '}';
+        }
+    }
 
     protected AbstractUserAgentAnalyzer() {
         super();
@@ -63,6 +167,7 @@ public class AbstractUserAgentAnalyzer extends AbstractUserAgentAnalyzerDirect i
     public static void configureKryo(Object kryoInstance) {
         Kryo kryo = (Kryo) kryoInstance;
         kryo.register(AbstractUserAgentAnalyzer.class);
+        kryo.register(DefaultCacheInstantiator.class);
         AbstractUserAgentAnalyzerDirect.configureKryo(kryo);
     }
 
@@ -75,12 +180,14 @@ public class AbstractUserAgentAnalyzer extends AbstractUserAgentAnalyzerDirect i
         public void write(Kryo kryo, Output output, AbstractUserAgentAnalyzerDirect object) {
             super.write(kryo, output, object);
             output.writeInt(((AbstractUserAgentAnalyzer)object).cacheSize);
+            kryo.writeClassAndObject(output, ((AbstractUserAgentAnalyzer)object).cacheInstantiator);
         }
 
         @Override
         public AbstractUserAgentAnalyzer read(Kryo kryo, Input input, Class<? extends AbstractUserAgentAnalyzerDirect> type) {
             final AbstractUserAgentAnalyzer uaa = (AbstractUserAgentAnalyzer) super.read(kryo, input, type);
             uaa.cacheSize = input.readInt();
+            uaa.cacheInstantiator = (CacheInstantiator) kryo.readClassAndObject(input);
             uaa.initializeCache();
             return uaa;
         }
@@ -94,16 +201,35 @@ public class AbstractUserAgentAnalyzer extends AbstractUserAgentAnalyzerDirect i
      * Sets the new size of the parsing cache.
      * Note that this will also wipe the existing cache.
      *
-     * @param newCacheSize The size of the new LRU cache. As size of 0 will disable caching.
+     * @param newCacheSize The size of the new cache. As size of 0 will disable caching.
      */
     public void setCacheSize(int newCacheSize) {
         cacheSize = Math.max(newCacheSize, 0);
         initializeCache();
     }
 
+    /**
+     * Sets a different way of creating the parsing cache.
+     * Note that this will also wipe the existing cache.
+     *
+     * @param newCacheInstantiator The CacheInstantiator that creates the new cache.
+     */
+    public void setCacheInstantiator(CacheInstantiator newCacheInstantiator) {
+        if (newCacheInstantiator == null) {
+            throw new InvalidParserConfigurationException("The CacheInstantiator cannot be null.");
+        }
+        cacheInstantiator = newCacheInstantiator;
+        initializeCache();
+    }
+
+    public CacheInstantiator getCacheInstantiator() {
+        return cacheInstantiator;
+    }
+
     private synchronized void initializeCache() {
+        reportedCacheEvictions = new AtomicLong();
         if (cacheSize >= 1) {
-            parseCache = new LRUMap<>(cacheSize);
+            parseCache = cacheInstantiator.instantiateCache(cacheSize);
         } else {
             parseCache = null;
         }
@@ -114,27 +240,72 @@ public class AbstractUserAgentAnalyzer extends AbstractUserAgentAnalyzerDirect i
     }
 
     @Override
-    public synchronized ImmutableUserAgent parse(MutableUserAgent userAgent) {
+    public ImmutableUserAgent parse(MutableUserAgent userAgent) {
         if (userAgent == null) {
             return null;
         }
-        if (parseCache == null) {
-            userAgent.reset();
-            return super.parse(userAgent);
-        }
-
-        String             userAgentString = userAgent.getUserAgentString();
-        ImmutableUserAgent cachedValue     = parseCache.get(userAgentString);
+        String userAgentString = userAgent.getUserAgentString();
+        ImmutableUserAgent cachedValue = getCachedResult(userAgentString);
         if (cachedValue != null) {
             return cachedValue; // As it is immutable it can safely be returned as is
-        } else {
-            cachedValue = super.parse(userAgent);
-            parseCache.put(userAgentString, cachedValue);
         }
+        userAgent.reset();
+        cachedValue = super.parse(userAgent);
+        storeCachedResult(userAgentString, cachedValue);
         // We have our answer.
         return cachedValue;
     }
 
+    // The cache is thread safe by itself so no locking is needed here.
+    // If two threads parse the same new useragent at the same time both will store the (same) result.
+
+    @Override
+    protected ImmutableUserAgent getCachedResult(String userAgentString) {
+        Map<String, ImmutableUserAgent> cache = parseCache;
+        // A concurrent cache cannot have a null key so those are never cached.
+        if (cache == null || userAgentString == null) {
+            return null;
+        }
+        ImmutableUserAgent cachedValue = cache.get(userAgentString);
+        MetricsListener    metrics     = getMetricsListener();
+        if (metrics != null) {
+            if (cachedValue == null) {
+                metrics.cacheMiss();
+            } else {
+                metrics.cacheHit();
+            }
+        }
+        return cachedValue;
+    }
+
+    @Override
+    protected void storeCachedResult(String userAgentString, ImmutableUserAgent result) {
+        Map<String, ImmutableUserAgent> cache = parseCache;
+        if (cache == null || userAgentString == null) {
+            return;
+        }
+        cache.put(userAgentString, result);
+        MetricsListener metrics = getMetricsListener();
+        if (metrics != null) {
+            reportCacheEvictions(cache, metrics);
+        }
+    }
+
+    // The total number of evictions of the current cache that have been reported to the MetricsListener.
+    private transient volatile AtomicLong reportedCacheEvictions = new AtomicLong();
+
+    private void reportCacheEvictions(Map<String, ImmutableUserAgent> cache, MetricsListener metrics) {
+        if (!(cache instanceof ConcurrentClockCache)) {
+            return; // The number of evictions of a custom cache is unknown.
+        }
+        long evictions = ((ConcurrentClockCache<?, ?>) cache).getEvictionCount();
+        // Many threads can do this at the same time; only report what no other thread has reported yet.
+        long previous = reportedCacheEvictions.getAndAccumulate(evictions, Math::max);
+        if (evictions > previous) {
+            metrics.cacheEvictions(evictions - previous);
+        }
+    }
+
     @SuppressWarnings("unchecked") // For all the casts of 'this' to 'B'
     public abstract  static class AbstractUserAgentAnalyzerBuilder<UAA extends AbstractUserAgentAnalyzer, B extends AbstractUserAgentAnalyzerBuilder<UAA, B>>
             extends AbstractUserAgentAnalyzerDirectBuilder<UAA, B> {
@@ -166,6 +337,52 @@ public class AbstractUserAgentAnalyzer extends AbstractUserAgentAnalyzerDirect i
             return (B)this;
         }
 
+        /**
+         * Use a different kind of cache.
+         * The created cache MUST be safe to use by many threads at the same time.
+         * @param newCacheInstantiator The instance that creates the new cache.
+         * @return the current Builder instance.
+         */
+        public B withCacheInstantiator(CacheInstantiator newCacheInstantiator) {
+            failIfAlreadyBuilt();
+            uaa.setCacheInstantiator(newCacheInstantiator);
+            return (B)this;
+        }
+
+        /**
+         * Limit the cache by the estimated memory usage (in addition to the number of entries).
+         * Only possible with the default cache.
+         * @param maximumBytes The upper limit of the estimated memory usage of the cache (0 = no limit).
+         * @return the current Builder instance.
+         */
+        public B withCacheMaximumBytes(long maximumBytes) {
+            failIfAlreadyBuilt();
+            uaa.setCacheInstantiator(getDefaultCacheInstantiator().withMaximumBytes(maximumBytes));
+            return (B)this;
+        }
+
+        /**
+         * Let the entries in the cache expire a fixed amount of time after they were added.
+         * Only possible with the default cache.
+         * @param duration After how much time an entry expires (0 = never).
+         * @param unit The unit of the duration.
+         * @return the current Builder instance.
+         */
+        public B withCacheExpireAfterWrite(long duration, TimeUnit unit) {
+            failIfAlreadyBuilt();
+            uaa.setCacheInstantiator(getDefaultCacheInstantiator().withExpireAfterWrite(duration, unit));
+            return (B)this;
+        }
+
+        private DefaultCacheInstantiator getDefaultCacheInstantiator() {
+            CacheInstantiator currentCacheInstantiator = uaa.getCacheInstantiator();
+            if (currentCacheInstantiator instanceof DefaultCacheInstantiator) {
+                return (DefaultCacheInstantiator) currentCacheInstantiator;
+            }
+            throw new InvalidParserConfigurationException(
+                "The cache limits can only be changed when using the DefaultCacheInstantiator.");
+        }
+
         @SuppressWarnings("EmptyMethod") // We must override the method because of the generic return value.
         @Override
         public UAA build() {
@@ -177,6 +394,7 @@ public class AbstractUserAgentAnalyzer extends AbstractUserAgentAnalyzerDirect i
     public String toString() {
         return "UserAgentAnalyzer{" +
             "cacheSize=" + cacheSize +
+            ", cacheInstantiator=" + cacheInstantiator +
             ", "+ super.toString()+"} ";
     }
 
@@ -28,6 +28,7 @@ import nl.basjes.parse.useragent.AgentField.MutableAgentField;
 import nl.basjes.parse.useragent.UserAgent.ImmutableUserAgent;
 import nl.basjes.parse.useragent.UserAgent.MutableUserAgent;
 import nl.basjes.parse.useragent.analyze.Analyzer;
+import nl.basjes.parse.useragent.analyze.InformDispatcher;
 import nl.basjes.parse.useragent.analyze.InvalidParserConfigurationException;
 import nl.basjes.parse.useragent.analyze.Matcher;
 import nl.basjes.parse.useragent.analyze.MatcherAction;
@@ -37,10 +38,13 @@ import nl.basjes.parse.useragent.analyze.MatcherList;
 import nl.basjes.parse.useragent.analyze.MatcherRequireAction;
 import nl.basjes.parse.useragent.analyze.MatcherVariableAction;
 import nl.basjes.parse.useragent.analyze.MatchesList;
+import nl.basjes.parse.useragent.analyze.ParseContext;
 import nl.basjes.parse.useragent.analyze.UselessMatcherException;
 import nl.basjes.parse.useragent.analyze.WordRangeVisitor;
 import nl.basjes.parse.useragent.analyze.WordRangeVisitor.Range;
+import nl.basjes.parse.useragent.analyze.treewalker.CompiledExpressions;
 import nl.basjes.parse.useragent.analyze.treewalker.TreeExpressionEvaluator;
+import nl.basjes.parse.useragent.analyze.treewalker.steps.StepFilter;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.compare.StepContains;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.compare.StepDefaultIfNull;
@@ -51,6 +55,9 @@ import nl.basjes.parse.useragent.analyze.treewalker.steps.compare.StepIsNotInSet
 import nl.basjes.parse.useragent.analyze.treewalker.steps.compare.StepIsNull;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.compare.StepNotEquals;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.compare.StepStartsWith;
+import nl.basjes.parse.useragent.analyze.treewalker.steps.fused.StepFusedDown;
+import nl.basjes.parse.useragent.analyze.treewalker.steps.fused.StepFusedFilters;
+import nl.basjes.parse.useragent.analyze.treewalker.steps.lookup.LookupStructures;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.lookup.StepIsInLookupContains;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.lookup.StepIsInLookupPrefix;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.lookup.StepIsNotInLookupPrefix;
@@ -82,8 +89,14 @@ import nl.basjes.parse.useragent.calculate.CalculateNetworkType;
 import nl.basjes.parse.useragent.calculate.ConcatNONDuplicatedCalculator;
 import nl.basjes.parse.useragent.calculate.FieldCalculator;
 import nl.basjes.parse.useragent.calculate.MajorVersionCalculator;
+import nl.basjes.parse.useragent.metrics.AnalyzerMetrics;
+import nl.basjes.parse.useragent.metrics.MetricsListener;
+import nl.basjes.parse.useragent.metrics.ParsePhase;
 import nl.basjes.parse.useragent.parse.UserAgentTreeFlattener;
+import nl.basjes.parse.useragent.utils.AhoCorasickAutomaton;
 import nl.basjes.parse.useragent.utils.CheckLoggingDependencies;
+import nl.basjes.parse.useragent.utils.OffHeapLookup;
+import nl.basjes.parse.useragent.utils.ValueInterner;
 import org.antlr.v4.runtime.tree.ParseTree;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -101,9 +114,11 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.Formatter;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -115,6 +130,13 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -178,15 +200,18 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
         return allMatchers;
     }
 
-    protected MatcherList getTouchedMatchers() {
-        return touchedMatchers;
-    }
-
     private final Map<String, Set<MatcherAction>> informMatcherActions = new LinkedHashMap<>(INFORM_ACTIONS_HASHMAP_CAPACITY);
+    // A read only index of the informMatcherActions that is (re)built when needed.
+    private transient volatile InformDispatcher informDispatcher = null;
     private transient Map<String, List<MappingNode>> matcherConfigs = new HashMap<>();
 
     private boolean showMatcherStats = false;
     private boolean doingOnlyASingleTest = false;
+    private boolean twoStageParsing = false;
+    private boolean tableDrivenTokenizer = false;
+    private boolean fusedSteps = false;
+    private int valueInternerSize = 0;
+    private boolean parallelInitialization = false;
 
     // If we want ALL fields this is null. If we only want specific fields this is a list of names.
     protected Set<String> wantedFieldNames = null; // NOSONAR: Only accessed via Builder.
@@ -202,6 +227,23 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
     private final Map<String, Set<String>> lookupSets = new LinkedHashMap<>(128);
     private final Map<String, Set<String>> lookupSetMerge = new LinkedHashMap<>(128);  // The names of the sets that need to be merged
 
+    // The lookups and sets as found in the rule files: until the matchers are initialized the
+    // lookups and sets are (re)created from these but only if a matcher needs them.
+    private transient Map<String, LookupConfig> lookupConfigs = new LinkedHashMap<>(128);
+    private transient Map<String, LookupConfig> lookupSetConfigs = new LinkedHashMap<>(128);
+
+    private static final class LookupConfig {
+        private final String name;
+        private final String filename;
+        private final Node   values; // Can be null if it is only a merge of others.
+
+        LookupConfig(String name, String filename, Node values) {
+            this.name = name;
+            this.filename = filename;
+            this.values = values;
+        }
+    }
+
     @Override
     public Map<String, Map<String, String>> getLookups() {
         return lookups;
@@ -212,7 +254,39 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
         return lookupSets;
     }
 
-    protected UserAgentTreeFlattener flattener;
+    // Only while the matchers are initialized: all matchers share the structures derived from the lookups.
+    // These are requested from the threads that initialize the matchers in parallel while the analyzer
+    // itself is locked so once created they must be available without taking that lock.
+    private transient volatile LookupStructures lookupStructures = null;
+
+    @Override
+    public LookupStructures getLookupStructures() {
+        if (lookupStructures == null) {
+            synchronized (this) {
+                if (lookupStructures == null) {
+                    lookupStructures = new LookupStructures(lookups, lookupSets);
+                }
+            }
+        }
+        return lookupStructures;
+    }
+
+    // Only while the matchers are initialized: all actions with the same expression share the compiled form.
+    private transient volatile CompiledExpressions compiledExpressions = null;
+
+    @Override
+    public CompiledExpressions getCompiledExpressions() {
+        if (compiledExpressions == null) {
+            synchronized (this) {
+                if (compiledExpressions == null) {
+                    compiledExpressions = new CompiledExpressions();
+                }
+            }
+        }
+        return compiledExpressions;
+    }
+
+    protected volatile UserAgentTreeFlattener flattener;
 
     public static final int DEFAULT_USER_AGENT_MAX_LENGTH = 2048;
     private int userAgentMaxLength = DEFAULT_USER_AGENT_MAX_LENGTH;
@@ -223,9 +297,11 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
     /*
      * Initialize the transient default values
      */
-    void initTransientFields() {
+    synchronized void initTransientFields() {
         matcherConfigs = new HashMap<>(64);
-        touchedMatchers = new MatcherList(32);
+        lookupConfigs = new LinkedHashMap<>(128);
+        lookupSetConfigs = new LinkedHashMap<>(128);
+        parseContexts = new ConcurrentLinkedDeque<>();
     }
 
     private void readObject(java.io.ObjectInputStream stream)
@@ -278,6 +354,11 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
         kryo.register(ImmutableAgentField.class);
         kryo.register(MutableUserAgent.class);
         kryo.register(MutableAgentField.class);
+        kryo.register(MutableAgentField[].class);
+        kryo.register(ImmutableAgentField[].class);
+        kryo.register(FieldSchema.class);
+        kryo.register(int[].class);
+        kryo.register(boolean[].class);
 
         kryo.register(Matcher.class);
         kryo.register(MatcherAction.class);
@@ -300,6 +381,7 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
         kryo.register(MajorVersionCalculator.class);
 
         kryo.register(UserAgentTreeFlattener.class);
+        kryo.register(AnalyzerMetrics.class);
         kryo.register(TreeExpressionEvaluator.class);
         kryo.register(WalkList.class);
         kryo.register(StepContains.class);
@@ -328,6 +410,9 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
         kryo.register(StepSegmentRange.class);
         kryo.register(StepWordRange.class);
         kryo.register(StepDown.class);
+        kryo.register(StepFusedDown.class);
+        kryo.register(StepFusedFilters.class);
+        kryo.register(StepFilter[].class);
         kryo.register(StepNext.class);
         kryo.register(StepNextN.class);
         kryo.register(StepPrev.class);
@@ -335,6 +420,9 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
         kryo.register(StepUp.class);
 
         StringPrefixMap.configureKryo(kryo);
+        AhoCorasickAutomaton.configureKryo(kryo);
+        OffHeapLookup.configureKryo(kryo);
+        kryo.register(String[].class);
     }
 
     public static class KryoSerializer extends FieldSerializer<AbstractUserAgentAnalyzerDirect> {
@@ -392,6 +480,74 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
         return showMatcherStats;
     }
 
+    void setTwoStageParsing(boolean newTwoStageParsing) {
+        this.twoStageParsing = newTwoStageParsing;
+        if (flattener != null) {
+            flattener.setTwoStageParsing(newTwoStageParsing);
+        }
+    }
+
+    public boolean getTwoStageParsing() {
+        return twoStageParsing;
+    }
+
+    void setTableDrivenTokenizer(boolean newTableDrivenTokenizer) {
+        this.tableDrivenTokenizer = newTableDrivenTokenizer;
+        if (flattener != null) {
+            flattener.setTableDrivenTokenizer(newTableDrivenTokenizer);
+        }
+    }
+
+    public boolean getTableDrivenTokenizer() {
+        return tableDrivenTokenizer;
+    }
+
+    void setFusedSteps(boolean newFusedSteps) {
+        this.fusedSteps = newFusedSteps;
+    }
+
+    public boolean getFusedSteps() {
+        return fusedSteps;
+    }
+
+    void setParallelInitialization(boolean newParallelInitialization) {
+        this.parallelInitialization = newParallelInitialization;
+    }
+
+    public boolean getParallelInitialization() {
+        return parallelInitialization;
+    }
+
+    public static final int DEFAULT_VALUE_INTERNER_SIZE = 4096;
+
+    void setValueInternerSize(int newValueInternerSize) {
+        this.valueInternerSize = Math.max(0, newValueInternerSize);
+        valueInterner = null;
+    }
+
+    public int getValueInternerSize() {
+        return valueInternerSize;
+    }
+
+    private transient volatile ValueInterner valueInterner = null; //NOSONAR: The getter avoids the java:S3077 issues
+    /**
+     * @return The interner of the values of the results or null if the values are not interned.
+     * The effect of the interning is reported to the MetricsListener.
+     */
+    private ValueInterner getValueInterner() {
+        if (valueInternerSize == 0) {
+            return null;
+        }
+        if (valueInterner == null) {
+            synchronized (this) {
+                if (valueInterner == null) {
+                    valueInterner = new ValueInterner(valueInternerSize);
+                }
+            }
+        }
+        return valueInterner;
+    }
+
     public void dropTests() {
         loadTests = false;
         testCases.clear();
@@ -428,7 +584,9 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
         zeroInputMatchers.trimToSize();
 
         informMatcherActions.clear();
+        informDispatcher = null;
         matcherConfigs.clear();
+        parseContexts.clear();
 
         if (wantedFieldNames != null) {
             wantedFieldNames.clear();
@@ -439,6 +597,8 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
 
         lookups.clear();
         lookupSets.clear();
+        lookupConfigs.clear();
+        lookupSetConfigs.clear();
         flattener.clear();
     }
 
@@ -462,6 +622,7 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
         // Because we are loading additional resources these caches must be invalidated
         allPossibleFieldNamesCache = null;
         allPossibleFieldNamesSortedCache = null;
+        fieldSchema = null;
 
         long startFiles = System.nanoTime();
 
@@ -560,17 +721,27 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
                 " resources for the second time");
         }
 
-        for (Map.Entry<String, Resource> resourceEntry : resources.entrySet()) {
-            try {
-                Resource resource = resourceEntry.getValue();
-                String filename = resource.getFilename();
-                if (filename != null) {
-                    maxFilenameLength = Math.max(maxFilenameLength, filename.length());
-                    loadYaml(yaml, resource.getInputStream(), filename);
-                }
+        // Parsing the files is independent so this is done in parallel (if enabled),
+        // the content is then added in the same (sorted by filename) order as before.
+        List<Resource> resourceList = new ArrayList<>(resources.values());
+        List<Node> loadedYamls = mapInParallel(resourceList, resource -> {
+            String filename = resource.getFilename();
+            if (filename == null) {
+                return null;
+            }
+            try (InputStream yamlStream = resource.getInputStream()) {
+                return composeYaml(parallelInitialization ? createYaml() : yaml, yamlStream, filename);
             } catch (IOException e) {
                 throw new InvalidParserConfigurationException("Error reading resources: " + e.getMessage(), e);
             }
+        });
+
+        for (int i = 0; i < resourceList.size(); i++) {
+            String filename = resourceList.get(i).getFilename();
+            if (filename != null) {
+                maxFilenameLength = Math.max(maxFilenameLength, filename.length());
+                loadYaml(loadedYamls.get(i), filename);
+            }
         }
 
         long stopFiles = System.nanoTime();
@@ -598,6 +769,8 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
     protected synchronized void finalizeLoadingRules() {
         logVersion();
         flattener = new UserAgentTreeFlattener(this);
+        flattener.setTwoStageParsing(twoStageParsing);
+        flattener.setTableDrivenTokenizer(tableDrivenTokenizer);
 
         if (wantedFieldNames != null) {
             int wantedSize = wantedFieldNames.size();
@@ -613,6 +786,80 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
             throw new InvalidParserConfigurationException("No matchers were loaded at all.");
         }
 
+        allMatchers.clear();
+        int totalSkippedMatchers = 0;
+
+        // The matchers of the files are created in parallel (if enabled) and then added in the original order.
+        List<Map.Entry<String, List<MappingNode>>> matcherConfigEntries = new ArrayList<>(matcherConfigs.entrySet());
+        List<LoadedMatchers> allLoadedMatchers = mapInParallel(matcherConfigEntries, this::loadMatchers);
+
+        for (int i = 0; i < matcherConfigEntries.size(); i++) {
+            LoadedMatchers loadedMatchers = allLoadedMatchers.get(i);
+            if (loadedMatchers == null) {
+                continue; // No matchers in this file (probably only lookups and/or tests)
+            }
+            allMatchers.addAll(loadedMatchers.matchers);
+            totalSkippedMatchers += loadedMatchers.skippedMatchers;
+
+            if (showMatcherStats) {
+                try(Formatter msg = new Formatter(Locale.ENGLISH)) {
+                    String format = "Loading %4d (dropped %4d) matchers from " +
+                        "%-20s took %5d msec";
+                    msg.format(format,
+                        loadedMatchers.matchers.size(),
+                        loadedMatchers.skippedMatchers,
+                        matcherConfigEntries.get(i).getKey(),
+                        loadedMatchers.nanos / 1000000);
+                    LOG.info("{}", msg);
+                }
+            }
+        }
+
+        if (wantedFieldNames != null) {
+            LOG.info("For the requested fields {} of the {} matchers are used ({} extracts are only used as a require).",
+                allMatchers.size(),
+                allMatchers.size() + totalSkippedMatchers,
+                allMatchers.stream().mapToInt(Matcher::getUnwantedExtracts).sum());
+        }
+
+        finalizeLookups();
+
+        verifyWeAreNotAskingForImpossibleFields();
+        if (!delayInitialization) {
+            initializeMatchers();
+        }
+    }
+
+    /**
+     * Creates the lookups and sets that are needed by the matchers (all of them if all fields are wanted).
+     * They are created again from the configs every time because more rules can be loaded until the
+     * matchers are initialized.
+     */
+    private void finalizeLookups() {
+        lookups.clear();
+        lookupSets.clear();
+
+        Set<String> usedNames = null;
+        Set<String> neededNames = null;
+        if (wantedFieldNames != null) {
+            usedNames = new HashSet<>();
+            for (Matcher matcher : allMatchers) {
+                usedNames.addAll(matcher.getUsedLookupNames());
+            }
+            neededNames = getNeededLookupNames(usedNames);
+        }
+
+        for (LookupConfig lookupConfig : lookupConfigs.values()) {
+            if (neededNames == null || neededNames.contains(lookupConfig.name)) {
+                lookups.put(lookupConfig.name, createLookup(lookupConfig));
+            }
+        }
+        for (LookupConfig lookupSetConfig : lookupSetConfigs.values()) {
+            if (neededNames == null || neededNames.contains(lookupSetConfig.name)) {
+                lookupSets.put(lookupSetConfig.name, createLookupSet(lookupSetConfig));
+            }
+        }
+
         if (lookups != null && !lookups.isEmpty()) {
             if (!lookupMerge.isEmpty()) {
                 lookupMerge.forEach((mapName, allExtraToLoad) -> {
@@ -663,45 +910,87 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
             });
         }
 
-        allMatchers.clear();
-        for (Map.Entry<String, List<MappingNode>> matcherConfigEntry : matcherConfigs.entrySet()) {
-            int skippedMatchers = 0;
-            String configFilename = matcherConfigEntry.getKey();
-            List<MappingNode> matcherConfig = matcherConfigEntry.getValue();
-            if (matcherConfig == null) {
-                continue; // No matchers in this file (probably only lookups and/or tests)
+        if (usedNames != null) {
+            // Those that were only needed to create a merged one are not retained.
+            lookups.keySet().retainAll(usedNames);
+            lookupSets.keySet().retainAll(usedNames);
+            LOG.info("For the requested fields {} of the {} lookups and {} of the {} sets are loaded.",
+                lookups.size(), lookupConfigs.size(), lookupSets.size(), lookupSetConfigs.size());
+        }
+    }
+
+    // The names of the used lookups and sets including those that are merged into them.
+    private Set<String> getNeededLookupNames(Set<String> usedNames) {
+        Deque<String> namesToCheck = new ArrayDeque<>(usedNames);
+        Set<String> neededNames = new HashSet<>();
+        while (!namesToCheck.isEmpty()) {
+            String name = namesToCheck.pop();
+            if (neededNames.add(name)) {
+                namesToCheck.addAll(lookupMerge.getOrDefault(name, Collections.emptySet()));
+                namesToCheck.addAll(lookupSetMerge.getOrDefault(name, Collections.emptySet()));
             }
+        }
+        return neededNames;
+    }
 
-            long start = System.nanoTime();
-            int startSkipped = skippedMatchers;
-            for (MappingNode map : matcherConfig) {
-                try {
-                    allMatchers.add(new Matcher(this, wantedFieldNames, map, configFilename));
-                } catch (UselessMatcherException ume) {
-                    skippedMatchers++;
-                }
+    private static final class LoadedMatchers {
+        private final List<Matcher> matchers = new ArrayList<>();
+        private int                 skippedMatchers = 0;
+        private long                nanos;
+    }
+
+    private LoadedMatchers loadMatchers(Map.Entry<String, List<MappingNode>> matcherConfigEntry) {
+        String configFilename = matcherConfigEntry.getKey();
+        List<MappingNode> matcherConfig = matcherConfigEntry.getValue();
+        if (matcherConfig == null) {
+            return null;
+        }
+
+        LoadedMatchers loadedMatchers = new LoadedMatchers();
+        long start = System.nanoTime();
+        for (MappingNode map : matcherConfig) {
+            try {
+                loadedMatchers.matchers.add(new Matcher(this, wantedFieldNames, map, configFilename));
+            } catch (UselessMatcherException ume) {
+                loadedMatchers.skippedMatchers++;
             }
-            long stop = System.nanoTime();
-            int stopSkipped = skippedMatchers;
+        }
+        loadedMatchers.nanos = System.nanoTime() - start;
+        return loadedMatchers;
+    }
 
-            if (showMatcherStats) {
-                try(Formatter msg = new Formatter(Locale.ENGLISH)) {
-                    String format = "Loading %4d (dropped %4d) matchers from " +
-                        "%-20s took %5d msec";
-                    msg.format(format,
-                        matcherConfig.size() - (stopSkipped - startSkipped),
-                        stopSkipped - startSkipped,
-                        configFilename,
-                        (stop - start) / 1000000);
-                    LOG.info("{}", msg);
-                }
+    /**
+     * Applies the function to all inputs; if parallelInitialization is enabled this is done
+     * in the common fork-join pool.
+     * @param inputs The inputs.
+     * @param function The function that is applied to each input (must not change any shared state).
+     * @return The results in the same order as the inputs.
+     */
+    private <T, R> List<R> mapInParallel(List<T> inputs, Function<T, R> function) {
+        List<R> results = new ArrayList<>(inputs.size());
+        if (!parallelInitialization || inputs.size() <= 1) {
+            for (T input : inputs) {
+                results.add(function.apply(input));
             }
+            return results;
         }
 
-        verifyWeAreNotAskingForImpossibleFields();
-        if (!delayInitialization) {
-            initializeMatchers();
+        List<CompletableFuture<R>> futures = new ArrayList<>(inputs.size());
+        for (T input : inputs) {
+            futures.add(CompletableFuture.supplyAsync(() -> function.apply(input), ForkJoinPool.commonPool()));
+        }
+        // In case of problems the first one (in the order of the inputs) is reported.
+        for (CompletableFuture<R> future : futures) {
+            try {
+                results.add(future.join());
+            } catch (CompletionException ce) {
+                if (ce.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ce.getCause();
+                }
+                throw ce;
+            }
         }
+        return results;
     }
 
     protected void verifyWeAreNotAskingForImpossibleFields() {
@@ -725,26 +1014,77 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
         throw new InvalidParserConfigurationException("We cannot provide these fields:" + impossibleFields);
     }
 
-    private boolean matchersHaveBeenInitialized = false;
+    private volatile boolean matchersHaveBeenInitialized = false;
     public void initializeMatchers() {
         if (matchersHaveBeenInitialized) {
             return;
         }
+        synchronized (this) {
+            if (matchersHaveBeenInitialized) {
+                return;
+            }
+            doInitializeMatchers();
+            matchersHaveBeenInitialized = true;
+        }
+    }
+
+    private void doInitializeMatchers() {
         LOG.info("Initializing Analyzer data structures");
 
         if (allMatchers.isEmpty()) {
             throw new InvalidParserConfigurationException("No matchers were loaded at all.");
         }
 
+        // The lookups and sets that were not needed are never created.
+        lookupConfigs.clear();
+        lookupSetConfigs.clear();
+
+        // No more resources can be loaded (and merged) after this point so from here on the lookups and sets
+        // are read only and they are moved out of the heap (and shared within the JVM).
+        if (lookups != null) {
+            lookups.replaceAll((name, lookup) -> OffHeapLookup.of(lookup));
+        }
+        lookupSets.replaceAll((name, lookupSet) -> OffHeapLookup.setOf(lookupSet));
+        List<Object> offHeapLookups = new ArrayList<>(lookupSets.values());
+        if (lookups != null) {
+            offHeapLookups.addAll(lookups.values());
+        }
+        LOG.info("Lookups and sets use {} bytes outside of the heap.", OffHeapLookup.getOffHeapBytes(offHeapLookups));
+
         long start = System.nanoTime();
-        allMatchers.forEach(Matcher::initialize);
+        LookupStructures sharedLookupStructures = getLookupStructures();
+        CompiledExpressions sharedCompiledExpressions = getCompiledExpressions();
+        if (parallelInitialization) {
+            // All matchers are initialized in parallel; only then are the informs (which determine the
+            // order of the informMatcherActions and the ranges and prefixes) registered in the original order.
+            mapInParallel(allMatchers, matcher -> {
+                matcher.initializeDeferred();
+                return matcher;
+            });
+            allMatchers.forEach(Matcher::registerDeferred);
+        } else {
+            allMatchers.forEach(Matcher::initialize);
+        }
+        lookupStructures = null;
+        compiledExpressions = null;
         long stop = System.nanoTime();
 
-        matchersHaveBeenInitialized = true;
         LOG.info("Built in {} msec : Hashmap {}, Ranges map:{}",
             (stop - start) / 1000000,
             informMatcherActions.size(),
             informMatcherActionRanges.size());
+        LOG.info("Lookup structures: {} created for {} steps that use them.",
+            sharedLookupStructures.getNumberOfStructures(),
+            sharedLookupStructures.getNumberOfRequests());
+        LOG.info("Compiled expressions: {} distinct for {} actions.",
+            sharedCompiledExpressions.getNumberOfExpressions(),
+            sharedCompiledExpressions.getNumberOfRequests());
+        LOG.info("Removed {} walk steps that cannot change the outcome.",
+            allMatchers.stream().mapToLong(Matcher::getPrunedSteps).sum());
+        if (fusedSteps) {
+            LOG.info("Removed {} walk steps by fusing them with other steps.",
+                allMatchers.stream().mapToLong(Matcher::fuseSteps).sum());
+        }
 
         for (Matcher matcher: allMatchers) {
             if (matcher.getActionsThatRequireInput() == 0) {
@@ -752,12 +1092,48 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
             }
         }
 
-        // Reset all Matchers
-        for (Matcher matcher : allMatchers) {
-            matcher.reset();
+        // Give all matchers and actions a dense index to locate their state in a ParseContext.
+        numberOfActions = 0;
+        for (int matcherIndex = 0; matcherIndex < allMatchers.size(); matcherIndex++) {
+            numberOfActions = allMatchers.get(matcherIndex).assignIndexes(matcherIndex, numberOfActions);
+        }
+        // Any existing ParseContext no longer matches the indexes.
+        parseContexts.clear();
+
+        getInformDispatcher();
+    }
+
+    private int numberOfActions = 0;
+
+    // All per parse state lives in a ParseContext; a parse takes one from this pool and returns it afterwards.
+    // This is used as a stack so a single thread will always get the same (most recently used) instance back.
+    // A ThreadLocal is not used because that would keep the (large) ParseContexts alive as long as the threads.
+    private transient ConcurrentLinkedDeque<ParseContext> parseContexts = new ConcurrentLinkedDeque<>();
+
+    private ParseContext createParseContext() {
+        return new ParseContext(allMatchers.size(), numberOfActions, metricsListener);
+    }
+
+    /**
+     * Take a ParseContext out of the pool; it is only used by the caller until it is released.
+     * Within a single thread this is the ParseContext that was used by the most recent parse.
+     * @return A ParseContext that is not in use by any other parse.
+     */
+    public ParseContext acquireParseContext() {
+        initializeMatchers();
+        ParseContext parseContext = parseContexts.pollFirst();
+        if (parseContext == null) {
+            parseContext = createParseContext();
         }
+        return parseContext;
+    }
 
-        touchedMatchers = new MatcherList(32);
+    /**
+     * Return a ParseContext (obtained with acquireParseContext) to the pool.
+     * @param parseContext The ParseContext that is no longer used by the caller.
+     */
+    public void releaseParseContext(ParseContext parseContext) {
+        parseContexts.offerFirst(parseContext);
     }
 
     private transient volatile Set<String> allPossibleFieldNamesCache = null; //NOSONAR: The getter avoids the java:S3077 issues
@@ -797,6 +1173,27 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
         return allPossibleFieldNamesSortedCache;
     }
 
+    private transient volatile FieldSchema fieldSchema = null; //NOSONAR: The getter avoids the java:S3077 issues
+    /**
+     * @return The schema (field name to index) of all fields that can be produced by this analyzer.
+     */
+    @Override
+    public FieldSchema getFieldSchema() {
+        if (fieldSchema == null) {
+            synchronized (this) {
+                if (fieldSchema == null) {
+                    Set<String> fieldNames = new LinkedHashSet<>(getAllPossibleFieldNamesSorted());
+                    fieldNames.add(SET_ALL_FIELDS);
+                    if (wantedFieldNames != null) {
+                        fieldNames.addAll(wantedFieldNames);
+                    }
+                    fieldSchema = new FieldSchema(fieldNames);
+                }
+            }
+        }
+        return fieldSchema;
+    }
+
 /*
 Example of the structure of the yaml file:
 ----------------------------
@@ -828,17 +1225,19 @@ config:
 */
 
     void loadYaml(String yamlString, String filename) {
-        loadYaml(createYaml(), new ByteArrayInputStream(yamlString.getBytes(UTF_8)), filename);
+        loadYaml(composeYaml(createYaml(), new ByteArrayInputStream(yamlString.getBytes(UTF_8)), filename), filename);
     }
 
-    private synchronized void loadYaml(Yaml yaml, InputStream yamlStream, String filename) {
-        Node loadedYaml;
+    // Only parses the file (the analyzer is not changed) so different files can be parsed at the same time.
+    private Node composeYaml(Yaml yaml, InputStream yamlStream, String filename) {
         try {
-            loadedYaml = yaml.compose(new UnicodeReader(yamlStream));
+            return yaml.compose(new UnicodeReader(yamlStream));
         } catch (Exception e) {
             throw new InvalidParserConfigurationException("Parse error in the file " + filename + ": " + e.getMessage(), e);
         }
+    }
 
+    private synchronized void loadYaml(Node loadedYaml, String filename) {
         if (loadedYaml == null) {
             LOG.warn("The file {} is empty", filename);
             return;
@@ -898,7 +1297,7 @@ config:
 
     private void loadYamlLookup(MappingNode entry, String filename) {
         String name = null;
-        Map<String, String> map = new HashMap<>();
+        MappingNode map = null;
 
         Set<String> merge = new LinkedHashSet<>();
 
@@ -911,36 +1310,50 @@ config:
                     merge.addAll(getStringValues(getValueAsSequenceNode(tuple, filename), filename));
                     break;
                 case "map":
-                    List<NodeTuple> mappings = getValueAsMappingNode(tuple, filename).getValue();
-                    for (NodeTuple mapping : mappings) {
-                        String key = getKeyAsString(mapping, filename);
-                        String value = getValueAsString(mapping, filename);
-
-                        if (map.containsKey(key)) {
-                            throw new InvalidParserConfigurationException(
-                                "In the lookup \"" + name + "\" the key \"" + key + "\" appears multiple times.");
-                        }
-
-                        map.put(key, value);
-                    }
+                    map = getValueAsMappingNode(tuple, filename);
                     break;
                 default:
                     break;
             }
         }
 
-        require(name != null && (!map.isEmpty() || !merge.isEmpty()), entry, filename, "Invalid lookup specified");
+        require(name != null && ((map != null && !map.getValue().isEmpty()) || !merge.isEmpty()),
+            entry, filename, "Invalid lookup specified");
+
+        if (map != null) {
+            // The lookup itself is only created if it is needed but the rules are always checked.
+            Set<String> keys = new HashSet<>();
+            for (NodeTuple mapping : map.getValue()) {
+                String key = getKeyAsString(mapping, filename);
+                getValueAsString(mapping, filename);
+                if (!keys.add(key)) {
+                    throw new InvalidParserConfigurationException(
+                        "In the lookup \"" + name + "\" the key \"" + key + "\" appears multiple times.");
+                }
+            }
+        }
 
         if (!merge.isEmpty()) {
             lookupMerge.put(name, merge);
         }
 
-        lookups.put(name, map);
+        lookupConfigs.put(name, new LookupConfig(name, filename, map));
+    }
+
+    private Map<String, String> createLookup(LookupConfig lookupConfig) {
+        Map<String, String> map = new HashMap<>();
+        if (lookupConfig.values == null) {
+            return map;
+        }
+        for (NodeTuple mapping : ((MappingNode) lookupConfig.values).getValue()) {
+            map.put(getKeyAsString(mapping, lookupConfig.filename), getValueAsString(mapping, lookupConfig.filename));
+        }
+        return map;
     }
 
     private void loadYamlLookupSets(MappingNode entry, String filename) {
         String name = null;
-        Set<String> lookupSet = new LinkedHashSet<>();
+        SequenceNode values = null;
 
         Set<String> merge = new LinkedHashSet<>();
 
@@ -953,23 +1366,33 @@ config:
                     merge.addAll(getStringValues(getValueAsSequenceNode(tuple, filename), filename));
                     break;
                 case "values":
-                    SequenceNode node = getValueAsSequenceNode(tuple, filename);
-                    for (String value: getStringValues(node, filename)) {
-                        lookupSet.add(value.toLowerCase(Locale.ROOT));
-                    }
+                    values = getValueAsSequenceNode(tuple, filename);
+                    getStringValues(values, filename); // The set itself is only created if it is needed.
                     break;
                 default:
                     break;
             }
         }
 
-        require(name != null && (!lookupSet.isEmpty() || !merge.isEmpty()), entry, filename, "Invalid lookup specified");
+        require(name != null && ((values != null && !values.getValue().isEmpty()) || !merge.isEmpty()),
+            entry, filename, "Invalid lookup specified");
 
         if (!merge.isEmpty()) {
             lookupSetMerge.put(name, merge);
         }
 
-        lookupSets.put(name, lookupSet);
+        lookupSetConfigs.put(name, new LookupConfig(name, filename, values));
+    }
+
+    private Set<String> createLookupSet(LookupConfig lookupSetConfig) {
+        Set<String> lookupSet = new LinkedHashSet<>();
+        if (lookupSetConfig.values == null) {
+            return lookupSet;
+        }
+        for (String value: getStringValues(lookupSetConfig.values, lookupSetConfig.filename)) {
+            lookupSet.add(value.toLowerCase(Locale.ROOT));
+        }
+        return lookupSet;
     }
 
     private void loadYamlMatcher(MappingNode entry, String filename) {
@@ -1053,6 +1476,7 @@ config:
     public void lookingForRange(String treeName, Range range) {
         Set<Range> ranges = informMatcherActionRanges.computeIfAbsent(treeName, k -> new LinkedHashSet<>(4));
         ranges.add(range);
+        informDispatcher = null;
     }
 
     // We do not want to put ALL lengths in the hashmap for performance reasons
@@ -1075,6 +1499,7 @@ config:
         this.informMeAbout(matcherAction, treeName + "{\"" + firstCharactersForPrefixHash(prefix, MAX_PREFIX_HASH_MATCH) + "\"");
         Set<Integer> lengths = informMatcherActionPrefixesLengths.computeIfAbsent(treeName, k -> new LinkedHashSet<>(4));
         lengths.add(firstCharactersForPrefixHashLength(prefix, MAX_PREFIX_HASH_MATCH));
+        informDispatcher = null;
     }
 
     @Override
@@ -1087,6 +1512,31 @@ config:
         Set<MatcherAction> analyzerSet = informMatcherActions
             .computeIfAbsent(hashKey, k -> new LinkedHashSet<>());
         analyzerSet.add(matcherAction);
+        informDispatcher = null;
+    }
+
+    private InformDispatcher getInformDispatcher() {
+        InformDispatcher dispatcher = informDispatcher;
+        if (dispatcher == null) {
+            dispatcher = buildInformDispatcher();
+        }
+        return dispatcher;
+    }
+
+    private synchronized InformDispatcher buildInformDispatcher() {
+        if (informDispatcher == null) {
+            informDispatcher = new InformDispatcher(informMatcherActions, informMatcherActionPrefixesLengths, informMatcherActionRanges);
+        }
+        return informDispatcher;
+    }
+
+    @Override
+    public InformDispatcher getPathIndex() {
+        if (verbose) {
+            return null; // The logging shows all paths, also the ones that are not needed.
+        }
+        InformDispatcher dispatcher = getInformDispatcher();
+        return dispatcher.allPathsHaveAnId() ? dispatcher : null;
     }
 
     private boolean verbose = false;
@@ -1108,6 +1558,32 @@ config:
         return this.userAgentMaxLength;
     }
 
+    private MetricsListener metricsListener = null;
+
+    /**
+     * Report the cache statistics and the time spent in the various phases of each parse.
+     * @param newMetricsListener Where to report the measurements (null = disable measuring).
+     */
+    public void setMetricsListener(MetricsListener newMetricsListener) {
+        metricsListener = newMetricsListener;
+        // The existing ParseContexts still have the old listener.
+        parseContexts.clear();
+    }
+
+    public MetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
+    /**
+     * @return The collected metrics or null if the metrics were not enabled with withMetrics().
+     */
+    public AnalyzerMetrics getMetrics() {
+        if (metricsListener instanceof AnalyzerMetrics) {
+            return (AnalyzerMetrics) metricsListener;
+        }
+        return null;
+    }
+
     private void setAsHacker(MutableUserAgent userAgent, int confidence) {
         userAgent.set(DEVICE_CLASS,                 "Hacker",  confidence);
         userAgent.set(DEVICE_BRAND,                 "Hacker",  confidence);
@@ -1128,28 +1604,25 @@ config:
         userAgent.set(HACKER_ATTACK_VECTOR,         "Unknown", confidence);
     }
 
-    private transient MatcherList touchedMatchers = null;
-
-    @Override
-    public void receivedInput(Matcher matcher) {
-        if (zeroInputMatchers.contains(matcher)) {
-            return;
-        }
-        touchedMatchers.add(matcher);
-    }
-
     /**
-     * Resets the state of the Analyzer to the default state.
+     * Resets all parse states that are not in use by a parse at this moment to the default state.
+     * Every parse starts with resetting its own parse state so this is only needed to release the
+     * references to the most recently parsed useragents.
      */
     public void reset() {
-        // Reset all Matchers
-        for (Matcher matcher : touchedMatchers) {
-            matcher.reset();
+        if (!matchersHaveBeenInitialized) {
+            return; // There is no parse state yet.
         }
-        touchedMatchers.clear();
-
-        for (Matcher matcher : zeroInputMatchers) {
-            matcher.reset();
+        // Only the ParseContexts that were taken out of the pool here can safely be reset.
+        List<ParseContext> idleParseContexts = new ArrayList<>();
+        ParseContext parseContext;
+        while ((parseContext = parseContexts.pollFirst()) != null) {
+            parseContext.reset();
+            idleParseContexts.add(parseContext);
+        }
+        // Put them back in the same order.
+        for (int i = idleParseContexts.size() - 1; i >= 0; i--) {
+            parseContexts.offerFirst(idleParseContexts.get(i));
         }
     }
 
@@ -1159,45 +1632,70 @@ config:
      * @return An ImmutableUserAgent record that holds all of the results.
      */
     public ImmutableUserAgent parse(String userAgentString) {
-        MutableUserAgent userAgent = new MutableUserAgent(userAgentString, wantedFieldNames);
+        initializeMatchers();
+        MutableUserAgent userAgent = new MutableUserAgent(getFieldSchema(), userAgentString, wantedFieldNames);
         return parse(userAgent);
     }
 
     /**
      * Parses and analyzes the useragent string provided in the MutableUserAgent instance.
-     * NOTE: This method is synchronized because the way the analyzer works is not reentrant.
+     * NOTE: This method is thread safe: all state of a single parse is kept in a ParseContext that is only used
+     * by the calling thread until the parse is complete.
      * @param userAgent The MutableUserAgent instance that is to be parsed and that gets all results
      * @return An ImmutableUserAgent copy of the results that is suitable for further usage and caching.
      */
-    public synchronized ImmutableUserAgent parse(MutableUserAgent userAgent) {
+    public ImmutableUserAgent parse(MutableUserAgent userAgent) {
         initializeMatchers();
+        ParseContext parseContext = acquireParseContext();
+        try {
+            return parse(userAgent, parseContext);
+        } finally {
+            releaseParseContext(parseContext);
+        }
+    }
+
+    /**
+     * Parses and analyzes the useragent string provided in the MutableUserAgent instance using a ParseContext
+     * that was obtained from acquireParseContext. After this the ParseContext still holds the details
+     * of this parse (intended for testing and debugging) until it is used for the next parse.
+     * @param userAgent The MutableUserAgent instance that is to be parsed and that gets all results
+     * @param parseContext The ParseContext that is exclusively used by the caller.
+     * @return An ImmutableUserAgent copy of the results that is suitable for further usage and caching.
+     */
+    public ImmutableUserAgent parse(MutableUserAgent userAgent, ParseContext parseContext) {
         String useragentString = userAgent.getUserAgentString();
         if (useragentString != null && useragentString.length() > userAgentMaxLength) {
             setAsHacker(userAgent, 100);
             userAgent.setForced(HACKER_ATTACK_VECTOR, "Buffer overflow", 100);
-            return new ImmutableUserAgent(hardCodedPostProcessing(userAgent));
+            return new ImmutableUserAgent(hardCodedPostProcessing(userAgent), getValueInterner(), parseContext.getMetricsListener());
         }
 
         // Reset all Matchers
-        reset();
+        MetricsListener metrics = parseContext.getMetricsListener();
+        long start = metrics == null ? 0 : System.nanoTime();
+        parseContext.reset();
+        // Debugging a single parse only affects this parse (the matchers are shared with other threads).
+        parseContext.setVerbose(userAgent.isDebug());
 
-        if (userAgent.isDebug()) {
-            for (Matcher matcher : allMatchers) {
-                matcher.setVerboseTemporarily(true);
-            }
-        }
+        return parse(userAgent, parseContext, metrics, start);
+    }
+
+    private ImmutableUserAgent parse(MutableUserAgent userAgent, ParseContext parseContext, MetricsListener metrics, long start) {
+        String useragentString = userAgent.getUserAgentString();
 
         try {
-            userAgent = flattener.parse(userAgent);
+            userAgent = flattener.parse(userAgent, parseContext);
 
-            inform(SYNTAX_ERROR, userAgent.getValue(SYNTAX_ERROR), null);
+            inform(SYNTAX_ERROR, userAgent.getValue(SYNTAX_ERROR), null, parseContext);
 
+            long matchStart = metrics == null ? 0 : System.nanoTime();
+            int numberOfTouchedMatchers = parseContext.getNumberOfTouchedMatchers();
             if (verbose) {
-                LOG.info("=========== Checking all Touched Matchers: {}", touchedMatchers.size());
+                LOG.info("=========== Checking all Touched Matchers: {}", numberOfTouchedMatchers);
             }
             // Fire all Analyzers with any input
-            for (Matcher matcher : touchedMatchers) {
-                matcher.analyze(userAgent);
+            for (int i = 0; i < numberOfTouchedMatchers; i++) {
+                allMatchers.get(parseContext.getTouchedMatcherIndex(i)).analyze(userAgent, parseContext);
             }
 
             if (verbose) {
@@ -1205,10 +1703,14 @@ config:
             }
             // Fire all Analyzers that should not get input
             for (Matcher matcher : zeroInputMatchers) {
-                matcher.analyze(userAgent);
+                matcher.analyze(userAgent, parseContext);
             }
 
             userAgent.processSetAll();
+
+            if (metrics != null) {
+                metrics.phase(ParsePhase.MATCH, System.nanoTime() - matchStart, useragentString);
+            }
         } catch (RuntimeException rte) {
             // If this occurs then someone has found a previously undetected problem.
             // So this is a safety for something that 'can' but 'should not' occur.
@@ -1216,7 +1718,165 @@ config:
             setAsHacker(userAgent, 10000);
             userAgent.setForced(HACKER_ATTACK_VECTOR, "Yauaa Exploit", 10000);
         }
-        return new ImmutableUserAgent(hardCodedPostProcessing(userAgent));
+
+        if (metrics == null) {
+            return new ImmutableUserAgent(hardCodedPostProcessing(userAgent), getValueInterner());
+        }
+
+        long calculateStart = System.nanoTime();
+        hardCodedPostProcessing(userAgent);
+        long calculateEnd = System.nanoTime();
+        metrics.phase(ParsePhase.CALCULATE, calculateEnd - calculateStart, useragentString);
+        metrics.phase(ParsePhase.TOTAL,     calculateEnd - start,          useragentString);
+        return new ImmutableUserAgent(userAgent, getValueInterner(), metrics);
+    }
+
+    // ------------------------------------------
+    // Batch parsing
+
+    // The number of useragents that are parsed as a single task when a batch is parsed in parallel.
+    private static final int BATCH_CHUNK_SIZE = 64;
+
+    /**
+     * Used by the batch parsing to check if a result is already known (i.e. a cache).
+     * @param userAgentString The useragent that is to be analyzed.
+     * @return The result if known, null otherwise.
+     */
+    protected ImmutableUserAgent getCachedResult(String userAgentString) {
+        return null; // There is no cache here.
+    }
+
+    /**
+     * Used by the batch parsing to retain a new result (i.e. in a cache).
+     * @param userAgentString The useragent that was analyzed.
+     * @param result The result of the analysis.
+     */
+    protected void storeCachedResult(String userAgentString, ImmutableUserAgent result) {
+        // There is no cache here.
+    }
+
+    /**
+     * Parses and analyzes all provided useragents in the calling thread.
+     * Identical useragents in the batch are only analyzed (or looked up in the cache) once.
+     * @param userAgentStrings The useragents that are to be analyzed.
+     * @return The results in the same order as the provided useragents.
+     */
+    public List<ImmutableUserAgent> parseAll(List<String> userAgentStrings) {
+        return parseAll(userAgentStrings, null);
+    }
+
+    /**
+     * Parses and analyzes all provided useragents.
+     * Identical useragents in the batch are only analyzed (or looked up in the cache) once.
+     * @param userAgentStrings The useragents that are to be analyzed.
+     * @param executor Used to analyze the useragents that are not cached in parallel (null = use the calling thread).
+     * @return The results in the same order as the provided useragents.
+     */
+    public List<ImmutableUserAgent> parseAll(List<String> userAgentStrings, Executor executor) {
+        Map<String, ImmutableUserAgent> distinctResults = parseDistinct(userAgentStrings, executor);
+        List<ImmutableUserAgent> results = new ArrayList<>(userAgentStrings.size());
+        for (String userAgentString : userAgentStrings) {
+            results.add(distinctResults.get(userAgentString));
+        }
+        return results;
+    }
+
+    /**
+     * Parses and analyzes all provided useragents in the calling thread and passes the results to the consumer.
+     * Identical useragents in the batch are only analyzed (or looked up in the cache) once.
+     * @param userAgentStrings The useragents that are to be analyzed.
+     * @param consumer Receives the results in the same order as the provided useragents.
+     */
+    public void parse(Iterable<String> userAgentStrings, Consumer<? super ImmutableUserAgent> consumer) {
+        parse(userAgentStrings, consumer, null);
+    }
+
+    /**
+     * Parses and analyzes all provided useragents and passes the results to the consumer.
+     * Identical useragents in the batch are only analyzed (or looked up in the cache) once.
+     * The consumer is only called from the calling thread.
+     * @param userAgentStrings The useragents that are to be analyzed.
+     * @param consumer Receives the results in the same order as the provided useragents.
+     * @param executor Used to analyze the useragents that are not cached in parallel (null = use the calling thread).
+     */
+    public void parse(Iterable<String> userAgentStrings, Consumer<? super ImmutableUserAgent> consumer, Executor executor) {
+        List<String> userAgentStringList = new ArrayList<>();
+        userAgentStrings.forEach(userAgentStringList::add);
+        parseAll(userAgentStringList, executor).forEach(consumer);
+    }
+
+    private Map<String, ImmutableUserAgent> parseDistinct(List<String> userAgentStrings, Executor executor) {
+        initializeMatchers();
+
+        // A HashMap because a useragent can be null.
+        Map<String, ImmutableUserAgent> results = new HashMap<>(userAgentStrings.size() * 2);
+        List<String> toBeParsed = new ArrayList<>();
+        for (String userAgentString : userAgentStrings) {
+            if (results.containsKey(userAgentString)) {
+                continue;
+            }
+            ImmutableUserAgent cachedResult = getCachedResult(userAgentString);
+            results.put(userAgentString, cachedResult);
+            if (cachedResult == null) {
+                toBeParsed.add(userAgentString);
+            }
+        }
+
+        if (executor == null || toBeParsed.size() <= BATCH_CHUNK_SIZE) {
+            storeResults(toBeParsed, parseChunk(toBeParsed), results);
+            return results;
+        }
+
+        List<List<String>> chunks = new ArrayList<>();
+        List<CompletableFuture<ImmutableUserAgent[]>> futures = new ArrayList<>();
+        for (int start = 0; start < toBeParsed.size(); start += BATCH_CHUNK_SIZE) {
+            List<String> chunk = toBeParsed.subList(start, Math.min(start + BATCH_CHUNK_SIZE, toBeParsed.size()));
+            chunks.add(chunk);
+            futures.add(CompletableFuture.supplyAsync(() -> parseChunk(chunk), executor));
+        }
+
+        for (int i = 0; i < chunks.size(); i++) {
+            ImmutableUserAgent[] chunkResults;
+            try {
+                chunkResults = futures.get(i).join();
+            } catch (CompletionException ce) {
+                if (ce.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ce.getCause();
+                }
+                throw ce;
+            }
+            storeResults(chunks.get(i), chunkResults, results);
+        }
+        return results;
+    }
+
+    private void storeResults(List<String> userAgentStrings,
+                              ImmutableUserAgent[] parsedResults,
+                              Map<String, ImmutableUserAgent> results) {
+        for (int i = 0; i < parsedResults.length; i++) {
+            String userAgentString = userAgentStrings.get(i);
+            results.put(userAgentString, parsedResults[i]);
+            storeCachedResult(userAgentString, parsedResults[i]);
+        }
+    }
+
+    // Parse a series of useragents using a single ParseContext and MutableUserAgent.
+    private ImmutableUserAgent[] parseChunk(List<String> userAgentStrings) {
+        ImmutableUserAgent[] results = new ImmutableUserAgent[userAgentStrings.size()];
+        if (results.length == 0) {
+            return results;
+        }
+        MutableUserAgent userAgent = new MutableUserAgent(getFieldSchema(), wantedFieldNames);
+        ParseContext parseContext = acquireParseContext();
+        try {
+            for (int i = 0; i < results.length; i++) {
+                userAgent.setUserAgentString(userAgentStrings.get(i));
+                results[i] = parse(userAgent, parseContext);
+            }
+        } finally {
+            releaseParseContext(parseContext);
+        }
+        return results;
     }
 
     private static final List<String> HARD_CODED_GENERATED_FIELDS = new ArrayList<>();
@@ -1272,25 +1932,53 @@ config:
     }
 
     public Set<Range> getRequiredInformRanges(String treeName) {
-        return informMatcherActionRanges.computeIfAbsent(treeName, k -> Collections.emptySet());
+        // Called concurrently while parsing so this must not modify the map.
+        return informMatcherActionRanges.getOrDefault(treeName, Collections.emptySet());
     }
 
+    /**
+     * The analyzer keeps no state of a parse so it can only be informed about a value as part of a parse.
+     * @throws UnsupportedOperationException Always: use inform(key, value, ctx, parseContext) instead.
+     */
+    @Override
     public void inform(String key, String value, ParseTree ctx) {
-        inform(key, key, value, ctx);
-        inform(key + "=\"" + value + '"', key, value, ctx);
+        throw new UnsupportedOperationException(
+            "The analyzer can only be informed during a parse: use inform(key, value, ctx, parseContext).");
+    }
+
+    @Override
+    public void inform(String key, CharSequence value, ParseTree ctx, ParseContext parseContext) {
+        if (!verbose && value != null) {
+            // The normal case: the value is only turned into a String if a matcher actually needs it.
+            getInformDispatcher().inform(key, value, ctx, parseContext);
+            return;
+        }
+        inform(key, value == null ? null : value.toString(), ctx, parseContext);
+    }
+
+    @Override
+    public void inform(String key, String value, ParseTree ctx, ParseContext parseContext) {
+        if (!verbose && value != null) {
+            // The normal case: find the actions without building the hash keys.
+            getInformDispatcher().inform(key, value, ctx, parseContext);
+            return;
+        }
+
+        inform(key, key, value, ctx, parseContext);
+        inform(key + "=\"" + value + '"', key, value, ctx, parseContext);
 
         Set<Integer> lengths = getRequiredPrefixLengths(key);
         if (lengths != null) {
             int valueLength = value.length();
             for (Integer prefixLength : lengths) {
                 if (valueLength >= prefixLength) {
-                    inform(key + "{\"" + firstCharactersForPrefixHash(value, prefixLength) + '"', key, value, ctx);
+                    inform(key + "{\"" + firstCharactersForPrefixHash(value, prefixLength) + '"', key, value, ctx, parseContext);
                 }
             }
         }
     }
 
-    private void inform(String match, String key, String value, ParseTree ctx) {
+    private void inform(String match, String key, String value, ParseTree ctx, ParseContext parseContext) {
         Set<MatcherAction> relevantActions = informMatcherActions.get(match.toLowerCase(Locale.ROOT));
         if (verbose) {
             if (relevantActions == null) {
@@ -1308,7 +1996,7 @@ config:
 
         if (relevantActions != null) {
             for (MatcherAction matcherAction : relevantActions) {
-                matcherAction.inform(key, value, ctx);
+                matcherAction.inform(key, value, ctx, parseContext);
             }
         }
     }
@@ -1610,6 +2298,121 @@ config:
             return (B)this;
         }
 
+        /**
+         * Parse each useragent with the fast SLL prediction mode first and only fall back to the full LL mode
+         * if that fails. This gives the same results but is faster for most useragents.
+         * NOTE: Ambiguities in the grammar are only reported for the useragents that needed the full LL mode.
+         * @return the current Builder instance.
+         */
+        public B withTwoStageParsing() {
+            failIfAlreadyBuilt();
+            uaa.setTwoStageParsing(true);
+            return (B)this;
+        }
+
+        /**
+         * Parse each useragent only with the full LL prediction mode (the default).
+         * @return the current Builder instance.
+         */
+        public B withoutTwoStageParsing() {
+            failIfAlreadyBuilt();
+            uaa.setTwoStageParsing(false);
+            return (B)this;
+        }
+
+        /**
+         * Split the useragent into tokens with a hand written table driven tokenizer that produces the same tokens
+         * as the generated lexer but only uses the generated lexer for the complex tokens (like urls and emails).
+         * @return the current Builder instance.
+         */
+        public B withTableDrivenTokenizer() {
+            failIfAlreadyBuilt();
+            uaa.setTableDrivenTokenizer(true);
+            return (B)this;
+        }
+
+        /**
+         * Split the useragent into tokens only with the generated lexer (the default).
+         * @return the current Builder instance.
+         */
+        public B withoutTableDrivenTokenizer() {
+            failIfAlreadyBuilt();
+            uaa.setTableDrivenTokenizer(false);
+            return (B)this;
+        }
+
+        /**
+         * Replace the common sequences of walk steps (like a Down followed by an Equals) with a single step
+         * that does the same with less overhead.
+         * @return the current Builder instance.
+         */
+        public B withFusedSteps() {
+            failIfAlreadyBuilt();
+            uaa.setFusedSteps(true);
+            return (B)this;
+        }
+
+        /**
+         * Walk all the steps of the matchers one by one (the default).
+         * @return the current Builder instance.
+         */
+        public B withoutFusedSteps() {
+            failIfAlreadyBuilt();
+            uaa.setFusedSteps(false);
+            return (B)this;
+        }
+
+        /**
+         * Parse the rule files, create the matchers and initialize the matchers in parallel (using the common fork-join pool).
+         * The resulting analyzer is exactly the same as without this; only the startup is faster on a multi core system.
+         * @return the current Builder instance.
+         */
+        public B withParallelInitialization() {
+            failIfAlreadyBuilt();
+            uaa.setParallelInitialization(true);
+            return (B)this;
+        }
+
+        /**
+         * Parse the rule files, create the matchers and initialize the matchers in the calling thread (the default).
+         * @return the current Builder instance.
+         */
+        public B withoutParallelInitialization() {
+            failIfAlreadyBuilt();
+            uaa.setParallelInitialization(false);
+            return (B)this;
+        }
+
+        /**
+         * Let identical values in different results (like "Desktop" or "Chrome 91") share a single instance.
+         * This reduces the memory used by the cache and by the results that are retained by the application.
+         * The number of retained values is DEFAULT_VALUE_INTERNER_SIZE.
+         * @return the current Builder instance.
+         */
+        public B withValueInterning() {
+            return withValueInterning(DEFAULT_VALUE_INTERNER_SIZE);
+        }
+
+        /**
+         * Let identical values in different results (like "Desktop" or "Chrome 91") share a single instance.
+         * This reduces the memory used by the cache and by the results that are retained by the application.
+         * @param size The number of values that are retained for this (0 = do not intern the values).
+         * @return the current Builder instance.
+         */
+        public B withValueInterning(int size) {
+            failIfAlreadyBuilt();
+            uaa.setValueInternerSize(size);
+            return (B)this;
+        }
+
+        /**
+         * Every result has its own instances of the values (the default).
+         * @return the current Builder instance.
+         */
+        public B withoutValueInterning() {
+            return withValueInterning(0);
+        }
+
         /**
          * Set maximum length of a useragent for it to be classified as Hacker without any analysis.
          * @param newUserAgentMaxLength The new maximum length of a useragent for it to be classified as Hacker without any analysis.
@@ -1621,6 +2424,29 @@ config:
             return (B)this;
         }
 
+        /**
+         * Collect the cache statistics and the time spent in the various phases of each parse.
+         * The results are available via getMetrics() on the analyzer.
+         * @return the current Builder instance.
+         */
+        public B withMetrics() {
+            failIfAlreadyBuilt();
+            uaa.setMetricsListener(new AnalyzerMetrics());
+            return (B)this;
+        }
+
+        /**
+         * Report the cache statistics and the time spent in the various phases of each parse
+         * to a custom MetricsListener (i.e. to export them to a monitoring system).
+         * @param newMetricsListener The MetricsListener that receives all measurements.
+         * @return the current Builder instance.
+         */
+        public B withMetricsListener(MetricsListener newMetricsListener) {
+            failIfAlreadyBuilt();
+            uaa.setMetricsListener(newMetricsListener);
+            return (B)this;
+        }
+
         /**
          * Retain all testcases in memory after initialization.
          * @return the current Builder instance.
@@ -1741,6 +2567,10 @@ config:
 
             Collections.reverse(fieldCalculators);
             uaa.setFieldCalculators(fieldCalculators);
+            if (uaa.wantedFieldNames != null) {
+                LOG.info("For the requested fields {} of the {} calculators are used.",
+                    fieldCalculators.size(), allFieldsForWhichACalculatorExists.size());
+            }
 
             boolean showLoading = uaa.getShowMatcherStats();
             optionalResources.forEach(resource -> uaa.loadResources(resource, showLoading, true));
@@ -1772,6 +2602,11 @@ config:
             "\n, informMatcherActions=" + informMatcherActions +
             "\n, showMatcherStats=" + showMatcherStats +
             "\n, doingOnlyASingleTest=" + doingOnlyASingleTest +
+            "\n, twoStageParsing=" + twoStageParsing +
+            "\n, tableDrivenTokenizer=" + tableDrivenTokenizer +
+            "\n, fusedSteps=" + fusedSteps +
+            "\n, valueInternerSize=" + valueInternerSize +
+            "\n, parallelInitialization=" + parallelInitialization +
             "\n, wantedFieldNames=" + wantedFieldNames +
             "\n, testCases=" + testCases +
             "\n, lookups=" + lookups +
@@ -0,0 +1,168 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent;
+
+import nl.basjes.parse.useragent.UserAgent.MutableUserAgent;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static nl.basjes.parse.useragent.UserAgent.PRE_SORTED_FIELDS_LIST;
+import static nl.basjes.parse.useragent.UserAgent.SET_ALL_FIELDS;
+import static nl.basjes.parse.useragent.UserAgent.STANDARD_FIELDS;
+
+/**
+ * The set of field names a UserAgent can have, each with a fixed dense index.
+ * The analyzer creates one when it is initialized so all results it produces are simple arrays
+ * that share this schema. An instance is immutable; a result that gets a field that is not part of
+ * the schema keeps that field itself (see {@link MutableUserAgent}).
+ */
+public final class FieldSchema implements Serializable {
+
+    // First the manually sorted fields, then all others alphabetically.
+    private static final Comparator<String> FIELD_NAME_ORDER = Comparator
+        .comparingInt((String fieldName) -> {
+            int position = PRE_SORTED_FIELDS_LIST.indexOf(fieldName);
+            return position == -1 ? Integer.MAX_VALUE : position;
+        })
+        .thenComparing(fieldName -> fieldName);
+
+    /**
+     * A schema with only the standard fields (used if nothing about the fields is known in advance).
+     */
+    public static final FieldSchema DEFAULT = new FieldSchema(Collections.emptyList());
+
+    private final String[]             fieldNames;
+    private final String[]             defaultValues;
+    private final Map<String, Integer> fieldIndexes;
+    private final boolean[]            standardFields;
+    private final boolean[]            systemFields;
+    private final int                  setAllFieldsIndex;
+    // All indexes in the order in which the field names must be presented.
+    private final int[]                sortedIndexes;
+
+    @SuppressWarnings("unused") // Private constructor for serialization systems ONLY (like Kryo)
+    private FieldSchema() {
+        fieldNames        = null;
+        defaultValues     = null;
+        fieldIndexes      = null;
+        standardFields    = null;
+        systemFields      = null;
+        setAllFieldsIndex = -1;
+        sortedIndexes     = null;
+    }
+
+    /**
+     * @param names The names of the fields (in addition to the standard fields which are always present).
+     */
+    public FieldSchema(Collection<String> names) {
+        Set<String> allNames = new LinkedHashSet<>(STANDARD_FIELDS);
+        allNames.addAll(names);
+
+        int size       = allNames.size();
+        fieldNames     = allNames.toArray(new String[0]);
+        defaultValues  = new String[size];
+        fieldIndexes   = new HashMap<>(size * 2);
+        standardFields = new boolean[size];
+        systemFields   = new boolean[size];
+        for (int index = 0; index < size; index++) {
+            String fieldName      = fieldNames[index];
+            defaultValues[index]  = MutableUserAgent.getDefaultValueForField(fieldName);
+            standardFields[index] = STANDARD_FIELDS.contains(fieldName);
+            systemFields[index]   = MutableUserAgent.isSystemField(fieldName);
+            fieldIndexes.put(fieldName, index);
+        }
+        setAllFieldsIndex = indexOf(SET_ALL_FIELDS);
+
+        List<Integer> indexes = new ArrayList<>(size);
+        for (int index = 0; index < size; index++) {
+            indexes.add(index);
+        }
+        indexes.sort((left, right) -> compareFieldNames(fieldNames[left], fieldNames[right]));
+        sortedIndexes = indexes.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int compareFieldNames(String left, String right) {
+        return FIELD_NAME_ORDER.compare(left, right);
+    }
+
+    /**
+     * @return The number of fields in this schema.
+     */
+    public int size() {
+        return fieldNames.length;
+    }
+
+    /**
+     * @param fieldName The name of the field.
+     * @return The index of the field or -1 if it is not part of this schema.
+     */
+    public int indexOf(String fieldName) {
+        Integer index = fieldIndexes.get(fieldName);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @param index The index of a field.
+     * @return The name of the field with this index.
+     */
+    public String getFieldName(int index) {
+        return fieldNames[index];
+    }
+
+    /**
+     * @return All field names in the order of their index.
+     */
+    public List<String> getFieldNames() {
+        return Collections.unmodifiableList(Arrays.asList(fieldNames));
+    }
+
+    String getDefaultValue(int index) {
+        return defaultValues[index];
+    }
+
+    boolean isStandardField(int index) {
+        return standardFields[index];
+    }
+
+    boolean isSystemField(int index) {
+        return systemFields[index];
+    }
+
+    boolean isSetAllFields(int index) {
+        return index == setAllFieldsIndex;
+    }
+
+    int[] getSortedIndexes() {
+        return sortedIndexes;
+    }
+
+    @Override
+    public String toString() {
+        return "FieldSchema{" + Arrays.toString(fieldNames) + '}';
+    }
+}
@@ -20,8 +20,10 @@ package nl.basjes.parse.useragent;
 import nl.basjes.parse.useragent.AgentField.ImmutableAgentField;
 import nl.basjes.parse.useragent.AgentField.MutableAgentField;
 import nl.basjes.parse.useragent.analyze.Matcher;
+import nl.basjes.parse.useragent.metrics.MetricsListener;
 import nl.basjes.parse.useragent.parser.UserAgentBaseListener;
 import nl.basjes.parse.useragent.utils.DefaultANTLRErrorListener;
+import nl.basjes.parse.useragent.utils.ValueInterner;
 import org.antlr.v4.runtime.Parser;
 import org.antlr.v4.runtime.RecognitionException;
 import org.antlr.v4.runtime.Recognizer;
@@ -38,14 +40,12 @@ import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.stream.Collectors;
 
 public interface UserAgent extends Serializable {
 
@@ -472,7 +472,7 @@ public interface UserAgent extends Serializable {
 
         private static final Logger LOG                     = LogManager.getLogger(UserAgent.class);
 
-        private static String getDefaultValueForField(String fieldName) {
+        static String getDefaultValueForField(String fieldName) {
             if (fieldName.contains("NameVersion")) {
                 return UNKNOWN_NAME_VERSION;
             }
@@ -489,6 +489,7 @@ public interface UserAgent extends Serializable {
 
         public void destroy() {
             wantedFieldNames = null;
+            wantedFields = null;
         }
 
         public boolean hasSyntaxError() {
@@ -519,7 +520,7 @@ public interface UserAgent extends Serializable {
             hasSyntaxError = true;
             MutableAgentField syntaxError = new MutableAgentField("false");
             syntaxError.setValue("true", 1);
-            allFields.put(SYNTAX_ERROR, syntaxError);
+            putField(fieldIndex(SYNTAX_ERROR), syntaxError);
         }
 
         @Override
@@ -558,7 +559,22 @@ public interface UserAgent extends Serializable {
             return uaHashCode();
         }
 
-        private final Map<String, MutableAgentField> allFields = new HashMap<>();
+        // The fields are stored by their index in the schema.
+        // A field name that is not in the (shared) schema is an extra field of only this instance
+        // which gets the next index after the fields of the schema.
+        private FieldSchema         fieldSchema     = FieldSchema.DEFAULT;
+        private int                 schemaSize      = fieldSchema.size();
+        private String[]            extraFieldNames = new String[0];
+        private int                 numberOfExtraFields = 0;
+        private Map<String, Integer> extraFieldIndexes = null;
+        // The schema with also the extra fields (only created if it is requested).
+        private FieldSchema         extendedFieldSchema = null;
+        private MutableAgentField[] fields          = new MutableAgentField[fieldSchema.size()];
+        // The indexes of all fields that exist (in the order they were created).
+        private int[]               existingFields  = new int[fieldSchema.size()];
+        private int                 numberOfExistingFields = 0;
+        // Per index of the schema if the field is wanted (null = all fields are wanted).
+        private boolean[]           wantedFields    = null;
 
         private void setWantedFieldNames(Collection<String> newWantedFieldNames) {
             if (newWantedFieldNames != null) {
@@ -566,6 +582,30 @@ public interface UserAgent extends Serializable {
                     wantedFieldNames = new LinkedHashSet<>(newWantedFieldNames);
                 }
             }
+            updateWantedFields();
+        }
+
+        private void setFieldSchema(FieldSchema newFieldSchema) {
+            if (newFieldSchema != null) {
+                fieldSchema         = newFieldSchema;
+                schemaSize          = fieldSchema.size();
+                numberOfExtraFields = 0;
+                extraFieldIndexes   = null;
+                extendedFieldSchema = null;
+                fields              = new MutableAgentField[schemaSize];
+                existingFields      = new int[schemaSize];
+            }
+        }
+
+        private void updateWantedFields() {
+            if (wantedFieldNames == null) {
+                wantedFields = null;
+                return;
+            }
+            wantedFields = new boolean[fields.length];
+            for (int index = 0; index < schemaSize + numberOfExtraFields; index++) {
+                wantedFields[index] = wantedFieldNames.contains(getFieldName(index));
+            }
         }
 
         public MutableUserAgent() {
@@ -585,6 +625,17 @@ public interface UserAgent extends Serializable {
             setUserAgentString(userAgentString);
         }
 
+        public MutableUserAgent(FieldSchema fieldSchema, Collection<String> wantedFieldNames) {
+            setFieldSchema(fieldSchema);
+            setWantedFieldNames(wantedFieldNames);
+        }
+
+        public MutableUserAgent(FieldSchema fieldSchema, String userAgentString, Collection<String> wantedFieldNames) {
+            setFieldSchema(fieldSchema);
+            setWantedFieldNames(wantedFieldNames);
+            setUserAgentString(userAgentString);
+        }
+
         public void setUserAgentString(String newUserAgentString) {
             this.userAgentString = newUserAgentString;
             reset();
@@ -594,13 +645,29 @@ public interface UserAgent extends Serializable {
             return userAgentString;
         }
 
+        /**
+         * @return The schema that determines the index of each field.
+         */
+        public FieldSchema getFieldSchema() {
+            if (numberOfExtraFields == 0) {
+                return fieldSchema;
+            }
+            if (extendedFieldSchema == null) {
+                // The fields of a schema keep their index if the same names are used (in the same order).
+                List<String> allFieldNames = new ArrayList<>(fieldSchema.getFieldNames());
+                allFieldNames.addAll(Arrays.asList(extraFieldNames).subList(0, numberOfExtraFields));
+                extendedFieldSchema = new FieldSchema(allFieldNames);
+            }
+            return extendedFieldSchema;
+        }
+
         public void reset() {
             hasSyntaxError = false;
             hasAmbiguity = false;
             ambiguityCount = 0;
 
-            for (MutableAgentField field : allFields.values()) {
-                field.reset();
+            for (int i = 0; i < numberOfExistingFields; i++) {
+                fields[existingFields[i]].reset();
             }
         }
 
@@ -615,8 +682,104 @@ public interface UserAgent extends Serializable {
             }
         }
 
+        // The index of the field or -1 if this instance does not have this field.
+        private int indexOf(String fieldName) {
+            int index = fieldSchema.indexOf(fieldName);
+            if (index >= 0 || extraFieldIndexes == null) {
+                return index;
+            }
+            Integer extraIndex = extraFieldIndexes.get(fieldName);
+            return extraIndex == null ? -1 : extraIndex;
+        }
+
+        // The index of the field; if needed it is added as an extra field of this instance.
+        private int fieldIndex(String fieldName) {
+            int index = indexOf(fieldName);
+            if (index >= 0) {
+                return index;
+            }
+            if (extraFieldIndexes == null) {
+                extraFieldIndexes = new HashMap<>();
+            }
+            index = schemaSize + numberOfExtraFields;
+            // The arrays grow in steps so adding many fields one by one does not copy them every time.
+            if (extraFieldNames.length <= numberOfExtraFields) {
+                extraFieldNames = Arrays.copyOf(extraFieldNames, Math.max(4, extraFieldNames.length * 2));
+            }
+            extraFieldNames[numberOfExtraFields++] = fieldName;
+            extraFieldIndexes.put(fieldName, index);
+            extendedFieldSchema = null;
+
+            if (fields.length <= index) {
+                int capacity = Math.max(index + 1, fields.length * 2);
+                fields         = Arrays.copyOf(fields, capacity);
+                existingFields = Arrays.copyOf(existingFields, capacity);
+            }
+            if (wantedFields != null) {
+                if (wantedFields.length <= index) {
+                    wantedFields = Arrays.copyOf(wantedFields, fields.length);
+                }
+                wantedFields[index] = wantedFieldNames.contains(fieldName);
+            }
+            return index;
+        }
+
+        private String getFieldName(int index) {
+            if (index < schemaSize) {
+                return fieldSchema.getFieldName(index);
+            }
+            return extraFieldNames[index - schemaSize];
+        }
+
+        private String getDefaultValue(int index) {
+            if (index < schemaSize) {
+                return fieldSchema.getDefaultValue(index);
+            }
+            return getDefaultValueForField(getFieldName(index));
+        }
+
+        private boolean isSystemField(int index) {
+            if (index < schemaSize) {
+                return fieldSchema.isSystemField(index);
+            }
+            return isSystemField(getFieldName(index));
+        }
+
+        private boolean isSetAllFields(int index) {
+            if (index < schemaSize) {
+                return fieldSchema.isSetAllFields(index);
+            }
+            return SET_ALL_FIELDS.equals(getFieldName(index));
+        }
+
+        private boolean isStandardField(int index) {
+            // All standard fields are always part of the schema.
+            return index < schemaSize && fieldSchema.isStandardField(index);
+        }
+
+        private MutableAgentField getField(String fieldName) {
+            int index = indexOf(fieldName);
+            return index < 0 ? null : fields[index];
+        }
+
+        private MutableAgentField getOrCreateField(int index) {
+            MutableAgentField field = fields[index];
+            if (field == null) {
+                field = new MutableAgentField(getDefaultValue(index));
+                putField(index, field);
+            }
+            return field;
+        }
+
+        private void putField(int index, MutableAgentField field) {
+            if (fields[index] == null) {
+                existingFields[numberOfExistingFields++] = index;
+            }
+            fields[index] = field;
+        }
+
         public void processSetAll() {
-            MutableAgentField setAllField = allFields.get(SET_ALL_FIELDS);
+            MutableAgentField setAllField = getField(SET_ALL_FIELDS);
             if (setAllField == null) {
                 return;
             }
@@ -629,55 +792,62 @@ public interface UserAgent extends Serializable {
             }
 
             long confidence = setAllField.confidence;
-            for (Map.Entry<String, MutableAgentField> fieldEntry : allFields.entrySet()) {
-                if (!isSystemField(fieldEntry.getKey())) {
-                    fieldEntry.getValue().setValue(value, confidence);
+            for (int i = 0; i < numberOfExistingFields; i++) {
+                int index = existingFields[i];
+                if (!isSystemField(index)) {
+                    fields[index].setValue(value, confidence);
                 }
             }
         }
 
         public void set(String attribute, String value, long confidence) {
-            MutableAgentField field = allFields.get(attribute);
-            if (field == null) {
-                field = new MutableAgentField(getDefaultValueForField(attribute));
-            }
+            set(fieldIndex(attribute), value, confidence);
+        }
+
+        private void set(int index, String value, long confidence) {
+            MutableAgentField field = getOrCreateField(index);
 
             boolean wasEmpty = confidence == -1;
             boolean updated  = field.setValue(value, confidence);
             if (debug && !wasEmpty) {
                 if (updated) {
-                    LOG.info("USE  {} ({}) = {}", attribute, confidence, value);
+                    LOG.info("USE  {} ({}) = {}", getFieldName(index), confidence, value);
                 } else {
-                    LOG.info("SKIP {} ({}) = {}", attribute, confidence, value);
+                    LOG.info("SKIP {} ({}) = {}", getFieldName(index), confidence, value);
                 }
             }
-            allFields.put(attribute, field);
         }
 
         public void setForced(String attribute, String value, long confidence) {
-            MutableAgentField field = allFields.get(attribute);
-            if (field == null) {
-                field = new MutableAgentField(getDefaultValueForField(attribute));
-            }
+            MutableAgentField field = getOrCreateField(fieldIndex(attribute));
 
             boolean wasEmpty = confidence == -1;
             field.setValueForced(value, confidence);
             if (debug && !wasEmpty) {
                 LOG.info("USE  {} ({}) = {}", attribute, confidence, value);
             }
-            allFields.put(attribute, field);
         }
 
         // The appliedMatcher parameter is needed for development and debugging.
         public void set(MutableUserAgent newValuesUserAgent, Matcher appliedMatcher) { // NOSONAR: Unused parameter
-            for (String fieldName : newValuesUserAgent.allFields.keySet()) {
-                MutableAgentField field = newValuesUserAgent.allFields.get(fieldName);
-                set(fieldName, field.value, field.confidence);
+            if (newValuesUserAgent.fieldSchema == fieldSchema && newValuesUserAgent.numberOfExtraFields == 0) {
+                // The same schema (and no extra fields) so the indexes are the same.
+                for (int i = 0; i < newValuesUserAgent.numberOfExistingFields; i++) {
+                    int index = newValuesUserAgent.existingFields[i];
+                    MutableAgentField field = newValuesUserAgent.fields[index];
+                    set(index, field.value, field.confidence);
+                }
+                return;
+            }
+            for (int i = 0; i < newValuesUserAgent.numberOfExistingFields; i++) {
+                int index = newValuesUserAgent.existingFields[i];
+                MutableAgentField field = newValuesUserAgent.fields[index];
+                set(newValuesUserAgent.getFieldName(index), field.value, field.confidence);
             }
         }
 
         void setImmediateForTesting(String fieldName, MutableAgentField agentField) {
-            allFields.put(fieldName, agentField);
+            putField(fieldIndex(fieldName), agentField);
         }
 
         public AgentField get(String fieldName) {
@@ -686,69 +856,73 @@ public interface UserAgent extends Serializable {
                 agentField.setValue(userAgentString, 0L);
                 return agentField;
             } else {
-                return allFields
-                    .computeIfAbsent(
-                        fieldName,
-                        f -> new MutableAgentField(getDefaultValueForField(fieldName)));
+                return getOrCreateField(fieldIndex(fieldName));
             }
         }
 
+        /**
+         * @param index The index of the field in the schema of this instance.
+         * @return The field (a default field if it does not exist yet).
+         */
+        public AgentField get(int index) {
+            return getOrCreateField(index);
+        }
+
         public String getValue(String fieldName) {
             if (USERAGENT_FIELDNAME.equals(fieldName)) {
                 return userAgentString;
             }
-            AgentField field = allFields.get(fieldName);
+            AgentField field = getField(fieldName);
             if (field == null) {
                 return getDefaultValueForField(fieldName);
             }
             return field.getValue();
         }
 
+        /**
+         * @param index The index of the field in the schema of this instance.
+         * @return The value of the field (the default value if it does not exist).
+         */
+        public String getValue(int index) {
+            AgentField field = fields[index];
+            if (field == null) {
+                return getDefaultValue(index);
+            }
+            return field.getValue();
+        }
+
         public Long getConfidence(String fieldName) {
             if (USERAGENT_FIELDNAME.equals(fieldName)) {
                 return 0L;
             }
-            AgentField field = allFields.get(fieldName);
+            AgentField field = getField(fieldName);
             if (field == null) {
                 return -1L;
             }
             return field.getConfidence();
         }
 
+        // If the field with this index must be part of the output.
+        private boolean isAvailable(int index) {
+            if (isSetAllFields(index)) {
+                return false; // This is not a field; this is a special operator.
+            }
+            MutableAgentField field = fields[index];
+            boolean hasValue = field != null && !field.isDefaultValue();
+            if (wantedFields == null) {
+                return hasValue || isStandardField(index);
+            }
+            return hasValue && wantedFields[index];
+        }
+
         @Override
         public List<String> getAvailableFieldNamesSorted() {
-            List<String> fieldNames = new ArrayList<>(allFields.size() + 10);
-            if (wantedFieldNames == null) {
-                fieldNames.addAll(STANDARD_FIELDS);
-                allFields.forEach((fieldName, field) -> {
-                    if (!fieldNames.contains(fieldName)) {
-                        if (!field.isDefaultValue()) {
-                            fieldNames.add(fieldName);
-                        }
-                    }
-                });
-            } else {
-                allFields.forEach((fieldName, field) -> {
-                    if (!fieldNames.contains(fieldName)) {
-                        if (!field.isDefaultValue()) {
-                            if (wantedFieldNames.contains(fieldName)) {
-                                fieldNames.add(fieldName);
-                            }
-                        }
-                    }
-                });
+            List<String> result = new ArrayList<>(numberOfExistingFields + STANDARD_FIELDS.size());
+            for (int index : getFieldSchema().getSortedIndexes()) {
+                if (isAvailable(index)) {
+                    result.add(getFieldName(index));
+                }
             }
-
-            // This is not a field; this is a special operator.
-            fieldNames.remove(SET_ALL_FIELDS);
-
-            List<String> result = PRE_SORTED_FIELDS_LIST
-                .stream()
-                .filter(fieldNames::remove)
-                .collect(Collectors.toList());
-
-            Collections.sort(fieldNames);
-            result.addAll(fieldNames);
             return result;
         }
 
@@ -761,13 +935,32 @@ public interface UserAgent extends Serializable {
     class ImmutableUserAgent implements UserAgent {
         private final String                            userAgentString;
         private final ImmutableAgentField               userAgentStringField;
-        private final Map<String, ImmutableAgentField>  allFields;
+        private final FieldSchema                       fieldSchema;
+        // Indexed by the schema; only the available fields are present.
+        private final ImmutableAgentField[]             allFields;
         private final List<String>                      availableFieldNamesSorted;
         private final boolean                           hasSyntaxError;
         private final boolean                           hasAmbiguity;
         private final int                               ambiguityCount;
 
         public ImmutableUserAgent(MutableUserAgent userAgent) {
+            this(userAgent, null);
+        }
+
+        /**
+         * @param userAgent The values to copy.
+         * @param valueInterner If not null the values are interned so identical values in different results share one instance.
+         */
+        public ImmutableUserAgent(MutableUserAgent userAgent, ValueInterner valueInterner) {
+            this(userAgent, valueInterner, null);
+        }
+
+        /**
+         * @param userAgent The values to copy.
+         * @param valueInterner If not null the values are interned so identical values in different results share one instance.
+         * @param metricsListener If not null the effect of interning the values is reported to this listener.
+         */
+        public ImmutableUserAgent(MutableUserAgent userAgent, ValueInterner valueInterner, MetricsListener metricsListener) {
             userAgentString = userAgent.userAgentString;
             hasSyntaxError = userAgent.hasSyntaxError;
             hasAmbiguity = userAgent.hasAmbiguity;
@@ -775,14 +968,36 @@ public interface UserAgent extends Serializable {
 
             userAgentStringField = new ImmutableAgentField(userAgentString, 0L, false, userAgentString);
 
-            Map<String, ImmutableAgentField> preparingAllFields = new LinkedHashMap<>(userAgent.allFields.size());
-
-            for (String fieldName: userAgent.getAvailableFieldNamesSorted()) {
-                preparingAllFields.put(fieldName, new ImmutableAgentField((MutableAgentField) userAgent.get(fieldName)));
+            fieldSchema = userAgent.getFieldSchema();
+            allFields = new ImmutableAgentField[fieldSchema.size()];
+            List<String> fieldNames = new ArrayList<>(userAgent.numberOfExistingFields + STANDARD_FIELDS.size());
+            ValueInterner.Statistics internStatistics =
+                valueInterner == null || metricsListener == null ? null : new ValueInterner.Statistics();
+            for (int index : fieldSchema.getSortedIndexes()) {
+                if (userAgent.isAvailable(index)) {
+                    MutableAgentField field = userAgent.fields[index];
+                    if (field == null) {
+                        allFields[index] = createDefaultField(index);
+                    } else if (valueInterner == null) {
+                        allFields[index] = new ImmutableAgentField(field);
+                    } else {
+                        allFields[index] = new ImmutableAgentField(
+                            valueInterner.intern(field.getValue(), internStatistics),
+                            field.getConfidence(), field.isDefaultValue(), field.getDefaultValue());
+                    }
+                    fieldNames.add(fieldSchema.getFieldName(index));
+                }
+            }
+            availableFieldNamesSorted = Collections.unmodifiableList(fieldNames);
+            if (internStatistics != null) {
+                metricsListener.valuesInterned(
+                    internStatistics.getValues(), internStatistics.getDeduplicated(), internStatistics.getBytesSaved());
             }
+        }
 
-            allFields = Collections.unmodifiableMap(preparingAllFields);
-            availableFieldNamesSorted = Collections.unmodifiableList(userAgent.getAvailableFieldNamesSorted());
+        private ImmutableAgentField createDefaultField(int index) {
+            String defaultValue = fieldSchema.getDefaultValue(index);
+            return new ImmutableAgentField(defaultValue, -1, true, defaultValue);
         }
 
         @Override
@@ -790,11 +1005,23 @@ public interface UserAgent extends Serializable {
             return userAgentString;
         }
 
+        /**
+         * @return The schema that determines the index of each field.
+         */
+        public FieldSchema getFieldSchema() {
+            return fieldSchema;
+        }
+
+        private ImmutableAgentField getField(String fieldName) {
+            int index = fieldSchema.indexOf(fieldName);
+            return index < 0 ? null : allFields[index];
+        }
+
         public AgentField get(String fieldName) {
             if (USERAGENT_FIELDNAME.equals(fieldName)) {
                 return userAgentStringField;
             } else {
-                ImmutableAgentField agentField = allFields.get(fieldName);
+                ImmutableAgentField agentField = getField(fieldName);
                 if (agentField == null) {
                     agentField = new ImmutableAgentField(MutableUserAgent.getDefaultValueForField(fieldName),
                         -1,
@@ -805,22 +1032,46 @@ public interface UserAgent extends Serializable {
             }
         }
 
+        /**
+         * @param index The index of the field in the schema of this instance.
+         * @return The field (a default field if it is not available).
+         */
+        public AgentField get(int index) {
+            ImmutableAgentField agentField = allFields[index];
+            if (agentField == null) {
+                return createDefaultField(index);
+            }
+            return agentField;
+        }
+
         public String getValue(String fieldName) {
             if (USERAGENT_FIELDNAME.equals(fieldName)) {
                 return userAgentString;
             }
-            AgentField field = allFields.get(fieldName);
+            AgentField field = getField(fieldName);
             if (field == null) {
                 return MutableUserAgent.getDefaultValueForField(fieldName);
             }
             return field.getValue();
         }
 
+        /**
+         * @param index The index of the field in the schema of this instance.
+         * @return The value of the field (the default value if it is not available).
+         */
+        public String getValue(int index) {
+            AgentField field = allFields[index];
+            if (field == null) {
+                return fieldSchema.getDefaultValue(index);
+            }
+            return field.getValue();
+        }
+
         public Long getConfidence(String fieldName) {
             if (USERAGENT_FIELDNAME.equals(fieldName)) {
                 return 0L;
             }
-            AgentField field = allFields.get(fieldName);
+            AgentField field = getField(fieldName);
             if (field == null) {
                 return -1L;
             }
@@ -0,0 +1,187 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent;
+
+import nl.basjes.parse.useragent.UserAgent.ImmutableUserAgent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static nl.basjes.parse.useragent.UserAgent.USERAGENT_FIELDNAME;
+
+/**
+ * Analyzes a batch (column) of useragents and stores the results as one output column per field.
+ * Most fields have only a few distinct values (like the DeviceClass) so each output column is
+ * dictionary encoded: per row the code of the value and per column the list of distinct values.
+ * A consumer (like a vectorized UDF) only has to convert each distinct value once per batch.
+ * <p>
+ * The dictionaries are rebuilt for every batch; an instance is reused for the next batch and
+ * is not thread safe.
+ */
+public class UserAgentColumnBatch {
+
+    /**
+     * The code for a row that has no value (i.e. the useragent was null).
+     */
+    public static final int NULL_CODE = -1;
+
+    private final AbstractUserAgentAnalyzerDirect analyzer;
+    private final List<String>                    fieldNames;
+
+    private int                                   size = 0;
+    private int[][]                               codes;
+    private final List<List<String>>              dictionaries;
+    private final List<Map<String, Integer>>      dictionaryIndexes;
+
+    // The index of each field in the schema of the most recent result (all results usually share one schema).
+    private FieldSchema                           lastFieldSchema = null;
+    private int[]                                 fieldIndexes;
+
+    /**
+     * @param analyzer The analyzer that is used to analyze the useragents.
+     * @param fieldNames The fields that must be present as an output column (in this order).
+     */
+    public UserAgentColumnBatch(AbstractUserAgentAnalyzerDirect analyzer, List<String> fieldNames) {
+        this.analyzer     = analyzer;
+        this.fieldNames   = Collections.unmodifiableList(new ArrayList<>(fieldNames));
+        codes             = new int[this.fieldNames.size()][0];
+        dictionaries      = new ArrayList<>(this.fieldNames.size());
+        dictionaryIndexes = new ArrayList<>(this.fieldNames.size());
+        for (int column = 0; column < this.fieldNames.size(); column++) {
+            dictionaries.add(new ArrayList<>());
+            dictionaryIndexes.add(new HashMap<>());
+        }
+        fieldIndexes      = new int[this.fieldNames.size()];
+    }
+
+    /**
+     * Analyze all provided useragents and replace the content of all output columns with the results.
+     * Identical useragents within the batch are only analyzed (or looked up in the cache) once.
+     * @param userAgentStrings The useragents (may contain nulls which result in a row with only NULL_CODE).
+     */
+    public void fill(List<String> userAgentStrings) {
+        size = userAgentStrings.size();
+        for (int column = 0; column < fieldNames.size(); column++) {
+            if (codes[column].length < size) {
+                codes[column] = new int[size];
+            }
+            dictionaries.get(column).clear();
+            dictionaryIndexes.get(column).clear();
+        }
+
+        List<String> nonNullUserAgentStrings = new ArrayList<>(size);
+        for (String userAgentString : userAgentStrings) {
+            if (userAgentString != null) {
+                nonNullUserAgentStrings.add(userAgentString);
+            }
+        }
+        List<ImmutableUserAgent> results = analyzer.parseAll(nonNullUserAgentStrings);
+
+        int resultIndex = 0;
+        for (int row = 0; row < size; row++) {
+            if (userAgentStrings.get(row) == null) {
+                for (int column = 0; column < fieldNames.size(); column++) {
+                    codes[column][row] = NULL_CODE;
+                }
+                continue;
+            }
+            ImmutableUserAgent result = results.get(resultIndex++);
+            updateFieldIndexes(result.getFieldSchema());
+            for (int column = 0; column < fieldNames.size(); column++) {
+                int    fieldIndex = fieldIndexes[column];
+                String value      = fieldIndex < 0 ? result.getValue(fieldNames.get(column)) : result.getValue(fieldIndex);
+                codes[column][row] = encode(column, value);
+            }
+        }
+    }
+
+    private void updateFieldIndexes(FieldSchema fieldSchema) {
+        if (fieldSchema == lastFieldSchema) {
+            return;
+        }
+        for (int column = 0; column < fieldNames.size(); column++) {
+            String fieldName = fieldNames.get(column);
+            // The Useragent itself is not stored as a field.
+            fieldIndexes[column] = USERAGENT_FIELDNAME.equals(fieldName) ? -1 : fieldSchema.indexOf(fieldName);
+        }
+        lastFieldSchema = fieldSchema;
+    }
+
+    private int encode(int column, String value) {
+        if (value == null) {
+            return NULL_CODE;
+        }
+        Map<String, Integer> dictionaryIndex = dictionaryIndexes.get(column);
+        Integer code = dictionaryIndex.get(value);
+        if (code == null) {
+            List<String> dictionary = dictionaries.get(column);
+            code = dictionary.size();
+            dictionary.add(value);
+            dictionaryIndex.put(value, code);
+        }
+        return code;
+    }
+
+    /**
+     * @return The names of the fields of the output columns (in the order of the columns).
+     */
+    public List<String> getFieldNames() {
+        return fieldNames;
+    }
+
+    /**
+     * @return The number of rows in the current batch.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param column The index of the output column.
+     * @return The code of the value for each row (only the first size() entries are valid); NULL_CODE if there is no value.
+     */
+    public int[] getCodes(int column) {
+        return codes[column];
+    }
+
+    /**
+     * @param column The index of the output column.
+     * @return The distinct values of this column in the current batch (the position is the code).
+     */
+    public List<String> getDictionary(int column) {
+        return Collections.unmodifiableList(dictionaries.get(column));
+    }
+
+    /**
+     * @param column The index of the output column.
+     * @param row The row in the current batch.
+     * @return The value (null if there is no value).
+     */
+    public String getValue(int column, int row) {
+        int code = codes[column][row];
+        return code == NULL_CODE ? null : dictionaries.get(column).get(code);
+    }
+
+    @Override
+    public String toString() {
+        return "UserAgentColumnBatch{fieldNames=" + fieldNames + ", size=" + size + ", dictionaries=" + dictionaries + '}';
+    }
+}
@@ -17,7 +17,10 @@
 
 package nl.basjes.parse.useragent.analyze;
 
+import nl.basjes.parse.useragent.FieldSchema;
 import nl.basjes.parse.useragent.analyze.WordRangeVisitor.Range;
+import nl.basjes.parse.useragent.analyze.treewalker.CompiledExpressions;
+import nl.basjes.parse.useragent.analyze.treewalker.steps.lookup.LookupStructures;
 import org.antlr.v4.runtime.tree.ParseTree;
 
 import java.io.Serializable;
@@ -28,6 +31,36 @@ import java.util.Set;
 public interface Analyzer extends Serializable {
     void inform(String path, String value, ParseTree ctx);
 
+    default void inform(String path, String value, ParseTree ctx, ParseContext parseContext) {
+        inform(path, value, ctx);
+    }
+
+    /**
+     * The same as inform but the value (usually a part of the input) is only turned into a String when it is needed.
+     * @param path The path in the parse tree.
+     * @param value The value found at this path.
+     * @param ctx The parse tree node.
+     * @param parseContext The state of the current parse.
+     */
+    default void inform(String path, CharSequence value, ParseTree ctx, ParseContext parseContext) {
+        inform(path, value == null ? null : value.toString(), ctx, parseContext);
+    }
+
+    /**
+     * @return The index of the paths the matchers need so the paths can be followed using their ids,
+     * or null if every path must be informed using the path String.
+     */
+    default InformDispatcher getPathIndex() {
+        return null;
+    }
+
+    /**
+     * @return The schema of the fields of the results, or null if not known.
+     */
+    default FieldSchema getFieldSchema() {
+        return null;
+    }
+
     void informMeAbout(MatcherAction matcherAction, String keyPattern);
 
     void lookingForRange(String treeName, Range range);
@@ -38,13 +71,20 @@ public interface Analyzer extends Serializable {
 
     Set<Integer> getRequiredPrefixLengths(String treeName);
 
-    default void receivedInput(Matcher matcher) {
-        // Nothing to do
-    }
-
     Map<String, Map<String, String>> getLookups();
 
     Map<String, Set<String>> getLookupSets();
 
+    default LookupStructures getLookupStructures() {
+        return new LookupStructures(getLookups(), getLookupSets());
+    }
+
+    /**
+     * @return The shared compiled matcher expressions (null if every action must compile its own).
+     */
+    default CompiledExpressions getCompiledExpressions() {
+        return null;
+    }
+
     List<Map<String, Map<String, String>>> getTestCases();
 }
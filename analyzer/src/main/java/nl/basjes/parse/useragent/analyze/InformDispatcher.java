@@ -0,0 +1,474 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.useragent.analyze;
+
+import nl.basjes.parse.useragent.analyze.WordRangeVisitor.Range;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the MatcherActions that must be informed about a value that was found at a path in the parse tree.
+ * The analyzer registers the actions under the lowercased hash keys  path ,  path="value"  and  path{"prefix" .
+ * This is a read only index of those same hash keys that is split by path so that informing about a value
+ * does not need to build (and lowercase) any of these keys.
+ * It must be rebuilt if the registered actions change.
+ * <p>
+ * All of these paths (and all the paths leading up to them) also get a dense integer id.
+ * A path is  root.(counter)name.(counter)name...  so the id of a path can be found from the id of its parent path,
+ * the counter and the name of the last step. This allows the flattener to follow the paths in the parse tree
+ * without building any path String and to skip all paths that are not relevant for any of the matchers.
+ */
+public final class InformDispatcher {
+
+    private static final MatcherAction[] NO_ACTIONS = new MatcherAction[0];
+    private static final Range[]         NO_RANGES  = new Range[0];
+
+    /**
+     * The id of all paths that are not relevant for any of the matchers.
+     */
+    public static final int UNKNOWN_PATH = -1;
+
+    private final CaseInsensitiveIndex<InformPath> paths;
+
+    // The paths by id
+    private final List<String>         pathList     = new ArrayList<>();
+    private final Map<String, Integer> pathIds      = new HashMap<>();
+    private final Map<String, Integer> stepNameIds  = new HashMap<>();
+    private final Map<Long, Integer>   childPathIds = new HashMap<>();
+    private final String[]             pathNames;
+    private final InformPath[]         informPaths;
+    private final Range[][]            ranges;
+    private final int[][]              rangePathIds;
+    private boolean                    allPathsHaveAnId = true;
+
+    // The id of a path by the id of the parent path, counter and step name (open addressing).
+    private static final long EMPTY       = -1L;
+    private static final int  MAX_COUNTER = 0xFFFF;
+    private static final int  MAX_NAMES   = 0xFFFF;
+    private final long[]      childKeys;
+    private final int[]       childIds;
+    private final int         childMask;
+
+    private static final class InformPath {
+        private MatcherAction[] pathActions = NO_ACTIONS;
+        private final Map<String, MatcherAction[]> valueActions  = new HashMap<>();
+        private final Map<String, MatcherAction[]> prefixActions = new HashMap<>();
+        private final Set<Integer> prefixLengthSet = new LinkedHashSet<>();
+
+        // The final structures
+        private CaseInsensitiveIndex<MatcherAction[]> values;
+        private CaseInsensitiveIndex<MatcherAction[]> prefixes;
+        private int[] prefixLengths;
+
+        void build() {
+            values   = valueActions.isEmpty()  ? null : new CaseInsensitiveIndex<>(valueActions);
+            prefixes = prefixActions.isEmpty() ? null : new CaseInsensitiveIndex<>(prefixActions);
+            prefixLengths = prefixLengthSet.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /**
+     * @param informMatcherActions The actions per (lowercased) hash key.
+     * @param prefixLengths The prefix lengths that are needed per path.
+     * @param informRanges The word ranges that are needed per path.
+     */
+    public InformDispatcher(Map<String, Set<MatcherAction>> informMatcherActions,
+                            Map<String, Set<Integer>> prefixLengths,
+                            Map<String, Set<Range>> informRanges) {
+        Map<String, InformPath> allPaths = new LinkedHashMap<>();
+
+        for (Map.Entry<String, Set<MatcherAction>> entry : informMatcherActions.entrySet()) {
+            String          hashKey = entry.getKey();
+            MatcherAction[] actions = entry.getValue().toArray(NO_ACTIONS);
+
+            // A path never contains a '"' so the first one is always the start of the value.
+            int quote = hashKey.indexOf('"');
+            if (quote < 1 || hashKey.length() < quote + 2 || hashKey.charAt(hashKey.length() - 1) != '"') {
+                allPaths.computeIfAbsent(hashKey, p -> new InformPath()).pathActions = actions;
+                continue;
+            }
+
+            InformPath informPath = allPaths.computeIfAbsent(hashKey.substring(0, quote - 1), p -> new InformPath());
+            String     value      = hashKey.substring(quote + 1, hashKey.length() - 1);
+            switch (hashKey.charAt(quote - 1)) {
+                case '=':
+                    informPath.valueActions.put(value, actions);
+                    break;
+                case '{':
+                    informPath.prefixActions.put(value, actions);
+                    break;
+                default:
+                    allPaths.computeIfAbsent(hashKey, p -> new InformPath()).pathActions = actions;
+            }
+        }
+
+        for (Map.Entry<String, Set<Integer>> entry : prefixLengths.entrySet()) {
+            InformPath informPath = allPaths.get(entry.getKey().toLowerCase(Locale.ROOT));
+            if (informPath != null) {
+                informPath.prefixLengthSet.addAll(entry.getValue());
+            }
+        }
+
+        allPaths.values().forEach(InformPath::build);
+        paths = new CaseInsensitiveIndex<>(allPaths);
+
+        // Give all paths an id
+        allPaths.keySet().forEach(this::addPath);
+        Map<Integer, Map<Range, Integer>> rangesById = new HashMap<>();
+        for (Map.Entry<String, Set<Range>> entry : informRanges.entrySet()) {
+            String treeName = entry.getKey().toLowerCase(Locale.ROOT);
+            int    pathId   = addPath(treeName);
+            for (Range range : entry.getValue()) {
+                // Only the ranges that someone is actually informed about are needed.
+                String rangePath = treeName + range;
+                if (pathId != UNKNOWN_PATH && allPaths.containsKey(rangePath)) {
+                    rangesById
+                        .computeIfAbsent(pathId, id -> new LinkedHashMap<>())
+                        .put(range, addPath(rangePath));
+                }
+            }
+        }
+
+        int numberOfPaths = pathList.size();
+        pathNames    = pathList.toArray(new String[0]);
+        informPaths  = new InformPath[numberOfPaths];
+        ranges       = new Range[numberOfPaths][];
+        rangePathIds = new int[numberOfPaths][];
+        for (int pathId = 0; pathId < numberOfPaths; pathId++) {
+            informPaths[pathId] = allPaths.get(pathNames[pathId]);
+            Map<Range, Integer> pathRanges = rangesById.getOrDefault(pathId, Collections.emptyMap());
+            ranges[pathId]       = pathRanges.keySet().toArray(NO_RANGES);
+            rangePathIds[pathId] = pathRanges.values().stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        int capacity = Integer.highestOneBit(Math.max(childPathIds.size(), 1) * 2 + 1) << 1;
+        childKeys = new long[capacity];
+        childIds  = new int[capacity];
+        childMask = capacity - 1;
+        Arrays.fill(childKeys, EMPTY);
+        for (Map.Entry<Long, Integer> entry : childPathIds.entrySet()) {
+            int slot = childSlot(entry.getKey());
+            while (childKeys[slot] != EMPTY) {
+                slot = (slot + 1) & childMask;
+            }
+            childKeys[slot] = entry.getKey();
+            childIds[slot]  = entry.getValue();
+        }
+        // Only needed while building
+        pathList.clear();
+        childPathIds.clear();
+    }
+
+    // Gives the path (and all paths leading up to it) an id.
+    // The hash keys that are not a valid path are not relevant because the flattener never produces those.
+    private int addPath(String path) {
+        Integer existingPathId = pathIds.get(path);
+        if (existingPathId != null) {
+            return existingPathId;
+        }
+
+        int pathId;
+        int lastStep = path.lastIndexOf(".(");
+        if (lastStep == -1) {
+            pathId = newPathId(path); // A root
+        } else {
+            int counterEnd = path.indexOf(')', lastStep);
+            if (counterEnd == -1) {
+                return UNKNOWN_PATH;
+            }
+            long counter;
+            try {
+                counter = Long.parseLong(path.substring(lastStep + 2, counterEnd));
+            } catch (NumberFormatException e) {
+                return UNKNOWN_PATH;
+            }
+            int parentPathId = addPath(path.substring(0, lastStep));
+            if (parentPathId == UNKNOWN_PATH) {
+                return UNKNOWN_PATH;
+            }
+            int stepNameId = stepNameIds.computeIfAbsent(path.substring(counterEnd + 1), n -> stepNameIds.size());
+            if (counter < 0 || counter > MAX_COUNTER || stepNameId > MAX_NAMES) {
+                // Cannot be stored in the index so the flattener must use the path strings.
+                allPathsHaveAnId = false;
+                return UNKNOWN_PATH;
+            }
+            pathId = newPathId(path);
+            childPathIds.put(childKey(parentPathId, counter, stepNameId), pathId);
+        }
+        return pathId;
+    }
+
+    private int newPathId(String path) {
+        int pathId = pathList.size();
+        pathList.add(path);
+        pathIds.put(path, pathId);
+        return pathId;
+    }
+
+    private static long childKey(int parentPathId, long counter, int stepNameId) {
+        return ((long) parentPathId << 32) | (counter << 16) | stepNameId;
+    }
+
+    private int childSlot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & childMask;
+    }
+
+    /**
+     * @return True if all paths have an id (only then the ids can be used instead of the path strings).
+     */
+    public boolean allPathsHaveAnId() {
+        return allPathsHaveAnId;
+    }
+
+    /**
+     * @param rootName The name of the root of the tree (lowercase).
+     * @return The id of this root path or UNKNOWN_PATH if no matcher needs it.
+     */
+    public int getPathId(String rootName) {
+        return pathIds.getOrDefault(rootName, UNKNOWN_PATH);
+    }
+
+    /**
+     * @param parentPathId The id of the parent path.
+     * @param counter The counter of the child.
+     * @param name The name of the child (lowercase, may consist of several steps like  name.(1)keyvalue ).
+     * @return The id of this child path or UNKNOWN_PATH if no matcher needs it (or anything below it).
+     */
+    public int getPathId(int parentPathId, long counter, String name) {
+        if (parentPathId == UNKNOWN_PATH || counter < 0 || counter > MAX_COUNTER) {
+            return UNKNOWN_PATH;
+        }
+        Integer stepNameId = stepNameIds.get(name);
+        if (stepNameId == null) {
+            int nextStep = name.indexOf(".(");
+            if (nextStep == -1) {
+                return UNKNOWN_PATH;
+            }
+            // A name with several steps (rare).
+            int counterEnd = name.indexOf(')', nextStep);
+            if (counterEnd == -1) {
+                return UNKNOWN_PATH;
+            }
+            int pathId = getPathId(parentPathId, counter, name.substring(0, nextStep));
+            try {
+                return getPathId(pathId, Long.parseLong(name.substring(nextStep + 2, counterEnd)), name.substring(counterEnd + 1));
+            } catch (NumberFormatException e) {
+                return UNKNOWN_PATH;
+            }
+        }
+
+        long key = childKey(parentPathId, counter, stepNameId);
+        int slot = childSlot(key);
+        long slotKey;
+        while ((slotKey = childKeys[slot]) != EMPTY) {
+            if (slotKey == key) {
+                return childIds[slot];
+            }
+            slot = (slot + 1) & childMask;
+        }
+        return UNKNOWN_PATH;
+    }
+
+    /**
+     * @param pathId The id of a path.
+     * @return The (lowercase) path.
+     */
+    public String getPath(int pathId) {
+        return pathNames[pathId];
+    }
+
+    /**
+     * @param pathId The id of a path.
+     * @return The word ranges that must be informed for this path.
+     */
+    public Range[] getRequiredInformRanges(int pathId) {
+        return ranges[pathId];
+    }
+
+    /**
+     * @param pathId The id of a path.
+     * @param rangeIndex The index of the range in the getRequiredInformRanges of this path.
+     * @return The id of the path of this range.
+     */
+    public int getRangePathId(int pathId, int rangeIndex) {
+        return rangePathIds[pathId][rangeIndex];
+    }
+
+    /**
+     * Inform all MatcherActions that are interested in this value at this path.
+     * @param path The path in the parse tree.
+     * @param value The value found at this path (must not be null).
+     * @param ctx The parse tree node.
+     * @param parseContext The state of the current parse.
+     */
+    public void inform(String path, CharSequence value, ParseTree ctx, ParseContext parseContext) {
+        inform(paths.get(path, path.length()), path, value, ctx, parseContext);
+    }
+
+    /**
+     * Inform all MatcherActions that are interested in this value at this path.
+     * @param pathId The id of the path in the parse tree.
+     * @param value The value found at this path (must not be null).
+     * @param ctx The parse tree node.
+     * @param parseContext The state of the current parse.
+     */
+    public void inform(int pathId, CharSequence value, ParseTree ctx, ParseContext parseContext) {
+        if (pathId != UNKNOWN_PATH) {
+            inform(informPaths[pathId], pathNames[pathId], value, ctx, parseContext);
+        }
+    }
+
+    private static void inform(InformPath informPath, String path, CharSequence value, ParseTree ctx, ParseContext parseContext) {
+        if (informPath == null) {
+            return;
+        }
+
+        inform(informPath.pathActions, path, value, ctx, parseContext);
+
+        if (informPath.values != null) {
+            inform(informPath.values.get(value, value.length()), path, value, ctx, parseContext);
+        }
+
+        if (informPath.prefixes != null) {
+            int valueLength = value.length();
+            for (int prefixLength : informPath.prefixLengths) {
+                if (valueLength >= prefixLength) {
+                    inform(informPath.prefixes.get(value, prefixLength), path, value, ctx, parseContext);
+                }
+            }
+        }
+    }
+
+    private static void inform(MatcherAction[] actions, String path, CharSequence value, ParseTree ctx, ParseContext parseContext) {
+        if (actions == null) {
+            return;
+        }
+        for (MatcherAction action : actions) {
+            action.inform(path, value, ctx, parseContext);
+        }
+    }
+
+    /**
+     * An open addressing hash table with lowercase String keys that can be queried with the first characters
+     * of a CharSequence in any case without creating a new (lowercased) String.
+     * Only for input that is not pure ASCII the input is actually lowercased (to retain the exact semantics
+     * of String.toLowerCase(Locale.ROOT)).
+     */
+    static final class CaseInsensitiveIndex<V> {
+        private final String[]       keys;
+        private final Object[]       values;
+        private final int            mask;
+        private final Map<String, V> nonAscii;
+
+        CaseInsensitiveIndex(Map<String, V> entries) {
+            int capacity = Integer.highestOneBit(Math.max(entries.size(), 1) * 2 + 1) << 1;
+            keys     = new String[capacity];
+            values   = new Object[capacity];
+            mask     = capacity - 1;
+            nonAscii = new HashMap<>();
+
+            for (Map.Entry<String, V> entry : entries.entrySet()) {
+                String key = entry.getKey();
+                int hash = hash(key, key.length());
+                if (hash == NOT_ASCII) {
+                    nonAscii.put(key, entry.getValue());
+                    continue;
+                }
+                int slot = hash & mask;
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                values[slot] = entry.getValue();
+            }
+        }
+
+        private static final int NOT_ASCII = -1;
+
+        // The hash of the first length characters in lowercase (NOT_ASCII if those are not all ASCII).
+        private static int hash(CharSequence input, int length) {
+            int hash = 0;
+            for (int i = 0; i < length; i++) {
+                char c = input.charAt(i);
+                if (c >= 0x80) {
+                    return NOT_ASCII;
+                }
+                hash = 31 * hash + toLowerCase(c);
+            }
+            hash ^= hash >>> 16;
+            return hash & Integer.MAX_VALUE;
+        }
+
+        private static char toLowerCase(char c) {
+            return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+        }
+
+        /**
+         * @param input The string that is to be looked up.
+         * @param length Only the first length characters of the input are looked up.
+         * @return The value or null if not present.
+         */
+        V get(CharSequence input, int length) {
+            int hash = hash(input, length);
+            if (hash == NOT_ASCII) {
+                String lowerCase = input.subSequence(0, length).toString().toLowerCase(Locale.ROOT);
+                int lowerCaseHash = hash(lowerCase, lowerCase.length());
+                if (lowerCaseHash == NOT_ASCII) {
+                    return nonAscii.get(lowerCase);
+                }
+                return get(lowerCaseHash, lowerCase, lowerCase.length());
+            }
+            return get(hash, input, length);
+        }
+
+        @SuppressWarnings("unchecked")
+        private V get(int hash, CharSequence input, int length) {
+            int slot = hash & mask;
+            String key;
+            while ((key = keys[slot]) != null) {
+                if (matches(key, input, length)) {
+                    return (V) values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+
+        private static boolean matches(String key, CharSequence input, int length) {
+            if (key.length() != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (key.charAt(i) != toLowerCase(input.charAt(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -17,8 +17,9 @@
 
 package nl.basjes.parse.useragent.analyze;
 
-import nl.basjes.parse.useragent.AgentField;
 import nl.basjes.parse.useragent.UserAgent.MutableUserAgent;
+import nl.basjes.parse.useragent.analyze.treewalker.CompiledExpressions;
+import nl.basjes.parse.useragent.analyze.treewalker.steps.lookup.LookupStructures;
 import nl.basjes.parse.useragent.utils.YamlUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -51,11 +52,17 @@ public class Matcher implements Serializable {
     private final List<MatcherAction> dynamicActions;
     private final List<MatcherAction> fixedStringActions;
 
-    private MutableUserAgent newValuesUserAgent = null;
+    // The fields this matcher should produce; used to create the (per parse) set of new values.
+    private Collection<String> wantedFieldNames;
+
+    // The dense index of this matcher (assigned during initialization) used to locate its state in a ParseContext.
+    private int matcherIndex = -1;
 
     private long actionsThatRequireInput;
     private boolean verbose;
-    private boolean permanentVerbose;
+
+    // The number of extract lines that are only used as a require because their field is not wanted.
+    private int unwantedExtracts = 0;
 
     public String getMatcherSourceLocation() {
         return matcherSourceLocation;
@@ -105,6 +112,14 @@ public class Matcher implements Serializable {
         return analyzer.getLookupSets();
     }
 
+    public LookupStructures getLookupStructures() {
+        return analyzer.getLookupStructures();
+    }
+
+    public CompiledExpressions getCompiledExpressions() {
+        return analyzer.getCompiledExpressions();
+    }
+
     static class ConfigLine {
         public enum Type {
             VARIABLE,
@@ -133,7 +148,7 @@ public class Matcher implements Serializable {
         this.fixedStringActions = new ArrayList<>();
         this.variableActions = new ArrayList<>();
         this.dynamicActions = new ArrayList<>();
-        this.newValuesUserAgent = new MutableUserAgent(wantedFieldNames);
+        this.wantedFieldNames = wantedFieldNames;
 
         sourceFileName = filename;
         sourceFileLineNumber = matcherConfig.getStartMark().getLine();
@@ -196,6 +211,7 @@ public class Matcher implements Serializable {
                             hasActiveExtractConfigs = true;
                         } else {
                             configLines.add(new ConfigLine(REQUIRE, null, null, config));
+                            unwantedExtracts++;
                         }
                     }
                     break;
@@ -204,8 +220,6 @@ public class Matcher implements Serializable {
             }
         }
 
-        permanentVerbose = verbose;
-
         if (verbose) {
             LOG.info("---------------------------");
             LOG.info("- MATCHER -");
@@ -234,13 +248,8 @@ public class Matcher implements Serializable {
                     dynamicActions.add(new MatcherFailIfFoundAction(configLine.expression, this));
                     break;
                 case EXTRACT:
-                    MatcherExtractAction action =
-                        new MatcherExtractAction(configLine.attribute, configLine.confidence, configLine.expression, this);
-                    dynamicActions.add(action);
-
-                    // Make sure the field actually exists
-                    newValuesUserAgent.set(configLine.attribute, "Dummy", -9999);
-                    action.setResultAgentField((AgentField.MutableAgentField) newValuesUserAgent.get(configLine.attribute));
+                    dynamicActions.add(
+                        new MatcherExtractAction(configLine.attribute, configLine.confidence, configLine.expression, this));
                     break;
                 default:
                     break;
@@ -249,6 +258,38 @@ public class Matcher implements Serializable {
 
     }
 
+    // When not null the registrations with the analyzer are collected (in order) instead of done immediately.
+    private transient List<Runnable> deferredRegistrations = null;
+
+    /**
+     * Initialize this matcher without touching the shared state of the analyzer so many matchers
+     * can be initialized at the same time. The analyzer is only informed (in the same order as
+     * initialize() would have done) when registerDeferred() is called.
+     */
+    public void initializeDeferred() {
+        deferredRegistrations = new ArrayList<>();
+        initialize();
+    }
+
+    /**
+     * Do all registrations with the analyzer that were collected by initializeDeferred().
+     */
+    public void registerDeferred() {
+        List<Runnable> registrations = deferredRegistrations;
+        deferredRegistrations = null;
+        if (registrations != null) {
+            registrations.forEach(Runnable::run);
+        }
+    }
+
+    private void register(Runnable registration) {
+        if (deferredRegistrations == null) {
+            registration.run();
+        } else {
+            deferredRegistrations.add(registration);
+        }
+    }
+
     public void initialize() {
         long newEntries = 0;
         long initStart = System.nanoTime();
@@ -276,7 +317,6 @@ public class Matcher implements Serializable {
             if (action instanceof MatcherExtractAction) {
                 if (((MatcherExtractAction)action).isFixedValue()) {
                     fixedStringActions.add(action);
-                    action.obtainResult();
                 }
             }
         }
@@ -299,6 +339,9 @@ public class Matcher implements Serializable {
                             "is referencing variable @"+variableAction.getVariableName()+ " which is not defined yet.");
                     }
                 }
+            } else {
+                // Nothing uses the value of this variable so it is effectively a require.
+                variableAction.pruneTrailingStepsThatCannotFail();
             }
         }
 
@@ -321,6 +364,10 @@ public class Matcher implements Serializable {
 
         actionsThatRequireInput = countActionsThatMustHaveMatches(dynamicActions);
 
+        dynamicActions.forEach(MatcherAction::releaseCompiledExpression);
+        fixedStringActions.forEach(MatcherAction::releaseCompiledExpression);
+        uselessRequireActions.forEach(MatcherAction::releaseCompiledExpression);
+
         long initFinish = System.nanoTime();
         if (newEntries > 3000) {
             LOG.warn("Large matcher: {} in {} ms:.({})", newEntries, (initFinish-initStart)/1000000, matcherSourceLocation);
@@ -332,11 +379,58 @@ public class Matcher implements Serializable {
 
     }
 
+    /**
+     * @return The number of extract lines that are only used as a require because their field is not wanted.
+     */
+    public int getUnwantedExtracts() {
+        return unwantedExtracts;
+    }
+
+    /**
+     * Can be used before the matcher is initialized.
+     * @return The names of the lookups and sets that are used by the actions of this matcher.
+     */
+    public Set<String> getUsedLookupNames() {
+        Set<String> lookupNames = new HashSet<>();
+        for (MatcherAction action : variableActions) {
+            lookupNames.addAll(action.getUsedLookupNames());
+        }
+        for (MatcherAction action : dynamicActions) {
+            lookupNames.addAll(action.getUsedLookupNames());
+        }
+        for (MatcherAction action : fixedStringActions) {
+            lookupNames.addAll(action.getUsedLookupNames());
+        }
+        return lookupNames;
+    }
+
+    /**
+     * @return The number of walk steps that were removed because they cannot change the outcome.
+     */
+    public long getPrunedSteps() {
+        long prunedSteps = 0;
+        for (MatcherAction action : dynamicActions) {
+            prunedSteps += action.getPrunedSteps();
+        }
+        return prunedSteps;
+    }
+
+    /**
+     * Replace the common sequences of walk steps with a single (fused) step in all actions.
+     * @return The number of walk steps that were removed.
+     */
+    public long fuseSteps() {
+        long removedSteps = 0;
+        for (MatcherAction action : dynamicActions) {
+            removedSteps += action.fuseSteps();
+        }
+        return removedSteps;
+    }
+
     private long countActionsThatMustHaveMatches(List<? extends MatcherAction> actions) {
         long actionsThatMustHaveMatches = 0;
         for (MatcherAction action : actions) {
             // If an action exists which without any data can be valid, then we must force the evaluation
-            action.reset();
             if (action.mustHaveMatches()) {
                 actionsThatMustHaveMatches++;
             }
@@ -345,6 +439,44 @@ public class Matcher implements Serializable {
     }
 
 
+    /**
+     * Assign the dense indexes that are used to locate the per parse state in a ParseContext.
+     * @param newMatcherIndex The index of this matcher.
+     * @param firstActionIndex The first available action index.
+     * @return The first action index that is still available after this matcher.
+     */
+    public int assignIndexes(int newMatcherIndex, int firstActionIndex) {
+        matcherIndex = newMatcherIndex;
+        int actionIndex = firstActionIndex;
+        for (MatcherAction action : dynamicActions) {
+            action.setActionIndex(actionIndex++);
+        }
+        return actionIndex;
+    }
+
+    public int getMatcherIndex() {
+        return matcherIndex;
+    }
+
+    /**
+     * Creates the instance in which the values found by this matcher are collected before
+     * they are applied to the actual useragent. The fixed values are already in there.
+     * @return A new instance which is reused for all parses within the same ParseContext.
+     */
+    MutableUserAgent createNewValuesUserAgent() {
+        MutableUserAgent newValuesUserAgent = new MutableUserAgent(analyzer.getFieldSchema(), wantedFieldNames);
+        for (MatcherAction action : dynamicActions) {
+            if (action instanceof MatcherExtractAction) {
+                // Make sure the field actually exists
+                newValuesUserAgent.set(((MatcherExtractAction) action).getAttribute(), "Dummy", -9999);
+            }
+        }
+        for (MatcherAction action : fixedStringActions) {
+            ((MatcherExtractAction) action).setFixedValue(newValuesUserAgent);
+        }
+        return newValuesUserAgent;
+    }
+
     public Set<String> getAllPossibleFieldNames() {
         Set<String> results = new TreeSet<>();
         results.addAll(getAllPossibleFieldNames(dynamicActions));
@@ -365,15 +497,15 @@ public class Matcher implements Serializable {
     }
 
     public void lookingForRange(String treeName, WordRangeVisitor.Range range) {
-        analyzer.lookingForRange(treeName, range);
+        register(() -> analyzer.lookingForRange(treeName, range));
     }
 
     public void informMeAbout(MatcherAction matcherAction, String keyPattern) {
-        analyzer.informMeAbout(matcherAction, keyPattern);
+        register(() -> analyzer.informMeAbout(matcherAction, keyPattern));
     }
 
     public void informMeAboutPrefix(MatcherAction matcherAction, String keyPattern, String prefix) {
-        analyzer.informMeAboutPrefix(matcherAction, keyPattern, prefix);
+        register(() -> analyzer.informMeAboutPrefix(matcherAction, keyPattern, prefix));
     }
 
     private final Map<String, Set<MatcherAction>> informMatcherActionsAboutVariables = new HashMap<>(8);
@@ -389,8 +521,9 @@ public class Matcher implements Serializable {
      * IFF all success then we tell the userAgent
      *
      * @param userAgent The useragent that needs to analyzed
+     * @param parseContext The state of the current parse
      */
-    public void analyze(MutableUserAgent userAgent) {
+    public void analyze(MutableUserAgent userAgent, ParseContext parseContext) {
 
         if (verbose) {
             LOG.info("");
@@ -398,13 +531,13 @@ public class Matcher implements Serializable {
             LOG.info("ANALYSE ----------------------------");
             boolean good = true;
             for (MatcherAction action : dynamicActions) {
-                if (action.cannotBeValid()) {
+                if (action.cannotBeValid(parseContext)) {
                     LOG.error("CANNOT BE VALID : {}", action.getMatchExpression());
                     good = false;
                 }
             }
             for (MatcherAction action : dynamicActions) {
-                if (!action.obtainResult()) {
+                if (!action.obtainResult(parseContext)) {
                     LOG.error("FAILED : {}", action.getMatchExpression());
                     good = false;
                 }
@@ -416,85 +549,75 @@ public class Matcher implements Serializable {
                 return;
             }
         } else {
-            if (actionsThatRequireInput != actionsThatRequireInputAndReceivedInput) {
+            if (actionsThatRequireInput != parseContext.getActionsThatRequireInputAndReceivedInput(this)) {
                 return;
             }
             for (MatcherAction action : dynamicActions) {
-                if (action.obtainResult()) {
+                if (action.obtainResult(parseContext)) {
                     continue;
                 }
                 return; // If one of them is bad we skip the rest
             }
         }
-        userAgent.set(newValuesUserAgent, this);
+        userAgent.set(parseContext.getNewValuesUserAgent(this), this);
     }
 
     public boolean getVerbose() {
         return verbose;
     }
 
-    private boolean alreadyNotifiedAnalyzerWeReceivedInput = false;
-    void receivedInput() {
-        if (alreadyNotifiedAnalyzerWeReceivedInput) {
-            return;
-        }
-        analyzer.receivedInput(this);
-        alreadyNotifiedAnalyzerWeReceivedInput = true;
+    void receivedInput(ParseContext parseContext) {
+        parseContext.receivedInput(this);
     }
 
     public long getActionsThatRequireInput() {
         return actionsThatRequireInput;
     }
 
-    public long getActionsThatRequireInputAndReceivedInput() {
-        return actionsThatRequireInputAndReceivedInput;
+    public long getActionsThatRequireInputAndReceivedInput(ParseContext parseContext) {
+        return parseContext.getActionsThatRequireInputAndReceivedInput(this);
     }
 
-    private long actionsThatRequireInputAndReceivedInput = 0;
-    void gotMyFirstStartingPoint() {
-        actionsThatRequireInputAndReceivedInput++;
+    void gotMyFirstStartingPoint(ParseContext parseContext) {
+        parseContext.gotStartingPoint(this);
     }
 
-    protected void failImmediately() {
-        actionsThatRequireInputAndReceivedInput = Long.MIN_VALUE; // So it will never match the expected
+    protected void failImmediately(ParseContext parseContext) {
+        parseContext.failImmediately(this);
     }
 
-    public void setVerboseTemporarily(boolean newVerbose) {
+    public void reset(ParseContext parseContext) {
+        // If there are no dynamic actions we have fixed strings only
+        parseContext.reset(this);
         for (MatcherAction action : dynamicActions) {
-            action.setVerbose(newVerbose, true);
+            action.reset(parseContext);
         }
     }
 
-    public void reset() {
-        // If there are no dynamic actions we have fixed strings only
-        alreadyNotifiedAnalyzerWeReceivedInput = false;
-        actionsThatRequireInputAndReceivedInput = 0;
-        verbose = permanentVerbose;
+    public List<MatchesList.Match> getMatches(ParseContext parseContext) {
+        int numberOfMatches = 0;
         for (MatcherAction action : dynamicActions) {
-            action.reset();
+            numberOfMatches += action.getMatches(parseContext).size();
         }
-    }
-
-    public List<MatchesList.Match> getMatches() {
-        List<MatchesList.Match> allMatches = new ArrayList<>(128);
+        List<MatchesList.Match> allMatches = new ArrayList<>(numberOfMatches);
         for (MatcherAction action : dynamicActions) {
-            allMatches.addAll(action.getMatches());
+            allMatches.addAll(action.getMatches(parseContext));
         }
         return allMatches;
     }
 
-    public List<MatchesList.Match> getUsedMatches() {
+    public List<MatchesList.Match> getUsedMatches(ParseContext parseContext) {
         List<MatchesList.Match> allMatches = new ArrayList<>(128);
         for (MatcherAction action : dynamicActions) {
-            if (action.cannotBeValid()) {
+            if (action.cannotBeValid(parseContext)) {
                 return new ArrayList<>(); // There is NO way one of them is valid
             }
         }
         for (MatcherAction action : dynamicActions) {
-            if (!action.obtainResult()) {
+            if (!action.obtainResult(parseContext)) {
                 return new ArrayList<>(); // There is NO way one of them is valid
             } else {
-                allMatches.addAll(action.getMatches());
+                allMatches.addAll(action.getMatches(parseContext));
             }
         }
         return allMatches;
@@ -502,6 +625,14 @@ public class Matcher implements Serializable {
 
     @Override
     public String toString() {
+        return toString(null);
+    }
+
+    /**
+     * @param parseContext The state of a parse from which the matches are included (null = no matches).
+     * @return A human readable representation of this matcher.
+     */
+    public String toString(ParseContext parseContext) {
         StringBuilder sb = new StringBuilder(512);
         sb.append("MATCHER.(").append(matcherSourceLocation).append("):\n")
           .append("    VARIABLE:\n");
@@ -509,34 +640,28 @@ public class Matcher implements Serializable {
             if (action instanceof MatcherVariableAction) {
                 sb.append("        @").append(((MatcherVariableAction) action).getVariableName())
                     .append(":    ").append(action.getMatchExpression()).append('\n');
-                sb.append("        -->").append(action.getMatches().toStrings()).append('\n');
+                appendMatches(sb, action, parseContext);
             }
         }
         sb.append("    REQUIRE:\n");
         for (MatcherAction action : dynamicActions) {
             if (action instanceof MatcherRequireAction) {
                 sb.append("        ").append(action.getMatchExpression()).append('\n');
-                if (action.getMatches() != null) {
-                    sb.append("        -->").append(action.getMatches().toStrings()).append('\n');
-                }
+                appendMatches(sb, action, parseContext);
             }
         }
         sb.append("    FAIL_IF_FOUND:\n");
         for (MatcherAction action : dynamicActions) {
             if (action instanceof MatcherFailIfFoundAction) {
                 sb.append("        ").append(action.getMatchExpression()).append('\n');
-                if (action.getMatches() != null) {
-                    sb.append("        -->").append(action.getMatches().toStrings()).append('\n');
-                }
+                appendMatches(sb, action, parseContext);
             }
         }
         sb.append("    EXTRACT:\n");
         for (MatcherAction action : dynamicActions) {
             if (action instanceof MatcherExtractAction) {
                 sb.append("        ").append(action).append('\n');
-                if (action.getMatches() != null) {
-                    sb.append("        -->").append(action.getMatches()).append('\n');
-                }
+                appendMatches(sb, action, parseContext);
             }
         }
         for (MatcherAction action : fixedStringActions) {
@@ -544,4 +669,10 @@ public class Matcher implements Serializable {
         }
         return sb.toString();
     }
+
+    private void appendMatches(StringBuilder sb, MatcherAction action, ParseContext parseContext) {
+        if (parseContext != null) {
+            sb.append("        -->").append(action.getMatches(parseContext).toStrings()).append('\n');
+        }
+    }
 }
@@ -18,6 +18,8 @@
 package nl.basjes.parse.useragent.analyze;
 
 import nl.basjes.parse.useragent.analyze.WordRangeVisitor.Range;
+import nl.basjes.parse.useragent.analyze.treewalker.CompiledExpressions;
+import nl.basjes.parse.useragent.analyze.treewalker.CompiledExpressions.CompiledExpression;
 import nl.basjes.parse.useragent.analyze.treewalker.TreeExpressionEvaluator;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList.WalkResult;
 import nl.basjes.parse.useragent.parser.UserAgentTreeWalkerBaseVisitor;
@@ -59,8 +61,12 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static nl.basjes.parse.useragent.UserAgent.SYNTAX_ERROR;
 import static nl.basjes.parse.useragent.analyze.NumberRangeVisitor.NUMBER_RANGE_VISITOR;
@@ -89,31 +95,109 @@ public abstract class MatcherAction implements Serializable {
     private static final Logger LOG = LogManager.getLogger(MatcherAction.class);
 
     protected Matcher matcher;
-    private MatchesList matches;
+    private int initialMatchesListSize = 0;
     protected boolean mustHaveMatches = false;
 
+    // The dense index of this action (assigned during initialization) used to locate its state in a ParseContext.
+    private int actionIndex = -1;
+
+    void setActionIndex(int newActionIndex) {
+        actionIndex = newActionIndex;
+    }
+
+    int getActionIndex() {
+        return actionIndex;
+    }
+
+    int getInitialMatchesListSize() {
+        return initialMatchesListSize;
+    }
+
     boolean mustHaveMatches() {
         return mustHaveMatches;
     }
 
+    // The number of steps that were removed from the walk list because they cannot change the outcome.
+    private long prunedSteps = 0;
+
+    long getPrunedSteps() {
+        return prunedSteps;
+    }
+
+    // The functions that have the name of a lookup as their first argument.
+    private static final Set<String> LOOKUP_FUNCTIONS = new HashSet<>(Arrays.asList(
+        "LookUp", "IsInLookUp", "LookUpContains", "IsInLookUpContains",
+        "LookUpPrefix", "IsInLookUpPrefix", "IsNotInLookUpPrefix"));
+
+    /**
+     * Only the tokens of the expression are used (it is not parsed) so this can be done before
+     * the lookups are loaded. A name can be reported that is not actually a lookup, never the reverse.
+     * @return The names of the lookups and sets this action uses.
+     */
+    Set<String> getUsedLookupNames() {
+        UserAgentTreeWalkerLexer lexer = new UserAgentTreeWalkerLexer(CharStreams.fromString(matchExpression));
+        lexer.removeErrorListeners(); // The syntax errors are reported when the expression is parsed.
+        List<? extends Token> tokens = lexer.getAllTokens();
+
+        Set<String> lookupNames = new HashSet<>();
+        for (int i = 0; i < tokens.size() - 1; i++) {
+            Token token = tokens.get(i);
+            switch (token.getType()) {
+                case UserAgentTreeWalkerLexer.IN:
+                case UserAgentTreeWalkerLexer.NOTIN:
+                    // ?name and ?!name
+                    lookupNames.add(tokens.get(i + 1).getText());
+                    break;
+                default:
+                    // LookUp[name;...]
+                    if (LOOKUP_FUNCTIONS.contains(token.getText()) &&
+                        i + 2 < tokens.size() &&
+                        tokens.get(i + 1).getType() == UserAgentTreeWalkerLexer.BLOCKOPEN) {
+                        lookupNames.add(tokens.get(i + 2).getText());
+                    }
+                    break;
+            }
+        }
+        return lookupNames;
+    }
+
+    /**
+     * Only for actions of which the value is never used (only if there is a value).
+     * Removes the steps at the end of the walk list that can never fail.
+     */
+    void pruneTrailingStepsThatCannotFail() {
+        if (sharedEvaluator) {
+            // The steps are shared with all other actions that have the same expression so this one gets its own.
+            evaluator = new TreeExpressionEvaluator(compiledExpression.getRequiredPattern(), matcher, verbose);
+            sharedEvaluator = false;
+        }
+        prunedSteps += evaluator.pruneTrailingStepsThatCannotFail();
+    }
+
+    /**
+     * Replace the common sequences of walk steps with a single (fused) step.
+     * @return The number of steps that were removed.
+     */
+    long fuseSteps() {
+        return evaluator.fuseSteps();
+    }
+
     public void destroy() {
         evaluator.destroy();
     }
 
     boolean verbose = false;
-    private boolean verbosePermanent = false;
-    private boolean verboseTemporary = false;
 
     private void setVerbose(boolean newVerbose) {
-        setVerbose(newVerbose, false);
+        this.verbose = newVerbose;
     }
 
-    public void setVerbose(boolean newVerbose, boolean temporary) {
-        this.verbose = newVerbose;
-        if (!temporary) {
-            this.verbosePermanent = newVerbose;
-        }
-        this.verboseTemporary = temporary;
+    /**
+     * @param parseContext The state of the current parse
+     * @return If this action must log what happens during the current parse.
+     */
+    boolean isVerbose(ParseContext parseContext) {
+        return verbose || parseContext.isVerbose();
     }
 
     public String getMatchExpression() {
@@ -144,34 +228,30 @@ public abstract class MatcherAction implements Serializable {
         setVerbose(newMatcher.getVerbose());
     }
 
-    public long initialize() {
-        InitErrorListener errorListener = new InitErrorListener();
-
-        CodePointCharStream input = CharStreams.fromString(this.matchExpression);
-        UserAgentTreeWalkerLexer lexer = new UserAgentTreeWalkerLexer(input);
-
-        lexer.addErrorListener(errorListener);
+    // The compiled form of the matchExpression; only retained until the matcher has been initialized.
+    private transient CompiledExpression compiledExpression = null;
+    // If true the evaluator is shared with other actions that have the same expression and must not be changed.
+    private boolean sharedEvaluator = false;
 
-        CommonTokenStream tokens = new CommonTokenStream(lexer);
-        UserAgentTreeWalkerParser parser = new UserAgentTreeWalkerParser(tokens);
-
-        parser.addErrorListener(errorListener);
-
-        ParserRuleContext requiredPattern = parseWalkerExpression(parser);
-
-        // We couldn't ditch the double quotes around the fixed values in the parsing phase.
-        // So we ditch them here. We simply walk the tree and modify some of the tokens.
-        new UnQuoteValues().visit(requiredPattern);
+    public long initialize() {
+        CompiledExpressions compiledExpressions = verbose ? null : matcher.getCompiledExpressions();
+        if (compiledExpressions == null) {
+            compiledExpression = compile();
+            sharedEvaluator = false;
+        } else {
+            compiledExpression = compiledExpressions.get(getClass().getName(), matchExpression, this::compile);
+            sharedEvaluator = true;
+        }
 
-        // Now we create an evaluator instance
-        evaluator = new TreeExpressionEvaluator(requiredPattern, matcher, verbose);
+        ParserRuleContext requiredPattern = compiledExpression.getRequiredPattern();
+        evaluator = compiledExpression.getEvaluator();
 
         // Is a fixed value (i.e. no events will ever be fired)?
         String fixedValue = evaluator.getFixedValue();
         if (fixedValue != null) {
             setFixedValue(fixedValue);
             mustHaveMatches = false;
-            matches = new MatchesList(0);
+            initialMatchesListSize = 0;
             return 0; // Not interested in any patterns
         }
 
@@ -189,14 +269,43 @@ public abstract class MatcherAction implements Serializable {
             mustHaveMatches = false;
         }
 
-        int listSize = 0;
+        initialMatchesListSize = 0;
         if (informs > 0) {
-            listSize = 1;
+            initialMatchesListSize = 1;
         }
-        this.matches = new MatchesList(listSize);
         return informs;
     }
 
+    /**
+     * The parse tree is only needed during the initialization of the matcher.
+     */
+    void releaseCompiledExpression() {
+        compiledExpression = null;
+    }
+
+    private CompiledExpression compile() {
+        InitErrorListener errorListener = new InitErrorListener();
+
+        CodePointCharStream input = CharStreams.fromString(this.matchExpression);
+        UserAgentTreeWalkerLexer lexer = new UserAgentTreeWalkerLexer(input);
+
+        lexer.addErrorListener(errorListener);
+
+        CommonTokenStream tokens = new CommonTokenStream(lexer);
+        UserAgentTreeWalkerParser parser = new UserAgentTreeWalkerParser(tokens);
+
+        parser.addErrorListener(errorListener);
+
+        ParserRuleContext requiredPattern = parseWalkerExpression(parser);
+
+        // We couldn't ditch the double quotes around the fixed values in the parsing phase.
+        // So we ditch them here. We simply walk the tree and modify some of the tokens.
+        new UnQuoteValues().visit(requiredPattern);
+
+        // Now we create an evaluator instance
+        return new CompiledExpression(requiredPattern, new TreeExpressionEvaluator(requiredPattern, matcher, verbose));
+    }
+
     protected abstract ParserRuleContext parseWalkerExpression(UserAgentTreeWalkerParser parser);
 
     private static class UnQuoteValues extends UserAgentTreeWalkerBaseVisitor<Void> {
@@ -304,56 +413,64 @@ public abstract class MatcherAction implements Serializable {
      * @param key    The key of the node
      * @param value  The value that was found
      * @param result The node in the parser tree where the match occurred
+     * @param parseContext The state of the current parse
      */
-    public void inform(String key, String value, ParseTree result) {
-        matcher.receivedInput();
+    public void inform(String key, CharSequence value, ParseTree result, ParseContext parseContext) {
+        matcher.receivedInput(parseContext);
 
+        MatchesList matches = parseContext.getMatches(this);
         // Only if this needs input we tell the matcher on the first one.
         if (mustHaveMatches && matches.isEmpty()) {
-            matcher.gotMyFirstStartingPoint();
+            matcher.gotMyFirstStartingPoint(parseContext);
         }
         matches.add(key, value, result);
     }
 
-    protected abstract void inform(String key, WalkResult foundValue);
+    protected abstract void inform(String key, WalkResult foundValue, ParseContext parseContext);
 
     /**
+     * @param parseContext The state of the current parse
      * @return If it is impossible that this can be valid it returns true, else false.
      */
-    boolean cannotBeValid() {
+    boolean cannotBeValid(ParseContext parseContext) {
         if (mustHaveMatches) {
-            return matches.isEmpty();
+            return !parseContext.hasMatches(this);
         }
         return false;
     }
 
     /**
      * Called after all nodes have been notified.
+     * @param parseContext The state of the current parse
      * @return true if the obtainResult result was valid. False will fail the entire matcher this belongs to.
      */
-    public abstract boolean obtainResult();
+    public abstract boolean obtainResult(ParseContext parseContext);
 
-    boolean isValidWithoutMatches() {
-        return matches.isEmpty() && !evaluator.mustHaveMatches();
+    boolean isValidWithoutMatches(ParseContext parseContext) {
+        return !parseContext.hasMatches(this) && !evaluator.mustHaveMatches();
     }
 
     /**
      * Optimization: Only if there is a possibility that all actions for this matcher CAN be valid do we
      * actually perform the analysis and do the (expensive) tree walking and matching.
+     * @param parseContext The state of the current parse
      */
-    void processInformedMatches() {
-        for (MatchesList.Match match : matches) {
-            WalkResult matchedValue = evaluator.evaluate(match.getResult(), match.getKey(), match.getValue());
-            if (matchedValue != null) {
-                inform(match.getKey(), matchedValue);
-                return; // We always stick to the first match
+    void processInformedMatches(ParseContext parseContext) {
+        WalkResult walkResult = parseContext.getWalkResult();
+        if (parseContext.hasMatches(this)) {
+            for (MatchesList.Match match : parseContext.getMatches(this)) {
+                WalkResult matchedValue = evaluator.evaluate(match.getResult(), match.getKey(), match.getLazyValue(), walkResult);
+                if (matchedValue != null) {
+                    inform(match.getKey(), matchedValue, parseContext);
+                    return; // We always stick to the first match
+                }
             }
         }
 
-        if (isValidWithoutMatches()) {
-            WalkResult matchedValue = evaluator.evaluate(NULL_PARSE_TREE, null, null);
+        if (isValidWithoutMatches(parseContext)) {
+            WalkResult matchedValue = evaluator.evaluate(NULL_PARSE_TREE, null, null, walkResult);
             if (matchedValue != null) {
-                inform(null, matchedValue);
+                inform(null, matchedValue, parseContext);
             }
         }
     }
@@ -487,15 +604,12 @@ public abstract class MatcherAction implements Serializable {
 
     // ============================================================================================================
 
-    public void reset() {
-        matches.clear();
-        if (verboseTemporary) {
-            verbose = verbosePermanent;
-        }
+    public void reset(ParseContext parseContext) {
+        parseContext.reset(this);
     }
 
-    public MatchesList getMatches() {
-        return matches;
+    public MatchesList getMatches(ParseContext parseContext) {
+        return parseContext.getMatches(this);
     }
 
     @Override
@@ -504,11 +618,8 @@ public abstract class MatcherAction implements Serializable {
             "matchExpression='" + matchExpression + '\'' +
             ", evaluator=" + evaluator +
 //            ", matcher=" + matcher +
-            ", matches=" + matches +
             ", mustHaveMatches=" + mustHaveMatches +
             ", verbose=" + verbose +
-            ", verbosePermanent=" + verbosePermanent +
-            ", verboseTemporary=" + verboseTemporary +
             '}';
     }
 }
@@ -17,7 +17,7 @@
 
 package nl.basjes.parse.useragent.analyze;
 
-import nl.basjes.parse.useragent.AgentField.MutableAgentField;
+import nl.basjes.parse.useragent.UserAgent.MutableUserAgent;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList.WalkResult;
 import nl.basjes.parse.useragent.parser.UserAgentTreeWalkerParser;
 import org.antlr.v4.runtime.ParserRuleContext;
@@ -29,10 +29,8 @@ public class MatcherExtractAction extends MatcherAction {
 
     private final String attribute;
     private final long confidence;
-    private String foundValue = null;
     private String fixedValue = null;
     private final String                       expression;
-    private       MutableAgentField resultAgentField;
 
     @SuppressWarnings("unused") // Private constructor for serialization systems ONLY (like Kryo)
     private MatcherExtractAction() {
@@ -48,10 +46,6 @@ public class MatcherExtractAction extends MatcherAction {
         init(config, matcher);
     }
 
-    public void setResultAgentField(MutableAgentField newResultAgentField){
-        resultAgentField = newResultAgentField;
-    }
-
     protected ParserRuleContext parseWalkerExpression(UserAgentTreeWalkerParser parser) {
         return parser.matcherExtract();
     }
@@ -71,8 +65,8 @@ public class MatcherExtractAction extends MatcherAction {
         return attribute;
     }
 
-    public void inform(String key, WalkResult newlyFoundValue) {
-        if (verbose) {
+    public void inform(String key, WalkResult newlyFoundValue, ParseContext parseContext) {
+        if (isVerbose(parseContext)) {
             LOG.info("INFO  : EXTRACT ({}): {}", attribute, key);
             LOG.info("NEED  : EXTRACT ({}): {}", attribute, getMatchExpression());
         }
@@ -81,43 +75,50 @@ public class MatcherExtractAction extends MatcherAction {
          * This is also the priority in the fields.
          * So we always use the first value we find.
          */
-        if (this.foundValue == null) {
-            this.foundValue = newlyFoundValue.getValue();
-            if (verbose) {
+        if (parseContext.getFoundValue(this) == null) {
+            parseContext.setFoundValue(this, newlyFoundValue);
+            if (isVerbose(parseContext)) {
                 LOG.info("KEPT  : EXTRACT ({}): {}", attribute, key);
             }
         }
     }
 
-    public boolean obtainResult() {
-        processInformedMatches();
+    /**
+     * Puts the fixed value of this action in the provided set of new values.
+     * @param newValuesUserAgent The values that will be applied if the matcher succeeds.
+     */
+    void setFixedValue(MutableUserAgent newValuesUserAgent) {
+        setFixedValue(newValuesUserAgent, verbose);
+    }
+
+    private void setFixedValue(MutableUserAgent newValuesUserAgent, boolean logIt) {
+        if (logIt) {
+            LOG.info("Set fixedvalue ({})[{}]: {}", attribute, confidence, fixedValue);
+        }
+        newValuesUserAgent.setForced(attribute, fixedValue, confidence);
+    }
+
+    public boolean obtainResult(ParseContext parseContext) {
+        processInformedMatches(parseContext);
         if (fixedValue != null) {
-            if (verbose) {
-                LOG.info("Set fixedvalue ({})[{}]: {}", attribute, confidence, fixedValue);
-            }
-            resultAgentField.setValueForced(fixedValue, confidence);
+            setFixedValue(parseContext.getNewValuesUserAgent(matcher), isVerbose(parseContext));
             return true;
         }
+        WalkResult foundValue = parseContext.getFoundValue(this);
         if (foundValue != null) {
-            if (verbose) {
-                LOG.info("Set parsevalue ({})[{}]: {}", attribute, confidence, foundValue);
+            if (isVerbose(parseContext)) {
+                LOG.info("Set parsevalue ({})[{}]: {}", attribute, confidence, foundValue.getValue());
             }
-            resultAgentField.setValueForced(foundValue, confidence);
+            parseContext.getNewValuesUserAgent(matcher).setForced(attribute, foundValue.getValue(), confidence);
             return true;
         }
-        if (verbose) {
+        if (isVerbose(parseContext)) {
             LOG.info("Nothing found for {}", attribute);
         }
 
         return false;
     }
 
-    @Override
-    public void reset() {
-        super.reset();
-        this.foundValue = null;
-    }
-
     @Override
     public String toString() {
         if (isFixedValue()) {
@@ -42,7 +42,7 @@ public class MatcherFailIfFoundAction extends MatcherAction {
     @Override
     public long initialize() {
         long newEntries = super.initialize();
-        newEntries -= evaluator.pruneTrailingStepsThatCannotFail();
+        pruneTrailingStepsThatCannotFail();
         return newEntries;
     }
 
@@ -51,21 +51,19 @@ public class MatcherFailIfFoundAction extends MatcherAction {
                 "It is useless to put a fixed value \"" + fixedValue + "\" in the failIfFound section.");
     }
 
-    private boolean foundRequiredValue = false;
-
     @Override
-    public void inform(String key, String value, ParseTree result) {
-        super.inform(key, value, result);
+    public void inform(String key, CharSequence value, ParseTree result, ParseContext parseContext) {
+        super.inform(key, value, result, parseContext);
         // If there are NO additional steps then we can immediately conclude this is matcher must fail.
         if (evaluator.isEmpty()) {
-            matcher.failImmediately();
+            matcher.failImmediately(parseContext);
         }
     }
 
     @Override
-    public void inform(String key, WalkResult foundValue) {
-        foundRequiredValue = true;
-        if (verbose) {
+    public void inform(String key, WalkResult foundValue, ParseContext parseContext) {
+        parseContext.setFoundValue(this, foundValue);
+        if (isVerbose(parseContext)) {
             LOG.info("Info FailIfFound: {}", key);
             LOG.info("NEED FailIfFound: {}", getMatchExpression());
             LOG.info("KEPT FailIfFound: {}", key);
@@ -73,15 +71,9 @@ public class MatcherFailIfFoundAction extends MatcherAction {
     }
 
     @Override
-    public boolean obtainResult() {
-        processInformedMatches();
-        return !foundRequiredValue;
-    }
-
-    @Override
-    public void reset() {
-        super.reset();
-        foundRequiredValue = false;
+    public boolean obtainResult(ParseContext parseContext) {
+        processInformedMatches(parseContext);
+        return parseContext.getFoundValue(this) == null;
     }
 
     @Override
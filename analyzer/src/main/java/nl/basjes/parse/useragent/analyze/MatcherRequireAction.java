@@ -41,7 +41,7 @@ public class MatcherRequireAction extends MatcherAction {
     @Override
     public long initialize() {
         long newEntries = super.initialize();
-        newEntries -= evaluator.pruneTrailingStepsThatCannotFail();
+        pruneTrailingStepsThatCannotFail();
         return newEntries;
     }
 
@@ -50,12 +50,10 @@ public class MatcherRequireAction extends MatcherAction {
                 "It is useless to put a fixed value \"" + fixedValue + "\" in the require section.");
     }
 
-    private boolean foundRequiredValue = false;
-
     @Override
-    public void inform(String key, WalkResult foundValue) {
-        foundRequiredValue = true;
-        if (verbose) {
+    public void inform(String key, WalkResult foundValue, ParseContext parseContext) {
+        parseContext.setFoundValue(this, foundValue);
+        if (isVerbose(parseContext)) {
             LOG.info("Info REQUIRE: {}", key);
             LOG.info("NEED REQUIRE: {}", getMatchExpression());
             LOG.info("KEPT REQUIRE: {}", key);
@@ -63,15 +61,9 @@ public class MatcherRequireAction extends MatcherAction {
     }
 
     @Override
-    public boolean obtainResult() {
-        processInformedMatches();
-        return foundRequiredValue;
-    }
-
-    @Override
-    public void reset() {
-        super.reset();
-        foundRequiredValue = false;
+    public boolean obtainResult(ParseContext parseContext) {
+        processInformedMatches(parseContext);
+        return parseContext.getFoundValue(this) != null;
     }
 
     @Override
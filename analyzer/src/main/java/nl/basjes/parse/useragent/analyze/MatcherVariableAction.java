@@ -29,7 +29,6 @@ public class MatcherVariableAction extends MatcherAction {
     private static final Logger LOG = LogManager.getLogger(MatcherVariableAction.class);
 
     private final String variableName;
-    private transient WalkResult foundValue = null;
     private Set<MatcherAction> interestedActions;
 
     @SuppressWarnings("unused") // Private constructor for serialization systems ONLY (like Kryo)
@@ -55,8 +54,8 @@ public class MatcherVariableAction extends MatcherAction {
         return variableName;
     }
 
-    public void inform(String key, WalkResult newlyFoundValue) {
-        if (verbose) {
+    public void inform(String key, WalkResult newlyFoundValue, ParseContext parseContext) {
+        if (isVerbose(parseContext)) {
             LOG.info("INFO  : VARIABLE ({}): {}", variableName, key);
             LOG.info("NEED  : VARIABLE ({}): {}", variableName, getMatchExpression());
         }
@@ -65,29 +64,23 @@ public class MatcherVariableAction extends MatcherAction {
          * This is also the priority in the fields.
          * So we always use the first value we find.
          */
-        if (this.foundValue == null) {
-            this.foundValue = newlyFoundValue;
-            if (verbose) {
+        if (parseContext.getFoundValue(this) == null) {
+            parseContext.setFoundValue(this, newlyFoundValue);
+            if (isVerbose(parseContext)) {
                 LOG.info("KEPT  : VARIABLE ({}): {}", variableName, key);
             }
 
             if (interestedActions != null && !interestedActions.isEmpty()) {
                 for (MatcherAction action : interestedActions) {
-                    action.inform(variableName, newlyFoundValue.getValue(), newlyFoundValue.getTree());
+                    action.inform(variableName, newlyFoundValue.getValue(), newlyFoundValue.getTree(), parseContext);
                 }
             }
         }
     }
 
-    public boolean obtainResult() {
-        processInformedMatches();
-        return this.foundValue != null;
-    }
-
-    @Override
-    public void reset() {
-        super.reset();
-        this.foundValue = null;
+    public boolean obtainResult(ParseContext parseContext) {
+        processInformedMatches(parseContext);
+        return parseContext.getFoundValue(this) != null;
     }
 
     @Override
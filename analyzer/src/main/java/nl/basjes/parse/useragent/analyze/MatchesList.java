@@ -37,18 +37,18 @@ public final class MatchesList implements Collection<MatchesList.Match>, Seriali
 
     public static final class Match implements Serializable {
         private String key;
-        private String value;
+        private transient CharSequence value;
         private transient ParseTree result;
 
         @SuppressWarnings("unused") // Private constructor for serialization systems ONLY (like Kryo)
         private Match() {
         }
 
-        public Match(String key, String value, ParseTree result) {
+        public Match(String key, CharSequence value, ParseTree result) {
             fill(key, value, result);
         }
 
-        public void fill(String nKey, String nValue, ParseTree nResult) {
+        public void fill(String nKey, CharSequence nValue, ParseTree nResult) {
             this.key = nKey;
             this.value = nValue;
             this.result = nResult;
@@ -59,6 +59,13 @@ public final class MatchesList implements Collection<MatchesList.Match>, Seriali
         }
 
         public String getValue() {
+            return value == null ? null : value.toString();
+        }
+
+        /**
+         * @return The value as it was provided (i.e. a part of the input that has not been copied into a String yet).
+         */
+        public CharSequence getLazyValue() {
             return value;
         }
 
@@ -133,7 +140,7 @@ public final class MatchesList implements Collection<MatchesList.Match>, Seriali
         size = 0;
     }
 
-    public void add(String key, String value, ParseTree result) {
+    public void add(String key, CharSequence value, ParseTree result) {
         if (size >= maxSize) {
             increaseCapacity();
         }
@@ -0,0 +1,318 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.useragent.analyze;
+
+import nl.basjes.parse.useragent.UserAgent.MutableUserAgent;
+import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList.WalkResult;
+import nl.basjes.parse.useragent.metrics.MetricsListener;
+import nl.basjes.parse.useragent.parse.UserAgentTreeFlattener;
+
+import java.util.Arrays;
+
+/**
+ * All the state that changes while analyzing a single useragent.
+ * The Matchers and MatcherActions form a rule graph that is read only once it has been initialized.
+ * Everything that is recorded during a single parse (the matches, the values that were found,
+ * which matchers were touched, ...) lives in an instance of this class.
+ * This makes it possible for many threads to use the same analyzer at the same time.
+ * <p>
+ * A ParseContext is NOT thread safe: a parse takes an instance from a pool in the analyzer
+ * and no other thread uses it until it has been returned.
+ * The state is indexed by the dense matcher and action indexes that are assigned during initialization
+ * so a ParseContext does not hold any references to the matchers themselves.
+ * Only the indexes of the matchers and actions that were changed are recorded so resetting the state
+ * for the next parse only needs to visit those.
+ */
+public final class ParseContext {
+
+    // Per action
+    private final MatchesList[]      matches;
+    private final WalkResult[]       foundValues;
+    private final WalkResult[]       foundValueInstances;
+
+    // The result of the walk that is being evaluated (copied into the foundValueInstances when it is kept)
+    private final WalkResult         walkResult = new WalkResult();
+
+    // Per matcher
+    private final long[]             actionsThatRequireInputAndReceivedInput;
+    private final long[]             receivedInput; // Bitset
+    private final MutableUserAgent[] newValuesUserAgents;
+
+    // The indexes of the matchers that received input (and require input, these must be analyzed)
+    private int[]                    touchedMatchers = new int[32];
+    private int                      numberOfTouchedMatchers = 0;
+
+    // The indexes of all matchers that received input (these must be reset)
+    private int[]                    informedMatchers = new int[32];
+    private int                      numberOfInformedMatchers = 0;
+
+    // The indexes of the actions of which the matches or found value may have changed (these must be reset)
+    private final long[]             changedActionBits; // Bitset
+    private int[]                    changedActions = new int[32];
+    private int                      numberOfChangedActions = 0;
+
+    private final MetricsListener    metricsListener;
+
+    // The instance (with the lexer, parser, ...) that parses and walks the useragents with this context.
+    private UserAgentTreeFlattener   treeWalker = null;
+
+    // If the actions must log the details of the current parse (only for debugging).
+    private boolean                  verbose = false;
+
+    public ParseContext(int numberOfMatchers, int numberOfActions) {
+        this(numberOfMatchers, numberOfActions, null);
+    }
+
+    public ParseContext(int numberOfMatchers, int numberOfActions, MetricsListener newMetricsListener) {
+        metricsListener                         = newMetricsListener;
+        matches                                 = new MatchesList[numberOfActions];
+        foundValues                             = new WalkResult[numberOfActions];
+        foundValueInstances                     = new WalkResult[numberOfActions];
+        actionsThatRequireInputAndReceivedInput = new long[numberOfMatchers];
+        receivedInput                           = new long[bitsetSize(numberOfMatchers)];
+        newValuesUserAgents                     = new MutableUserAgent[numberOfMatchers];
+        changedActionBits                       = new long[bitsetSize(numberOfActions)];
+    }
+
+    private static int bitsetSize(int numberOfBits) {
+        return (numberOfBits + 63) >>> 6;
+    }
+
+    private static boolean isSet(long[] bitset, int index) {
+        return (bitset[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private static void set(long[] bitset, int index) {
+        bitset[index >>> 6] |= 1L << index;
+    }
+
+    private static void clear(long[] bitset, int index) {
+        bitset[index >>> 6] &= ~(1L << index);
+    }
+
+    private static int[] append(int[] list, int size, int value) {
+        int[] result = list;
+        if (size == result.length) {
+            result = Arrays.copyOf(result, result.length * 2);
+        }
+        result[size] = value;
+        return result;
+    }
+
+    /**
+     * @return Where the measurements of this parse must be reported (null = do not measure).
+     */
+    public MetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
+    /**
+     * @return The instance that is reused to parse and walk the useragents with this context (can be null).
+     */
+    public UserAgentTreeFlattener getTreeWalker() {
+        return treeWalker;
+    }
+
+    public void setTreeWalker(UserAgentTreeFlattener newTreeWalker) {
+        this.treeWalker = newTreeWalker;
+    }
+
+    /**
+     * @return If the actions must log the details of the current parse.
+     */
+    public boolean isVerbose() {
+        return verbose;
+    }
+
+    /**
+     * Only for the current parse: a reset turns this off again.
+     * @param newVerbose If the actions must log the details of the current parse.
+     */
+    public void setVerbose(boolean newVerbose) {
+        this.verbose = newVerbose;
+    }
+
+    // ------------------------------------------
+    // Matchers
+
+    /**
+     * @return The number of matchers that received input during the current parse.
+     */
+    public int getNumberOfTouchedMatchers() {
+        return numberOfTouchedMatchers;
+    }
+
+    /**
+     * @param touchedIndex Which of the touched matchers (0 .. getNumberOfTouchedMatchers()-1).
+     * @return The matcher index of the touched matcher.
+     */
+    public int getTouchedMatcherIndex(int touchedIndex) {
+        return touchedMatchers[touchedIndex];
+    }
+
+    /**
+     * Forget which matchers received input (without resetting them).
+     */
+    public void clearTouchedMatchers() {
+        numberOfTouchedMatchers = 0;
+    }
+
+    /**
+     * Record that the matcher received input.
+     * @param matcher The matcher that received input.
+     * @return true if this was the first input for this matcher during the current parse.
+     */
+    boolean receivedInput(Matcher matcher) {
+        int matcherIndex = matcher.getMatcherIndex();
+        if (isSet(receivedInput, matcherIndex)) {
+            return false;
+        }
+        set(receivedInput, matcherIndex);
+        informedMatchers = append(informedMatchers, numberOfInformedMatchers++, matcherIndex);
+        if (matcher.getActionsThatRequireInput() != 0) {
+            touchedMatchers = append(touchedMatchers, numberOfTouchedMatchers++, matcherIndex);
+        }
+        return true;
+    }
+
+    void gotStartingPoint(Matcher matcher) {
+        actionsThatRequireInputAndReceivedInput[matcher.getMatcherIndex()]++;
+    }
+
+    void failImmediately(Matcher matcher) {
+        // So it will never match the expected
+        actionsThatRequireInputAndReceivedInput[matcher.getMatcherIndex()] = Long.MIN_VALUE;
+    }
+
+    long getActionsThatRequireInputAndReceivedInput(Matcher matcher) {
+        return actionsThatRequireInputAndReceivedInput[matcher.getMatcherIndex()];
+    }
+
+    MutableUserAgent getNewValuesUserAgent(Matcher matcher) {
+        int matcherIndex = matcher.getMatcherIndex();
+        MutableUserAgent newValuesUserAgent = newValuesUserAgents[matcherIndex];
+        if (newValuesUserAgent == null) {
+            newValuesUserAgent = matcher.createNewValuesUserAgent();
+            newValuesUserAgents[matcherIndex] = newValuesUserAgent;
+        }
+        return newValuesUserAgent;
+    }
+
+    void reset(Matcher matcher) {
+        resetMatcher(matcher.getMatcherIndex());
+    }
+
+    private void resetMatcher(int matcherIndex) {
+        actionsThatRequireInputAndReceivedInput[matcherIndex] = 0;
+        clear(receivedInput, matcherIndex);
+    }
+
+    // ------------------------------------------
+    // Actions
+
+    /**
+     * @param action The action for which the matches are needed.
+     * @return The matches the action received during the current parse (never null).
+     */
+    MatchesList getMatches(MatcherAction action) {
+        int actionIndex = action.getActionIndex();
+        changedAction(actionIndex);
+        MatchesList actionMatches = matches[actionIndex];
+        if (actionMatches == null) {
+            actionMatches = new MatchesList(action.getInitialMatchesListSize());
+            matches[actionIndex] = actionMatches;
+        }
+        return actionMatches;
+    }
+
+    boolean hasMatches(MatcherAction action) {
+        MatchesList actionMatches = matches[action.getActionIndex()];
+        return actionMatches != null && !actionMatches.isEmpty();
+    }
+
+    WalkResult getFoundValue(MatcherAction action) {
+        return foundValues[action.getActionIndex()];
+    }
+
+    /**
+     * Retain the found value; this is copied into an instance that is reused for the next parse.
+     * @param action The action that found the value.
+     * @param foundValue The found value (the provided instance can be reused directly after this call).
+     */
+    void setFoundValue(MatcherAction action, WalkResult foundValue) {
+        int actionIndex = action.getActionIndex();
+        changedAction(actionIndex);
+        if (foundValue == null) {
+            foundValues[actionIndex] = null;
+            return;
+        }
+        WalkResult foundValueInstance = foundValueInstances[actionIndex];
+        if (foundValueInstance == null) {
+            foundValueInstance = new WalkResult();
+            foundValueInstances[actionIndex] = foundValueInstance;
+        }
+        foundValues[actionIndex] = foundValueInstance.fill(foundValue);
+    }
+
+    /**
+     * @return The instance that is filled by evaluating a walk (only valid until the next evaluation).
+     */
+    WalkResult getWalkResult() {
+        return walkResult;
+    }
+
+    void reset(MatcherAction action) {
+        resetAction(action.getActionIndex());
+    }
+
+    private void changedAction(int actionIndex) {
+        if (!isSet(changedActionBits, actionIndex)) {
+            set(changedActionBits, actionIndex);
+            changedActions = append(changedActions, numberOfChangedActions++, actionIndex);
+        }
+    }
+
+    private void resetAction(int actionIndex) {
+        MatchesList actionMatches = matches[actionIndex];
+        if (actionMatches != null) {
+            actionMatches.clear();
+        }
+        foundValues[actionIndex] = null;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Resets all state that was changed during the previous parse.
+     * Only the matchers and actions that were changed are visited.
+     */
+    public void reset() {
+        for (int i = 0; i < numberOfInformedMatchers; i++) {
+            resetMatcher(informedMatchers[i]);
+        }
+        numberOfInformedMatchers = 0;
+        numberOfTouchedMatchers = 0;
+
+        for (int i = 0; i < numberOfChangedActions; i++) {
+            int actionIndex = changedActions[i];
+            resetAction(actionIndex);
+            clear(changedActionBits, actionIndex);
+        }
+        numberOfChangedActions = 0;
+        verbose = false;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.analyze.treewalker;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Many matcher expressions (like agent.(1)product.(1)name="Chrome") are textually identical
+ * across matchers and rule files. Each distinct expression is only parsed, unquoted and turned into
+ * a WalkList once; all actions with that expression share the result (which they must not change).
+ * This is only retained while the matchers are initialized and can be used from multiple threads.
+ */
+public class CompiledExpressions {
+
+    public static final class CompiledExpression {
+        private final ParserRuleContext       requiredPattern;
+        private final TreeExpressionEvaluator evaluator;
+
+        public CompiledExpression(ParserRuleContext requiredPattern, TreeExpressionEvaluator evaluator) {
+            this.requiredPattern = requiredPattern;
+            this.evaluator = evaluator;
+        }
+
+        /**
+         * @return The parse tree of the expression (with the quotes already removed from the values).
+         */
+        public ParserRuleContext getRequiredPattern() {
+            return requiredPattern;
+        }
+
+        public TreeExpressionEvaluator getEvaluator() {
+            return evaluator;
+        }
+    }
+
+    private final Map<String, CompiledExpression> expressions = new ConcurrentHashMap<>();
+    private final AtomicInteger                   requests    = new AtomicInteger();
+
+    /**
+     * @param type The type of expression (i.e. the grammar rule that is used to parse it).
+     * @param expression The text of the expression.
+     * @param compiler Creates the compiled expression if this one has not been seen before.
+     * @return The (shared) compiled expression.
+     */
+    public CompiledExpression get(String type, String expression, Supplier<CompiledExpression> compiler) {
+        requests.incrementAndGet();
+        return expressions.computeIfAbsent(type + ':' + expression, k -> compiler.get());
+    }
+
+    /**
+     * @return The number of times a compiled expression was requested.
+     */
+    public int getNumberOfRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return The number of distinct expressions that were actually compiled.
+     */
+    public int getNumberOfExpressions() {
+        return expressions.size();
+    }
+}
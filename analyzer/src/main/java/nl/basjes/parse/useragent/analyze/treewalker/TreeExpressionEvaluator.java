@@ -64,7 +64,7 @@ public class TreeExpressionEvaluator implements Serializable {
         this.requiredPatternText = requiredPattern.getText();
         this.verbose = verbose;
         this.fixedValue = calculateFixedValue(requiredPattern);
-        walkList = new WalkList(requiredPattern, matcher.getLookups(), matcher.getLookupSets(), verbose);
+        walkList = new WalkList(requiredPattern, matcher.getLookupStructures(), verbose);
     }
 
     public boolean isEmpty() {
@@ -146,13 +146,24 @@ public class TreeExpressionEvaluator implements Serializable {
 
     // ------------------------------------------
 
-    public WalkResult evaluate(ParseTree tree, String key, String value) {
+    public WalkResult evaluate(ParseTree tree, String key, CharSequence value) {
+        return evaluate(tree, key, value, new WalkResult());
+    }
+
+    /**
+     * @param tree The node in the parse tree to start from.
+     * @param key The path of the node.
+     * @param value The value at this node.
+     * @param walkResult The instance that is filled with the result.
+     * @return Either null or the filled walkResult.
+     */
+    public WalkResult evaluate(ParseTree tree, String key, CharSequence value, WalkResult walkResult) {
         if (verbose) {
             LOG.info("Evaluate: {} => {}", key, value);
             LOG.info("Pattern : {}", requiredPatternText);
             LOG.info("WalkList: {}", walkList);
         }
-        WalkResult result = walkList.walk(tree, value);
+        WalkResult result = walkList.walk(tree, value, walkResult);
         if (verbose) {
             LOG.info("Evaluate: Result = {}", result == null ? "null" : result.getValue());
         }
@@ -170,4 +181,8 @@ public class TreeExpressionEvaluator implements Serializable {
     public long pruneTrailingStepsThatCannotFail() {
         return walkList.pruneTrailingStepsThatCannotFail();
     }
+
+    public long fuseSteps() {
+        return walkList.fuseSteps();
+    }
 }
@@ -31,6 +31,7 @@ import javax.annotation.Nullable;
 import java.io.Serializable;
 
 import static nl.basjes.parse.useragent.utils.AntlrUtils.getSourceText;
+import static nl.basjes.parse.useragent.utils.AntlrUtils.getSourceTextView;
 
 public abstract class Step implements Serializable {
     protected static final Logger LOG = LogManager.getLogger(Step.class);
@@ -58,23 +59,24 @@ public abstract class Step implements Serializable {
         logprefix = sb.toString();
     }
 
-    protected final WalkResult walkNextStep(@Nonnull ParseTree tree, @Nullable String value) {
+    protected final WalkResult walkNextStep(@Nonnull ParseTree tree, @Nullable CharSequence value, @Nonnull WalkResult walkResult) {
         if (nextStep == null) {
-            String result = value;
             if (value == null) {
-                result = getSourceText((ParserRuleContext)tree);
+                walkResult.fillWithSourceText(tree);
+            } else {
+                walkResult.fill(tree, value);
             }
             if (verbose) {
-                LOG.info("{} Final (implicit) step: {}", logprefix, result);
+                LOG.info("{} Final (implicit) step: {}", logprefix, walkResult.getValue());
             }
-            return new WalkResult(tree, result);
+            return walkResult;
         }
 
         if (verbose) {
             LOG.info("{} Tree: >>>{}<<<", logprefix, getSourceText((ParserRuleContext)tree));
             LOG.info("{} Enter step({}): {}", logprefix, stepNr, nextStep);
         }
-        WalkResult result = nextStep.walk(tree, value);
+        WalkResult result = nextStep.walk(tree, value, walkResult);
         if (verbose) {
             LOG.info("{} Result: >>>{}<<<", logprefix, result);
             LOG.info("{} Leave step({}): {}", logprefix, result == null ? "-" : "+", nextStep);
@@ -100,10 +102,23 @@ public abstract class Step implements Serializable {
             || tree instanceof TerminalNode;
     }
 
-    protected String getActualValue(@Nonnull ParseTree tree, @Nullable String value) {
+    protected String getActualValue(@Nonnull ParseTree tree, @Nullable CharSequence value) {
         if (value == null) {
             return getSourceText((ParserRuleContext)tree);
         }
+        return value.toString();
+    }
+
+    /**
+     * The same as getActualValue but if possible without copying the value into a new String.
+     * @param tree  The current tree.
+     * @param value The value provided by the previous step.
+     * @return The actual value.
+     */
+    protected CharSequence getActualValueView(@Nonnull ParseTree tree, @Nullable CharSequence value) {
+        if (value == null) {
+            return getSourceTextView((ParserRuleContext)tree);
+        }
         return value;
     }
 
@@ -114,9 +129,20 @@ public abstract class Step implements Serializable {
      * @param tree  The tree to walk into.
      * @param value The string representation of the previous step (needed for compare and lookup operations).
      *              The null value means to use the implicit 'full' value (i.e. getSourceText(tree) )
+     * @param walkResult The instance that is filled with the result (provided by the caller to avoid creating one).
+     * @return Either null or the walkResult filled with the actual value that was found.
+     */
+    public abstract WalkResult walk(@Nonnull ParseTree tree, @Nullable CharSequence value, @Nonnull WalkResult walkResult);
+
+    /**
+     * The same as walk(tree, value, walkResult) with a new WalkResult.
+     * @param tree  The tree to walk into.
+     * @param value The string representation of the previous step.
      * @return Either null or the actual value that was found.
      */
-    public abstract WalkResult walk(@Nonnull ParseTree tree, @Nullable String value);
+    public WalkResult walk(@Nonnull ParseTree tree, @Nullable CharSequence value) {
+        return walk(tree, value, new WalkResult());
+    }
 
     /**
      * Some steps cannot fail.
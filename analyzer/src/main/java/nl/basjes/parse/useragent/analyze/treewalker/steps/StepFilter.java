@@ -0,0 +1,60 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.useragent.analyze.treewalker.steps;
+
+import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList.WalkResult;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A step that only checks the value: it either fails or it passes the same tree and value to the next step.
+ * Because of this a sequence of these steps can be fused into a single step.
+ */
+public abstract class StepFilter extends Step {
+
+    /**
+     * @param actualValue The actual value of the current tree.
+     * @return If this value passes this filter.
+     */
+    public abstract boolean passes(@Nonnull CharSequence actualValue);
+
+    @Override
+    public WalkResult walk(@Nonnull ParseTree tree, @Nullable CharSequence value, @Nonnull WalkResult walkResult) {
+        CharSequence actualValue = getActualValueView(tree, value);
+
+        if (passes(actualValue)) {
+            return walkNextStep(tree, actualValue, walkResult);
+        }
+        return null;
+    }
+
+    /**
+     * @param filters The filters to apply.
+     * @param actualValue The actual value of the current tree.
+     * @return If this value passes all of the filters.
+     */
+    public static boolean passesAll(@Nonnull StepFilter[] filters, @Nonnull CharSequence actualValue) {
+        for (StepFilter filter : filters) {
+            if (!filter.passes(actualValue)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -17,7 +17,6 @@
 
 package nl.basjes.parse.useragent.analyze.treewalker.steps;
 
-import nl.basjes.parse.useragent.analyze.InvalidParserConfigurationException;
 import nl.basjes.parse.useragent.analyze.WordRangeVisitor;
 import nl.basjes.parse.useragent.analyze.WordRangeVisitor.Range;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.compare.StepContains;
@@ -29,6 +28,9 @@ import nl.basjes.parse.useragent.analyze.treewalker.steps.compare.StepIsNotInSet
 import nl.basjes.parse.useragent.analyze.treewalker.steps.compare.StepIsNull;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.compare.StepNotEquals;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.compare.StepStartsWith;
+import nl.basjes.parse.useragent.analyze.treewalker.steps.fused.StepFusedDown;
+import nl.basjes.parse.useragent.analyze.treewalker.steps.fused.StepFusedFilters;
+import nl.basjes.parse.useragent.analyze.treewalker.steps.lookup.LookupStructures;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.lookup.StepIsInLookupContains;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.lookup.StepIsInLookupPrefix;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.lookup.StepIsNotInLookupPrefix;
@@ -100,8 +102,6 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -113,19 +113,57 @@ import static nl.basjes.parse.useragent.parser.UserAgentTreeWalkerParser.StepWor
 public class WalkList implements Serializable {
     private static final Logger LOG = LogManager.getLogger(WalkList.class);
 
-    private final Map<String, Map<String, String>> lookups;
-    private final Map<String, Set<String>>         lookupSets;
     private final List<Step> steps = new ArrayList<>();
 
     private final boolean verbose;
 
+    private boolean fused = false;
+
+    /**
+     * The result of a walk.
+     * Instead of creating a new instance for every walk the caller provides an instance that the steps fill
+     * (like the MatchesList that reuses its Match instances).
+     */
     public static class WalkResult {
-        private final ParseTree tree;
-        private final String value;
+        private ParseTree tree;
+        private CharSequence value;
+        // If true the value is the text of the tree (which is only retrieved if it is needed).
+        private boolean valueIsSourceText;
+
+        public WalkResult() {
+        }
+
+        /**
+         * @param tree The node in the parse tree where the walk ended.
+         * @param value The value; this is only turned into a String when getValue is called.
+         */
+        public WalkResult(ParseTree tree, CharSequence value) {
+            fill(tree, value);
+        }
+
+        public WalkResult fill(ParseTree newTree, CharSequence newValue) {
+            this.tree = newTree;
+            this.value = newValue;
+            this.valueIsSourceText = false;
+            return this;
+        }
+
+        /**
+         * @param newTree The node in the parse tree where the walk ended and of which the text is the value.
+         * @return This instance
+         */
+        public WalkResult fillWithSourceText(ParseTree newTree) {
+            this.tree = newTree;
+            this.value = null;
+            this.valueIsSourceText = true;
+            return this;
+        }
 
-        public WalkResult(ParseTree tree, String value) {
-            this.tree = tree;
-            this.value = value;
+        public WalkResult fill(WalkResult other) {
+            this.tree = other.tree;
+            this.value = other.value;
+            this.valueIsSourceText = other.valueIsSourceText;
+            return this;
         }
 
         public ParseTree getTree() {
@@ -133,22 +171,24 @@ public class WalkList implements Serializable {
         }
 
         public String getValue() {
-            return value;
+            if (valueIsSourceText) {
+                value = AntlrUtils.getSourceText((ParserRuleContext) tree);
+                valueIsSourceText = false;
+            }
+            return value == null ? null : value.toString();
         }
 
         @Override
         public String toString() {
             return "WalkResult{" +
                 "tree=" + (tree == null ? ">>>NULL<<<" : tree.getText()) +
-                ", value=" + (value == null ? ">>>NULL<<<" : '\'' + value + '\'') +
+                ", value=" + (getValue() == null ? ">>>NULL<<<" : "'" + getValue() + "'") +
                 '}';
         }
     }
 
     @SuppressWarnings("unused") // Private constructor for serialization systems ONLY (like Kryo)
     private WalkList() {
-        lookups = Collections.emptyMap();
-        lookupSets = Collections.emptyMap();
         verbose = false;
     }
 
@@ -156,11 +196,15 @@ public class WalkList implements Serializable {
                     Map<String, Map<String, String>> lookups,
                     Map<String, Set<String>> lookupSets,
                     boolean verbose) {
-        this.lookups = lookups;
-        this.lookupSets = lookupSets;
+        this(requiredPattern, new LookupStructures(lookups, lookupSets), verbose);
+    }
+
+    public WalkList(ParserRuleContext requiredPattern,
+                    LookupStructures lookupStructures,
+                    boolean verbose) {
         this.verbose = verbose;
         // Generate the walkList from the requiredPattern
-        new WalkListBuilder().visit(requiredPattern);
+        new WalkListBuilder(lookupStructures).visit(requiredPattern);
         linkSteps();
 
         int i = 1;
@@ -177,8 +221,6 @@ public class WalkList implements Serializable {
     public void destroy() {
         steps.forEach(Step::destroy);
         steps.clear();
-        lookups.clear();
-        lookupSets.clear();
     }
 
     public boolean isEmpty() {
@@ -217,20 +259,83 @@ public class WalkList implements Serializable {
         Step lastRelevantStep = steps.get(lastRelevantStepIndex);
         lastRelevantStep.setNextStep(lastRelevantStepIndex, null);
 
+        long prunedSteps = ((long)steps.size()) - (lastRelevantStepIndex + 1);
         steps.subList(lastRelevantStepIndex + 1, steps.size()).clear();
-        return ((long)steps.size()) - (lastRelevantStepIndex + 1);
+        return prunedSteps;
     }
 
-    public WalkResult walk(@Nonnull ParseTree tree, @Nullable String value) {
+    /**
+     * Replace the common sequences of steps with a single step that does the same.
+     * <ul>
+     * <li>An Up followed by a Down and a Down followed by filters (like Equals) is replaced by a single StepFusedDown.</li>
+     * <li>Two or more consecutive filters are replaced by a single StepFusedFilters.</li>
+     * </ul>
+     * This must be done after the steps that cannot fail have been pruned.
+     * A WalkList can be shared by several actions (with the same expression) so this is only done once.
+     * @return The number of steps that were removed.
+     */
+    public long fuseSteps() {
+        if (fused) {
+            return 0;
+        }
+        fused = true;
+        List<Step> fusedSteps = new ArrayList<>(steps.size());
+        int index = 0;
+        while (index < steps.size()) {
+            Step step = steps.get(index);
+            boolean isUp = step instanceof StepUp &&
+                index + 1 < steps.size() && steps.get(index + 1) instanceof StepDown;
+            int downIndex = isUp ? index + 1 : index;
+            boolean isDown = steps.get(downIndex) instanceof StepDown;
+
+            int firstFilter = isDown ? downIndex + 1 : index;
+            int endOfFilters = firstFilter;
+            while (endOfFilters < steps.size() && steps.get(endOfFilters) instanceof StepFilter) {
+                endOfFilters++;
+            }
+            int numberOfFilters = endOfFilters - firstFilter;
+
+            if (isUp || (isDown && numberOfFilters >= 1) || numberOfFilters >= 2) {
+                StepFilter[] filters = steps.subList(firstFilter, endOfFilters).toArray(new StepFilter[0]);
+                steps.subList(index, endOfFilters).forEach(Step::destroy);
+                if (isDown) {
+                    fusedSteps.add(new StepFusedDown(isUp, (StepDown) steps.get(downIndex), filters));
+                } else {
+                    fusedSteps.add(new StepFusedFilters(filters));
+                }
+                index = endOfFilters;
+            } else {
+                fusedSteps.add(step);
+                index++;
+            }
+        }
+
+        long removedSteps = (long) steps.size() - fusedSteps.size();
+        if (removedSteps > 0) {
+            steps.clear();
+            steps.addAll(fusedSteps);
+            linkSteps();
+            if (verbose) {
+                steps.forEach(step -> step.setVerbose(true));
+            }
+        }
+        return removedSteps;
+    }
+
+    public WalkResult walk(@Nonnull ParseTree tree, @Nullable CharSequence value) {
+        return walk(tree, value, new WalkResult());
+    }
+
+    public WalkResult walk(@Nonnull ParseTree tree, @Nullable CharSequence value, @Nonnull WalkResult walkResult) {
         if (steps.isEmpty()) {
-            return new WalkResult(tree, value);
+            return walkResult.fill(tree, value);
         }
         Step firstStep = steps.get(0);
         if (verbose) {
             Step.LOG.info("Tree: >>>{}<<<", AntlrUtils.getSourceText((ParserRuleContext)tree));
             Step.LOG.info("Enter step: {}", firstStep);
         }
-        WalkResult result = firstStep.walk(tree, value);
+        WalkResult result = firstStep.walk(tree, value, walkResult);
         if (verbose) {
             Step.LOG.info("Leave step ({}): {}", result == null ? "-" : "+", firstStep);
         }
@@ -275,6 +380,12 @@ public class WalkList implements Serializable {
 
     private class WalkListBuilder extends UserAgentTreeWalkerBaseVisitor<Void> {
 
+        private final LookupStructures lookupStructures;
+
+        WalkListBuilder(LookupStructures lookupStructures) {
+            this.lookupStructures = lookupStructures;
+        }
+
         // Because we are jumping in 'mid way' we need to skip creating steps until that point.
         boolean foundHashEntryPoint = false;
 
@@ -318,7 +429,7 @@ public class WalkList implements Serializable {
             fromHereItCannotBeInHashMapAnymore();
 
             String lookupName = ctx.lookup.getText();
-            Map<String, String> lookup = getLookup(lookupName);
+            Map<String, String> lookup = lookupStructures.getLookup(lookupName);
 
             add(new StepLookup(lookupName, lookup, extractText(ctx.defaultValue)));
             return null; // Void
@@ -331,10 +442,9 @@ public class WalkList implements Serializable {
             fromHereItCannotBeInHashMapAnymore();
 
             String lookupName = ctx.lookup.getText();
-            Map<String, String> lookup = getLookup(lookupName);
 
             // No need to write new code for essentially the same in a different syntax
-            add(new StepIsInSet(lookupName, new LinkedHashSet<>(lookup.keySet())));
+            add(new StepIsInSet(lookupName, lookupStructures.getLookupKeySet(lookupName)));
             return null; // Void
         }
 
@@ -345,9 +455,8 @@ public class WalkList implements Serializable {
             fromHereItCannotBeInHashMapAnymore();
 
             String lookupName = ctx.lookup.getText();
-            Map<String, String> lookup = getLookup(lookupName);
 
-            add(new StepLookupContains(lookupName, lookup, extractText(ctx.defaultValue)));
+            add(new StepLookupContains(lookupName, lookupStructures, extractText(ctx.defaultValue)));
             return null; // Void
         }
 
@@ -358,9 +467,8 @@ public class WalkList implements Serializable {
             fromHereItCannotBeInHashMapAnymore();
 
             String lookupName = ctx.lookup.getText();
-            Map<String, String> lookup = getLookup(lookupName);
 
-            add(new StepLookupPrefix(lookupName, lookup, extractText(ctx.defaultValue)));
+            add(new StepLookupPrefix(lookupName, lookupStructures.getLookupPrefixMap(lookupName), extractText(ctx.defaultValue)));
             return null; // Void
         }
 
@@ -372,9 +480,8 @@ public class WalkList implements Serializable {
             fromHereItCannotBeInHashMapAnymore();
 
             String lookupName = ctx.lookup.getText();
-            Map<String, String> lookup = getLookup(lookupName);
 
-            add(new StepIsInLookupContains(lookupName, lookup));
+            add(new StepIsInLookupContains(lookupName, lookupStructures.getLookupAutomaton(lookupName)));
             return null; // Void
         }
 
@@ -386,9 +493,8 @@ public class WalkList implements Serializable {
             fromHereItCannotBeInHashMapAnymore();
 
             String lookupName = ctx.lookup.getText();
-            Map<String, String> lookup = getLookup(lookupName);
 
-            add(new StepIsInLookupPrefix(lookupName, lookup));
+            add(new StepIsInLookupPrefix(lookupName, lookupStructures.getLookupPrefixMap(lookupName)));
             return null; // Void
         }
 
@@ -398,18 +504,8 @@ public class WalkList implements Serializable {
 
             fromHereItCannotBeInHashMapAnymore();
 
-            String              lookupName = ctx.lookup.getText();
-            Set<String>         lookupSet  = lookupSets.get(lookupName);
-            if (lookupSet != null) {
-                add(new StepIsNotInLookupPrefix(lookupName, lookupSet));
-            } else {
-                Map<String, String> lookup     = lookups.get(lookupName);
-                if (lookup != null) {
-                    add(new StepIsNotInLookupPrefix(lookupName, lookup));
-                } else {
-                    throw new InvalidParserConfigurationException("Missing lookup/set \"" + lookupName + "\" ");
-                }
-            }
+            String lookupName = ctx.lookup.getText();
+            add(new StepIsNotInLookupPrefix(lookupName, lookupStructures.getLookupSetPrefixMap(lookupName)));
 
             return null; // Void
         }
@@ -422,14 +518,6 @@ public class WalkList implements Serializable {
             return null; // Void
         }
 
-        private Map<String, String> getLookup(String lookupName) {
-            Map<String, String> lookup = lookups.get(lookupName);
-            if (lookup == null) {
-                throw new InvalidParserConfigurationException("Missing lookup \"" + lookupName + "\" ");
-            }
-            return lookup;
-        }
-
         @Override
         public Void visitMatcherCleanVersion(MatcherCleanVersionContext ctx) {
             visit(ctx.matcher());
@@ -621,7 +709,7 @@ public class WalkList implements Serializable {
         public Void visitStepIsInSet(StepIsInSetContext ctx) {
             fromHereItCannotBeInHashMapAnymore();
             String      lookupSetName = ctx.set.getText();
-            add(new StepIsInSet(lookupSetName, getLookupSet(lookupSetName)));
+            add(new StepIsInSet(lookupSetName, lookupStructures.getLookupSet(lookupSetName)));
             visitNext(ctx.nextStep);
             return null; // Void
         }
@@ -630,25 +718,11 @@ public class WalkList implements Serializable {
         public Void visitStepIsNotInSet(StepIsNotInSetContext ctx) {
             fromHereItCannotBeInHashMapAnymore();
             String      lookupSetName = ctx.set.getText();
-            add(new StepIsNotInSet(lookupSetName, getLookupSet(lookupSetName)));
+            add(new StepIsNotInSet(lookupSetName, lookupStructures.getLookupSet(lookupSetName)));
             visitNext(ctx.nextStep);
             return null; // Void
         }
 
-        private Set<String> getLookupSet(String lookupSetName) {
-            Set<String> lookupSet = lookupSets.get(lookupSetName);
-            if (lookupSet == null) {
-                Map<String, String> lookup = lookups.get(lookupSetName);
-                if (lookup != null) {
-                    lookupSet = new LinkedHashSet<>(lookup.keySet());
-                }
-            }
-            if (lookupSet == null) {
-                throw new InvalidParserConfigurationException("Missing lookupSet \"" + lookupSetName + "\" ");
-            }
-            return lookupSet;
-        }
-
         @Override
         public Void visitStepStartsWithValue(StepStartsWithValueContext ctx) {
             boolean skipIfShortEnough = stillGoingToHashMap();
@@ -51,12 +51,12 @@ public class StepDefaultIfNull  extends Step {
     }
 
     @Override
-    public WalkResult walk(@Nonnull ParseTree tree, @Nullable String value) {
-        WalkResult actualValue = walkNextStep(tree, value);
+    public WalkResult walk(@Nonnull ParseTree tree, @Nullable CharSequence value, @Nonnull WalkResult walkResult) {
+        WalkResult actualValue = walkNextStep(tree, value, walkResult);
 
         if (actualValue == null ||
             actualValue.getValue() == null) {
-            return new WalkResult(tree, defaultValue);
+            return walkResult.fill(tree, defaultValue);
         }
         return actualValue;
     }
@@ -17,16 +17,13 @@
 
 package nl.basjes.parse.useragent.analyze.treewalker.steps.compare;
 
-import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
-import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList.WalkResult;
-import org.antlr.v4.runtime.tree.ParseTree;
+import nl.basjes.parse.useragent.analyze.treewalker.steps.StepFilter;
 
 import javax.annotation.Nonnull;
-import javax.annotation.Nullable;
 
-import static org.springframework.util.StringUtils.endsWithIgnoreCase;
+import static nl.basjes.parse.useragent.utils.SourceText.endsWithIgnoreCase;
 
-public class StepEndsWith extends Step {
+public class StepEndsWith extends StepFilter {
 
     private final String desiredValue;
 
@@ -40,13 +37,8 @@ public class StepEndsWith extends Step {
     }
 
     @Override
-    public WalkResult walk(@Nonnull ParseTree tree, @Nullable String value) {
-        String actualValue = getActualValue(tree, value);
-
-        if (endsWithIgnoreCase(actualValue, desiredValue)) {
-            return walkNextStep(tree, actualValue);
-        }
-        return null;
+    public boolean passes(@Nonnull CharSequence actualValue) {
+        return endsWithIgnoreCase(actualValue, desiredValue);
     }
 
     @Override
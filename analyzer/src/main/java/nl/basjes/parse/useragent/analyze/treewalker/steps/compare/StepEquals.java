@@ -17,14 +17,13 @@
 
 package nl.basjes.parse.useragent.analyze.treewalker.steps.compare;
 
-import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
-import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList.WalkResult;
-import org.antlr.v4.runtime.tree.ParseTree;
+import nl.basjes.parse.useragent.analyze.treewalker.steps.StepFilter;
 
 import javax.annotation.Nonnull;
-import javax.annotation.Nullable;
 
-public class StepEquals extends Step {
+import static nl.basjes.parse.useragent.utils.SourceText.equalsIgnoreCase;
+
+public class StepEquals extends StepFilter {
 
     private final String desiredValue;
 
@@ -38,13 +37,8 @@ public class StepEquals extends Step {
     }
 
     @Override
-    public WalkResult walk(@Nonnull ParseTree tree, @Nullable String value) {
-        String actualValue = getActualValue(tree, value);
-
-        if (actualValue.equalsIgnoreCase(desiredValue)) {
-            return walkNextStep(tree, actualValue);
-        }
-        return null;
+    public boolean passes(@Nonnull CharSequence actualValue) {
+        return equalsIgnoreCase(actualValue, desiredValue);
     }
 
     @Override
@@ -17,17 +17,14 @@
 
 package nl.basjes.parse.useragent.analyze.treewalker.steps.compare;
 
-import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
-import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList.WalkResult;
-import org.antlr.v4.runtime.tree.ParseTree;
+import nl.basjes.parse.useragent.analyze.treewalker.steps.StepFilter;
 
 import javax.annotation.Nonnull;
-import javax.annotation.Nullable;
 import java.util.Collections;
 import java.util.Locale;
 import java.util.Set;
 
-public class StepIsNotInSet extends Step {
+public class StepIsNotInSet extends StepFilter {
 
     private final String listName;
     private final Set<String> list;
@@ -44,13 +41,8 @@ public class StepIsNotInSet extends Step {
     }
 
     @Override
-    public WalkResult walk(@Nonnull ParseTree tree, @Nullable String value) {
-        String actualValue = getActualValue(tree, value);
-
-        if (!list.contains(actualValue.toLowerCase(Locale.ROOT))) {
-            return walkNextStep(tree, actualValue);
-        }
-        return null;
+    public boolean passes(@Nonnull CharSequence actualValue) {
+        return !list.contains(actualValue.toString().toLowerCase(Locale.ROOT));
     }
 
     @Override
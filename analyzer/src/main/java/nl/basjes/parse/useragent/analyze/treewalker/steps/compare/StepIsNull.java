@@ -27,12 +27,12 @@ import javax.annotation.Nullable;
 public class StepIsNull extends Step {
 
     @Override
-    public WalkResult walk(@Nonnull ParseTree tree, @Nullable String value) {
-        WalkResult actualValue = walkNextStep(tree, value);
+    public WalkResult walk(@Nonnull ParseTree tree, @Nullable CharSequence value, @Nonnull WalkResult walkResult) {
+        WalkResult actualValue = walkNextStep(tree, value, walkResult);
 
         if (actualValue == null ||
             actualValue.getValue() == null) {
-            return new WalkResult(tree, "<<<IsNull Success Value>>>");
+            return walkResult.fill(tree, "<<<IsNull Success Value>>>");
         }
         return null;
     }
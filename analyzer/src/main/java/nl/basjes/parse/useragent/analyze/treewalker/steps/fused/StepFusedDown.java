@@ -0,0 +1,93 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.useragent.analyze.treewalker.steps.fused;
+
+import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
+import nl.basjes.parse.useragent.analyze.treewalker.steps.StepFilter;
+import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList.WalkResult;
+import nl.basjes.parse.useragent.analyze.treewalker.steps.walk.StepDown;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Iterator;
+
+import static nl.basjes.parse.useragent.utils.AntlrUtils.getSourceTextView;
+
+/**
+ * An optional Up, a Down and optionally one or more filters (like ^.(1)name="Foo") as a single step.
+ * The children that do not pass the filters are skipped without entering any further step.
+ */
+public class StepFusedDown extends Step {
+
+    private final boolean      up;
+    private final StepDown     down;
+    private final StepFilter[] filters;
+
+    @SuppressWarnings("unused") // Private constructor for serialization systems ONLY (like Kryo)
+    private StepFusedDown() {
+        up = false;
+        down = null;
+        filters = new StepFilter[0];
+    }
+
+    public StepFusedDown(boolean up, StepDown down, StepFilter[] filters) {
+        this.up = up;
+        this.down = down;
+        this.filters = filters.clone();
+    }
+
+    @Override
+    public WalkResult walk(@Nonnull ParseTree tree, @Nullable CharSequence value, @Nonnull WalkResult walkResult) {
+        ParseTree parent = up ? up(tree) : tree;
+        if (parent == null) {
+            return null;
+        }
+
+        Iterator<? extends ParseTree> children = down.getChildren(parent);
+        while (children.hasNext()) {
+            ParseTree child = children.next();
+            CharSequence childValue = null;
+            if (filters.length > 0) {
+                childValue = getSourceTextView((ParserRuleContext)child);
+                if (!StepFilter.passesAll(filters, childValue)) {
+                    continue;
+                }
+            }
+            WalkResult childResult = walkNextStep(child, childValue, walkResult);
+            if (childResult != null) {
+                return childResult;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Fused(");
+        if (up) {
+            sb.append("Up() --> ");
+        }
+        sb.append(down);
+        for (StepFilter filter : filters) {
+            sb.append(" --> ").append(filter);
+        }
+        return sb.append(')').toString();
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.useragent.analyze.treewalker.steps.fused;
+
+import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
+import nl.basjes.parse.useragent.analyze.treewalker.steps.StepFilter;
+import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList.WalkResult;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+/**
+ * A sequence of filters (like Equals followed by IsNotInSet) that is checked as a single step.
+ */
+public class StepFusedFilters extends Step {
+
+    private final StepFilter[] filters;
+
+    @SuppressWarnings("unused") // Private constructor for serialization systems ONLY (like Kryo)
+    private StepFusedFilters() {
+        filters = new StepFilter[0];
+    }
+
+    public StepFusedFilters(StepFilter[] filters) {
+        this.filters = filters.clone();
+    }
+
+    @Override
+    public WalkResult walk(@Nonnull ParseTree tree, @Nullable CharSequence value, @Nonnull WalkResult walkResult) {
+        CharSequence actualValue = getActualValueView(tree, value);
+
+        if (StepFilter.passesAll(filters, actualValue)) {
+            return walkNextStep(tree, actualValue, walkResult);
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "Fused(" + Arrays.stream(filters).map(Step::toString).collect(Collectors.joining(" --> ")) + ")";
+    }
+
+}
@@ -0,0 +1,210 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.useragent.analyze.treewalker.steps.lookup;
+
+import nl.basjes.collections.PrefixMap;
+import nl.basjes.collections.prefixmap.StringPrefixMap;
+import nl.basjes.parse.useragent.analyze.InvalidParserConfigurationException;
+import nl.basjes.parse.useragent.utils.AhoCorasickAutomaton;
+import nl.basjes.parse.useragent.utils.OffHeapLookup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Many matchers use the same lookup in the same way (i.e. as a prefix map).
+ * While the matchers are initialized this creates the structures that are derived from a lookup
+ * only once per lookup so all steps that need it share the same instance.
+ */
+public class LookupStructures {
+
+    private final Map<String, Map<String, String>> lookups;
+    private final Map<String, Set<String>>         lookupSets;
+
+    private final Map<String, SharedStructure> structures = new ConcurrentHashMap<>();
+    private final Set<String>                  usedNames  = ConcurrentHashMap.newKeySet();
+
+    private static final class SharedStructure {
+        private final Supplier<?>   builder;
+        private final Object        structure;
+        private final AtomicInteger requests = new AtomicInteger();
+
+        SharedStructure(Supplier<?> builder) {
+            this.builder = builder;
+            this.structure = builder.get();
+        }
+    }
+
+    public LookupStructures(Map<String, Map<String, String>> lookups,
+                            Map<String, Set<String>> lookupSets) {
+        this.lookups = lookups;
+        this.lookupSets = lookupSets;
+    }
+
+    // ------------------------------------------
+
+    public static PrefixMap<String> createPrefixMap(Map<String, String> prefixList) {
+        PrefixMap<String> prefixMap = new StringPrefixMap<>(false);
+        prefixMap.putAll(prefixList);
+        return prefixMap;
+    }
+
+    public static PrefixMap<String> createPrefixMap(Set<String> prefixSet) {
+        Map<String, String> theMap = new HashMap<>((int)(prefixSet.size()/0.75F));
+        prefixSet.forEach(v -> theMap.put(v, ""));
+        return createPrefixMap(theMap);
+    }
+
+    public static AhoCorasickAutomaton createAutomaton(Map<String, String> lookup) {
+        return new AhoCorasickAutomaton(new ArrayList<>(lookup.keySet()));
+    }
+
+    // ------------------------------------------
+
+    public Map<String, String> getLookup(String lookupName) {
+        Map<String, String> lookup = lookups.get(lookupName);
+        if (lookup == null) {
+            throw new InvalidParserConfigurationException("Missing lookup \"" + lookupName + "\" ");
+        }
+        usedNames.add(lookupName);
+        return lookup;
+    }
+
+    /**
+     * @param lookupSetName The name of a lookupSet or a lookup (of which the keys are used).
+     * @return The set (lowercase values)
+     */
+    public Set<String> getLookupSet(String lookupSetName) {
+        Set<String> lookupSet = lookupSets.get(lookupSetName);
+        if (lookupSet != null) {
+            usedNames.add(lookupSetName);
+            return lookupSet;
+        }
+        Map<String, String> lookup = lookups.get(lookupSetName);
+        if (lookup == null) {
+            throw new InvalidParserConfigurationException("Missing lookupSet \"" + lookupSetName + "\" ");
+        }
+        usedNames.add(lookupSetName);
+        return getKeySet(lookupSetName, lookup);
+    }
+
+    /**
+     * @param lookupName The name of a lookup.
+     * @return The keys of the lookup as a set.
+     */
+    public Set<String> getLookupKeySet(String lookupName) {
+        return getKeySet(lookupName, getLookup(lookupName));
+    }
+
+    private Set<String> getKeySet(String lookupName, Map<String, String> lookup) {
+        return get("KeySet", lookupName, () -> OffHeapLookup.setOf(lookup.keySet()));
+    }
+
+    /**
+     * @param lookupName The name of a lookup.
+     * @return The lookup as a prefix map.
+     */
+    public PrefixMap<String> getLookupPrefixMap(String lookupName) {
+        Map<String, String> lookup = getLookup(lookupName);
+        return get("PrefixMap", lookupName, () -> createPrefixMap(lookup));
+    }
+
+    /**
+     * @param lookupSetName The name of a lookupSet or a lookup.
+     * @return The lookupSet (all values are "") or else the lookup as a prefix map.
+     */
+    public PrefixMap<String> getLookupSetPrefixMap(String lookupSetName) {
+        Set<String> lookupSet = lookupSets.get(lookupSetName);
+        if (lookupSet != null) {
+            usedNames.add(lookupSetName);
+            return get("SetPrefixMap", lookupSetName, () -> createPrefixMap(lookupSet));
+        }
+        if (lookups.containsKey(lookupSetName)) {
+            return getLookupPrefixMap(lookupSetName);
+        }
+        throw new InvalidParserConfigurationException("Missing lookup/set \"" + lookupSetName + "\" ");
+    }
+
+    /**
+     * @param lookupName The name of a lookup.
+     * @return An automaton that finds the keys of the lookup (in the order of the lookup).
+     */
+    public AhoCorasickAutomaton getLookupAutomaton(String lookupName) {
+        Map<String, String> lookup = getLookup(lookupName);
+        return get("Automaton", lookupName, () -> createAutomaton(lookup));
+    }
+
+    /**
+     * @param lookupName The name of a lookup.
+     * @return The values of the lookup (in the order of the lookup).
+     */
+    public String[] getLookupValues(String lookupName) {
+        Map<String, String> lookup = getLookup(lookupName);
+        return get("Values", lookupName, () -> lookup.values().toArray(new String[0]));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T get(String type, String lookupName, Supplier<T> builder) {
+        SharedStructure shared = structures.computeIfAbsent(type + "(@" + lookupName + ")", k -> new SharedStructure(builder));
+        shared.requests.incrementAndGet();
+        return (T) shared.structure;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return The names of all lookups and lookupSets that were requested.
+     */
+    public Set<String> getUsedNames() {
+        return usedNames;
+    }
+
+    /**
+     * @return The number of times a structure was requested.
+     */
+    public int getNumberOfRequests() {
+        return structures.values().stream().mapToInt(shared -> shared.requests.get()).sum();
+    }
+
+    /**
+     * @return The number of structures that were actually created.
+     */
+    public int getNumberOfStructures() {
+        return structures.size();
+    }
+
+    /**
+     * Create all the structures as often as they were requested, which is what it would take without the sharing.
+     * This is only intended to measure the effect of the sharing (in a unit test).
+     * @return All the structures.
+     */
+    List<Object> createUnsharedStructuresForUnitTesting() {
+        List<Object> result = new ArrayList<>();
+        for (SharedStructure shared : structures.values()) {
+            for (int i = 0; i < shared.requests.get(); i++) {
+                result.add(shared.builder.get());
+            }
+        }
+        return result;
+    }
+}
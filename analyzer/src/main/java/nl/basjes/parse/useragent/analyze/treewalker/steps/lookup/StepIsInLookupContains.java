@@ -17,20 +17,17 @@
 
 package nl.basjes.parse.useragent.analyze.treewalker.steps.lookup;
 
-import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
-import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList.WalkResult;
-import org.antlr.v4.runtime.tree.ParseTree;
+import nl.basjes.parse.useragent.analyze.treewalker.steps.StepFilter;
+import nl.basjes.parse.useragent.utils.AhoCorasickAutomaton;
 
 import javax.annotation.Nonnull;
-import javax.annotation.Nullable;
-import java.util.HashSet;
 import java.util.Locale;
 import java.util.Map;
 
-public class StepIsInLookupContains extends Step {
+public class StepIsInLookupContains extends StepFilter {
 
-    private final String          lookupName;
-    private final HashSet<String> lookupKeys;
+    private final String               lookupName;
+    private final AhoCorasickAutomaton lookupKeys;
 
     @SuppressWarnings("unused") // Private constructor for serialization systems ONLY (like Kryo)
     private StepIsInLookupContains() {
@@ -39,21 +36,17 @@ public class StepIsInLookupContains extends Step {
     }
 
     public StepIsInLookupContains(String lookupName, Map<String, String> lookup) {
+        this(lookupName, LookupStructures.createAutomaton(lookup));
+    }
+
+    public StepIsInLookupContains(String lookupName, AhoCorasickAutomaton lookupKeys) {
         this.lookupName = lookupName;
-        this.lookupKeys = new HashSet<>(lookup.keySet());
+        this.lookupKeys = lookupKeys;
     }
 
     @Override
-    public WalkResult walk(@Nonnull ParseTree tree, @Nullable String value) {
-        String actualValue = getActualValue(tree, value);
-        String compareInput = actualValue.toLowerCase(Locale.ROOT);
-        for (String key : lookupKeys) {
-            if (compareInput.contains(key)) {
-                return walkNextStep(tree, actualValue);
-            }
-        }
-        // Not found:
-        return null;
+    public boolean passes(@Nonnull CharSequence actualValue) {
+        return lookupKeys.containsAnyKey(actualValue.toString().toLowerCase(Locale.ROOT));
     }
 
     @Override
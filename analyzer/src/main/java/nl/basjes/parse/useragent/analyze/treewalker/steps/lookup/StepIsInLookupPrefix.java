@@ -18,16 +18,12 @@
 package nl.basjes.parse.useragent.analyze.treewalker.steps.lookup;
 
 import nl.basjes.collections.PrefixMap;
-import nl.basjes.collections.prefixmap.StringPrefixMap;
-import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
-import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList.WalkResult;
-import org.antlr.v4.runtime.tree.ParseTree;
+import nl.basjes.parse.useragent.analyze.treewalker.steps.StepFilter;
 
 import javax.annotation.Nonnull;
-import javax.annotation.Nullable;
 import java.util.Map;
 
-public class StepIsInLookupPrefix extends Step {
+public class StepIsInLookupPrefix extends StepFilter {
 
     private final String            lookupName;
     private final PrefixMap<String> prefixMap;
@@ -39,21 +35,17 @@ public class StepIsInLookupPrefix extends Step {
     }
 
     public StepIsInLookupPrefix(String lookupName, Map<String, String> prefixList) {
+        this(lookupName, LookupStructures.createPrefixMap(prefixList));
+    }
+
+    public StepIsInLookupPrefix(String lookupName, PrefixMap<String> prefixMap) {
         this.lookupName = lookupName;
-        this.prefixMap = new StringPrefixMap<>(false);
-        this.prefixMap.putAll(prefixList);
+        this.prefixMap = prefixMap;
     }
 
     @Override
-    public WalkResult walk(@Nonnull ParseTree tree, @Nullable String value) {
-        String actualValue = getActualValue(tree, value);
-
-        String result = prefixMap.getLongestMatch(actualValue);
-
-        if (result == null) {
-            return null;
-        }
-        return walkNextStep(tree, actualValue);
+    public boolean passes(@Nonnull CharSequence actualValue) {
+        return prefixMap.getLongestMatch(actualValue.toString()) != null;
     }
 
     @Override
@@ -18,18 +18,13 @@
 package nl.basjes.parse.useragent.analyze.treewalker.steps.lookup;
 
 import nl.basjes.collections.PrefixMap;
-import nl.basjes.collections.prefixmap.StringPrefixMap;
-import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
-import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList.WalkResult;
-import org.antlr.v4.runtime.tree.ParseTree;
+import nl.basjes.parse.useragent.analyze.treewalker.steps.StepFilter;
 
 import javax.annotation.Nonnull;
-import javax.annotation.Nullable;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
-public class StepIsNotInLookupPrefix extends Step {
+public class StepIsNotInLookupPrefix extends StepFilter {
 
     private final String            lookupName;
     private final PrefixMap<String> prefixMap;
@@ -41,30 +36,21 @@ public class StepIsNotInLookupPrefix extends Step {
     }
 
     public StepIsNotInLookupPrefix(String lookupName, Map<String, String> prefixList) {
-        this.lookupName = lookupName;
-        this.prefixMap = new StringPrefixMap<>(false);
-        this.prefixMap.putAll(prefixList);
+        this(lookupName, LookupStructures.createPrefixMap(prefixList));
     }
 
     public StepIsNotInLookupPrefix(String lookupName, Set<String> prefixSet) {
-        this.lookupName = lookupName;
-        this.prefixMap = new StringPrefixMap<>(false);
+        this(lookupName, LookupStructures.createPrefixMap(prefixSet));
+    }
 
-        Map<String, String> theMap = new HashMap<>((int)(prefixSet.size()/0.75F));
-        prefixSet.forEach(v -> theMap.put(v, ""));
-        this.prefixMap.putAll(theMap);
+    public StepIsNotInLookupPrefix(String lookupName, PrefixMap<String> prefixMap) {
+        this.lookupName = lookupName;
+        this.prefixMap = prefixMap;
     }
 
     @Override
-    public WalkResult walk(@Nonnull ParseTree tree, @Nullable String value) {
-        String actualValue = getActualValue(tree, value);
-
-        String result = prefixMap.getLongestMatch(actualValue);
-
-        if (result != null) {
-            return null;
-        }
-        return walkNextStep(tree, actualValue);
+    public boolean passes(@Nonnull CharSequence actualValue) {
+        return prefixMap.getLongestMatch(actualValue.toString()) == null;
     }
 
     @Override
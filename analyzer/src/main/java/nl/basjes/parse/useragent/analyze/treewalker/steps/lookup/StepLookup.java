@@ -60,7 +60,7 @@ public class StepLookup extends Step {
     }
 
     @Override
-    public WalkResult walk(@Nonnull ParseTree tree, @Nullable String value) {
+    public WalkResult walk(@Nonnull ParseTree tree, @Nullable CharSequence value, @Nonnull WalkResult walkResult) {
         String actualValue = getActualValue(tree, value);
 
         String result = null;
@@ -72,10 +72,10 @@ public class StepLookup extends Step {
             if (defaultValue == null) {
                 return null;
             } else {
-                return walkNextStep(tree, defaultValue);
+                return walkNextStep(tree, defaultValue, walkResult);
             }
         }
-        return walkNextStep(tree, result);
+        return walkNextStep(tree, result, walkResult);
     }
 
     @Override
@@ -19,6 +19,7 @@ package nl.basjes.parse.useragent.analyze.treewalker.steps.lookup;
 
 import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList.WalkResult;
+import nl.basjes.parse.useragent.utils.AhoCorasickAutomaton;
 import org.antlr.v4.runtime.tree.ParseTree;
 
 import javax.annotation.Nonnull;
@@ -30,38 +31,45 @@ import java.util.Map;
 public class StepLookupContains extends Step {
 
     private final String lookupName;
-    private final Map<String, String> lookup;
+    // The keys (in the order of the lookup) and the values that belong to them.
+    private final AhoCorasickAutomaton lookupKeys;
+    private final String[] lookupValues;
     private final String defaultValue;
 
     @SuppressWarnings("unused") // Private constructor for serialization systems ONLY (like Kryo)
     private StepLookupContains() {
         lookupName = "<< Should not be seen anywhere >>";
-        lookup = Collections.emptyMap();
+        lookupKeys = null;
+        lookupValues = null;
         defaultValue = "<< Should not be seen anywhere >>";
     }
 
     public StepLookupContains(String lookupName, Map<String, String> lookup, String defaultValue) {
+        this(lookupName, new LookupStructures(Collections.singletonMap(lookupName, lookup), Collections.emptyMap()), defaultValue);
+    }
+
+    public StepLookupContains(String lookupName, LookupStructures lookupStructures, String defaultValue) {
         this.lookupName = lookupName;
-        this.lookup = lookup;
+        this.lookupKeys = lookupStructures.getLookupAutomaton(lookupName);
+        this.lookupValues = lookupStructures.getLookupValues(lookupName);
         this.defaultValue = defaultValue;
     }
 
     @Override
-    public WalkResult walk(@Nonnull ParseTree tree, @Nullable String value) {
+    public WalkResult walk(@Nonnull ParseTree tree, @Nullable CharSequence value, @Nonnull WalkResult walkResult) {
         String actualValue = getActualValue(tree, value);
 
-        actualValue = actualValue.toLowerCase(Locale.ROOT);
-        for (Map.Entry<String, String> entry: lookup.entrySet()) {
-            if (actualValue.contains(entry.getKey())) {
-                return walkNextStep(tree, entry.getValue());
-            }
+        // If several keys are present the first one in the lookup wins.
+        int keyIndex = lookupKeys.firstMatchingKey(actualValue.toLowerCase(Locale.ROOT));
+        if (keyIndex >= 0) {
+            return walkNextStep(tree, lookupValues[keyIndex], walkResult);
         }
 
         // Not found:
         if (defaultValue == null) {
             return null;
         }
-        return walkNextStep(tree, defaultValue);
+        return walkNextStep(tree, defaultValue, walkResult);
     }
 
     @Override
@@ -18,7 +18,6 @@
 package nl.basjes.parse.useragent.analyze.treewalker.steps.lookup;
 
 import nl.basjes.collections.PrefixMap;
-import nl.basjes.collections.prefixmap.StringPrefixMap;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList.WalkResult;
 import org.antlr.v4.runtime.tree.ParseTree;
@@ -43,10 +42,13 @@ public class StepLookupPrefix extends Step {
     }
 
     public StepLookupPrefix(String lookupName, Map<String, String> prefixList, String defaultValue) {
+        this(lookupName, LookupStructures.createPrefixMap(prefixList), defaultValue);
+    }
+
+    public StepLookupPrefix(String lookupName, PrefixMap<String> prefixMap, String defaultValue) {
         this.lookupName = lookupName;
         this.defaultValue = defaultValue;
-        this.prefixMap = new StringPrefixMap<>(false);
-        this.prefixMap.putAll(prefixList);
+        this.prefixMap = prefixMap;
         canFail = defaultValue == null;
     }
 
@@ -56,7 +58,7 @@ public class StepLookupPrefix extends Step {
     }
 
     @Override
-    public WalkResult walk(@Nonnull ParseTree tree, @Nullable String value) {
+    public WalkResult walk(@Nonnull ParseTree tree, @Nullable CharSequence value, @Nonnull WalkResult walkResult) {
         String actualValue = getActualValue(tree, value);
 
         String result = prefixMap.getLongestMatch(actualValue);
@@ -65,10 +67,10 @@ public class StepLookupPrefix extends Step {
             if (defaultValue == null) {
                 return null;
             } else {
-                return walkNextStep(tree, defaultValue);
+                return walkNextStep(tree, defaultValue, walkResult);
             }
         }
-        return walkNextStep(tree, result);
+        return walkNextStep(tree, result, walkResult);
     }
 
 
@@ -27,8 +27,8 @@ import javax.annotation.Nullable;
 public class StepBackToFull extends Step {
 
     @Override
-    public WalkResult walk(@Nonnull ParseTree tree, @Nullable String value) {
-        return walkNextStep(tree, null);
+    public WalkResult walk(@Nonnull ParseTree tree, @Nullable CharSequence value, @Nonnull WalkResult walkResult) {
+        return walkNextStep(tree, null, walkResult);
     }
 
     @Override
@@ -29,7 +29,7 @@ import static nl.basjes.parse.useragent.utils.Normalize.replaceString;
 public class StepCleanVersion extends Step {
 
     @Override
-    public WalkResult walk(@Nonnull ParseTree tree, @Nullable String value) {
+    public WalkResult walk(@Nonnull ParseTree tree, @Nullable CharSequence value, @Nonnull WalkResult walkResult) {
         String actualValue = getActualValue(tree, value);
 
         if (actualValue != null) {
@@ -38,7 +38,7 @@ public class StepCleanVersion extends Step {
             actualValue = replaceString(actualValue, "/", " ");
             actualValue = replaceString(actualValue, ", ", ".");
         }
-        return walkNextStep(tree, actualValue);
+        return walkNextStep(tree, actualValue, walkResult);
     }
 
     @Override
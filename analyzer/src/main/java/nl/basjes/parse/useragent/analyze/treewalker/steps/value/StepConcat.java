@@ -42,10 +42,10 @@ public class StepConcat extends Step {
     }
 
     @Override
-    public WalkResult walk(@Nonnull ParseTree tree, @Nullable String value) {
+    public WalkResult walk(@Nonnull ParseTree tree, @Nullable CharSequence value, @Nonnull WalkResult walkResult) {
         String actualValue = getActualValue(tree, value);
         String filteredValue = prefix + actualValue + postfix;
-        return walkNextStep(tree, filteredValue);
+        return walkNextStep(tree, filteredValue, walkResult);
     }
 
     @Override
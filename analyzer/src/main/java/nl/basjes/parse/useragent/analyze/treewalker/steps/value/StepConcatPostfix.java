@@ -38,10 +38,10 @@ public class StepConcatPostfix extends Step {
     }
 
     @Override
-    public WalkResult walk(@Nonnull ParseTree tree, @Nullable String value) {
+    public WalkResult walk(@Nonnull ParseTree tree, @Nullable CharSequence value, @Nonnull WalkResult walkResult) {
         String actualValue = getActualValue(tree, value);
         String filteredValue = actualValue + postfix;
-        return walkNextStep(tree, filteredValue);
+        return walkNextStep(tree, filteredValue, walkResult);
     }
 
     @Override
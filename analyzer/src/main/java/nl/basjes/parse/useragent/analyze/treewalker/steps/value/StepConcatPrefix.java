@@ -38,10 +38,10 @@ public class StepConcatPrefix extends Step {
     }
 
     @Override
-    public WalkResult walk(@Nonnull ParseTree tree, @Nullable String value) {
+    public WalkResult walk(@Nonnull ParseTree tree, @Nullable CharSequence value, @Nonnull WalkResult walkResult) {
         String actualValue = getActualValue(tree, value);
         String filteredValue = prefix + actualValue;
-        return walkNextStep(tree, filteredValue);
+        return walkNextStep(tree, filteredValue, walkResult);
     }
 
     @Override
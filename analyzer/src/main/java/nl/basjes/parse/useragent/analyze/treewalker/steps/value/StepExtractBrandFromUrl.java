@@ -29,10 +29,10 @@ import static nl.basjes.parse.useragent.utils.HostnameExtracter.extractBrandFrom
 public class StepExtractBrandFromUrl extends Step {
 
     @Override
-    public WalkResult walk(@Nonnull ParseTree tree, @Nullable String value) {
+    public WalkResult walk(@Nonnull ParseTree tree, @Nullable CharSequence value, @Nonnull WalkResult walkResult) {
         String actualValue = getActualValue(tree, value);
         String filteredValue = extractBrandFromUrl(actualValue);
-        return walkNextStep(tree, filteredValue);
+        return walkNextStep(tree, filteredValue, walkResult);
     }
 
     @Override
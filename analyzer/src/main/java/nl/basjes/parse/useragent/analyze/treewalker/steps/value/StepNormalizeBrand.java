@@ -28,10 +28,10 @@ import javax.annotation.Nullable;
 public class StepNormalizeBrand extends Step {
 
     @Override
-    public WalkResult walk(@Nonnull ParseTree tree, @Nullable String value) {
+    public WalkResult walk(@Nonnull ParseTree tree, @Nullable CharSequence value, @Nonnull WalkResult walkResult) {
         String actualValue = getActualValue(tree, value);
         String filteredValue = Normalize.brand(actualValue);
-        return walkNextStep(tree, filteredValue);
+        return walkNextStep(tree, filteredValue, walkResult);
     }
 
     @Override
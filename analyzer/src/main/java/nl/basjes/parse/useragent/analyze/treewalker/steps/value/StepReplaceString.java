@@ -43,10 +43,10 @@ public class StepReplaceString extends Step {
     }
 
     @Override
-    public WalkResult walk(@Nonnull ParseTree tree, @Nullable String value) {
+    public WalkResult walk(@Nonnull ParseTree tree, @Nullable CharSequence value, @Nonnull WalkResult walkResult) {
         String actualValue = getActualValue(tree, value);
         actualValue = replaceString(actualValue, search, replace);
-        return walkNextStep(tree, actualValue);
+        return walkNextStep(tree, actualValue, walkResult);
     }
 
     @Override
@@ -43,13 +43,13 @@ public class StepSegmentRange extends Step {
     }
 
     @Override
-    public WalkResult walk(@Nonnull ParseTree tree, @Nullable String value) {
+    public WalkResult walk(@Nonnull ParseTree tree, @Nullable CharSequence value, @Nonnull WalkResult walkResult) {
         String actualValue = getActualValue(tree, value);
         String filteredValue = ListSplitter.getInstance().getSplitRange(actualValue, firstSegment, lastSegment);
         if (filteredValue == null) {
             return null;
         }
-        return walkNextStep(tree, filteredValue);
+        return walkNextStep(tree, filteredValue, walkResult);
     }
 
     @Override
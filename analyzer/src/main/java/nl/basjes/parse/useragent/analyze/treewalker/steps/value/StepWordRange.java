@@ -46,7 +46,7 @@ public class StepWordRange extends Step {
     }
 
     @Override
-    public WalkResult walk(@Nonnull ParseTree tree, @Nullable String value) {
+    public WalkResult walk(@Nonnull ParseTree tree, @Nullable CharSequence value, @Nonnull WalkResult walkResult) {
         String actualValue = getActualValue(tree, value);
 
         String filteredValue;
@@ -61,7 +61,7 @@ public class StepWordRange extends Step {
         if (filteredValue == null) {
             return null;
         }
-        return walkNextStep(tree, filteredValue);
+        return walkNextStep(tree, filteredValue, walkResult);
     }
 
     @Override
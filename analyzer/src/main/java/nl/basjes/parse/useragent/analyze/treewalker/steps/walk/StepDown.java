@@ -85,12 +85,20 @@ public class StepDown extends Step {
         setDefaultFieldValues();
     }
 
+    /**
+     * @param tree The tree of which the matching children are needed.
+     * @return The children of the tree that match the name and the range of this step.
+     */
+    public Iterator<? extends ParseTree> getChildren(@Nonnull ParseTree tree) {
+        return userAgentGetChildrenVisitor.visit(tree);
+    }
+
     @Override
-    public WalkResult walk(@Nonnull ParseTree tree, @Nullable String value) {
-        Iterator<? extends ParseTree> children = userAgentGetChildrenVisitor.visit(tree);
+    public WalkResult walk(@Nonnull ParseTree tree, @Nullable CharSequence value, @Nonnull WalkResult walkResult) {
+        Iterator<? extends ParseTree> children = getChildren(tree);
         while (children.hasNext()) {
             ParseTree  child       = children.next();
-            WalkResult childResult = walkNextStep(child, null);
+            WalkResult childResult = walkNextStep(child, null, walkResult);
             if (childResult != null) {
                 return childResult;
             }
@@ -52,13 +52,13 @@ public class StepNext extends Step {
     }
 
     @Override
-    public WalkResult walk(@Nonnull ParseTree tree, @Nullable String value) {
+    public WalkResult walk(@Nonnull ParseTree tree, @Nullable CharSequence value, @Nonnull WalkResult walkResult) {
         ParseTree nextTree = next(tree);
         if (nextTree == null) {
             return null;
         }
 
-        return walkNextStep(nextTree, null);
+        return walkNextStep(nextTree, null, walkResult);
     }
 
     @Override
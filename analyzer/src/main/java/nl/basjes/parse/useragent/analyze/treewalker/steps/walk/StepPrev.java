@@ -49,13 +49,13 @@ public class StepPrev extends Step {
     }
 
     @Override
-    public WalkResult walk(@Nonnull ParseTree tree, @Nullable String value) {
+    public WalkResult walk(@Nonnull ParseTree tree, @Nullable CharSequence value, @Nonnull WalkResult walkResult) {
         ParseTree prevTree = prev(tree);
         if (prevTree == null) {
             return null;
         }
 
-        return walkNextStep(prevTree, null);
+        return walkNextStep(prevTree, null, walkResult);
     }
 
     @Override
@@ -27,7 +27,6 @@ import javax.annotation.Nullable;
 public class StepPrevN extends Step {
 
     private static final int SIZE = 20;
-    private transient ParseTree[] children = null;
 
     private final int steps;
 
@@ -47,9 +46,8 @@ public class StepPrevN extends Step {
             return null;
         }
 
-        if (children== null) {
-            children = new ParseTree[SIZE];
-        }
+        // Local so the same step can be used by multiple threads at the same time.
+        ParseTree[] children = new ParseTree[SIZE];
 
         int lastChildIndex = -1;
         ParseTree child = null;
@@ -71,13 +69,13 @@ public class StepPrevN extends Step {
     }
 
     @Override
-    public WalkResult walk(@Nonnull ParseTree tree, @Nullable String value) {
+    public WalkResult walk(@Nonnull ParseTree tree, @Nullable CharSequence value, @Nonnull WalkResult walkResult) {
         ParseTree prevTree = prev(tree);
         if (prevTree == null) {
             return null;
         }
 
-        return walkNextStep(prevTree, null);
+        return walkNextStep(prevTree, null, walkResult);
     }
 
     @Override
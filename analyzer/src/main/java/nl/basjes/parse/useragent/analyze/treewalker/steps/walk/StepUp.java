@@ -27,13 +27,13 @@ import javax.annotation.Nullable;
 public class StepUp extends Step {
 
     @Override
-    public WalkResult walk(@Nonnull ParseTree tree, @Nullable String value) {
+    public WalkResult walk(@Nonnull ParseTree tree, @Nullable CharSequence value, @Nonnull WalkResult walkResult) {
         ParseTree parent = up(tree);
         if (parent == null) {
             return null;
         }
 
-        return walkNextStep(parent, null);
+        return walkNextStep(parent, null, walkResult);
     }
 
     @Override
@@ -25,6 +25,7 @@ import nl.basjes.parse.useragent.UserAgent;
 import nl.basjes.parse.useragent.UserAgent.MutableUserAgent;
 import nl.basjes.parse.useragent.analyze.Matcher;
 import nl.basjes.parse.useragent.analyze.MatchesList.Match;
+import nl.basjes.parse.useragent.analyze.ParseContext;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.message.MessageFactory;
@@ -520,7 +521,14 @@ public class AbstractUserAgentAnalyzerTester extends AbstractUserAgentAnalyzer {
             logInfo(errorMessageReceiver, separator);
             logInfo(errorMessageReceiver, "");
 
-            logInfo(errorMessageReceiver, agent.toMatchTrace(failedFieldNames));
+            // Parse it again with a ParseContext that is only ours so it still has the details afterwards.
+            ParseContext parseContext = analyzer.acquireParseContext();
+            try {
+                analyzer.parse(agent, parseContext);
+                logInfo(errorMessageReceiver, agent.toMatchTrace(failedFieldNames, parseContext));
+            } finally {
+                analyzer.releaseParseContext(parseContext);
+            }
 
             logInfo(errorMessageReceiver, "\n\nconfig:\n{}", parseResult.toYamlTestCase(!init, failComments));
             logInfo(errorMessageReceiver, "Location of failed test.({}:{})", filename, linenumber);
@@ -561,27 +569,35 @@ public class AbstractUserAgentAnalyzerTester extends AbstractUserAgentAnalyzer {
      * @return The list of Matches that were possibly relevant.
      */
     public List<Match> getMatches() {
-        List<Match> allMatches = new ArrayList<>(128);
-        for (Matcher matcher: getAllMatchers()) {
-            allMatches.addAll(matcher.getMatches());
+        // Within a single thread this is the ParseContext of the most recent parse.
+        ParseContext parseContext = acquireParseContext();
+        try {
+            List<Match> allMatches = new ArrayList<>(128);
+            for (Matcher matcher : getAllMatchers()) {
+                allMatches.addAll(matcher.getMatches(parseContext));
+            }
+            return allMatches;
+        } finally {
+            releaseParseContext(parseContext);
         }
-        return allMatches;
     }
 
-    public synchronized List<Match> getUsedMatches(MutableUserAgent userAgent) {
-        // Reset all Matchers
-        for (Matcher matcher : getAllMatchers()) {
-            matcher.reset();
-            matcher.setVerboseTemporarily(false);
-        }
+    public List<Match> getUsedMatches(MutableUserAgent userAgent) {
+        ParseContext parseContext = acquireParseContext();
+        try {
+            // Reset all Matchers
+            parseContext.reset();
 
-        flattener.parse(userAgent);
+            flattener.parse(userAgent, parseContext);
 
-        List<Match> allMatches = new ArrayList<>(128);
-        for (Matcher matcher: getAllMatchers()) {
-            allMatches.addAll(matcher.getUsedMatches());
+            List<Match> allMatches = new ArrayList<>(128);
+            for (Matcher matcher : getAllMatchers()) {
+                allMatches.addAll(matcher.getUsedMatches(parseContext));
+            }
+            return allMatches;
+        } finally {
+            releaseParseContext(parseContext);
         }
-        return allMatches;
     }
 
 
@@ -627,29 +643,42 @@ public class AbstractUserAgentAnalyzerTester extends AbstractUserAgentAnalyzer {
                 impactList.add(matcherImpact);
             });
 
-        for (Map<String, Map<String, String>> test : getTestCases()) {
-            Map<String, String> input = test.get("input");
-            String userAgentString = input.get("user_agent_string");
+        ParseContext parseContext = acquireParseContext();
+        try {
+            for (Map<String, Map<String, String>> test : getTestCases()) {
+                analyzeMatcherImpact(test, agent, parseContext, impactOverview);
+            }
+        } finally {
+            releaseParseContext(parseContext);
+        }
 
-            agent.setUserAgentString(userAgentString);
+        impactList.forEach(i -> LOG.info("{}", i));
+    }
 
-            parse(agent);
+    private void analyzeMatcherImpact(Map<String, Map<String, String>> test,
+                                      DebugUserAgent agent,
+                                      ParseContext parseContext,
+                                      Map<String, MatcherImpact> impactOverview) {
+        Map<String, String> input = test.get("input");
+        String userAgentString = input.get("user_agent_string");
 
-            impactOverview.forEach((n, i) -> i.tests++);
+        agent.setUserAgentString(userAgentString);
 
-            getTouchedMatchers().forEach(m -> {
-                MatcherImpact impact = impactOverview.get(m.getMatcherSourceLocation());
-                impact.touched++;
-                if (m.getActionsThatRequireInput() == m.getActionsThatRequireInputAndReceivedInput()) {
-                    impact.enoughInputs++;
-                    if (!m.getUsedMatches().isEmpty()) {
-                        impact.used++;
-                    }
+        parse(agent, parseContext);
+
+        impactOverview.forEach((n, i) -> i.tests++);
+
+        for (int i = 0; i < parseContext.getNumberOfTouchedMatchers(); i++) {
+            Matcher m = getAllMatchers().get(parseContext.getTouchedMatcherIndex(i));
+            MatcherImpact impact = impactOverview.get(m.getMatcherSourceLocation());
+            impact.touched++;
+            if (m.getActionsThatRequireInput() == m.getActionsThatRequireInputAndReceivedInput(parseContext)) {
+                impact.enoughInputs++;
+                if (!m.getUsedMatches(parseContext).isEmpty()) {
+                    impact.used++;
                 }
-            });
+            }
         }
-
-        impactList.forEach(i -> LOG.info("{}", i));
     }
 
     public abstract static class AbstractUserAgentAnalyzerTesterBuilder<UAA extends AbstractUserAgentAnalyzerTester, B extends AbstractUserAgentAnalyzerBuilder<UAA, B>>
@@ -21,6 +21,7 @@ import nl.basjes.parse.useragent.AgentField;
 import nl.basjes.parse.useragent.UserAgent;
 import nl.basjes.parse.useragent.UserAgent.MutableUserAgent;
 import nl.basjes.parse.useragent.analyze.Matcher;
+import nl.basjes.parse.useragent.analyze.ParseContext;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.logging.log4j.LogManager;
@@ -58,7 +59,7 @@ public class DebugUserAgent extends MutableUserAgent { // NOSONAR: No need to ov
         return appliedMatcherResults.size();
     }
 
-    String toMatchTrace(List<String> highlightNames) {
+    String toMatchTrace(List<String> highlightNames, ParseContext parseContext) {
         StringBuilder sb = new StringBuilder(4096);
         sb.append('\n');
         sb.append("+=========================================+\n");
@@ -79,7 +80,7 @@ public class DebugUserAgent extends MutableUserAgent { // NOSONAR: No need to ov
             sb.append("+----------------\n");
             UserAgent result = pair.getLeft();
             Matcher matcher = pair.getRight();
-            sb.append(matcher.toString());
+            sb.append(matcher.toString(parseContext));
             sb.append("+----------------\n");
             sb.append("+ Results\n");
             sb.append("+----------------\n");
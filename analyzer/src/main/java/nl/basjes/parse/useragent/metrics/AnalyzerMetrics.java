@@ -0,0 +1,228 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.useragent.metrics;
+
+import com.esotericsoftware.kryo.DefaultSerializer;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The default MetricsListener that simply keeps all counters and latency histograms in memory.
+ * The measurements are NOT retained when the analyzer is serialized: a deserialized analyzer starts at 0.
+ */
+@DefaultSerializer(AnalyzerMetrics.KryoSerializer.class)
+public final class AnalyzerMetrics implements MetricsListener {
+    private static final long serialVersionUID = 1L;
+
+    private transient LongAdder cacheHits;
+    private transient LongAdder cacheMisses;
+    private transient LongAdder cacheEvictions;
+    private transient LongAdder internedValues;
+    private transient LongAdder deduplicatedValues;
+    private transient LongAdder deduplicatedBytes;
+    private transient Map<ParsePhase, LatencyHistogram> phases;
+
+    private transient volatile long   slowestNanos;
+    private transient volatile String slowestUserAgent;
+
+    public AnalyzerMetrics() {
+        initialize();
+    }
+
+    private void initialize() {
+        cacheHits      = new LongAdder();
+        cacheMisses    = new LongAdder();
+        cacheEvictions = new LongAdder();
+        internedValues     = new LongAdder();
+        deduplicatedValues = new LongAdder();
+        deduplicatedBytes  = new LongAdder();
+        phases         = new EnumMap<>(ParsePhase.class);
+        for (ParsePhase phase : ParsePhase.values()) {
+            phases.put(phase, new LatencyHistogram());
+        }
+        slowestNanos     = 0;
+        slowestUserAgent = null;
+    }
+
+    private void readObject(java.io.ObjectInputStream stream)
+        throws java.io.IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        initialize();
+    }
+
+    public static class KryoSerializer extends Serializer<AnalyzerMetrics> {
+        public KryoSerializer(Kryo kryo, Class<?> type) {
+            super();
+        }
+
+        @Override
+        public void write(Kryo kryo, Output output, AnalyzerMetrics object) {
+            // Nothing to write: the measurements are not retained.
+        }
+
+        @Override
+        public AnalyzerMetrics read(Kryo kryo, Input input, Class<? extends AnalyzerMetrics> type) {
+            return new AnalyzerMetrics();
+        }
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public void cacheHit() {
+        cacheHits.increment();
+    }
+
+    @Override
+    public void cacheMiss() {
+        cacheMisses.increment();
+    }
+
+    @Override
+    public void cacheEvictions(long count) {
+        cacheEvictions.add(count);
+    }
+
+    @Override
+    public void valuesInterned(long values, long deduplicated, long bytesSaved) {
+        internedValues.add(values);
+        deduplicatedValues.add(deduplicated);
+        deduplicatedBytes.add(bytesSaved);
+    }
+
+    @Override
+    public void phase(ParsePhase phase, long nanos, String userAgentString) {
+        phases.get(phase).record(nanos);
+        if (phase == ParsePhase.TOTAL && nanos > slowestNanos) {
+            recordSlowest(nanos, userAgentString);
+        }
+    }
+
+    private synchronized void recordSlowest(long nanos, String userAgentString) {
+        if (nanos > slowestNanos) {
+            slowestNanos     = nanos;
+            slowestUserAgent = userAgentString;
+        }
+    }
+
+    // ------------------------------------------
+
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    public long getCacheEvictions() {
+        return cacheEvictions.sum();
+    }
+
+    /**
+     * @return The fraction (0.0 .. 1.0) of the parses that were answered from the cache.
+     */
+    public double getCacheHitRatio() {
+        long hits = getCacheHits();
+        long total = hits + getCacheMisses();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    /**
+     * @return The number of values that were interned.
+     */
+    public long getInternedValues() {
+        return internedValues.sum();
+    }
+
+    /**
+     * @return The number of interned values that were replaced by an existing instance.
+     */
+    public long getDeduplicatedValues() {
+        return deduplicatedValues.sum();
+    }
+
+    /**
+     * @return The fraction (0.0 .. 1.0) of the interned values that were replaced by an existing instance.
+     */
+    public double getDeduplicatedRatio() {
+        long total = getInternedValues();
+        return total == 0 ? 0.0 : (double) getDeduplicatedValues() / total;
+    }
+
+    /**
+     * @return The estimated number of bytes that are no longer needed because of the deduplication.
+     */
+    public long getDeduplicatedBytes() {
+        return deduplicatedBytes.sum();
+    }
+
+    public LatencyHistogram getLatency(ParsePhase phase) {
+        return phases.get(phase);
+    }
+
+    /**
+     * @return The useragent that took the longest to analyze (null if nothing has been analyzed yet).
+     */
+    public String getSlowestUserAgent() {
+        return slowestUserAgent;
+    }
+
+    public long getSlowestNanos() {
+        return slowestNanos;
+    }
+
+    /**
+     * Set all measurements back to 0.
+     */
+    public void reset() {
+        cacheHits.reset();
+        cacheMisses.reset();
+        cacheEvictions.reset();
+        internedValues.reset();
+        deduplicatedValues.reset();
+        deduplicatedBytes.reset();
+        phases.values().forEach(LatencyHistogram::reset);
+        resetSlowest();
+    }
+
+    private synchronized void resetSlowest() {
+        slowestNanos     = 0;
+        slowestUserAgent = null;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(512);
+        sb.append("AnalyzerMetrics:\n");
+        sb.append(String.format("- Cache   : hits=%d misses=%d evictions=%d hitRatio=%.3f%n",
+            getCacheHits(), getCacheMisses(), getCacheEvictions(), getCacheHitRatio()));
+        sb.append(String.format("- Interner: values=%d deduplicated=%d ratio=%.3f bytesSaved=%d%n",
+            getInternedValues(), getDeduplicatedValues(), getDeduplicatedRatio(), getDeduplicatedBytes()));
+        for (ParsePhase phase : ParsePhase.values()) {
+            sb.append(String.format("- %-9s: %s%n", phase, getLatency(phase)));
+        }
+        sb.append("- Slowest : ").append(getSlowestNanos()).append("ns : ").append(getSlowestUserAgent()).append('\n');
+        return sb.toString();
+    }
+}
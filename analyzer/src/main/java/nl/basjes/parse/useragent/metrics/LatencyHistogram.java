@@ -0,0 +1,103 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.useragent.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread safe histogram of durations (in nanoseconds).
+ * The buckets are powers of 2 so a percentile is only an estimate that can be at most 2x too high.
+ */
+public final class LatencyHistogram {
+    private static final int BUCKETS = 64;
+
+    private final LongAdder[]     buckets = new LongAdder[BUCKETS];
+    private final LongAdder       count   = new LongAdder();
+    private final LongAdder       total   = new LongAdder();
+    private final LongAccumulator max     = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param nanos The duration that is to be recorded.
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        // Bucket i contains the values in the range [2^(i-1), 2^i)
+        buckets[BUCKETS - Long.numberOfLeadingZeros(value)].increment();
+        count.increment();
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalNanos() {
+        return total.sum();
+    }
+
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    public long getMeanNanos() {
+        long currentCount = getCount();
+        return currentCount == 0 ? 0 : getTotalNanos() / currentCount;
+    }
+
+    /**
+     * @param percentile The requested percentile (0 .. 100).
+     * @return An upper bound of the duration of the requested percentile (0 if nothing was recorded).
+     */
+    public long getPercentileNanos(double percentile) {
+        long currentCount = getCount();
+        if (currentCount == 0) {
+            return 0;
+        }
+        long needed = (long) Math.ceil(currentCount * Math.min(Math.max(percentile, 0), 100) / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i].sum();
+            if (seen >= Math.max(needed, 1)) {
+                return Math.min(i == 0 ? 0 : (1L << i) - 1, getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+
+    public void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        count.reset();
+        total.reset();
+        max.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%dns p50=%dns p99=%dns max=%dns",
+            getCount(), getMeanNanos(), getPercentileNanos(50), getPercentileNanos(99), getMaxNanos());
+    }
+}
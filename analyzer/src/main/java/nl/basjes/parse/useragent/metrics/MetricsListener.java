@@ -0,0 +1,68 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.useragent.metrics;
+
+import java.io.Serializable;
+
+/**
+ * Receives the measurements of an analyzer.
+ * Implement this to export the metrics to the monitoring system of your choice.
+ * <p>
+ * All methods are called from the parsing threads (many at the same time) so an implementation
+ * must be thread safe and very fast.
+ * An implementation is stored as part of the analyzer so it must be Serializable.
+ * If Kryo is used then a custom implementation must also be registered with Kryo.
+ */
+public interface MetricsListener extends Serializable {
+
+    /**
+     * The result was found in the parse cache.
+     */
+    default void cacheHit() {
+    }
+
+    /**
+     * The result was not found in the parse cache and the useragent was analyzed.
+     */
+    default void cacheMiss() {
+    }
+
+    /**
+     * Entries were removed from the parse cache because it was full.
+     * @param count The number of evicted entries.
+     */
+    default void cacheEvictions(long count) {
+    }
+
+    /**
+     * A phase of analyzing a single useragent was completed.
+     * @param phase The phase.
+     * @param nanos How long the phase took (in nanoseconds).
+     * @param userAgentString The useragent that was analyzed (to find the pathological cases).
+     */
+    default void phase(ParsePhase phase, long nanos, String userAgentString) {
+    }
+
+    /**
+     * The values of a result were interned (only if the analyzer was built withValueInterning()).
+     * @param values The number of values that were interned.
+     * @param deduplicated The number of values that were replaced by an existing instance.
+     * @param bytesSaved The estimated number of bytes that are no longer needed because of this.
+     */
+    default void valuesInterned(long values, long deduplicated, long bytesSaved) {
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.useragent.metrics;
+
+/**
+ * The phases of analyzing a single useragent for which the time is measured.
+ */
+public enum ParsePhase {
+    /** Cleaning the input string (EvilManualUseragentStringHacks.fixIt). */
+    PREPARE,
+    /** Lexing and parsing the useragent into a tree (ANTLR). */
+    PARSE,
+    /** Walking the tree and informing all interested matcher actions. */
+    WALK,
+    /** Evaluating all matchers that received input. */
+    MATCH,
+    /** Running all field calculators and other post processing. */
+    CALCULATE,
+    /** The entire analysis (excluding any cache lookup). */
+    TOTAL
+}
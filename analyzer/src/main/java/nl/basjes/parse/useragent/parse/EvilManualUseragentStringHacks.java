@@ -14,11 +14,14 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-
 package nl.basjes.parse.useragent.parse;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.UnaryOperator;
 import java.util.regex.Pattern;
 
 import static nl.basjes.parse.useragent.utils.Normalize.replaceString;
@@ -43,27 +46,45 @@ public final class EvilManualUseragentStringHacks {
     private static final Pattern TENCENT_LANGUAGE_FIX =
         Pattern.compile("(Language)/([a-z_-]+)", Pattern.CASE_INSENSITIVE);
 
+    // The special triggers: a trigger that starts with this must be at the start of the useragent.
+    private static final char AT_START = '^';
+    // The special triggers: a digit directly followed by an uppercase letter.
+    private static final String DIGIT_UPPERCASE = "[0-9][A-Z]";
+
     /**
-     * There are a few situations where in order to parse the useragent we need to 'fix it'.
-     * Yes, all of this is pure evil but we "have to".
-     *
-     * @param useragent Raw useragent
-     * @return Cleaned useragent
+     * A single hack: the rewrite and the texts of which at least one must be present in the useragent
+     * for this rewrite to change anything (the triggers are matched case-insensitive).
      */
-    public static String fixIt(String useragent) {
-        if (useragent == null || useragent.isEmpty()) {
-            return useragent;
+    private static final class Rewrite {
+        private final String[] triggers;
+        private final UnaryOperator<String> rewrite;
+
+        Rewrite(UnaryOperator<String> rewrite, String... triggers) {
+            this.triggers = triggers;
+            this.rewrite = rewrite;
         }
-        String result = useragent;
+    }
+
+    private static Rewrite replace(String searchFor, String replaceWith) {
+        return new Rewrite(input -> replaceString(input, searchFor, replaceWith), searchFor);
+    }
 
-        result = MULTIPLE_SPACES.matcher(result).replaceAll(" ");
+    private static Rewrite replaceAll(Pattern pattern, String replacement, String... triggers) {
+        return new Rewrite(input -> pattern.matcher(input).replaceAll(replacement), triggers);
+    }
+
+    /*
+     * There are a few situations where in order to parse the useragent we need to 'fix it'.
+     * These are all applied in this order.
+     */
+    private static final Rewrite[] REWRITES = {
+        replaceAll(MULTIPLE_SPACES, " ", "  "),
 
         // The first one is a special kind of space: https://unicodemap.org/details/0x2002/index.html
-        result = replaceString(result, "\u2002", " ");
+        replace("\u2002", " "),
 
-        if (result.charAt(0) == ' ') {
-            result = result.trim();
-        }
+        // Note that the previous rewrites can result in a leading space.
+        new Rewrite(input -> input.charAt(0) == ' ' ? input.trim() : input, AT_START + " "),
 
         // The NetType and Language tags as used by Tencent re hard to parse.
         // Some example snippets from Tencent/Alibaba style agents:
@@ -73,87 +94,218 @@ public final class EvilManualUseragentStringHacks {
         //    Process/tools NetType/NON_NETWORK Language/zh_CN
         //
         // The 'fix' is to force an extra comment block in there.
-        result = TENCENT_NETTYPE_FIX.matcher(result).replaceAll("() $1/$2()");
-        result = TENCENT_LANGUAGE_FIX.matcher(result).replaceAll("() $1/$2()");
+        replaceAll(TENCENT_NETTYPE_FIX,  "() $1/$2()", "NetType/"),
+        replaceAll(TENCENT_LANGUAGE_FIX, "() $1/$2()", "Language/"),
 
-        result = replaceString(result, "SSL/TLS", "SSL TLS");
+        replace("SSL/TLS", "SSL TLS"),
 
-        if (result.contains("MSIE")) {
-            result = replaceString(result, "MSIE7", "MSIE 7");
-            result = replaceString(result, "MSIE8", "MSIE 8");
-            result = replaceString(result, "MSIE9", "MSIE 9");
-        }
+        replace("MSIE7", "MSIE 7"),
+        replace("MSIE8", "MSIE 8"),
+        replace("MSIE9", "MSIE 9"),
 
-        result = replaceString(result, "MSOffice", "MS-Office");
+        replace("MSOffice", "MS-Office"),
 
-        result = replaceString(result, "Ant.com Toolbar", "Ant.com_Toolbar");
+        replace("Ant.com Toolbar", "Ant.com_Toolbar"),
 
         // Something like Android-4.0.3 is seen as a text instead of a product.
-        result = ANDROID_DASH_VERSION.matcher(result).replaceAll("$1 $2");
+        replaceAll(ANDROID_DASH_VERSION, "$1 $2", "Android-"),
 
         // We have seen problem cases like " Version/4.0Mobile Safari/530.17"
-        result = MISSING_SPACE.matcher(result).replaceAll("$1 $2");
+        replaceAll(MISSING_SPACE, "$1 $2", DIGIT_UPPERCASE),
 
         // Sometimes a case like  "Android/9/something/" matches the pattern of Base84 which breaks everything
         // So those cases we simply insert a space to avoid this match and without changing the resulting tree.
-        result = AVOID_BASE64_MATCH.matcher(result).replaceAll("$1 $2");
+        replaceAll(AVOID_BASE64_MATCH, "$1 $2", "Android/"),
 
         // We have seen problem cases like "Java1.0.21.0"
-        result = replaceString(result, "Java", "Java ");
+        replace("Java", "Java "),
 
         // We have seen problem cases like "Wazzup1.1.100"
-        result = replaceString(result, "Wazzup", "Wazzup ");
+        replace("Wazzup", "Wazzup "),
 
         // This one is a single useragent that hold significant traffic
-        result = replaceString(result, " (Macintosh); ", " (Macintosh; ");
+        replace(" (Macintosh); ", " (Macintosh; "),
 
         // This one is a single useragent that hold significant traffic
-        result = replaceString(result, "Microsoft Windows NT 6.2.9200.0);", "Microsoft Windows NT 6.2.9200.0;");
+        replace("Microsoft Windows NT 6.2.9200.0);", "Microsoft Windows NT 6.2.9200.0;"),
 
         // The VM_Vertis 4010 You Build/VM is missing a ')'
-        result = replaceString(result, "You Build/VM", "You Build/VM)");
+        replace("You Build/VM", "You Build/VM)"),
 
         // Some agents are providing comment values that are ONLY a version
-        result = replaceString(result, "(/", "(Unknown/");
-        result = replaceString(result, "; /", "; Unknown/");
+        replace("(/", "(Unknown/"),
+        replace("; /", "; Unknown/"),
 
-        result = replaceString(result, ", _TV_", " _TV_");
+        replace(", _TV_", " _TV_"),
 
         // Repair certain cases of broken useragents (like we see for the Facebook app a lot)
-        if (MISSING_PRODUCT_AT_START.matcher(result).matches() || result.charAt(0) == '[') {
-            // We simply prefix a fake product name to continue parsing.
-            result = "FakeYauaaProduct/3.14 " + result;
-        } else {
-            // This happens occasionally
-            if (result.charAt(0) == '/') {
-                // We simply prefix a fake product name to continue parsing.
-                result = "FakeYauaaProduct" + result;
-            }
-        }
+        new Rewrite(EvilManualUseragentStringHacks::addMissingProduct, AT_START + "(", AT_START + "[", AT_START + "/"),
 
         // Kick some garbage that sometimes occurs.
-        result = replaceString(result, ",gzip(gfe)", "");
+        replace(",gzip(gfe)", ""),
 
         // The Weibo useragent This one is a single useragent that hold significant traffic
-        result = replaceString(result, "__", " ");
+        replace("__", " "),
+
+        new Rewrite(EvilManualUseragentStringHacks::urlDecode, "%20", "%3B", "%25", "%2F", "%28"),
+    };
+
+    private static String addMissingProduct(String input) {
+        if (MISSING_PRODUCT_AT_START.matcher(input).matches() || input.charAt(0) == '[') {
+            // We simply prefix a fake product name to continue parsing.
+            return "FakeYauaaProduct/3.14 " + input;
+        }
+        // This happens occasionally
+        if (input.charAt(0) == '/') {
+            // We simply prefix a fake product name to continue parsing.
+            return "FakeYauaaProduct" + input;
+        }
+        return input;
+    }
 
+    private static String urlDecode(String input) {
         if (
-            (result.indexOf('%') != -1) &&
-                (result.contains("%20") ||
-                 result.contains("%3B") ||
-                 result.contains("%25") ||
-                 result.contains("%2F") ||
-                 result.contains("%28"))) {
+            (input.indexOf('%') != -1) &&
+                (input.contains("%20") ||
+                 input.contains("%3B") ||
+                 input.contains("%25") ||
+                 input.contains("%2F") ||
+                 input.contains("%28"))) {
             try {
-                result = URLDecoder.decode(result, "UTF-8");
+                return URLDecoder.decode(input, "UTF-8");
             } catch (UnsupportedEncodingException | IllegalArgumentException e) {
                 // UnsupportedEncodingException: Can't happen because the UTF-8 is hardcoded here.
                 // IllegalArgumentException: Probably bad % encoding in there somewhere.
                 // Ignore and continue.
             }
         }
+        return input;
+    }
+
+    // All triggers of all rewrites compiled into a single table so all of them are found in a single pass.
+    private static final TriggerScanner SCANNER = new TriggerScanner(REWRITES);
 
-        return result; // 99.99% of the cases nothing will have changed.
+    /**
+     * Finds in a single pass over the useragent which of the rewrites can change it.
+     * A trigger that is found does not mean the rewrite will actually change something
+     * (the triggers are matched case-insensitive and are only a part of what is changed).
+     */
+    static final class TriggerScanner {
+        // Per lowercase ASCII character the (lowercase) triggers that start with it (non-ASCII are under 0).
+        private final String[][] triggers = new String[128][];
+        // The same as a bit set of the rewrites they belong to.
+        private final long[][]   rewrites = new long[128][];
+        // Per lowercase ASCII character the rewrites that are triggered if the input starts with it.
+        private final long[]     atStart  = new long[128];
+        private long             digitUpperCase;
+
+        TriggerScanner(Rewrite[] allRewrites) {
+            if (allRewrites.length > Long.SIZE) {
+                throw new IllegalStateException("Too many rewrites for a single long: " + allRewrites.length);
+            }
+            List<List<String>> triggerList = new ArrayList<>();
+            List<List<Long>>   rewriteList = new ArrayList<>();
+            for (int c = 0; c < 128; c++) {
+                triggerList.add(new ArrayList<>());
+                rewriteList.add(new ArrayList<>());
+            }
+
+            for (int index = 0; index < allRewrites.length; index++) {
+                long bit = 1L << index;
+                for (String trigger : allRewrites[index].triggers) {
+                    if (DIGIT_UPPERCASE.equals(trigger)) {
+                        digitUpperCase |= bit;
+                        continue;
+                    }
+                    if (trigger.charAt(0) == AT_START) {
+                        atStart[bucket(trigger.charAt(1))] |= bit;
+                        continue;
+                    }
+                    String lowerCaseTrigger = trigger.toLowerCase(Locale.ROOT);
+                    int bucket = bucket(lowerCaseTrigger.charAt(0));
+                    triggerList.get(bucket).add(lowerCaseTrigger);
+                    rewriteList.get(bucket).add(bit);
+                }
+            }
+
+            for (int c = 0; c < 128; c++) {
+                triggers[c] = triggerList.get(c).toArray(new String[0]);
+                rewrites[c] = rewriteList.get(c).stream().mapToLong(Long::longValue).toArray();
+            }
+        }
+
+        private static int bucket(char c) {
+            if (c >= 128) {
+                return 0;
+            }
+            if (c >= 'A' && c <= 'Z') {
+                return c + ('a' - 'A');
+            }
+            return c;
+        }
+
+        /**
+         * @param input The (non empty) useragent
+         * @return A bit set with the index of each rewrite of which a trigger is present in the input.
+         */
+        long scan(String input) {
+            long found = atStart[bucket(input.charAt(0))];
+
+            int length = input.length();
+            for (int i = 0; i < length; i++) {
+                char c = input.charAt(i);
+                if (c >= '0' && c <= '9' && i + 1 < length) {
+                    char next = input.charAt(i + 1);
+                    if (next >= 'A' && next <= 'Z') {
+                        found |= digitUpperCase;
+                    }
+                }
+                int bucket = bucket(c);
+                String[] candidates = triggers[bucket];
+                for (int candidate = 0; candidate < candidates.length; candidate++) {
+                    String trigger = candidates[candidate];
+                    if (input.regionMatches(true, i, trigger, 0, trigger.length())) {
+                        found |= rewrites[bucket][candidate];
+                    }
+                }
+            }
+            return found;
+        }
+    }
+
+    /**
+     * There are a few situations where in order to parse the useragent we need to 'fix it'.
+     * Yes, all of this is pure evil but we "have to".
+     *
+     * @param useragent Raw useragent
+     * @return Cleaned useragent (the same instance if nothing needed to be fixed)
+     */
+    public static String fixIt(String useragent) {
+        if (useragent == null || useragent.isEmpty()) {
+            return useragent;
+        }
+
+        long triggered = SCANNER.scan(useragent);
+        if (triggered == 0) {
+            return useragent; // 99.99% of the cases nothing will have changed.
+        }
+
+        String  result  = useragent;
+        boolean changed = false;
+        for (int index = 0; index < REWRITES.length; index++) {
+            if (changed) {
+                // The input is different from what was scanned so all remaining rewrites are applied.
+                result = REWRITES[index].rewrite.apply(result);
+                continue;
+            }
+            // As long as nothing has changed only the rewrites that were triggered can change something.
+            if ((triggered & (1L << index)) != 0) {
+                String rewritten = REWRITES[index].rewrite.apply(result);
+                changed = !rewritten.equals(result);
+                result = rewritten;
+            }
+        }
+        return result;
     }
 
 }
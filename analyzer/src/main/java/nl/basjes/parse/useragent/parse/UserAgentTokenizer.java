@@ -0,0 +1,325 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.parse;
+
+import nl.basjes.parse.useragent.parser.UserAgentLexer;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenFactory;
+import org.antlr.v4.runtime.TokenSource;
+import org.antlr.v4.runtime.misc.Pair;
+
+import java.util.Locale;
+
+import static nl.basjes.parse.useragent.parser.UserAgentLexer.BLOCKCLOSE;
+import static nl.basjes.parse.useragent.parser.UserAgentLexer.BLOCKOPEN;
+import static nl.basjes.parse.useragent.parser.UserAgentLexer.BRACECLOSE;
+import static nl.basjes.parse.useragent.parser.UserAgentLexer.BRACEOPEN;
+import static nl.basjes.parse.useragent.parser.UserAgentLexer.COLON;
+import static nl.basjes.parse.useragent.parser.UserAgentLexer.COMMA;
+import static nl.basjes.parse.useragent.parser.UserAgentLexer.CURLYBRACECLOSE;
+import static nl.basjes.parse.useragent.parser.UserAgentLexer.CURLYBRACEOPEN;
+import static nl.basjes.parse.useragent.parser.UserAgentLexer.EQUALS;
+import static nl.basjes.parse.useragent.parser.UserAgentLexer.SEMICOLON;
+import static nl.basjes.parse.useragent.parser.UserAgentLexer.SLASH;
+import static nl.basjes.parse.useragent.parser.UserAgentLexer.VERSION;
+import static nl.basjes.parse.useragent.parser.UserAgentLexer.WORD;
+
+/**
+ * A hand written tokenizer that produces exactly the same tokens as the generated UserAgentLexer.
+ * <p>
+ * A table with a class per (ASCII) character is used to directly produce the tokens of the things that are
+ * found in almost all useragents: the separators, the spaces and the plain words and versions.
+ * At every position where one of the more complex tokens (like an url, email, uuid or base64) could start
+ * the generated lexer is used to produce that single token after which this tokenizer continues.
+ * Useragents that may contain an email address are tokenized completely by the generated lexer.
+ * <p>
+ * An instance is NOT thread safe and is reused for the next useragent by calling reset.
+ */
+public final class UserAgentTokenizer implements TokenSource {
+
+    private static final byte DELEGATE  = 0; // Let the generated lexer determine the token
+    private static final byte SKIP      = 1; // A character that is skipped
+    private static final byte SEPARATOR = 2; // A character that is always a token by itself
+    private static final byte RUN       = 3; // A character of a word or version
+
+    private static final byte[] CHAR_CLASS = new byte[128];
+    private static final int[]  SEPARATOR_TOKEN_TYPE = new int[128];
+
+    private static void separator(char c, int tokenType) {
+        CHAR_CLASS[c] = SEPARATOR;
+        SEPARATOR_TOKEN_TYPE[c] = tokenType;
+    }
+
+    static {
+        // Everything that is not set is DELEGATE
+        CHAR_CLASS[' ']  = SKIP;
+        CHAR_CLASS['\t'] = SKIP;
+        CHAR_CLASS['+']  = SKIP;
+        CHAR_CLASS['"']  = SKIP;
+
+        separator('{', CURLYBRACEOPEN);
+        separator('}', CURLYBRACECLOSE);
+        separator('(', BRACEOPEN);
+        separator(')', BRACECLOSE);
+        separator('[', BLOCKOPEN);
+        separator(']', BLOCKCLOSE);
+        separator(';', SEMICOLON);
+        separator(':', COLON);
+        separator(',', COMMA);
+        separator('/', SLASH);
+        separator('=', EQUALS);
+
+        for (char c = 'a'; c <= 'z'; c++) {
+            CHAR_CLASS[c] = RUN;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            CHAR_CLASS[c] = RUN;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            CHAR_CLASS[c] = RUN;
+        }
+        CHAR_CLASS['.'] = RUN;
+        CHAR_CLASS['_'] = RUN;
+    }
+
+    // These MUST be the same as the SPECIALVERSIONWORDS in the UserAgent.g4 grammar.
+    private static final String[] SPECIAL_VERSION_WORDS = {"dapper", "hardy"};
+
+    // A BASE64 token is at least 36 characters of which at most 3 are '=' (padding).
+    private static final int MIN_BASE64_LETTERS = 33;
+
+    private final UserAgentLexer lexer;
+
+    private Pair<TokenSource, CharStream> source;
+    private String   text;
+    private int      length;
+    private boolean  delegateAll;
+
+    private int      position;
+    private int      line;
+    private int      lineStart;
+    private boolean  hitEOF;
+
+    /**
+     * @param lexer The generated lexer that is used for all the complex tokens.
+     *              This lexer is also used as the source of all produced tokens.
+     */
+    public UserAgentTokenizer(UserAgentLexer lexer) {
+        this.lexer = lexer;
+    }
+
+    /**
+     * Prepare for tokenizing a new useragent. The provided lexer must already have the same input.
+     * @param newText The useragent that must be tokenized.
+     */
+    public void reset(String newText) {
+        CharStream input = lexer.getInputStream();
+        source      = new Pair<>(lexer, input);
+        text        = newText;
+        length      = newText.length();
+        // Only if each char is a code point the positions in the text and the input are the same.
+        delegateAll = input.size() != length || mayContainEmail(newText);
+        position    = 0;
+        line        = 1;
+        lineStart   = 0;
+        hitEOF      = false;
+    }
+
+    private static boolean mayContainEmail(String value) {
+        // Every email address needs one of these forms of the '@'
+        return  value.indexOf('@')     >= 0 ||
+                value.contains(" at ") ||
+                value.contains("[at]") ||
+                value.contains("\\at") ||
+                value.contains("[\\xc3");
+    }
+
+    @Override
+    public Token nextToken() {
+        if (delegateAll) {
+            return lexer.nextToken();
+        }
+        while (true) {
+            if (hitEOF || position >= length) {
+                hitEOF = true;
+                return createToken(Token.EOF, length, length - 1);
+            }
+            char c = text.charAt(position);
+            byte charClass = c < 128 ? CHAR_CLASS[c] : DELEGATE;
+            switch (charClass) {
+                case SKIP:
+                    position++;
+                    continue;
+                case SEPARATOR:
+                    if (c == '/' && charAt(position + 1) == '/') {
+                        return delegate(); // Could be an url
+                    }
+                    position++;
+                    return createToken(SEPARATOR_TOKEN_TYPE[c], position - 1, position - 1);
+                case RUN:
+                    return run();
+                default:
+                    return delegate();
+            }
+        }
+    }
+
+    private char charAt(int index) {
+        return index < length ? text.charAt(index) : 0;
+    }
+
+    private Token run() {
+        int     start     = position;
+        boolean hasDigits = false;
+        boolean hasDots   = false;
+        int     end       = start;
+        while (end < length) {
+            char c = text.charAt(end);
+            if (c >= 128 || CHAR_CLASS[c] != RUN) {
+                break;
+            }
+            if (c >= '0' && c <= '9') {
+                hasDigits = true;
+            } else if (c == '.') {
+                hasDots = true;
+            }
+            end++;
+        }
+
+        if (!isCleanEnd(end) ||
+            (hasDots && !isDigit(text.charAt(start))) || // Could be the hostname of an url
+            mayBeBase64(start) ||
+            isSpecialWord(start, end)) {
+            return delegate();
+        }
+
+        position = end;
+        return createToken(hasDigits ? VERSION : WORD, start, end - 1);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    // Both a WORD and a VERSION always end at these
+    private boolean isCleanEnd(int end) {
+        if (end >= length) {
+            return true;
+        }
+        char c = text.charAt(end);
+        if (c >= 128) {
+            return false;
+        }
+        if (c == ',') {
+            return !isDigit(charAt(end + 1)); // A version can be like 1,2
+        }
+        return CHAR_CLASS[c] == SKIP || CHAR_CLASS[c] == SEPARATOR;
+    }
+
+    private boolean mayBeBase64(int start) {
+        int end = start;
+        while (end < length && end - start < MIN_BASE64_LETTERS) {
+            char c = text.charAt(end);
+            if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || isDigit(c) ||
+                  c == '+' || c == '?' || c == '_' || c == '/')) {
+                break;
+            }
+            end++;
+        }
+        return end - start >= MIN_BASE64_LETTERS;
+    }
+
+    private boolean isSpecialWord(int start, int end) {
+        int runLength = end - start;
+        if (runLength < 3 || runLength > 11) {
+            return false;
+        }
+        String word = text.substring(start, end);
+        if (word.startsWith("localhost") || word.equals("application")) { // URL and MIME_TYPE_1
+            return true;
+        }
+        if (charAt(end) == ':' &&
+            (word.equals("http") || word.equals("https") || word.equals("ftp") || word.equals("ftps"))) { // URL
+            return true;
+        }
+        String lowerCaseWord = word.toLowerCase(Locale.ROOT);
+        if (lowerCaseWord.startsWith("user")) { // USERAGENT1
+            return true;
+        }
+        for (String specialVersionWord : SPECIAL_VERSION_WORDS) {
+            if (lowerCaseWord.equals(specialVersionWord)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Let the generated lexer produce the next token (skipping what it skips) starting at the current position.
+    private Token delegate() {
+        CharStream input = lexer.getInputStream();
+        input.seek(position);
+        lexer.setLine(line);
+        lexer.setCharPositionInLine(position - lineStart);
+
+        Token token = lexer.nextToken();
+
+        position  = input.index();
+        line      = lexer.getLine();
+        lineStart = position - lexer.getCharPositionInLine();
+        if (token.getType() == Token.EOF) {
+            hitEOF = true;
+        }
+        return token;
+    }
+
+    private Token createToken(int type, int start, int stop) {
+        return lexer.getTokenFactory().create(source, type, null, Token.DEFAULT_CHANNEL,
+            start, stop, line, start - lineStart);
+    }
+
+    @Override
+    public int getLine() {
+        return delegateAll ? lexer.getLine() : line;
+    }
+
+    @Override
+    public int getCharPositionInLine() {
+        return delegateAll ? lexer.getCharPositionInLine() : position - lineStart;
+    }
+
+    @Override
+    public CharStream getInputStream() {
+        return lexer.getInputStream();
+    }
+
+    @Override
+    public String getSourceName() {
+        return lexer.getSourceName();
+    }
+
+    @Override
+    public void setTokenFactory(TokenFactory<?> factory) {
+        lexer.setTokenFactory(factory);
+    }
+
+    @Override
+    public TokenFactory<? extends Token> getTokenFactory() {
+        return lexer.getTokenFactory();
+    }
+}
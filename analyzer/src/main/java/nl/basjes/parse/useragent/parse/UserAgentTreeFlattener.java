@@ -21,7 +21,11 @@ import nl.basjes.parse.useragent.UserAgent;
 import nl.basjes.parse.useragent.UserAgent.MutableUserAgent;
 import nl.basjes.parse.useragent.UserAgentAnalyzerDirect;
 import nl.basjes.parse.useragent.analyze.Analyzer;
+import nl.basjes.parse.useragent.analyze.InformDispatcher;
+import nl.basjes.parse.useragent.analyze.ParseContext;
 import nl.basjes.parse.useragent.analyze.WordRangeVisitor.Range;
+import nl.basjes.parse.useragent.metrics.MetricsListener;
+import nl.basjes.parse.useragent.metrics.ParsePhase;
 import nl.basjes.parse.useragent.parser.UserAgentBaseListener;
 import nl.basjes.parse.useragent.parser.UserAgentLexer;
 import nl.basjes.parse.useragent.parser.UserAgentParser;
@@ -54,23 +58,40 @@ import nl.basjes.parse.useragent.parser.UserAgentParser.UserAgentContext;
 import nl.basjes.parse.useragent.parser.UserAgentParser.UuIdContext;
 import nl.basjes.parse.useragent.parser.UserAgentParser.VersionWordsContext;
 import nl.basjes.parse.useragent.utils.Splitter;
+import nl.basjes.parse.useragent.utils.StringCharStream;
 import nl.basjes.parse.useragent.utils.VersionSplitter;
 import nl.basjes.parse.useragent.utils.WordSplitter;
-import org.antlr.v4.runtime.CharStreams;
-import org.antlr.v4.runtime.CodePointCharStream;
+import org.antlr.v4.runtime.ANTLRErrorListener;
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ConsoleErrorListener;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.Parser;
 import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.TokenSource;
+import org.antlr.v4.runtime.atn.ATNConfigSet;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.dfa.DFA;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
 import org.antlr.v4.runtime.tree.ParseTree;
-import org.antlr.v4.runtime.tree.ParseTreeProperty;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
 import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import org.antlr.v4.runtime.tree.RuleNode;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.io.Serializable;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static nl.basjes.parse.useragent.UserAgent.SYNTAX_ERROR;
-import static nl.basjes.parse.useragent.utils.AntlrUtils.getSourceText;
+import static nl.basjes.parse.useragent.analyze.InformDispatcher.UNKNOWN_PATH;
+import static nl.basjes.parse.useragent.utils.AntlrUtils.getSourceTextView;
 
 public class UserAgentTreeFlattener extends UserAgentBaseListener implements Serializable {
     private final Analyzer               analyzer;
@@ -98,8 +119,9 @@ public class UserAgentTreeFlattener extends UserAgentBaseListener implements Ser
         long child = 0;
         long version = 0;
         long comment = 0;
-        final String name;
+        String name;
         String path;
+        int pathId = UNKNOWN_PATH;
         ParseTree ctx = null;
 
         @SuppressWarnings("unused") // Private constructor for serialization systems ONLY (like Kryo)
@@ -116,22 +138,64 @@ public class UserAgentTreeFlattener extends UserAgentBaseListener implements Ser
             this.name = name;
         }
 
+        void reuse(ParseTree newCtx, String newName) {
+            child   = 0;
+            version = 0;
+            comment = 0;
+            ctx     = newCtx;
+            name    = newName;
+            path    = null;
+            pathId  = UNKNOWN_PATH;
+        }
+
         public String calculatePath(PathType type, boolean fakeChild) {
-            ParseTree node = ctx;
             path = name;
-            if (node == null) {
+            State parentState = getParentState();
+            if (parentState == null) {
                 return path;
             }
+            long counter = nextCounter(parentState, type, fakeChild);
+            this.path = parentState.path + ".(" + counter + ')' + name;
+            return this.path;
+        }
+
+        /**
+         * The same as calculatePath but only the id of the path is determined (no String is created).
+         * @param type The type of counter that is used for this path.
+         * @param fakeChild If this is a fake child (does not increase the counter).
+         * @return The id of the path or UNKNOWN_PATH if no matcher needs it.
+         */
+        int calculatePathId(PathType type, boolean fakeChild) {
+            State parentState = getParentState();
+            if (parentState == null) {
+                pathId = pathIndex.getPathId(name);
+                return pathId;
+            }
+            // The counter must always be updated, also if the path is not relevant.
+            long counter = nextCounter(parentState, type, fakeChild);
+            pathId = pathIndex.getPathId(parentState.pathId, counter, name);
+            return pathId;
+        }
+
+        // The state of the closest ancestor of this node that has a state.
+        private State getParentState() {
+            ParseTree node = ctx;
+            if (node == null) {
+                return null;
+            }
             State parentState = null;
 
             while (parentState == null) {
                 node = node.getParent();
                 if (node == null) {
-                    return path;
+                    return null;
                 }
                 parentState = state.get(node);
             }
+            return parentState;
+        }
 
+        private long nextCounter(State parentState, PathType type, boolean fakeChild) {
             long counter = 0;
             switch (type) {
                 case CHILD:
@@ -154,14 +218,31 @@ public class UserAgentTreeFlattener extends UserAgentBaseListener implements Ser
                     break;
                 default:
             }
-
-            this.path = parentState.path + ".(" + counter + ')' + name;
-
-            return this.path;
+            return counter;
         }
     }
 
-    private transient ParseTreeProperty<State> state;
+    // The state of a single walk. These are only set in the instance that walks the parse trees.
+    private transient Map<ParseTree, State> state;
+    private transient ParseContext parseContext;
+    // If available the paths are followed using their ids instead of the path strings (null if not available).
+    private transient InformDispatcher pathIndex;
+
+    // The State instances are taken from a fixed size arena that is reused for every walk.
+    // Only for very large trees the remaining State instances are allocated.
+    private static final int STATE_ARENA_SIZE = 256;
+    private transient State[] stateArena;
+    private transient int     stateArenaUsed;
+
+    // The lexer, token stream and parser are created once and reused for every following parse.
+    private transient UserAgentLexer       lexer;
+    private transient UserAgentTokenizer   tokenizer;
+    private transient CommonTokenStream    tokens;
+    private transient UserAgentParser      parser;
+    private transient ErrorForwarder       lexerErrors;
+    private transient ErrorForwarder       parserErrors;
+    private transient BailErrorStrategy    bailErrorStrategy;
+    private transient DefaultErrorStrategy defaultErrorStrategy;
 
     @SuppressWarnings("unused") // Private constructor for serialization systems ONLY (like Kryo)
     private UserAgentTreeFlattener() {
@@ -172,6 +253,42 @@ public class UserAgentTreeFlattener extends UserAgentBaseListener implements Ser
         this.analyzer = analyzer;
     }
 
+    // Creates the instance that walks the parse trees so the shared instance can be used by many threads.
+    // The instance for a ParseContext is kept in there so it can be reused by all parses with that ParseContext.
+    private UserAgentTreeFlattener(Analyzer analyzer, ParseContext parseContext) {
+        this.analyzer = analyzer;
+        this.parseContext = parseContext;
+        this.state = new IdentityHashMap<>();
+        this.stateArena = new State[STATE_ARENA_SIZE];
+    }
+
+    private UserAgentTreeFlattener getWalker(ParseContext currentParseContext) {
+        if (currentParseContext == null) {
+            return new UserAgentTreeFlattener(analyzer, null);
+        }
+        UserAgentTreeFlattener walker = currentParseContext.getTreeWalker();
+        if (walker == null || walker.analyzer != analyzer) {
+            walker = new UserAgentTreeFlattener(analyzer, currentParseContext);
+            currentParseContext.setTreeWalker(walker);
+        }
+        return walker;
+    }
+
+    private State newState(ParseTree ctx, String name) {
+        if (stateArena == null || stateArenaUsed == stateArena.length) {
+            return new State(ctx, name);
+        }
+        State newState = stateArena[stateArenaUsed];
+        if (newState == null) {
+            newState = new State(ctx, name);
+            stateArena[stateArenaUsed] = newState;
+        } else {
+            newState.reuse(ctx, name);
+        }
+        stateArenaUsed++;
+        return newState;
+    }
+
     public void clear() {
         state = null;
     }
@@ -182,14 +299,55 @@ public class UserAgentTreeFlattener extends UserAgentBaseListener implements Ser
         this.verbose = newVerbose;
     }
 
+    private boolean twoStageParsing = false;
+
+    /**
+     * Parse with the fast SLL prediction mode first and only if that fails parse again with the full LL mode.
+     * Most useragents are parsed fine by the SLL mode which results in the same parse tree but is a lot faster.
+     * NOTE: Ambiguities in the grammar are only reported during a full LL parse.
+     * @param newTwoStageParsing Enable or disable the two stage parsing.
+     */
+    public void setTwoStageParsing(boolean newTwoStageParsing) {
+        this.twoStageParsing = newTwoStageParsing;
+    }
+
+    public boolean isTwoStageParsing() {
+        return twoStageParsing;
+    }
+
+    private boolean tableDrivenTokenizer = false;
+
+    /**
+     * Use the hand written UserAgentTokenizer (which produces the same tokens) instead of only the generated lexer.
+     * @param newTableDrivenTokenizer Enable or disable the table driven tokenizer.
+     */
+    public void setTableDrivenTokenizer(boolean newTableDrivenTokenizer) {
+        this.tableDrivenTokenizer = newTableDrivenTokenizer;
+    }
+
+    public boolean isTableDrivenTokenizer() {
+        return tableDrivenTokenizer;
+    }
+
     public UserAgent parse(String userAgentString) {
         MutableUserAgent userAgent = new MutableUserAgent(userAgentString);
-        return parseIntoCleanUserAgent(userAgent);
+        return parseIntoCleanUserAgent(userAgent, null);
     }
 
     public MutableUserAgent parse(MutableUserAgent userAgent) {
+        return parse(userAgent, null);
+    }
+
+    /**
+     * Parse the useragent and inform the analyzer about every part that was found.
+     *
+     * @param userAgent The useragent instance that needs to be parsed
+     * @param currentParseContext The state of the current parse that is passed along with every inform.
+     * @return The provided userAgent
+     */
+    public MutableUserAgent parse(MutableUserAgent userAgent, ParseContext currentParseContext) {
         userAgent.reset();
-        return parseIntoCleanUserAgent(userAgent);
+        return parseIntoCleanUserAgent(userAgent, currentParseContext);
     }
 
     /**
@@ -198,93 +356,286 @@ public class UserAgentTreeFlattener extends UserAgentBaseListener implements Ser
      * @param userAgent The useragent instance that needs to be parsed
      * @return If the parse was valid (i.e. were there any parser errors: true=valid; false=has errors
      */
-    private MutableUserAgent parseIntoCleanUserAgent(MutableUserAgent userAgent) {
+    private MutableUserAgent parseIntoCleanUserAgent(MutableUserAgent userAgent, ParseContext newParseContext) {
         if (userAgent.getUserAgentString() == null) {
             userAgent.set(SYNTAX_ERROR, "true", 1);
             return userAgent; // Cannot parse this
         }
 
-        // Parse the userAgent into tree
-        UserAgentContext userAgentContext = parseUserAgent(userAgent);
+        UserAgentTreeFlattener walker = getWalker(newParseContext);
 
-        // Walk the tree an inform the calling analyzer about all the nodes found
-        state = new ParseTreeProperty<>();
+        MetricsListener metrics = newParseContext == null ? null : newParseContext.getMetricsListener();
+        if (metrics == null) {
+            // Parse the userAgent into tree
+            UserAgentContext userAgentContext = walker.parseUserAgent(userAgent, fixIt(userAgent), verbose, twoStageParsing, tableDrivenTokenizer);
 
-        State rootState = new State(AGENT);
-        rootState.calculatePath(PathType.CHILD, false);
-        state.put(userAgentContext, rootState);
-
-        if (userAgent.hasSyntaxError()) {
-            inform(null, SYNTAX_ERROR, "true");
-        } else {
-            inform(null, SYNTAX_ERROR, "false");
+            // Walk the tree an inform the calling analyzer about all the nodes found
+            walker.walk(userAgent, userAgentContext);
+            return userAgent;
         }
 
-        ParseTreeWalker.DEFAULT.walk(this, userAgentContext);
+        // Same as above but measuring each phase.
+        long start = System.nanoTime();
+        String fixedUserAgentString = fixIt(userAgent);
+        long fixed = System.nanoTime();
+        UserAgentContext userAgentContext = walker.parseUserAgent(userAgent, fixedUserAgentString, verbose, twoStageParsing, tableDrivenTokenizer);
+        long parsed = System.nanoTime();
+        walker.walk(userAgent, userAgentContext);
+        long walked = System.nanoTime();
+
+        String userAgentString = userAgent.getUserAgentString();
+        metrics.phase(ParsePhase.PREPARE, fixed - start,   userAgentString);
+        metrics.phase(ParsePhase.PARSE,   parsed - fixed,  userAgentString);
+        metrics.phase(ParsePhase.WALK,    walked - parsed, userAgentString);
         return userAgent;
     }
 
+    private void walk(MutableUserAgent userAgent, UserAgentContext userAgentContext) {
+        try {
+            pathIndex = parseContext == null ? null : analyzer.getPathIndex();
+            State rootState = newState(null, AGENT);
+            calculatePath(rootState, PathType.CHILD, false);
+            state.put(userAgentContext, rootState);
+
+            if (userAgent.hasSyntaxError()) {
+                inform(null, SYNTAX_ERROR, "true");
+            } else {
+                inform(null, SYNTAX_ERROR, "false");
+            }
+
+            if (pathIndex == null) {
+                ParseTreeWalker.DEFAULT.walk(this, userAgentContext);
+            } else {
+                PRUNING_WALKER.walk(this, userAgentContext);
+            }
+        } finally {
+            state.clear();
+            stateArenaUsed = 0;
+            pathIndex = null;
+        }
+    }
+
+    /**
+     * Walks the parse tree like the ParseTreeWalker.DEFAULT but does not descend into a node
+     * if no matcher needs the path of this node (and thus also none of the paths below it).
+     * With only a few wanted fields most of the parse tree is skipped this way.
+     */
+    private static final ParseTreeWalker PRUNING_WALKER = new ParseTreeWalker() {
+        @Override
+        public void walk(ParseTreeListener listener, ParseTree tree) {
+            if (!(tree instanceof RuleNode)) {
+                super.walk(listener, tree);
+                return;
+            }
+            RuleNode ruleNode = (RuleNode) tree;
+            enterRule(listener, ruleNode);
+            if (!((UserAgentTreeFlattener) listener).isIrrelevant(ruleNode)) {
+                int childCount = ruleNode.getChildCount();
+                for (int i = 0; i < childCount; i++) {
+                    walk(listener, ruleNode.getChild(i));
+                }
+            }
+            exitRule(listener, ruleNode);
+        }
+    };
+
+    // True if the path of this node is not needed by any matcher (only known when walking with the path ids).
+    private boolean isIrrelevant(ParseTree ctx) {
+        State myState = state.get(ctx);
+        return myState != null && myState.pathId == UNKNOWN_PATH;
+    }
+
+    private void calculatePath(State myState, PathType type, boolean fakeChild) {
+        if (pathIndex == null) {
+            myState.calculatePath(type, fakeChild);
+        } else {
+            myState.calculatePathId(type, fakeChild);
+        }
+    }
+
     // =================================================================================
 
-    private String inform(ParseTree ctx, String path) {
-        return inform(ctx, path, getSourceText((ParserRuleContext)ctx));
+    private void inform(ParseTree ctx, String path) {
+        inform(ctx, path, getSourceTextView((ParserRuleContext)ctx));
     }
 
-    private String inform(ParseTree ctx, String name, String value) {
-        return inform(ctx, ctx, name, value, false);
+    private void inform(ParseTree ctx, String name, CharSequence value) {
+        inform(ctx, ctx, name, value, false);
     }
 
-    private String inform(ParseTree ctx, String name, String value, boolean fakeChild) {
-        return inform(ctx, ctx, name, value, fakeChild);
+    private void inform(ParseTree ctx, String name, CharSequence value, boolean fakeChild) {
+        inform(ctx, ctx, name, value, fakeChild);
     }
 
-    private String inform(ParseTree stateCtx, ParseTree ctx, String name, String value, boolean fakeChild) {
-        String path = name;
-        if (stateCtx != null) {
-            State myState = new State(stateCtx, name);
+    private void inform(ParseTree stateCtx, ParseTree ctx, String name, CharSequence value, boolean fakeChild) {
+        if (stateCtx == null) {
+            inform(name, value, ctx);
+            return;
+        }
+        inform(newChildState(stateCtx, name, fakeChild), value, ctx);
+    }
 
-            if (!fakeChild) {
-                state.put(stateCtx, myState);
-            }
+    private State newChildState(ParseTree stateCtx, String name, boolean fakeChild) {
+        State myState = newState(stateCtx, name);
 
-            PathType childType;
-            switch (name) {
-                case COMMENTS:
-                    childType = PathType.COMMENT;
-                    break;
-                case VERSION:
-                    childType = PathType.VERSION;
-                    break;
-                default:
-                    childType = PathType.CHILD;
-            }
+        if (!fakeChild) {
+            state.put(stateCtx, myState);
+        }
 
-            path = myState.calculatePath(childType, fakeChild);
+        PathType childType;
+        switch (name) {
+            case COMMENTS:
+                childType = PathType.COMMENT;
+                break;
+            case VERSION:
+                childType = PathType.VERSION;
+                break;
+            default:
+                childType = PathType.CHILD;
         }
-        analyzer.inform(path, value, ctx);
-        return path;
+
+        calculatePath(myState, childType, fakeChild);
+        return myState;
     }
 
-//  =================================================================================
+    private void inform(State myState, CharSequence value, ParseTree ctx) {
+        if (pathIndex == null) {
+            inform(myState.path, value, ctx);
+        } else {
+            // Paths that no matcher needs are skipped without ever creating the path String.
+            pathIndex.inform(myState.pathId, value, ctx, parseContext);
+        }
+    }
 
-    private UserAgentContext parseUserAgent(MutableUserAgent userAgent) {
-        String userAgentString = EvilManualUseragentStringHacks.fixIt(userAgent.getUserAgentString());
+    private void inform(String path, CharSequence value, ParseTree ctx) {
+        if (parseContext == null) {
+            analyzer.inform(path, value == null ? null : value.toString(), ctx);
+        } else {
+            analyzer.inform(path, value, ctx, parseContext);
+        }
+    }
 
-        CodePointCharStream input = CharStreams.fromString(userAgentString);
-        UserAgentLexer lexer = new UserAgentLexer(input);
+//  =================================================================================
 
-        CommonTokenStream tokens = new CommonTokenStream(lexer);
+    private String fixIt(MutableUserAgent userAgent) {
+        return EvilManualUseragentStringHacks.fixIt(userAgent.getUserAgentString());
+    }
 
-        UserAgentParser parser = new UserAgentParser(tokens);
+    private UserAgentContext parseUserAgent(MutableUserAgent userAgent, String userAgentString,
+                                            boolean currentVerbose, boolean currentTwoStageParsing,
+                                            boolean currentTableDrivenTokenizer) {
+        CharStream input = StringCharStream.fromString(userAgentString);
+        if (parser == null) {
+            lexer     = new UserAgentLexer(input);
+            tokenizer = new UserAgentTokenizer(lexer);
+            tokens    = new CommonTokenStream(getTokenSource(userAgentString, currentTableDrivenTokenizer));
+            parser    = new UserAgentParser(tokens);
 
-        if (!verbose) {
+            lexerErrors  = new ErrorForwarder();
+            parserErrors = new ErrorForwarder();
             lexer.removeErrorListeners();
+            lexer.addErrorListener(lexerErrors);
             parser.removeErrorListeners();
+            parser.addErrorListener(parserErrors);
+
+            bailErrorStrategy    = new BailErrorStrategy();
+            defaultErrorStrategy = new DefaultErrorStrategy();
+        } else {
+            // Reuse the instances of the previous parse (this resets them).
+            lexer.setInputStream(input);
+            tokens.setTokenSource(getTokenSource(userAgentString, currentTableDrivenTokenizer));
+            parser.setInputStream(tokens);
+        }
+
+        try {
+            lexerErrors.forwardTo(userAgent, currentVerbose);
+
+            if (currentTwoStageParsing) {
+                // Stage 1: SLL without any error recovery; any problem (also a real syntax error) aborts this stage.
+                parserErrors.forwardTo(null, false);
+                useErrorStrategy(bailErrorStrategy);
+                parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+                try {
+                    return parser.userAgent();
+                } catch (ParseCancellationException pce) {
+                    // Stage 2: Retry the same tokens (the lexer is not run again) with the full LL mode.
+                    parser.reset();
+                }
+            }
+
+            parserErrors.forwardTo(userAgent, currentVerbose);
+            useErrorStrategy(defaultErrorStrategy);
+            parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+            return parser.userAgent();
+        } finally {
+            // Do not retain the useragent until the next parse.
+            lexerErrors.forwardTo(null, false);
+            parserErrors.forwardTo(null, false);
+        }
+    }
+
+    // The lexer must already have the userAgentString as input.
+    private TokenSource getTokenSource(String userAgentString, boolean currentTableDrivenTokenizer) {
+        if (currentTableDrivenTokenizer) {
+            tokenizer.reset(userAgentString);
+            return tokenizer;
+        }
+        return lexer;
+    }
+
+    private void useErrorStrategy(DefaultErrorStrategy errorStrategy) {
+        errorStrategy.reset(parser);
+        parser.setErrorHandler(errorStrategy);
+    }
+
+    /**
+     * The reused lexer and parser report their errors to this listener which
+     * forwards them to the useragent that is currently being parsed.
+     */
+    private static final class ErrorForwarder implements ANTLRErrorListener {
+        private ANTLRErrorListener target = null;
+        private boolean            verbose = false;
+
+        void forwardTo(ANTLRErrorListener newTarget, boolean newVerbose) {
+            this.target = newTarget;
+            this.verbose = newVerbose;
+        }
+
+        @Override
+        public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol,
+                                int line, int charPositionInLine, String msg, RecognitionException e) {
+            if (target == null) {
+                return;
+            }
+            if (verbose) {
+                ConsoleErrorListener.INSTANCE.syntaxError(recognizer, offendingSymbol, line, charPositionInLine, msg, e);
+            }
+            target.syntaxError(recognizer, offendingSymbol, line, charPositionInLine, msg, e);
         }
-        lexer.addErrorListener(userAgent);
-        parser.addErrorListener(userAgent);
 
-        return parser.userAgent();
+        @Override
+        public void reportAmbiguity(Parser recognizer, DFA dfa, int startIndex, int stopIndex,
+                                    boolean exact, BitSet ambigAlts, ATNConfigSet configs) {
+            if (target != null) {
+                target.reportAmbiguity(recognizer, dfa, startIndex, stopIndex, exact, ambigAlts, configs);
+            }
+        }
+
+        @Override
+        public void reportAttemptingFullContext(Parser recognizer, DFA dfa, int startIndex, int stopIndex,
+                                                BitSet conflictingAlts, ATNConfigSet configs) {
+            if (target != null) {
+                target.reportAttemptingFullContext(recognizer, dfa, startIndex, stopIndex, conflictingAlts, configs);
+            }
+        }
+
+        @Override
+        public void reportContextSensitivity(Parser recognizer, DFA dfa, int startIndex, int stopIndex,
+                                             int prediction, ATNConfigSet configs) {
+            if (target != null) {
+                target.reportContextSensitivity(recognizer, dfa, startIndex, stopIndex, prediction, configs);
+            }
+        }
     }
 
     //  =================================================================================
@@ -414,9 +765,20 @@ public class UserAgentTreeFlattener extends UserAgentBaseListener implements Ser
     }
 
     private void informSubstrings(ParserRuleContext ctx, String name, boolean fakeChild, Splitter splitter) {
-        String text = getSourceText(ctx);
-        String path = inform(ctx, name, text, fakeChild);
-        Set<Range> ranges = analyzer.getRequiredInformRanges(path);
+        CharSequence sourceText = getSourceTextView(ctx);
+        State myState = newChildState(ctx, name, fakeChild);
+        inform(myState, sourceText, ctx);
+        if (pathIndex != null) {
+            informSubstrings(ctx, myState.pathId, sourceText, splitter);
+            return;
+        }
+
+        Set<Range> ranges = analyzer.getRequiredInformRanges(myState.path);
+        if (ranges.isEmpty()) {
+            return;
+        }
+
+        String text = sourceText.toString();
 
         if (ranges.size() > 4) { // Benchmarks showed this to be the breakeven point. (see below)
             List<Pair<Integer, Integer>> splitList = splitter.createSplitList(text);
@@ -436,6 +798,33 @@ public class UserAgentTreeFlattener extends UserAgentBaseListener implements Ser
         }
     }
 
+    // The same as above using the path ids.
+    private void informSubstrings(ParserRuleContext ctx, int pathId, CharSequence sourceText, Splitter splitter) {
+        if (pathId == UNKNOWN_PATH) {
+            return;
+        }
+        Range[] ranges = pathIndex.getRequiredInformRanges(pathId);
+        if (ranges.length == 0) {
+            return;
+        }
+
+        String text = sourceText.toString();
+
+        List<Pair<Integer, Integer>> splitList = ranges.length > 4 ? splitter.createSplitList(text) : null;
+        for (int rangeIndex = 0; rangeIndex < ranges.length; rangeIndex++) {
+            Range range = ranges[rangeIndex];
+            String value;
+            if (splitList == null) {
+                value = splitter.getSplitRange(text, range);
+            } else {
+                value = splitter.getSplitRange(text, splitList, range);
+            }
+            if (value != null) {
+                pathIndex.inform(pathIndex.getRangePathId(pathId, rangeIndex), value, ctx, parseContext);
+            }
+        }
+    }
+
     // # Ranges | Direct                   |  SplitList
     // 1        |    1.664 ± 0.010  ns/op  |    99.378 ± 1.548  ns/op
     // 2        |   38.103 ± 0.479  ns/op  |   115.808 ± 1.055  ns/op
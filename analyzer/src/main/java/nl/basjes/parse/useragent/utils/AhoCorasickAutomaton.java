@@ -0,0 +1,189 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.useragent.utils;
+
+import com.esotericsoftware.kryo.Kryo;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An Aho-Corasick automaton that finds which of a (large) set of keys occur somewhere in an input string
+ * in a single pass over the input, regardless of the number of keys.
+ * The keys have a priority: the key that was provided first wins if several keys occur in the input.
+ * The matching is case sensitive so the caller must normalize the case of both the keys and the input.
+ */
+public final class AhoCorasickAutomaton implements Serializable {
+    private static final int NO_KEY = Integer.MAX_VALUE;
+
+    // Per state the sorted characters of the outgoing edges and the state these lead to.
+    private final char[][] edgeChars;
+    private final int[][]  edgeTargets;
+    // Per state the state of the longest proper suffix that is also in the trie.
+    private final int[]    failure;
+    // Per state the lowest index of all keys that end in this state (including those via the failure links).
+    private final int[]    firstKey;
+
+    @SuppressWarnings("unused") // Private constructor for serialization systems ONLY (like Kryo)
+    private AhoCorasickAutomaton() {
+        edgeChars   = null;
+        edgeTargets = null;
+        failure     = null;
+        firstKey    = null;
+    }
+
+    /**
+     * @param keys The keys to search for in order of priority.
+     */
+    public AhoCorasickAutomaton(List<String> keys) {
+        // Build the trie
+        List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        List<Integer> trieKeys = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        trieKeys.add(NO_KEY);
+
+        for (int keyIndex = 0; keyIndex < keys.size(); keyIndex++) {
+            String key = keys.get(keyIndex);
+            int state = 0;
+            for (int i = 0; i < key.length(); i++) {
+                Integer next = trie.get(state).get(key.charAt(i));
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new TreeMap<>());
+                    trieKeys.add(NO_KEY);
+                    trie.get(state).put(key.charAt(i), next);
+                }
+                state = next;
+            }
+            trieKeys.set(state, Math.min(trieKeys.get(state), keyIndex));
+        }
+
+        int states = trie.size();
+        edgeChars   = new char[states][];
+        edgeTargets = new int[states][];
+        failure     = new int[states];
+        firstKey    = new int[states];
+
+        for (int state = 0; state < states; state++) {
+            Map<Character, Integer> edges = trie.get(state);
+            edgeChars[state]   = new char[edges.size()];
+            edgeTargets[state] = new int[edges.size()];
+            int edge = 0;
+            for (Map.Entry<Character, Integer> entry : edges.entrySet()) {
+                edgeChars[state][edge]   = entry.getKey();
+                edgeTargets[state][edge] = entry.getValue();
+                edge++;
+            }
+            firstKey[state] = trieKeys.get(state);
+        }
+
+        // Breadth first so the failure state of a state is always complete before it is used.
+        Deque<Integer> todo = new ArrayDeque<>();
+        for (int child : edgeTargets[0]) {
+            failure[child] = 0;
+            firstKey[child] = Math.min(firstKey[child], firstKey[0]);
+            todo.add(child);
+        }
+        while (!todo.isEmpty()) {
+            int state = todo.poll();
+            for (int edge = 0; edge < edgeChars[state].length; edge++) {
+                char c     = edgeChars[state][edge];
+                int  child = edgeTargets[state][edge];
+                failure[child]  = next(failure[state], c);
+                firstKey[child] = Math.min(firstKey[child], firstKey[failure[child]]);
+                todo.add(child);
+            }
+        }
+    }
+
+    /**
+     * This is used to configure the provided Kryo instance if Kryo serialization is desired.
+     * @param kryo The instance of com.esotericsoftware.kryo.Kryo that needs to be configured.
+     */
+    public static void configureKryo(Kryo kryo) {
+        kryo.register(AhoCorasickAutomaton.class);
+        kryo.register(char[].class);
+        kryo.register(char[][].class);
+        kryo.register(int[].class);
+        kryo.register(int[][].class);
+    }
+
+    private int edge(int state, char c) {
+        int index = Arrays.binarySearch(edgeChars[state], c);
+        return index < 0 ? -1 : edgeTargets[state][index];
+    }
+
+    // The state after reading character c in the provided state.
+    private int next(int state, char c) {
+        int current = state;
+        while (true) {
+            int target = edge(current, c);
+            if (target >= 0) {
+                return target;
+            }
+            if (current == 0) {
+                return 0;
+            }
+            current = failure[current];
+        }
+    }
+
+    /**
+     * @param input The string to search in.
+     * @return The index of the first (in order of priority) key that occurs in the input, -1 if none occur.
+     */
+    public int firstMatchingKey(String input) {
+        int best = firstKey[0];
+        int state = 0;
+        for (int i = 0; i < input.length() && best != 0; i++) {
+            state = next(state, input.charAt(i));
+            best = Math.min(best, firstKey[state]);
+        }
+        return best == NO_KEY ? -1 : best;
+    }
+
+    /**
+     * @param input The string to search in.
+     * @return True if any of the keys occurs in the input.
+     */
+    public boolean containsAnyKey(String input) {
+        if (firstKey[0] != NO_KEY) {
+            return true;
+        }
+        int state = 0;
+        for (int i = 0; i < input.length(); i++) {
+            state = next(state, input.charAt(i));
+            if (firstKey[state] != NO_KEY) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The number of states in this automaton.
+     */
+    public int getNumberOfStates() {
+        return failure.length;
+    }
+}
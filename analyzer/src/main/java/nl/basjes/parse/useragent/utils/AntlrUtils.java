@@ -33,6 +33,16 @@ public final class AntlrUtils {
     };
 
     public static String getSourceText(ParserRuleContext ctx){
+        CharSequence sourceText = getSourceTextView(ctx);
+        return sourceText == null ? null : sourceText.toString();
+    }
+
+    /**
+     * The same text as getSourceText but if the input is a StringCharStream it is not copied into a new String.
+     * @param ctx The node in the parse tree.
+     * @return The text of the node (a SourceText if possible).
+     */
+    public static CharSequence getSourceTextView(ParserRuleContext ctx){
         if (ctx == null) {
             return null;
         }
@@ -45,6 +55,11 @@ public final class AntlrUtils {
             return ""; // Just return the empty string.
         }
         CharStream inputStream = ctx.start.getInputStream();
+        if (inputStream instanceof StringCharStream) {
+            String text = ((StringCharStream) inputStream).getText();
+            int end = Math.min(stopIndex + 1, text.length());
+            return new SourceText(text, Math.min(startIndex, end), end);
+        }
         return inputStream.getText(new Interval(startIndex, stopIndex));
     }
 
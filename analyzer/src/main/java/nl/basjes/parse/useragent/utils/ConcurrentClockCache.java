@@ -0,0 +1,316 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.useragent.utils;
+
+import javax.annotation.Nonnull;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded Map intended for caching that can be used by many threads at the same time.
+ * <ul>
+ *     <li>Reading is lock free: a hit only marks the entry as 'recently used'.</li>
+ *     <li>Eviction uses CLOCK (a.k.a. second chance), an approximation of LRU: entries are kept in the order
+ *     they were written and an entry that was used since it was last inspected gets another round instead of
+ *     being evicted.</li>
+ *     <li>The size can be bounded by the number of entries and/or the total weight (e.g. the estimated bytes)
+ *     of all entries.</li>
+ *     <li>Optionally an entry expires a fixed amount of time after it was written.</li>
+ * </ul>
+ * Only get, put, remove, size and clear are intended for normal use;
+ * the other Map methods work on a snapshot and are not fast.
+ * @param <K> The type of the key
+ * @param <V> The type of the value
+ */
+public class ConcurrentClockCache<K, V> extends AbstractMap<K, V> {
+
+    /**
+     * Calculates the weight (i.e. the estimated memory usage) of a single cache entry.
+     * @param <K> The type of the key
+     * @param <V> The type of the value
+     */
+    @FunctionalInterface
+    public interface Weigher<K, V> extends Serializable {
+        long weigh(K key, V value);
+    }
+
+    private static final class Node<K, V> {
+        final K key;
+        final V value;
+        final long weight;
+        final long expiresAt;
+        volatile boolean referenced = false;
+
+        Node(K key, V value, long weight, long expiresAt) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final long NEVER = Long.MAX_VALUE;
+
+    private final long maximumSize;
+    private final long maximumWeight;
+    private final Weigher<? super K, ? super V> weigher;
+    private final long expireAfterWriteNanos;
+
+    private final ConcurrentHashMap<K, Node<K, V>> map;
+
+    // The 'clock': all nodes in the order they were written (may also contain replaced and removed nodes).
+    private final ConcurrentLinkedQueue<Node<K, V>> clock = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger clockSize = new AtomicInteger();
+    private final AtomicLong totalWeight = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    /**
+     * Create a cache that is bounded by the number of entries.
+     * @param maximumSize The maximum number of entries.
+     */
+    public ConcurrentClockCache(long maximumSize) {
+        this(maximumSize, 0, null, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Create a new cache.
+     * @param maximumSize The maximum number of entries (0 = unbounded).
+     * @param maximumWeight The maximum total weight of all entries (0 = unbounded).
+     * @param weigher Used to calculate the weight of an entry (only needed if maximumWeight is used).
+     * @param expireAfterWrite After how much time an entry expires (0 = never).
+     * @param expireAfterWriteUnit The unit of the expireAfterWrite.
+     */
+    public ConcurrentClockCache(long maximumSize,
+                                long maximumWeight,
+                                Weigher<? super K, ? super V> weigher,
+                                long expireAfterWrite,
+                                TimeUnit expireAfterWriteUnit) {
+        if (maximumSize < 0 || maximumWeight < 0 || expireAfterWrite < 0) {
+            throw new IllegalArgumentException("The cache limits cannot be negative.");
+        }
+        if (maximumWeight > 0 && weigher == null) {
+            throw new IllegalArgumentException("A maximumWeight requires a weigher.");
+        }
+        this.maximumSize            = maximumSize;
+        this.maximumWeight          = maximumWeight;
+        this.weigher                = weigher;
+        this.expireAfterWriteNanos  = expireAfterWriteUnit.toNanos(expireAfterWrite);
+        this.map                    = new ConcurrentHashMap<>(maximumSize > 0 ? (int) Math.min(maximumSize, 1 << 16) : 16);
+    }
+
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    /**
+     * @return The current total weight of all entries (0 if no weigher was provided).
+     */
+    public long getWeight() {
+        return totalWeight.get();
+    }
+
+    /**
+     * @return The number of entries that were evicted because the cache was full.
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    private boolean isExpired(Node<K, V> node) {
+        return node.expiresAt != NEVER && node.expiresAt - System.nanoTime() <= 0;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public V get(Object key) {
+        Node<K, V> node = map.get(key);
+        if (node == null) {
+            return null;
+        }
+        if (isExpired(node)) {
+            removeNode(node);
+            return null;
+        }
+        if (!node.referenced) {
+            node.referenced = true;
+        }
+        return node.value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public V put(@Nonnull K key, @Nonnull V value) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+        long weight    = weigher == null ? 0 : weigher.weigh(key, value);
+        long expiresAt = expireAfterWriteNanos == 0 ? NEVER : System.nanoTime() + expireAfterWriteNanos;
+        Node<K, V> node = new Node<>(key, value, weight, expiresAt);
+
+        Node<K, V> oldNode = map.put(key, node);
+        totalWeight.addAndGet(oldNode == null ? weight : weight - oldNode.weight);
+        clock.offer(node);
+        clockSize.incrementAndGet();
+
+        evictIfNeeded();
+
+        if (oldNode == null || isExpired(oldNode)) {
+            return null;
+        }
+        return oldNode.value;
+    }
+
+    @Override
+    public V remove(Object key) {
+        Node<K, V> node = map.remove(key);
+        if (node == null) {
+            return null;
+        }
+        totalWeight.addAndGet(-node.weight);
+        return node.value;
+    }
+
+    private boolean removeNode(Node<K, V> node) {
+        if (map.remove(node.key, node)) {
+            totalWeight.addAndGet(-node.weight);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * Removes all entries.
+     * Note that entries that are written by other threads while this is running may survive.
+     */
+    @Override
+    public void clear() {
+        evictionLock.lock();
+        try {
+            map.clear();
+            clock.clear();
+            clockSize.set(0);
+            totalWeight.set(0);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * @return A snapshot of all entries that have not expired.
+     */
+    @Nonnull
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> entries = new LinkedHashSet<>();
+        for (Node<K, V> node : map.values()) {
+            if (!isExpired(node)) {
+                entries.add(new SimpleImmutableEntry<>(node.key, node.value));
+            }
+        }
+        return Collections.unmodifiableSet(entries);
+    }
+
+    // ------------------------------------------
+
+    private boolean isOverCapacity() {
+        return (maximumSize   > 0 && map.size()        > maximumSize) ||
+               (maximumWeight > 0 && totalWeight.get() > maximumWeight);
+    }
+
+    private boolean hasTooManyStaleNodes() {
+        // The clock contains one node per put; replaced and removed nodes are cleaned up lazily.
+        return clockSize.get() > 2 * map.size() + 16;
+    }
+
+    private void evictIfNeeded() {
+        if (!isOverCapacity() && !hasTooManyStaleNodes()) {
+            return;
+        }
+        if (!evictionLock.tryLock()) {
+            return; // Another thread is already doing this.
+        }
+        try {
+            // CLOCK needs at most two full rounds to find a victim.
+            long maxSteps = 2L * clockSize.get() + 1;
+            while (maxSteps-- > 0 && (isOverCapacity() || hasTooManyStaleNodes())) {
+                Node<K, V> node = clock.poll();
+                if (node == null) {
+                    return;
+                }
+                clockSize.decrementAndGet();
+
+                if (map.get(node.key) != node) {
+                    continue; // Stale: this node was replaced or removed.
+                }
+
+                if (isExpired(node)) {
+                    removeNode(node);
+                    continue;
+                }
+
+                if (node.referenced || !isOverCapacity()) {
+                    // Give it a second chance.
+                    node.referenced = false;
+                    clock.offer(node);
+                    clockSize.incrementAndGet();
+                    continue;
+                }
+
+                if (removeNode(node)) {
+                    evictionCount.incrementAndGet();
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ConcurrentClockCache{" +
+            "size=" + map.size() +
+            ", maximumSize=" + maximumSize +
+            ", weight=" + totalWeight.get() +
+            ", maximumWeight=" + maximumWeight +
+            ", expireAfterWriteNanos=" + expireAfterWriteNanos +
+            '}';
+    }
+}
@@ -0,0 +1,459 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.useragent.utils;
+
+import com.esotericsoftware.kryo.DefaultSerializer;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import javax.annotation.Nonnull;
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A read only Map of Strings where the keys are stored outside of the Java heap.
+ * <ul>
+ *     <li>The keys are stored (as chars) in a direct ByteBuffer in the original order. An open addressing
+ *     hash table (also in a direct ByteBuffer) is used to find a key so a get is still a hash lookup.</li>
+ *     <li>The values are usually repeated a lot so only the distinct values are kept (on heap) which
+ *     also means that a get never creates a new String.</li>
+ *     <li>Iterating retains the order in which the entries were provided.</li>
+ *     <li>Identical lookups are stored only once in the JVM: all analyzers (and all of their steps)
+ *     that use the same lookup share the same off heap data.</li>
+ * </ul>
+ * A set of Strings is stored the same way (all values are null) and is used via {@link #asSet()}.
+ */
+@DefaultSerializer(OffHeapLookup.KryoSerializer.class)
+public final class OffHeapLookup extends AbstractMap<String, String> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final int NO_VALUE = -1;
+    private static final int NO_ENTRY = -1;
+
+    // All off heap data is shared within the JVM. The key is the content hash of the lookup.
+    private static final Map<Long, WeakReference<OffHeapLookup>> SHARED = new ConcurrentHashMap<>();
+
+    // Per entry: [int keyLength][char * keyLength][int valueIndex]
+    // NOTE: Only the absolute get methods are used to read these buffers so using them from many threads is safe.
+    private final transient ByteBuffer entries;
+    // Hash table (linear probing) with the offsets of the entries; the number of slots is a power of 2.
+    private final transient ByteBuffer hashSlots;
+    private final int                  hashMask;
+    private final String[]             values;
+    private final int                  size;
+
+    private OffHeapLookup(String[] keys, String[] keyValues) {
+        size = keys.length;
+
+        int bytes = 0;
+        for (String key : keys) {
+            bytes += 2 * Integer.BYTES + Character.BYTES * key.length();
+        }
+        entries = ByteBuffer.allocateDirect(Math.max(bytes, 1));
+
+        Map<String, Integer> valueIndexes = new HashMap<>();
+        int[] entryOffsets = new int[size];
+        int offset = 0;
+        for (int i = 0; i < size; i++) {
+            entryOffsets[i] = offset;
+            String key = keys[i];
+            entries.putInt(offset, key.length());
+            offset += Integer.BYTES;
+            for (int c = 0; c < key.length(); c++) {
+                entries.putChar(offset, key.charAt(c));
+                offset += Character.BYTES;
+            }
+            String value = keyValues == null ? null : keyValues[i];
+            int valueIndex = NO_VALUE;
+            if (value != null) {
+                valueIndex = valueIndexes.computeIfAbsent(value, v -> valueIndexes.size());
+            }
+            entries.putInt(offset, valueIndex);
+            offset += Integer.BYTES;
+        }
+
+        values = new String[valueIndexes.size()];
+        valueIndexes.forEach((value, index) -> values[index] = value);
+
+        // At most half of the slots are used.
+        int slots = Integer.highestOneBit(Math.max(2 * size, 1)) << 1;
+        hashMask = slots - 1;
+        hashSlots = ByteBuffer.allocateDirect(Integer.BYTES * slots);
+        for (int slot = 0; slot < slots; slot++) {
+            hashSlots.putInt(Integer.BYTES * slot, NO_ENTRY);
+        }
+        for (int i = 0; i < size; i++) {
+            // The keys come from a Map or a Set so they are unique.
+            int slot = keys[i].hashCode() & hashMask;
+            while (hashSlots.getInt(Integer.BYTES * slot) != NO_ENTRY) {
+                slot = (slot + 1) & hashMask;
+            }
+            hashSlots.putInt(Integer.BYTES * slot, entryOffsets[i]);
+        }
+    }
+
+    /**
+     * Get the (shared) off heap version of the provided map.
+     * @param map The map to store off heap.
+     * @return The off heap version of the map.
+     * @throws IllegalArgumentException if the map contains a null key.
+     */
+    public static OffHeapLookup of(Map<String, String> map) {
+        if (map instanceof OffHeapLookup) {
+            return (OffHeapLookup) map;
+        }
+        String[] keys      = new String[map.size()];
+        String[] keyValues = new String[map.size()];
+        int i = 0;
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            keys[i]      = entry.getKey();
+            keyValues[i] = entry.getValue();
+            i++;
+        }
+        return of(keys, keyValues);
+    }
+
+    /**
+     * Get the (shared) off heap version of the provided set.
+     * @param set The set to store off heap.
+     * @return The off heap version of the set.
+     * @throws IllegalArgumentException if the set contains null.
+     */
+    public static Set<String> setOf(Set<String> set) {
+        if (set instanceof OffHeapSet) {
+            return set;
+        }
+        return of(set.toArray(new String[0]), null).asSet();
+    }
+
+    private static OffHeapLookup of(String[] keys, String[] keyValues) {
+        for (String key : keys) {
+            if (key == null) {
+                throw new IllegalArgumentException("An OffHeapLookup cannot contain a null key.");
+            }
+        }
+        long contentHash = contentHash(keys, keyValues);
+
+        WeakReference<OffHeapLookup> sharedReference = SHARED.get(contentHash);
+        OffHeapLookup shared = sharedReference == null ? null : sharedReference.get();
+        if (shared != null && shared.hasContent(keys, keyValues)) {
+            return shared;
+        }
+
+        OffHeapLookup lookup = new OffHeapLookup(keys, keyValues);
+        SHARED.values().removeIf(reference -> reference.get() == null);
+        SHARED.put(contentHash, new WeakReference<>(lookup));
+        return lookup;
+    }
+
+    private static long contentHash(String[] keys, String[] keyValues) {
+        long hash = keys.length;
+        for (int i = 0; i < keys.length; i++) {
+            hash = hash * 1000003L + keys[i].hashCode();
+            hash = hash * 1000003L + (keyValues == null ? -1 : Objects.hashCode(keyValues[i]));
+        }
+        return hash;
+    }
+
+    private boolean hasContent(String[] keys, String[] keyValues) {
+        if (keys.length != size) {
+            return false;
+        }
+        int i = 0;
+        for (Map.Entry<String, String> entry : entrySet()) {
+            if (!keys[i].equals(entry.getKey()) ||
+                !Objects.equals(keyValues == null ? null : keyValues[i], entry.getValue())) {
+                return false;
+            }
+            i++;
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of bytes that are used outside of the Java heap.
+     */
+    public long getOffHeapBytes() {
+        return (long) entries.capacity() + hashSlots.capacity();
+    }
+
+    // ------------------------------------------
+
+    // Is the key of the entry at this offset the same as the provided key?
+    private boolean keyEquals(String key, int offset) {
+        if (entries.getInt(offset) != key.length()) {
+            return false;
+        }
+        int charOffset = offset + Integer.BYTES;
+        for (int i = 0; i < key.length(); i++) {
+            if (entries.getChar(charOffset) != key.charAt(i)) {
+                return false;
+            }
+            charOffset += Character.BYTES;
+        }
+        return true;
+    }
+
+    // The offset of the entry with this key (-1 if not present).
+    private int find(Object key) {
+        if (!(key instanceof String)) {
+            return NO_ENTRY;
+        }
+        String keyString = (String) key;
+        int slot = keyString.hashCode() & hashMask;
+        while (true) {
+            int offset = hashSlots.getInt(Integer.BYTES * slot);
+            if (offset == NO_ENTRY || keyEquals(keyString, offset)) {
+                return offset;
+            }
+            slot = (slot + 1) & hashMask;
+        }
+    }
+
+    private int valueIndexOffset(int offset) {
+        return offset + Integer.BYTES + Character.BYTES * entries.getInt(offset);
+    }
+
+    private String valueAt(int offset) {
+        int valueIndex = entries.getInt(valueIndexOffset(offset));
+        return valueIndex == NO_VALUE ? null : values[valueIndex];
+    }
+
+    private String keyAt(int offset) {
+        int length = entries.getInt(offset);
+        char[] chars = new char[length];
+        int charOffset = offset + Integer.BYTES;
+        for (int i = 0; i < length; i++) {
+            chars[i] = entries.getChar(charOffset);
+            charOffset += Character.BYTES;
+        }
+        return new String(chars);
+    }
+
+    @Override
+    public String get(Object key) {
+        int offset = find(key);
+        return offset < 0 ? null : valueAt(offset);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    @Nonnull
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<Entry<String, String>>() {
+            @Override
+            @Nonnull
+            public Iterator<Entry<String, String>> iterator() {
+                return new Iterator<Entry<String, String>>() {
+                    private int entry  = 0;
+                    private int offset = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return entry < size;
+                    }
+
+                    @Override
+                    public Entry<String, String> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Entry<String, String> result = new SimpleImmutableEntry<>(keyAt(offset), valueAt(offset));
+                        offset = valueIndexOffset(offset) + Integer.BYTES;
+                        entry++;
+                        return result;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * @return A read only Set with the keys of this lookup.
+     */
+    public Set<String> asSet() {
+        return new OffHeapSet(this);
+    }
+
+    // ------------------------------------------
+
+    /**
+     * A read only Set of Strings that is stored in an OffHeapLookup.
+     */
+    @DefaultSerializer(OffHeapSet.KryoSerializer.class)
+    public static final class OffHeapSet extends AbstractSet<String> implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final OffHeapLookup lookup;
+
+        OffHeapSet(OffHeapLookup lookup) {
+            this.lookup = lookup;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return lookup.containsKey(o);
+        }
+
+        @Override
+        @Nonnull
+        public Iterator<String> iterator() {
+            return lookup.keySet().iterator();
+        }
+
+        @Override
+        public int size() {
+            return lookup.size();
+        }
+
+        public long getOffHeapBytes() {
+            return lookup.getOffHeapBytes();
+        }
+
+        public static class KryoSerializer extends Serializer<OffHeapSet> {
+            public KryoSerializer(Kryo kryo, Class<?> type) {
+                super();
+            }
+
+            @Override
+            public void write(Kryo kryo, Output output, OffHeapSet object) {
+                kryo.writeObject(output, object.lookup);
+            }
+
+            @Override
+            public OffHeapSet read(Kryo kryo, Input input, Class<? extends OffHeapSet> type) {
+                return new OffHeapSet(kryo.readObject(input, OffHeapLookup.class));
+            }
+        }
+    }
+
+    // ------------------------------------------
+    // Serialization: Only the content is stored, when reading the (shared) off heap structure is used.
+
+    private Object writeReplace() {
+        return new SerializedForm(this);
+    }
+
+    private static final class SerializedForm implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String[] keys;
+        private final String[] keyValues;
+
+        SerializedForm(OffHeapLookup lookup) {
+            keys      = new String[lookup.size()];
+            keyValues = new String[lookup.size()];
+            int i = 0;
+            for (Map.Entry<String, String> entry : lookup.entrySet()) {
+                keys[i]      = entry.getKey();
+                keyValues[i] = entry.getValue();
+                i++;
+            }
+        }
+
+        private Object readResolve() {
+            return of(keys, keyValues);
+        }
+    }
+
+    public static class KryoSerializer extends Serializer<OffHeapLookup> {
+        public KryoSerializer(Kryo kryo, Class<?> type) {
+            super();
+        }
+
+        @Override
+        public void write(Kryo kryo, Output output, OffHeapLookup object) {
+            output.writeInt(object.size(), true);
+            for (Map.Entry<String, String> entry : object.entrySet()) {
+                output.writeString(entry.getKey());
+                output.writeString(entry.getValue());
+            }
+        }
+
+        @Override
+        public OffHeapLookup read(Kryo kryo, Input input, Class<? extends OffHeapLookup> type) {
+            int size = input.readInt(true);
+            String[] keys      = new String[size];
+            String[] keyValues = new String[size];
+            for (int i = 0; i < size; i++) {
+                keys[i]      = input.readString();
+                keyValues[i] = input.readString();
+            }
+            return of(keys, keyValues);
+        }
+    }
+
+    /**
+     * This is used to configure the provided Kryo instance if Kryo serialization is desired.
+     * @param kryo The instance of com.esotericsoftware.kryo.Kryo that needs to be configured.
+     */
+    public static void configureKryo(Kryo kryo) {
+        kryo.register(OffHeapLookup.class);
+        kryo.register(OffHeapSet.class);
+    }
+
+    /**
+     * @param lookups The lookups.
+     * @return The number of bytes that these lookups use outside of the Java heap (shared lookups are counted once).
+     */
+    public static long getOffHeapBytes(Collection<?> lookups) {
+        Set<OffHeapLookup> counted = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Object lookup : lookups) {
+            if (lookup instanceof OffHeapSet) {
+                counted.add(((OffHeapSet) lookup).lookup);
+            }
+            if (lookup instanceof OffHeapLookup) {
+                counted.add((OffHeapLookup) lookup);
+            }
+        }
+        return counted.stream().mapToLong(OffHeapLookup::getOffHeapBytes).sum();
+    }
+}
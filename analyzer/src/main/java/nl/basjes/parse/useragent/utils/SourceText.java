@@ -0,0 +1,149 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.useragent.utils;
+
+import javax.annotation.Nonnull;
+import java.util.Locale;
+
+/**
+ * A part of a String (like the text of a node in the parse tree) that is only copied into a new String
+ * if that String is actually needed. Once created that String is retained.
+ * The comparisons in here are done directly on the underlying String without creating any copies.
+ */
+public final class SourceText implements CharSequence {
+
+    private final String source;
+    private final int    start;
+    private final int    end;
+    private String       text;
+
+    /**
+     * @param source The String of which this is a part.
+     * @param start The start index (inclusive).
+     * @param end The end index (exclusive).
+     */
+    public SourceText(String source, int start, int end) {
+        if (start < 0 || end > source.length() || start > end) {
+            throw new StringIndexOutOfBoundsException("Invalid range [" + start + "," + end + ") for length " + source.length());
+        }
+        this.source = source;
+        this.start = start;
+        this.end = end;
+    }
+
+    @Override
+    public int length() {
+        return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= end - start) {
+            throw new StringIndexOutOfBoundsException(index);
+        }
+        return source.charAt(start + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int subStart, int subEnd) {
+        if (subStart < 0 || subEnd > end - start || subStart > subEnd) {
+            throw new StringIndexOutOfBoundsException("Invalid range [" + subStart + "," + subEnd + ") for length " + length());
+        }
+        return new SourceText(source, start + subStart, start + subEnd);
+    }
+
+    @Override
+    @Nonnull
+    public String toString() {
+        if (text == null) {
+            text = source.substring(start, end);
+        }
+        return text;
+    }
+
+    // ------------------------------------------
+    // The same semantics as the String.equalsIgnoreCase and String.regionMatches(true, ...)
+
+    /**
+     * @param value The value to check.
+     * @param other The other value.
+     * @return If the value is the same as the other value (ignoring the case).
+     */
+    public static boolean equalsIgnoreCase(@Nonnull CharSequence value, @Nonnull String other) {
+        return value.length() == other.length() && regionMatches(value, 0, other);
+    }
+
+    /**
+     * @param value The value to check.
+     * @param prefix The prefix.
+     * @return If the value starts with the prefix (ignoring the case).
+     */
+    public static boolean startsWithIgnoreCase(@Nonnull CharSequence value, @Nonnull String prefix) {
+        return value.length() >= prefix.length() && regionMatches(value, 0, prefix);
+    }
+
+    /**
+     * @param value The value to check.
+     * @param suffix The suffix.
+     * @return If the value ends with the suffix (ignoring the case).
+     */
+    public static boolean endsWithIgnoreCase(@Nonnull CharSequence value, @Nonnull String suffix) {
+        int offset = value.length() - suffix.length();
+        return offset >= 0 && regionMatches(value, offset, suffix);
+    }
+
+    private static boolean regionMatches(CharSequence value, int offset, String other) {
+        if (value instanceof SourceText) {
+            SourceText sourceText = (SourceText) value;
+            return sourceText.source.regionMatches(true, sourceText.start + offset, other, 0, other.length());
+        }
+        return value.toString().regionMatches(true, offset, other, 0, other.length());
+    }
+
+    /**
+     * The same as value.toLowerCase(Locale.ROOT).contains(lowerCaseValue).
+     * @param value The value to check.
+     * @param lowerCaseValue The lowercase value to look for.
+     * @return If the lowercase value is present in the value.
+     */
+    public static boolean containsIgnoreCase(@Nonnull CharSequence value, @Nonnull String lowerCaseValue) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) >= 0x80) {
+                // Lowercasing non ASCII characters can change the length so then the value is really lowercased.
+                return value.toString().toLowerCase(Locale.ROOT).contains(lowerCaseValue);
+            }
+        }
+
+        int needleLength = lowerCaseValue.length();
+        int last = length - needleLength;
+        for (int offset = 0; offset <= last; offset++) {
+            int i = 0;
+            while (i < needleLength && toLowerCase(value.charAt(offset + i)) == lowerCaseValue.charAt(i)) {
+                i++;
+            }
+            if (i == needleLength) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static char toLowerCase(char c) {
+        return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.useragent.utils;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+
+/**
+ * A CharStream directly on a String in which every char is a code point (which is true for almost all useragents).
+ * Because the positions in this stream are the same as those in the String the text of a token or a node in
+ * the parse tree can be retrieved as a SourceText on this String instead of a new copy.
+ */
+public final class StringCharStream implements CharStream {
+
+    private final String text;
+    private final int    size;
+    private int          position;
+
+    private StringCharStream(String text) {
+        this.text = text;
+        this.size = text.length();
+        this.position = 0;
+    }
+
+    /**
+     * @param text The input for the lexer.
+     * @return A StringCharStream if every char in the text is a code point, else a normal CodePointCharStream.
+     */
+    public static CharStream fromString(String text) {
+        if (text.codePointCount(0, text.length()) != text.length()) {
+            return CharStreams.fromString(text);
+        }
+        return new StringCharStream(text);
+    }
+
+    /**
+     * @return The String this stream was created from.
+     */
+    public String getText() {
+        return text;
+    }
+
+    @Override
+    public String getText(Interval interval) {
+        int startIdx = Math.min(interval.a, size);
+        int endIdx   = Math.max(startIdx, Math.min(interval.b + 1, size));
+        return text.substring(startIdx, endIdx);
+    }
+
+    @Override
+    public void consume() {
+        if (position >= size) {
+            throw new IllegalStateException("cannot consume EOF");
+        }
+        position++;
+    }
+
+    @Override
+    public int LA(int i) {
+        int offset;
+        if (i > 0) {
+            offset = position + i - 1;
+        } else if (i < 0) {
+            offset = position + i;
+        } else {
+            return 0; // undefined
+        }
+        if (offset < 0 || offset >= size) {
+            return IntStream.EOF;
+        }
+        return text.charAt(offset);
+    }
+
+    @Override
+    public int mark() {
+        return -1;
+    }
+
+    @Override
+    public void release(int marker) {
+        // Nothing to release
+    }
+
+    @Override
+    public int index() {
+        return position;
+    }
+
+    @Override
+    public void seek(int index) {
+        position = index;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String getSourceName() {
+        return IntStream.UNKNOWN_SOURCE_NAME;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
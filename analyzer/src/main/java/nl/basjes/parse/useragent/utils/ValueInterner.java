@@ -0,0 +1,134 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.utils;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded table of String values so identical values (like "Desktop", "Chrome 91" or "Unknown")
+ * in many results share a single instance instead of each result having its own copy.
+ * <ul>
+ *     <li>Each value has exactly one slot (based on the hash) in a fixed size table;
+ *     a different value with the same slot simply replaces the old one (so the size is bounded).</li>
+ *     <li>Lock free: many threads can intern at the same time. A race only means a value is
+ *     not shared, the result is always a String that is equal to the provided value.</li>
+ * </ul>
+ * The effect is reported (per result) to the MetricsListener of the analyzer.
+ */
+public final class ValueInterner {
+
+    private final int                          mask;
+    private final AtomicReferenceArray<String> table;
+
+    /**
+     * @param size The number of values that can be retained (is rounded up to a power of 2).
+     */
+    public ValueInterner(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("The size of a ValueInterner must be at least 1 (was " + size + ")");
+        }
+        int tableSize = size == 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+        mask  = tableSize - 1;
+        table = new AtomicReferenceArray<>(tableSize);
+    }
+
+    /**
+     * @return The number of values that can be retained.
+     */
+    public int size() {
+        return table.length();
+    }
+
+    /**
+     * @param value The value.
+     * @return A String equal to the value; if an equal String was seen recently that instance is returned.
+     */
+    public String intern(String value) {
+        return intern(value, null);
+    }
+
+    /**
+     * @param value The value.
+     * @param statistics If not null the effect of interning this value is added to these statistics.
+     * @return A String equal to the value; if an equal String was seen recently that instance is returned.
+     */
+    public String intern(String value, Statistics statistics) {
+        if (value == null) {
+            return null;
+        }
+        if (statistics != null) {
+            statistics.values++;
+        }
+        int hash = value.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        String existing = table.get(slot);
+        if (value.equals(existing)) {
+            if (statistics != null && existing != value) {
+                statistics.deduplicated++;
+                statistics.bytesSaved += estimateBytes(value);
+            }
+            return existing;
+        }
+        table.lazySet(slot, value);
+        return value;
+    }
+
+    /**
+     * A rough estimate of the memory used by a single String.
+     * @param value The value.
+     * @return The estimated number of bytes.
+     */
+    public static long estimateBytes(String value) {
+        return value == null ? 0 : 40 + 2L * value.length();
+    }
+
+    /**
+     * The effect of interning the values of a single result (only used by a single thread).
+     */
+    public static final class Statistics {
+        private long values       = 0;
+        private long deduplicated = 0;
+        private long bytesSaved   = 0;
+
+        /**
+         * @return The number of values that were interned.
+         */
+        public long getValues() {
+            return values;
+        }
+
+        /**
+         * @return The number of values that were replaced by an existing instance.
+         */
+        public long getDeduplicated() {
+            return deduplicated;
+        }
+
+        /**
+         * @return The estimated number of bytes that are no longer needed because of the deduplication.
+         */
+        public long getBytesSaved() {
+            return bytesSaved;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ValueInterner{size=" + size() + '}';
+    }
+}
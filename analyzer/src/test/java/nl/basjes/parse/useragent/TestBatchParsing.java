@@ -0,0 +1,166 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.useragent;
+
+import nl.basjes.parse.useragent.UserAgent.ImmutableUserAgent;
+import nl.basjes.parse.useragent.metrics.AnalyzerMetrics;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class TestBatchParsing {
+
+    private static UserAgentAnalyzer uaa;
+
+    @BeforeAll
+    static void createAnalyzer() {
+        uaa = UserAgentAnalyzer
+            .newBuilder()
+            .withoutCache()
+            .hideMatcherLoadStats()
+            .withFields("DeviceClass", "OperatingSystemNameVersion", "AgentNameVersionMajor")
+            .build();
+    }
+
+    private void assertSameAsSingleParse(List<String> userAgentStrings, List<? extends UserAgent> results) {
+        assertEquals(userAgentStrings.size(), results.size());
+        for (int i = 0; i < userAgentStrings.size(); i++) {
+            String userAgentString = userAgentStrings.get(i);
+            assertEquals(
+                uaa.parse(userAgentString).toYamlTestCase(),
+                results.get(i).toYamlTestCase(),
+                "Different result for " + userAgentString);
+        }
+    }
+
+    @Test
+    void testBatchInCallingThread() {
+        List<String> userAgentStrings = new ArrayList<>(PreHeatCases.USERAGENTS.subList(0, 500));
+        assertSameAsSingleParse(userAgentStrings, uaa.parseAll(userAgentStrings));
+    }
+
+    @Test
+    void testBatchWithExecutor() {
+        List<String> userAgentStrings = new ArrayList<>(PreHeatCases.USERAGENTS.subList(0, 500));
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            assertSameAsSingleParse(userAgentStrings, uaa.parseAll(userAgentStrings, executorService));
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    void testBatchAllFields() {
+        UserAgentAnalyzer allFieldsUaa = UserAgentAnalyzer
+            .newBuilder()
+            .withoutCache()
+            .hideMatcherLoadStats()
+            .build();
+        List<String> userAgentStrings = new ArrayList<>(PreHeatCases.USERAGENTS.subList(0, 300));
+        List<ImmutableUserAgent> results = allFieldsUaa.parseAll(userAgentStrings);
+        for (int i = 0; i < userAgentStrings.size(); i++) {
+            String userAgentString = userAgentStrings.get(i);
+            assertEquals(
+                allFieldsUaa.parse(userAgentString).toYamlTestCase(),
+                results.get(i).toYamlTestCase(),
+                "Different result for " + userAgentString);
+        }
+    }
+
+    @Test
+    void testOrderDuplicatesAndNull() {
+        List<String> userAgentStrings = Arrays.asList(
+            "Mozilla/5.0 (Windows NT 10.0; Win64; x64; rv:89.0) Gecko/20100101 Firefox/89.0",
+            null,
+            "",
+            "Mozilla/5.0 (Windows NT 10.0; Win64; x64; rv:89.0) Gecko/20100101 Firefox/89.0",
+            "Mozilla/5.0 (Linux; Android 7.0; Nexus 6 Build/NBD90Z) AppleWebKit/537.36 " +
+                "(KHTML, like Gecko) Chrome/53.0.2785.124 Mobile Safari/537.36");
+
+        List<UserAgent> results = new ArrayList<>();
+        uaa.parse(userAgentStrings, results::add);
+        assertSameAsSingleParse(userAgentStrings, results);
+        assertEquals("Hacker", results.get(1).getValue("DeviceClass"));
+    }
+
+    @Test
+    void testCacheIsUsedOncePerDistinctUseragent() {
+        UserAgentAnalyzer cachingUaa = UserAgentAnalyzer
+            .newBuilder()
+            .withCache(1000)
+            .withMetrics()
+            .hideMatcherLoadStats()
+            .withField("DeviceClass")
+            .build();
+        AnalyzerMetrics metrics = cachingUaa.getMetrics();
+        assertNotNull(metrics);
+
+        List<String> userAgentStrings = new ArrayList<>(PreHeatCases.USERAGENTS.subList(0, 100));
+        userAgentStrings.addAll(PreHeatCases.USERAGENTS.subList(0, 100));
+        long distinct = new HashSet<>(userAgentStrings).size();
+
+        cachingUaa.parseAll(userAgentStrings);
+        assertEquals(distinct, metrics.getCacheMisses());
+        assertEquals(0, metrics.getCacheHits());
+
+        cachingUaa.parseAll(userAgentStrings);
+        assertEquals(distinct, metrics.getCacheMisses());
+        assertEquals(distinct, metrics.getCacheHits());
+    }
+
+    @Test
+    void testColumnBatch() {
+        List<String> userAgentStrings = new ArrayList<>(PreHeatCases.USERAGENTS.subList(0, 200));
+        userAgentStrings.add(null);
+        userAgentStrings.addAll(PreHeatCases.USERAGENTS.subList(0, 10));
+
+        UserAgentColumnBatch batch = new UserAgentColumnBatch(uaa,
+            Arrays.asList("Useragent", "DeviceClass", "AgentNameVersionMajor"));
+
+        // The instance is reused for the next batch.
+        for (int run = 0; run < 2; run++) {
+            batch.fill(userAgentStrings);
+            assertEquals(userAgentStrings.size(), batch.size());
+            for (int row = 0; row < batch.size(); row++) {
+                String userAgentString = userAgentStrings.get(row);
+                if (userAgentString == null) {
+                    assertEquals(UserAgentColumnBatch.NULL_CODE, batch.getCodes(1)[row]);
+                    assertNull(batch.getValue(1, row));
+                    continue;
+                }
+                ImmutableUserAgent expected = uaa.parse(userAgentString);
+                assertEquals(userAgentString,                            batch.getValue(0, row));
+                assertEquals(expected.getValue("DeviceClass"),           batch.getValue(1, row));
+                assertEquals(expected.getValue("AgentNameVersionMajor"), batch.getValue(2, row));
+            }
+            // The dictionary only has the distinct values
+            assertEquals(new HashSet<>(batch.getDictionary(1)).size(), batch.getDictionary(1).size());
+        }
+    }
+
+}
@@ -17,12 +17,23 @@
 
 package nl.basjes.parse.useragent;
 
-import org.apache.commons.collections4.map.LRUMap;
+import nl.basjes.parse.useragent.AbstractUserAgentAnalyzer.DefaultCacheInstantiator;
+import nl.basjes.parse.useragent.UserAgent.ImmutableUserAgent;
+import nl.basjes.parse.useragent.analyze.InvalidParserConfigurationException;
+import nl.basjes.parse.useragent.utils.ConcurrentClockCache;
 import org.apache.commons.lang3.reflect.FieldUtils;
 import org.junit.jupiter.api.Test;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class TestCaching {
 
@@ -103,21 +114,81 @@ class TestCaching {
         assertNull(getCache(uaa));
     }
 
-    private LRUMap<?, ?> getCache(UserAgentAnalyzer uaa) throws IllegalAccessException {
-        LRUMap<?, ?> actualCache = null;
+    private Map<?, ?> getCache(UserAgentAnalyzer uaa) throws IllegalAccessException {
+        Map<?, ?> actualCache = null;
         Object rawParseCache = FieldUtils.readField(uaa, "parseCache", true);
-        if (rawParseCache instanceof LRUMap<?, ?>) {
-            actualCache = (LRUMap<?, ?>) rawParseCache;
+        if (rawParseCache instanceof Map<?, ?>) {
+            actualCache = (Map<?, ?>) rawParseCache;
         }
         return actualCache;
     }
 
     private int getAllocatedCacheSize(UserAgentAnalyzer uaa) throws IllegalAccessException {
-        LRUMap<?, ?> cache = getCache(uaa);
+        Map<?, ?> cache = getCache(uaa);
         if (cache == null) {
             return 0;
         }
-        return cache.maxSize();
+        return (int) ((ConcurrentClockCache<?, ?>) cache).getMaximumSize();
+    }
+
+    @Test
+    void testCustomCacheInstantiator() throws IllegalAccessException {
+        String uuid = "11111111-2222-3333-4444-555555555555";
+        String fieldName = "AgentUuid";
+
+        UserAgentAnalyzer uaa = UserAgentAnalyzer
+            .newBuilder()
+            .withCacheInstantiator(
+                cacheSize -> new ConcurrentHashMap<>())
+            .withCache(10)
+            .hideMatcherLoadStats()
+            .withField(fieldName)
+            .build();
+
+        Map<?, ?> cache = getCache(uaa);
+        assertTrue(cache instanceof ConcurrentHashMap);
+
+        UserAgent agent = uaa.parse(uuid);
+        assertEquals(uuid, agent.get(fieldName).getValue());
+        assertSame(agent, cache.get(uuid));
+        assertSame(agent, uaa.parse(uuid));
+
+        // The limits can only be set on the default cache.
+        assertThrows(InvalidParserConfigurationException.class, () ->
+            UserAgentAnalyzer
+                .newBuilder()
+                .withCacheInstantiator(
+                    cacheSize -> new ConcurrentHashMap<>())
+                .withCacheMaximumBytes(1000));
+    }
+
+    @Test
+    void testCacheLimits() throws IllegalAccessException, InterruptedException {
+        UserAgentAnalyzer uaa = UserAgentAnalyzer
+            .newBuilder()
+            .withCache(1000)
+            .withCacheMaximumBytes(1_000_000)
+            .withCacheExpireAfterWrite(100, TimeUnit.MILLISECONDS)
+            .hideMatcherLoadStats()
+            .withField("AgentUuid")
+            .build();
+
+        DefaultCacheInstantiator instantiator = (DefaultCacheInstantiator) uaa.getCacheInstantiator();
+        assertEquals(1_000_000, instantiator.getMaximumBytes());
+        assertEquals(100, instantiator.getExpireAfterWriteMillis());
+
+        ConcurrentClockCache<?, ?> cache = (ConcurrentClockCache<?, ?>) getCache(uaa);
+        assertNotNull(cache);
+        assertEquals(1000, cache.getMaximumSize());
+        assertEquals(1_000_000, cache.getMaximumWeight());
+
+        String uuid = "11111111-2222-3333-4444-555555555555";
+        ImmutableUserAgent agent = uaa.parse(uuid);
+        assertSame(agent, cache.get(uuid));
+        assertTrue(cache.getWeight() >= DefaultCacheInstantiator.estimateBytes(uuid, agent));
+
+        Thread.sleep(200);
+        assertNull(cache.get(uuid));
     }
 
     @Test
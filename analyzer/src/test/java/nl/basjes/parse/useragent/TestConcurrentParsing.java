@@ -0,0 +1,136 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.useragent;
+
+import nl.basjes.parse.useragent.UserAgent.MutableUserAgent;
+import nl.basjes.parse.useragent.analyze.ParseContext;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestConcurrentParsing {
+
+    private static final int THREADS = 8;
+
+    @Test
+    void testSharedAnalyzerAcrossThreads() throws InterruptedException, ExecutionException {
+        runSharedAnalyzerAcrossThreads(false);
+    }
+
+    @Test
+    void testResetWhileParsing() throws InterruptedException, ExecutionException {
+        // A reset must never touch the parse state that is in use by a parse in another thread.
+        runSharedAnalyzerAcrossThreads(true);
+    }
+
+    @Test
+    void testDebugParseOnlyAffectsThatParse() {
+        UserAgentAnalyzer uaa = UserAgentAnalyzer
+            .newBuilder()
+            .withoutCache()
+            .withField("DeviceClass")
+            .hideMatcherLoadStats()
+            .immediateInitialization()
+            .build();
+
+        String userAgentString = PreHeatCases.USERAGENTS.get(0);
+        ParseContext debugParseContext = uaa.acquireParseContext();
+        ParseContext otherParseContext = uaa.acquireParseContext();
+        try {
+            // The debug flag is part of the state of the parse, the shared matchers are not changed.
+            MutableUserAgent debugUserAgent = new MutableUserAgent(userAgentString);
+            debugUserAgent.setDebug(true);
+            UserAgent debugResult = uaa.parse(debugUserAgent, debugParseContext);
+            assertTrue(debugParseContext.isVerbose());
+
+            UserAgent otherResult = uaa.parse(new MutableUserAgent(userAgentString), otherParseContext);
+            assertFalse(otherParseContext.isVerbose());
+            assertEquals(debugResult.getValue("DeviceClass"), otherResult.getValue("DeviceClass"));
+        } finally {
+            uaa.releaseParseContext(debugParseContext);
+            uaa.releaseParseContext(otherParseContext);
+        }
+
+        // Informing the analyzer without the state of a parse is not possible.
+        assertThrows(UnsupportedOperationException.class, () -> uaa.inform("agent", "Foo", null));
+    }
+
+    private void runSharedAnalyzerAcrossThreads(boolean resetWhileParsing) throws InterruptedException, ExecutionException {
+        UserAgentAnalyzer uaa = UserAgentAnalyzer
+            .newBuilder()
+            .withoutCache()
+            .hideMatcherLoadStats()
+            .immediateInitialization()
+            .build();
+
+        // The expected results as obtained by a single thread.
+        Map<String, UserAgent> expected = new LinkedHashMap<>();
+        for (String userAgentString : PreHeatCases.USERAGENTS) {
+            expected.put(userAgentString, uaa.parse(userAgentString));
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(THREADS + 1);
+        AtomicBoolean parsing = new AtomicBoolean(true);
+        try {
+            if (resetWhileParsing) {
+                executorService.submit(() -> {
+                    while (parsing.get()) {
+                        uaa.reset();
+                    }
+                });
+            }
+
+            List<Future<Map<String, UserAgent>>> futures = new ArrayList<>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                futures.add(executorService.submit(() -> {
+                    Map<String, UserAgent> results = new LinkedHashMap<>();
+                    for (String userAgentString : expected.keySet()) {
+                        results.put(userAgentString, uaa.parse(userAgentString));
+                    }
+                    return results;
+                }));
+            }
+
+            for (Future<Map<String, UserAgent>> future : futures) {
+                Map<String, UserAgent> results = future.get();
+                for (Map.Entry<String, UserAgent> entry : expected.entrySet()) {
+                    assertEquals(
+                        entry.getValue().toYamlTestCase(),
+                        results.get(entry.getKey()).toYamlTestCase(),
+                        "Different result for " + entry.getKey());
+                }
+            }
+        } finally {
+            parsing.set(false);
+            executorService.shutdown();
+        }
+    }
+
+}
@@ -118,11 +118,13 @@ class TestResourceLoading {
 
         uaa.finalizeLoadingRules();
         Set<String> fieldSet1 = uaa.getAllPossibleFieldNames();
+        assertEquals(-1, uaa.getFieldSchema().indexOf("ApplicationName"));
 
         uaa.loadResources("CompanyInternalUserAgents.yaml");
 
         uaa.finalizeLoadingRules();
         Set<String> fieldSet2 = uaa.getAllPossibleFieldNames();
+        assertTrue(uaa.getFieldSchema().indexOf("ApplicationName") >= 0);
 
         List<String> extraFields = new ArrayList<>();
         Collections.addAll(extraFields, "ApplicationName", "ApplicationVersion", "ApplicationInstance", "ApplicationGitCommit", "ServerName");
@@ -154,6 +156,26 @@ class TestResourceLoading {
         assertTrue(fieldList2.containsAll(extraFields));
     }
 
+    @Test
+    void checkLoadingAdditionalResourceOnTopOfTheDefaultRules() {
+        // The default rules merge lookups and sets; doing that a second time must still be possible.
+        UserAgentAnalyzerTester uaa = UserAgentAnalyzerTester
+            .newBuilder()
+            .hideMatcherLoadStats()
+            .delayInitialization()
+            .keepTests()
+            .build();
+
+        uaa.loadResources("CompanyInternalUserAgents.yaml");
+        uaa.finalizeLoadingRules();
+
+        UserAgent userAgent = uaa.parse("TestApplication/1.2.3 (node123.datacenter.example.nl; 1234; d71922715c2bfe29343644b14a4731bf5690e66e)");
+        assertEquals("TestApplication",               userAgent.getValue("ApplicationName"));
+        assertEquals("node123.datacenter.example.nl", userAgent.getValue("ServerName"));
+
+        assertTrue(uaa.runTests(false, false));
+    }
+
     @Test
     void testAllResourceFilesHaveTheProperName() throws IOException {
         for (String ruleFileName: PackagedRules.getRuleFileNames()) {
@@ -28,10 +28,13 @@ import java.util.List;
 import static nl.basjes.parse.useragent.UserAgent.NULL_VALUE;
 import static nl.basjes.parse.useragent.UserAgent.UNKNOWN_VALUE;
 import static nl.basjes.parse.useragent.UserAgent.UNKNOWN_VERSION;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class TestUseragent {
@@ -395,4 +398,71 @@ class TestUseragent {
         assertEquals("Unknown", userAgent.getValue("SomethingElse"));
         userAgent.destroy();
     }
+
+    @Test
+    void indexedFields() {
+        FieldSchema schema = new FieldSchema(Arrays.asList("Niels", "DeviceClass", "AgentVersion"));
+        // The standard fields are always part of a schema (and only once).
+        assertEquals(UserAgent.STANDARD_FIELDS.size() + 1, schema.size());
+        assertEquals(-1, schema.indexOf("Something"));
+
+        MutableUserAgent userAgent = new MutableUserAgent(schema, "Some Agent", null);
+        userAgent.set("DeviceClass", "Phone", 10);
+        userAgent.set("Niels",       "Basjes", 10);
+        userAgent.set("Something",   "Else",   10); // Not in the schema
+
+        int deviceClass = schema.indexOf("DeviceClass");
+        int niels       = schema.indexOf("Niels");
+        assertEquals("Phone",          userAgent.getValue(deviceClass));
+        assertEquals("Basjes",         userAgent.getValue(niels));
+        assertEquals(UNKNOWN_VERSION,  userAgent.getValue(schema.indexOf("AgentVersion")));
+        assertEquals("Else",           userAgent.getValue("Something"));
+
+        ImmutableUserAgent immutableUserAgent = new ImmutableUserAgent(userAgent);
+        assertEquals("Phone",          immutableUserAgent.getValue(immutableUserAgent.getFieldSchema().indexOf("DeviceClass")));
+        assertEquals("Basjes",         immutableUserAgent.get(immutableUserAgent.getFieldSchema().indexOf("Niels")).getValue());
+        assertEquals(userAgent.getAvailableFieldNamesSorted(), immutableUserAgent.getAvailableFieldNamesSorted());
+        assertEquals(userAgent, immutableUserAgent);
+    }
+
+    @Test
+    void extraFieldsDoNotChangeTheSharedSchema() {
+        List<String> extraFields = Arrays.asList("Zzz", "Niels", "AgentVersion", "Aaa", "DeviceName", "Basjes");
+        int defaultSize = FieldSchema.DEFAULT.size();
+
+        MutableUserAgent userAgent1 = new MutableUserAgent("Some Agent");
+        MutableUserAgent userAgent2 = new MutableUserAgent("Some Agent");
+        for (String fieldName : extraFields) {
+            userAgent1.set(fieldName, fieldName + "1", 10);
+            userAgent2.set(fieldName, fieldName + "2", 10);
+        }
+
+        // The extra fields are only part of the instance that has them.
+        assertEquals(defaultSize, FieldSchema.DEFAULT.size());
+        assertEquals(-1, FieldSchema.DEFAULT.indexOf("Niels"));
+        assertNotSame(FieldSchema.DEFAULT, userAgent1.getFieldSchema());
+        assertNotSame(userAgent1.getFieldSchema(), userAgent2.getFieldSchema());
+        assertSame(userAgent1.getFieldSchema(), userAgent1.getFieldSchema());
+        for (String fieldName : extraFields) {
+            assertEquals(fieldName + "1", userAgent1.getValue(fieldName));
+            assertEquals(fieldName + "2", userAgent2.getValue(fieldName));
+        }
+
+        // The schema with the extra fields presents the fields in the same order as a schema created in one go.
+        FieldSchema extended = userAgent1.getFieldSchema();
+        FieldSchema inOneGo  = new FieldSchema(extended.getFieldNames());
+        assertEquals(extended.getFieldNames(), inOneGo.getFieldNames());
+        assertEquals(userAgent1.getAvailableFieldNamesSorted(),
+            new ImmutableUserAgent(userAgent1).getAvailableFieldNamesSorted());
+        assertArrayEquals(inOneGo.getSortedIndexes(), extended.getSortedIndexes());
+        for (String fieldName : extraFields) {
+            assertEquals(fieldName + "1", userAgent1.get(extended.indexOf(fieldName)).getValue());
+        }
+
+        // Adding another field gives a new schema with that field.
+        userAgent1.set("Another", "Field", 10);
+        assertNotSame(extended, userAgent1.getFieldSchema());
+        assertEquals(extended.size() + 1, userAgent1.getFieldSchema().size());
+        assertEquals("Field", userAgent1.getValue("Another"));
+    }
 }
@@ -23,10 +23,13 @@ import nl.basjes.parse.useragent.UserAgent;
 import nl.basjes.parse.useragent.UserAgentAnalyzer;
 import nl.basjes.parse.useragent.UserAgentAnalyzer.UserAgentAnalyzerBuilder;
 import nl.basjes.parse.useragent.UserAgentAnalyzerDirect;
+import nl.basjes.parse.useragent.analyze.TestTreewalkerRequire.TestMatcher;
 import org.apache.logging.log4j.LogManager;
 import org.junit.jupiter.api.Test;
 
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -117,6 +120,66 @@ class TestBuilder {
         runTestCase(userAgentAnalyzer);
     }
 
+    @Test
+    void testLimitedFieldsPruning() {
+        UserAgentAnalyzerDirect allFields =
+            UserAgentAnalyzerDirect
+                .newBuilder()
+                .hideMatcherLoadStats()
+                .dropTests()
+                .build();
+
+        UserAgentAnalyzerDirect limitedFields =
+            UserAgentAnalyzerDirect
+                .newBuilder()
+                .hideMatcherLoadStats()
+                .dropTests()
+                .immediateInitialization()
+                .withField("DeviceClass")
+                .withField("AgentNameVersionMajor")
+                .build();
+
+        UserAgentAnalyzerDirect limitedFieldsNotInitialized =
+            UserAgentAnalyzerDirect
+                .newBuilder()
+                .hideMatcherLoadStats()
+                .dropTests()
+                .delayInitialization()
+                .withField("DeviceClass")
+                .withField("AgentNameVersionMajor")
+                .build();
+
+        // The lookups and sets that are not needed for the requested fields are never loaded.
+        assertEquals(limitedFields.getLookups().keySet(), limitedFieldsNotInitialized.getLookups().keySet());
+        assertEquals(limitedFields.getLookupSets().keySet(), limitedFieldsNotInitialized.getLookupSets().keySet());
+
+        // Only the lookups and sets that are used for the requested fields are retained.
+        assertTrue(limitedFields.getLookups().size() < allFields.getLookups().size());
+        assertTrue(limitedFields.getLookupSets().size() <= allFields.getLookupSets().size());
+        assertTrue(allFields.getLookups().keySet().containsAll(limitedFields.getLookups().keySet()));
+        assertTrue(allFields.getLookupSets().keySet().containsAll(limitedFields.getLookupSets().keySet()));
+
+        runTestCase(limitedFields);
+
+        // The requested fields must have the same values as with all fields.
+        for (String userAgentString : PreHeatCases.USERAGENTS) {
+            UserAgent expected = allFields.parse(userAgentString);
+            UserAgent actual   = limitedFields.parse(userAgentString);
+            assertEquals(expected.getValue("DeviceClass"),           actual.getValue("DeviceClass"),           userAgentString);
+            assertEquals(expected.getValue("AgentNameVersionMajor"), actual.getValue("AgentNameVersionMajor"), userAgentString);
+        }
+    }
+
+    @Test
+    void testUsedLookupNames() {
+        TestMatcher matcher = new TestMatcher(new HashMap<>(), new HashMap<>());
+        assertEquals(new HashSet<>(Arrays.asList("OneLookup", "OtherLookup", "OneSet", "OtherSet")),
+            new MatcherRequireAction(
+                "LookUp[OneLookup;IsInLookUpPrefix[OtherLookup;agent.(1)product.(1)name?OneSet]]?!OtherSet",
+                matcher).getUsedLookupNames());
+        assertEquals(new HashSet<>(), new MatcherRequireAction("agent.(1)product.(1)name=\"LookUp\"", matcher).getUsedLookupNames());
+    }
+
     @Test
     void testLoadAdditionalRules() {
         UserAgentAnalyzer userAgentAnalyzer =
@@ -0,0 +1,120 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.analyze;
+
+import nl.basjes.parse.useragent.analyze.treewalker.CompiledExpressions;
+import nl.basjes.parse.useragent.analyze.treewalker.CompiledExpressions.CompiledExpression;
+import nl.basjes.parse.useragent.analyze.TestTreewalkerRequire.TestMatcher;
+import nl.basjes.parse.useragent.debug.UserAgentAnalyzerTester;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestCompiledExpressions {
+
+    @Test
+    void sameExpressionIsCompiledOnce() {
+        CompiledExpressions compiledExpressions = new CompiledExpressions();
+        AtomicInteger compiles = new AtomicInteger();
+
+        String expression = "agent.(1)product.(1)name=\"Chrome\"";
+        CompiledExpression first = compiledExpressions.get("Require", expression, () -> {
+            compiles.incrementAndGet();
+            return new CompiledExpression(null, null);
+        });
+        CompiledExpression second = compiledExpressions.get("Require", expression, () -> {
+            compiles.incrementAndGet();
+            return new CompiledExpression(null, null);
+        });
+        assertSame(first, second);
+        assertEquals(1, compiles.get());
+
+        // The same text parsed with a different rule is a different expression.
+        CompiledExpression other = compiledExpressions.get("Extract", expression, () -> {
+            compiles.incrementAndGet();
+            return new CompiledExpression(null, null);
+        });
+        assertNotSame(first, other);
+        assertEquals(2, compiles.get());
+
+        assertEquals(3, compiledExpressions.getNumberOfRequests());
+        assertEquals(2, compiledExpressions.getNumberOfExpressions());
+    }
+
+    @Test
+    void analyzerSharesIdenticalExpressions() {
+        UserAgentAnalyzerTester uaa = UserAgentAnalyzerTester
+            .newBuilder()
+            .dropDefaultResources()
+            .addResources("classpath*:SharedExpressions-tests.yaml")
+            .hideMatcherLoadStats()
+            .delayInitialization()
+            .keepTests()
+            .build();
+
+        // The analyzer uses this same instance during the initialization of the matchers.
+        CompiledExpressions compiledExpressions = uaa.getCompiledExpressions();
+        uaa.initializeMatchers();
+
+        // 7 actions in 3 matchers; the require on the name and the extract of the version are used twice.
+        assertEquals(7, compiledExpressions.getNumberOfRequests());
+        assertEquals(5, compiledExpressions.getNumberOfExpressions());
+
+        // The results are still as expected.
+        assertTrue(uaa.runTests(false, true));
+    }
+
+    @Test
+    void actionsShareTheEvaluator() {
+        CompiledExpressions compiledExpressions = new CompiledExpressions();
+        TestMatcher matcher = new TestMatcher(new HashMap<>(), new HashMap<>()) {
+            @Override
+            public CompiledExpressions getCompiledExpressions() {
+                return compiledExpressions;
+            }
+        };
+
+        String expression = "agent.(1)product.(1)version";
+        MatcherAction first  = new MatcherExtractAction("Version1", 100, expression, matcher);
+        MatcherAction second = new MatcherExtractAction("Version2", 100, expression, matcher);
+        MatcherAction other  = new MatcherExtractAction("Name",     100, "agent.(1)product.(1)name", matcher);
+        first.initialize();
+        second.initialize();
+        other.initialize();
+
+        assertSame(first.getEvaluatorForUnitTesting(), second.getEvaluatorForUnitTesting());
+        assertNotSame(first.getEvaluatorForUnitTesting(), other.getEvaluatorForUnitTesting());
+
+        // A require prunes its steps so it gets its own evaluator (the compiled expression is still shared).
+        MatcherAction require1 = new MatcherRequireAction(expression, matcher);
+        MatcherAction require2 = new MatcherRequireAction(expression, matcher);
+        require1.initialize();
+        require2.initialize();
+        assertNotSame(require1.getEvaluatorForUnitTesting(), require2.getEvaluatorForUnitTesting());
+        assertNotSame(first.getEvaluatorForUnitTesting(), require1.getEvaluatorForUnitTesting());
+
+        assertEquals(5, compiledExpressions.getNumberOfRequests());
+        assertEquals(3, compiledExpressions.getNumberOfExpressions());
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.useragent.analyze;
+
+import nl.basjes.parse.useragent.analyze.TestTreewalkerRequire.TestMatcher;
+import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
+import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList;
+import nl.basjes.parse.useragent.debug.UserAgentAnalyzerTester;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestFusedSteps {
+
+    private static List<String> getSteps(WalkList walkList) {
+        List<String> result = new ArrayList<>();
+        Step step = walkList.getFirstStep();
+        while (step != null) {
+            result.add(step.toString());
+            step = step.getNextStep();
+        }
+        return result;
+    }
+
+    private static void checkFusion(String path, String[] expectedSteps, String[] expectedFusedSteps) {
+        TestMatcher matcher = new TestMatcher(new HashMap<>(), new HashMap<>());
+        MatcherAction action = new MatcherRequireAction(path, matcher);
+        action.initialize();
+        WalkList walkList = action.getEvaluatorForUnitTesting().getWalkListForUnitTesting();
+
+        assertEquals(String.join("\n", expectedSteps), String.join("\n", getSteps(walkList)));
+        assertEquals(expectedSteps.length - expectedFusedSteps.length, action.fuseSteps());
+        assertEquals(String.join("\n", expectedFusedSteps), String.join("\n", getSteps(walkList)));
+
+        // Fusing again does not change anything
+        assertEquals(0, action.fuseSteps());
+    }
+
+    @Test
+    void fuseDownWithFilters() {
+        checkFusion("agent.(1)product.(1)name=\"Foo\"^.(1-3)version!=\"1.0\"^.(1)comments.(1)entry.(1)text~\"Bar\"",
+            new String[]{
+                "Up()",
+                "Down([1:3]version)",
+                "NotEquals(1.0)",
+                "Up()",
+                "Down([1:1]comments)",
+                "Down([1:1]entry)",
+                "Down([1:1]text)",
+                "Contains(bar)",
+            },
+            new String[]{
+                "Fused(Up() --> Down([1:3]version) --> NotEquals(1.0))",
+                "Fused(Up() --> Down([1:1]comments))",
+                "Down([1:1]entry)",
+                "Fused(Down([1:1]text) --> Contains(bar))",
+            });
+    }
+
+    @Test
+    void fuseConsecutiveFilters() {
+        checkFusion("agent.(1)product.(1)version!=\"1.0\"~\"2\"}\"3\"^.(1)name",
+            new String[]{
+                "NotEquals(1.0)",
+                "Contains(2)",
+                "EndsWith(3)",
+                "Up()",
+                "Down([1:1]name)",
+            },
+            new String[]{
+                "Fused(NotEquals(1.0) --> Contains(2) --> EndsWith(3))",
+                "Fused(Up() --> Down([1:1]name))",
+            });
+    }
+
+    @Test
+    void nothingToFuse() {
+        checkFusion("agent.(1)product.(1)name=\"Foo\"^>[2]",
+            new String[]{
+                "Up()",
+                "Next(1)",
+                "WordRange([2:2])",
+            },
+            new String[]{
+                "Up()",
+                "Next(1)",
+                "WordRange([2:2])",
+            });
+    }
+
+    @Test
+    void validateAllPredefinedBrowsers() {
+        UserAgentAnalyzerTester uaa = UserAgentAnalyzerTester
+            .newBuilder()
+            .withFusedSteps()
+            .hideMatcherLoadStats()
+            .immediateInitialization()
+            .build();
+        assertTrue(uaa.getFusedSteps());
+        assertTrue(uaa.runTests(false, true, null, false, false));
+    }
+}
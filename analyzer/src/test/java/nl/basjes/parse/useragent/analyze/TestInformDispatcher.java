@@ -0,0 +1,128 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.analyze;
+
+import nl.basjes.parse.useragent.UserAgent;
+import nl.basjes.parse.useragent.UserAgentAnalyzer;
+import nl.basjes.parse.useragent.analyze.InformDispatcher.CaseInsensitiveIndex;
+import nl.basjes.parse.useragent.analyze.WordRangeVisitor.Range;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static nl.basjes.parse.useragent.analyze.InformDispatcher.UNKNOWN_PATH;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestInformDispatcher {
+
+    @Test
+    void testCaseInsensitiveIndex() {
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("agent.(1)product.(1)name", "Name");
+        entries.put("chrome", "Chrome");
+        entries.put("chr", "Prefix");
+        entries.put("", "Empty");
+        entries.put("straße", "Street");
+        CaseInsensitiveIndex<String> index = new CaseInsensitiveIndex<>(entries);
+
+        assertEquals("Name",   index.get("agent.(1)product.(1)name", 24));
+        assertEquals("Chrome", index.get("Chrome", 6));
+        assertEquals("Chrome", index.get("CHROME", 6));
+        assertEquals("Prefix", index.get("ChromeOS", 3));
+        assertEquals("Empty",  index.get("Anything", 0));
+        assertNull(index.get("Chrom", 5));
+        assertNull(index.get("ChromeOS", 8));
+
+        // Not ASCII
+        entries.put("kelvin", "Kelvin");
+        index = new CaseInsensitiveIndex<>(entries);
+        assertEquals("Street", index.get("STRAßE", 6));
+        assertEquals("Kelvin", index.get("KELVIN", 6));
+        // The KELVIN SIGN lowercases into a normal 'k'
+        assertEquals("Kelvin", index.get("\u212Aelvin", 6));
+        assertNull(index.get("\u212Aelvi", 5));
+    }
+
+    @Test
+    void testPathIds() {
+        Map<String, Set<MatcherAction>> actions = new LinkedHashMap<>();
+        actions.put("agent.(1)product.(2)name",                 Collections.emptySet());
+        actions.put("agent.(1)product.(2)name[1-2]",            Collections.emptySet());
+        actions.put("agent.(1)product.(1)name.(1)keyvalue",     Collections.emptySet());
+        actions.put("agent.(1)product.(1)version=\"1.0\"",      Collections.emptySet());
+        actions.put("agent.(1)product.(1)version.(1)text",      Collections.emptySet());
+        actions.put("agent.(1)product.(1)version.(x)text",      Collections.emptySet());
+
+        Map<String, Set<Range>> ranges = new LinkedHashMap<>();
+        ranges.put("agent.(1)product.(2)name", Collections.singleton(new Range(1, 2)));
+
+        InformDispatcher dispatcher = new InformDispatcher(actions, Collections.emptyMap(), ranges);
+        assertTrue(dispatcher.allPathsHaveAnId());
+
+        int agent = dispatcher.getPathId("agent");
+        int product = dispatcher.getPathId(agent, 1, "product");
+        assertEquals("agent.(1)product", dispatcher.getPath(product));
+        assertEquals(UNKNOWN_PATH, dispatcher.getPathId(agent, 2, "product"));
+        assertEquals(UNKNOWN_PATH, dispatcher.getPathId(product, 1, "comments"));
+        assertEquals(UNKNOWN_PATH, dispatcher.getPathId(UNKNOWN_PATH, 1, "product"));
+
+        int name2 = dispatcher.getPathId(product, 2, "name");
+        assertEquals("agent.(1)product.(2)name", dispatcher.getPath(name2));
+        assertEquals(1, dispatcher.getRequiredInformRanges(name2).length);
+        assertEquals("agent.(1)product.(2)name[1-2]", dispatcher.getPath(dispatcher.getRangePathId(name2, 0)));
+
+        // A name with several steps
+        int name1 = dispatcher.getPathId(product, 1, "name");
+        int keyValue = dispatcher.getPathId(product, 1, "name.(1)keyvalue");
+        assertEquals("agent.(1)product.(1)name.(1)keyvalue", dispatcher.getPath(keyValue));
+        assertEquals(keyValue, dispatcher.getPathId(name1, 1, "keyvalue"));
+        assertEquals(0, dispatcher.getRequiredInformRanges(name1).length);
+
+        // The value is not part of the path
+        int version = dispatcher.getPathId(product, 1, "version");
+        assertEquals("agent.(1)product.(1)version", dispatcher.getPath(version));
+        assertEquals("agent.(1)product.(1)version.(1)text", dispatcher.getPath(dispatcher.getPathId(version, 1, "text")));
+    }
+
+    @Test
+    void testSameResultsAsVerbose() {
+        // In verbose mode the analyzer uses the hash keys directly instead of the InformDispatcher.
+        String userAgentString =
+            "Mozilla/5.0 (Linux; Android 7.0; Nexus 6 Build/NBD90Z) AppleWebKit/537.36 " +
+            "(KHTML, like Gecko) Chrome/53.0.2785.124 Mobile Safari/537.36";
+
+        UserAgentAnalyzer uaa = UserAgentAnalyzer
+            .newBuilder()
+            .withoutCache()
+            .hideMatcherLoadStats()
+            .build();
+
+        UserAgent normal = uaa.parse(userAgentString);
+        uaa.setVerbose(true);
+        UserAgent verbose = uaa.parse(userAgentString);
+        uaa.setVerbose(false);
+
+        assertEquals(verbose.toYamlTestCase(), normal.toYamlTestCase());
+    }
+
+}
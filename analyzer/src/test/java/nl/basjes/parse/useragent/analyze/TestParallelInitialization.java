@@ -0,0 +1,66 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.analyze;
+
+import nl.basjes.parse.useragent.UserAgentAnalyzer;
+import nl.basjes.parse.useragent.debug.UserAgentAnalyzerTester;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestParallelInitialization {
+
+    @Test
+    void sameAsSequential() {
+        UserAgentAnalyzer sequential = UserAgentAnalyzer
+            .newBuilder()
+            .hideMatcherLoadStats()
+            .immediateInitialization()
+            .build();
+        assertFalse(sequential.getParallelInitialization());
+
+        UserAgentAnalyzer parallel = UserAgentAnalyzer
+            .newBuilder()
+            .withParallelInitialization()
+            .hideMatcherLoadStats()
+            .immediateInitialization()
+            .build();
+        assertTrue(parallel.getParallelInitialization());
+
+        assertEquals(sequential.getAllPossibleFieldNamesSorted(), parallel.getAllPossibleFieldNamesSorted());
+        assertEquals(sequential.getNumberOfTestCases(),            parallel.getNumberOfTestCases());
+
+        String userAgent = "Mozilla/5.0 (Linux; Android 7.0; Nexus 6 Build/NBD90Z) " +
+            "AppleWebKit/537.36 (KHTML, like Gecko) Chrome/53.0.2785.124 Mobile Safari/537.36";
+        assertEquals(sequential.parse(userAgent).toMap(), parallel.parse(userAgent).toMap());
+    }
+
+    @Test
+    void validateAllPredefinedBrowsers() {
+        UserAgentAnalyzerTester uaa = UserAgentAnalyzerTester
+            .newBuilder()
+            .withParallelInitialization()
+            .hideMatcherLoadStats()
+            .immediateInitialization()
+            .build();
+        assertTrue(uaa.getParallelInitialization());
+        assertTrue(uaa.runTests(false, true, null, false, false));
+    }
+}
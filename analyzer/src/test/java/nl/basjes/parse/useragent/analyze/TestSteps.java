@@ -64,6 +64,7 @@ import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 class TestSteps {
 
@@ -79,7 +80,7 @@ class TestSteps {
 
     private final Step returnNullStep = new Step() {
         @Override
-        public WalkResult walk(@Nonnull ParseTree tree, String value) {
+        public WalkResult walk(@Nonnull ParseTree tree, CharSequence value, @Nonnull WalkResult walkResult) {
             return null;
         }
     };
@@ -352,4 +353,30 @@ class TestSteps {
         assertNull(step.walk(dummyTree, null));
     }
 
+    @Test
+    void testProvidedWalkResultIsFilled() {
+        WalkResult walkResult = new WalkResult();
+
+        Step step = new StepContains("Foo");
+        assertSame(walkResult, step.walk(dummyTree, "SomeFooBar", walkResult));
+        assertEquals("SomeFooBar", walkResult.getValue());
+        assertSame(dummyTree, walkResult.getTree());
+
+        // The same instance is reused for the next walk
+        assertNull(step.walk(dummyTree, "Something", walkResult));
+        assertSame(walkResult, new StepStartsWith("Du").walk(dummyTree, null, walkResult));
+        assertEquals("DuMmY", walkResult.getValue());
+
+        step = new StepDefaultIfNull("Foo");
+        step.setNextStep(1, returnNullStep);
+        assertSame(walkResult, step.walk(dummyTree, "Bar", walkResult));
+        assertEquals("Foo", walkResult.getValue());
+
+        // A copy is not changed by the next walk
+        WalkResult copy = new WalkResult().fill(walkResult);
+        assertSame(walkResult, new StepContains("Bar").walk(dummyTree, "FooBar", walkResult));
+        assertEquals("FooBar", walkResult.getValue());
+        assertEquals("Foo", copy.getValue());
+    }
+
 }
@@ -488,7 +488,7 @@ class TestTreewalkerRequire {
         }
 
         @Override
-        public void analyze(MutableUserAgent userAgent) {
+        public void analyze(MutableUserAgent userAgent, ParseContext parseContext) {
             // Do nothing
         }
 
@@ -0,0 +1,70 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.analyze.treewalker.steps.lookup;
+
+import nl.basjes.parse.useragent.UserAgentAnalyzer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestLookupStructures {
+
+    private static final Logger LOG = LogManager.getLogger(TestLookupStructures.class);
+
+    private long getMemoryUsageAfterGC() {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Test
+    void sharedLookupStructures() {
+        UserAgentAnalyzer uaa = UserAgentAnalyzer
+            .newBuilder()
+            .hideMatcherLoadStats()
+            .delayInitialization()
+            .dropTests()
+            .build();
+
+        // The analyzer uses this same instance during the initialization of the matchers.
+        LookupStructures lookupStructures = uaa.getLookupStructures();
+        uaa.initializeMatchers();
+
+        int structures = lookupStructures.getNumberOfStructures();
+        int requests   = lookupStructures.getNumberOfRequests();
+        assertTrue(structures < requests, "The lookup structures were not shared");
+
+        long memoryShared = getMemoryUsageAfterGC();
+        List<Object> unshared = lookupStructures.createUnsharedStructuresForUnitTesting();
+        long memoryUnshared = getMemoryUsageAfterGC();
+        assertEquals(requests, unshared.size());
+
+        // The unshared list has one copy per request; without sharing all but one per structure are extra.
+        long saved = (memoryUnshared - memoryShared) * (requests - structures) / requests;
+        LOG.info("Lookup structures: {} created for {} steps. Sharing them saves about {} bytes.",
+            structures, requests, saved);
+
+        uaa.destroy();
+    }
+
+}
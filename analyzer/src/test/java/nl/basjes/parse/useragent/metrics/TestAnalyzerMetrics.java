@@ -0,0 +1,128 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.metrics;
+
+import nl.basjes.parse.useragent.UserAgentAnalyzer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestAnalyzerMetrics {
+
+    private static final Logger LOG = LogManager.getLogger(TestAnalyzerMetrics.class);
+
+    private static final String AGENT_1 =
+        "Mozilla/5.0 (Linux; Android 7.0; Nexus 6 Build/NBD90Z) AppleWebKit/537.36 " +
+        "(KHTML, like Gecko) Chrome/53.0.2785.124 Mobile Safari/537.36";
+    private static final String AGENT_2 =
+        "Mozilla/5.0 (Windows NT 10.0; Win64; x64; rv:89.0) Gecko/20100101 Firefox/89.0";
+    private static final String AGENT_3 =
+        "Mozilla/5.0 (compatible; coccocbot-image/1.0; +http://help.coccoc.com/searchengine)";
+
+    @Test
+    void testMetrics() {
+        UserAgentAnalyzer uaa = UserAgentAnalyzer
+            .newBuilder()
+            .withCache(2)
+            .withMetrics()
+            .hideMatcherLoadStats()
+            .withField("DeviceClass")
+            .build();
+
+        AnalyzerMetrics metrics = uaa.getMetrics();
+        assertNotNull(metrics);
+
+        uaa.parse(AGENT_1); // Miss
+        uaa.parse(AGENT_1); // Hit
+        uaa.parse(AGENT_2); // Miss
+        uaa.parse(AGENT_3); // Miss + Eviction
+        uaa.parse(AGENT_3); // Hit
+
+        LOG.info("{}", metrics);
+
+        assertEquals(2, metrics.getCacheHits());
+        assertEquals(3, metrics.getCacheMisses());
+        assertEquals(1, metrics.getCacheEvictions());
+        assertEquals(0.4, metrics.getCacheHitRatio(), 0.0001);
+
+        for (ParsePhase phase : ParsePhase.values()) {
+            assertEquals(3, metrics.getLatency(phase).getCount(), "Wrong count for " + phase);
+        }
+        LatencyHistogram total = metrics.getLatency(ParsePhase.TOTAL);
+        assertTrue(total.getMaxNanos() > 0);
+        assertEquals(total.getMaxNanos(), metrics.getSlowestNanos());
+        assertNotNull(metrics.getSlowestUserAgent());
+
+        metrics.reset();
+        assertEquals(0, metrics.getCacheHits());
+        assertEquals(0, metrics.getLatency(ParsePhase.TOTAL).getCount());
+        assertNull(metrics.getSlowestUserAgent());
+    }
+
+    @Test
+    void testCustomListener() {
+        List<ParsePhase> phases = new ArrayList<>();
+        UserAgentAnalyzer uaa = UserAgentAnalyzer
+            .newBuilder()
+            .withoutCache()
+            .withMetricsListener(new MetricsListener() {
+                @Override
+                public void phase(ParsePhase phase, long nanos, String userAgentString) {
+                    assertEquals(AGENT_2, userAgentString);
+                    phases.add(phase);
+                }
+            })
+            .hideMatcherLoadStats()
+            .withField("AgentName")
+            .build();
+
+        assertNull(uaa.getMetrics());
+        uaa.parse(AGENT_2);
+        assertEquals(ParsePhase.values().length, phases.size());
+        assertEquals(ParsePhase.TOTAL, phases.get(phases.size() - 1));
+    }
+
+    @Test
+    void testHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileNanos(50));
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500, histogram.getMeanNanos());
+        assertEquals(1000, histogram.getMaxNanos());
+
+        // The buckets are powers of 2 so the percentiles are upper bounds
+        long p50 = histogram.getPercentileNanos(50);
+        assertTrue(p50 >= 500 && p50 <= 1023, "Bad p50: " + p50);
+        assertEquals(1000, histogram.getPercentileNanos(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+    }
+
+}
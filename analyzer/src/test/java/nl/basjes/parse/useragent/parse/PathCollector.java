@@ -0,0 +1,90 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.parse;
+
+import nl.basjes.parse.useragent.analyze.Analyzer;
+import nl.basjes.parse.useragent.analyze.MatcherAction;
+import nl.basjes.parse.useragent.analyze.WordRangeVisitor.Range;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects all the path="value" combinations that the flattener reports.
+ */
+class PathCollector implements Analyzer {
+    private final List<String> values = new ArrayList<>(128);
+
+    List<String> getValues() {
+        return values;
+    }
+
+    void clear() {
+        values.clear();
+    }
+
+    @Override
+    public void inform(String path, String value, ParseTree ctx) {
+        values.add(path + "=\"" + value + "\"");
+    }
+
+    @Override
+    public void informMeAbout(MatcherAction matcherAction, String keyPattern) {
+        // Not used during tests
+    }
+
+    @Override
+    public void lookingForRange(String treeName, Range range) {
+        // Not used during tests
+    }
+
+    @Override
+    public Set<Range> getRequiredInformRanges(String treeName) {
+        // Not used during tests
+        return Collections.emptySet();
+    }
+
+    @Override
+    public void informMeAboutPrefix(MatcherAction matcherAction, String treeName, String prefix) {
+        // Not used during tests
+    }
+
+    @Override
+    public Set<Integer> getRequiredPrefixLengths(String treeName) {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public Map<String, Map<String, String>> getLookups() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public Map<String, Set<String>> getLookupSets() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public List<Map<String, Map<String, String>>> getTestCases() {
+        return Collections.emptyList();
+    }
+}
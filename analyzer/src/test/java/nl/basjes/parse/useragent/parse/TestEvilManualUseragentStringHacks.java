@@ -0,0 +1,194 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.useragent.parse;
+
+import nl.basjes.parse.useragent.PreHeatCases;
+import nl.basjes.parse.useragent.debug.UserAgentAnalyzerTester;
+import org.junit.jupiter.api.Test;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
+
+import static nl.basjes.parse.useragent.parse.EvilManualUseragentStringHacks.fixIt;
+import static nl.basjes.parse.useragent.utils.Normalize.replaceString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class TestEvilManualUseragentStringHacks {
+
+    // The original implementation that applies all hacks one after the other.
+    private static final Pattern MISSING_PRODUCT_AT_START =
+        Pattern.compile("^\\(( |;|null|compatible|windows|android|linux).*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern MISSING_SPACE =
+        Pattern.compile("(/[0-9]+\\.[0-9]+)([A-Z][a-z][a-z][a-z]+ )");
+    private static final Pattern MULTIPLE_SPACES =
+        Pattern.compile(" {2,}");
+    private static final Pattern AVOID_BASE64_MATCH =
+        Pattern.compile("(android/[0-9]+)(/)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ANDROID_DASH_VERSION =
+        Pattern.compile("(android)-([0-9]+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern TENCENT_NETTYPE_FIX  =
+        Pattern.compile("(NetType)/([0-9a-z._-]+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern TENCENT_LANGUAGE_FIX =
+        Pattern.compile("(Language)/([a-z_-]+)", Pattern.CASE_INSENSITIVE);
+
+    private static String sequentialFixIt(String useragent) {
+        if (useragent == null || useragent.isEmpty()) {
+            return useragent;
+        }
+        String result = useragent;
+        result = MULTIPLE_SPACES.matcher(result).replaceAll(" ");
+        result = replaceString(result, "\u2002", " ");
+        if (result.charAt(0) == ' ') {
+            result = result.trim();
+        }
+        result = TENCENT_NETTYPE_FIX.matcher(result).replaceAll("() $1/$2()");
+        result = TENCENT_LANGUAGE_FIX.matcher(result).replaceAll("() $1/$2()");
+        result = replaceString(result, "SSL/TLS", "SSL TLS");
+        if (result.contains("MSIE")) {
+            result = replaceString(result, "MSIE7", "MSIE 7");
+            result = replaceString(result, "MSIE8", "MSIE 8");
+            result = replaceString(result, "MSIE9", "MSIE 9");
+        }
+        result = replaceString(result, "MSOffice", "MS-Office");
+        result = replaceString(result, "Ant.com Toolbar", "Ant.com_Toolbar");
+        result = ANDROID_DASH_VERSION.matcher(result).replaceAll("$1 $2");
+        result = MISSING_SPACE.matcher(result).replaceAll("$1 $2");
+        result = AVOID_BASE64_MATCH.matcher(result).replaceAll("$1 $2");
+        result = replaceString(result, "Java", "Java ");
+        result = replaceString(result, "Wazzup", "Wazzup ");
+        result = replaceString(result, " (Macintosh); ", " (Macintosh; ");
+        result = replaceString(result, "Microsoft Windows NT 6.2.9200.0);", "Microsoft Windows NT 6.2.9200.0;");
+        result = replaceString(result, "You Build/VM", "You Build/VM)");
+        result = replaceString(result, "(/", "(Unknown/");
+        result = replaceString(result, "; /", "; Unknown/");
+        result = replaceString(result, ", _TV_", " _TV_");
+        if (MISSING_PRODUCT_AT_START.matcher(result).matches() || result.charAt(0) == '[') {
+            result = "FakeYauaaProduct/3.14 " + result;
+        } else {
+            if (result.charAt(0) == '/') {
+                result = "FakeYauaaProduct" + result;
+            }
+        }
+        result = replaceString(result, ",gzip(gfe)", "");
+        result = replaceString(result, "__", " ");
+        if ((result.indexOf('%') != -1) &&
+            (result.contains("%20") ||
+             result.contains("%3B") ||
+             result.contains("%25") ||
+             result.contains("%2F") ||
+             result.contains("%28"))) {
+            try {
+                result = URLDecoder.decode(result, "UTF-8");
+            } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                // Ignore and continue.
+            }
+        }
+        return result;
+    }
+
+    // Some input (like only spaces) makes the hacks fail, this must remain the same.
+    private static String getResult(UnaryOperator<String> hacks, String userAgent) {
+        try {
+            return hacks.apply(userAgent);
+        } catch (RuntimeException e) {
+            return e.getClass().getName();
+        }
+    }
+
+    @Test
+    void sameAsSequentialHacks() {
+        UserAgentAnalyzerTester uaa = UserAgentAnalyzerTester.newBuilder().hideMatcherLoadStats().build();
+
+        Set<String> userAgents = new LinkedHashSet<>(PreHeatCases.USERAGENTS);
+        for (Map<String, Map<String, String>> testCase: uaa.getTestCases()) {
+            userAgents.add(testCase.get("input").get("user_agent_string"));
+        }
+        // Each of the hacks and a few combinations where one hack creates the input for the next.
+        userAgents.addAll(Arrays.asList(
+            "",
+            " ",
+            "\u2002",
+            "\u2002Foo/1.0",
+            "Foo/1.0\u2002\u2002 Bar/2.0",
+            "Mozilla/5.0  (Windows   NT 10.0)",
+            "\u2002 Mozilla/5.0 (Windows\u2002NT 10.0)",
+            "   (Linux; Android 9)",
+            "Core/UIWebView NetType/WIFI Language/zh_CN",
+            "Process/tools NETTYPE/portalmmm.nl LANGUAGE/zh_CN",
+            "Foo/1.0 (SSL/TLS)",
+            "Mozilla/4.0 (compatible; MSIE7.0; MSIE8.0; MSIE9.0)",
+            "Foo/1.0 (MSIE7.0; msie8.0)",
+            "MSOffice 12",
+            "Ant.com Toolbar 2.0",
+            "Foo/1.0 (Android-4.0.3; ANDROID-5)",
+            "Version/4.0Mobile Safari/530.17",
+            "Version/4.0MOBILE Safari/530.17",
+            "Foo Android/9/something/",
+            "Java1.0.21.0",
+            "java1.0.21.0",
+            "Wazzup1.1.100",
+            "Mozilla/5.0 (Macintosh); U; Intel Mac OS X)",
+            "Foo/1.0 (Microsoft Windows NT 6.2.9200.0); Bar)",
+            "VM_Vertis 4010 You Build/VM",
+            "Foo/1.0 (/1.0; /2.0)",
+            "Foo/1.0, _TV_ Bar",
+            "(Linux; Android 9)",
+            "(compatible; Foo)",
+            "(foo; Android 9)",
+            "[FBAN/FBIOS;FBAV/1.0]",
+            "/1.0 Foo",
+            "Foo/1.0,gzip(gfe)",
+            "Weibo__1.0__Foo",
+            "Foo%20Bar/1.0%3B",
+            "Foo%2fbar%2F1.0",
+            "Foo%ZZ%20Bar",
+            "Foo%41/1.0",
+            "Foo/1.0 ( (Linux)",
+            "Foo/1.0 ;  /1.0",
+            "You  Build/VM",
+            "_\u2002_Foo",
+            "\u2002/1.0"
+        ));
+
+        for (String userAgent : userAgents) {
+            assertEquals(
+                getResult(TestEvilManualUseragentStringHacks::sequentialFixIt, userAgent),
+                getResult(EvilManualUseragentStringHacks::fixIt, userAgent),
+                "Different result for: " + userAgent);
+        }
+    }
+
+    @Test
+    void noCopyIfNothingChanged() {
+        assertNull(fixIt(null));
+        assertEquals("", fixIt(""));
+        String userAgent = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) " +
+            "Chrome/90.0.4430.93 Safari/537.36";
+        assertSame(userAgent, fixIt(userAgent));
+        // Triggered (MSIE8 and android-) but nothing actually changes.
+        String triggered = "Mozilla/4.0 (compatible; msie8.0; android-x)";
+        assertSame(triggered, fixIt(triggered));
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.parse;
+
+import nl.basjes.parse.useragent.PreHeatCases;
+import nl.basjes.parse.useragent.UserAgent.MutableUserAgent;
+import nl.basjes.parse.useragent.analyze.ParseContext;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static nl.basjes.parse.useragent.AbstractUserAgentAnalyzerDirect.DEFAULT_USER_AGENT_MAX_LENGTH;
+import static nl.basjes.parse.useragent.UserAgent.SYNTAX_ERROR;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class TestParserReuse {
+
+    private static List<String> flatten(UserAgentTreeFlattener flattener, PathCollector collector,
+                                        String userAgentString, ParseContext parseContext) {
+        collector.clear();
+        MutableUserAgent userAgent = flattener.parse(new MutableUserAgent(userAgentString), parseContext);
+        List<String> result = new ArrayList<>(collector.getValues());
+        result.add(SYNTAX_ERROR + "=" + userAgent.getValue(SYNTAX_ERROR));
+        return result;
+    }
+
+    @Test
+    void reusedParserGivesSameResults() {
+        List<String> userAgents = new ArrayList<>();
+        for (String userAgent : PreHeatCases.USERAGENTS) {
+            if (userAgent.length() <= DEFAULT_USER_AGENT_MAX_LENGTH) {
+                userAgents.add(userAgent);
+            }
+        }
+        // Syntax errors in between
+        userAgents.add(10, "Mozilla/5.0 ((Windows NT 10.0; Win64; x64)");
+        userAgents.add(20, "Mozilla/5.0 (Linux; Android 7.0; Nexus 5X Build/NRD90M)) Chrome/51.0");
+
+        // A tree that needs more State instances than the arena has.
+        StringBuilder big = new StringBuilder("Mozilla/5.0 (");
+        for (int i = 0; i < 200; i++) {
+            big.append("Foo/").append(i).append("; ");
+        }
+        big.append("Bar/1.0) Baz/2.0");
+        userAgents.add(30, big.toString());
+
+        for (boolean twoStageParsing : new boolean[]{false, true}) {
+            PathCollector collector = new PathCollector();
+            UserAgentTreeFlattener flattener = new UserAgentTreeFlattener(collector);
+            flattener.setTwoStageParsing(twoStageParsing);
+
+            ParseContext parseContext = new ParseContext(0, 0);
+            flatten(flattener, collector, "Mozilla/5.0", parseContext);
+            UserAgentTreeFlattener walker = parseContext.getTreeWalker();
+            assertNotNull(walker);
+
+            for (String userAgent : userAgents) {
+                List<String> fresh  = flatten(flattener, collector, userAgent, null);
+                List<String> reused = flatten(flattener, collector, userAgent, parseContext);
+                assertEquals(fresh, reused, "Different result for: " + userAgent);
+            }
+            assertSame(walker, parseContext.getTreeWalker());
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.parse;
+
+import nl.basjes.parse.useragent.PreHeatCases;
+import nl.basjes.parse.useragent.UserAgent;
+import nl.basjes.parse.useragent.debug.UserAgentAnalyzerTester;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static nl.basjes.parse.useragent.AbstractUserAgentAnalyzerDirect.DEFAULT_USER_AGENT_MAX_LENGTH;
+import static nl.basjes.parse.useragent.UserAgent.SYNTAX_ERROR;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestTwoStageParsing {
+
+    private static List<String> flatten(String userAgentString, boolean twoStageParsing) {
+        PathCollector collector = new PathCollector();
+        UserAgentTreeFlattener flattener = new UserAgentTreeFlattener(collector);
+        flattener.setTwoStageParsing(twoStageParsing);
+        UserAgent userAgent = flattener.parse(userAgentString);
+        List<String> result = new ArrayList<>(collector.getValues());
+        result.add(SYNTAX_ERROR + "=" + userAgent.getValue(SYNTAX_ERROR));
+        return result;
+    }
+
+    @Test
+    void sameTreeAsFullParse() {
+        UserAgentAnalyzerTester uaa = UserAgentAnalyzerTester.newBuilder().hideMatcherLoadStats().build();
+
+        Set<String> userAgents = new LinkedHashSet<>(PreHeatCases.USERAGENTS);
+        for (Map<String, Map<String, String>> testCase: uaa.getTestCases()) {
+            userAgents.add(testCase.get("input").get("user_agent_string"));
+        }
+        // Some with syntax errors that need the full parse
+        userAgents.add("Mozilla/5.0 ((Windows NT 10.0; Win64; x64)");
+        userAgents.add("Mozilla/5.0 (Linux; Android 7.0; Nexus 5X Build/NRD90M)) Chrome/51.0");
+        userAgents.add("-8434))) OR 9695 IN ((CHAR(113)+CHAR(107)+CHAR(106)+CHAR(118)+CHAR(113)+(SELECT " +
+            "(CASE WHEN (9695=9695) THEN CHAR(49) ELSE CHAR(48) END))+CHAR(113)+CHAR(122)+CHAR(118)+CHAR(118)+CHAR(113))) AND (((4283=4283");
+
+        for (String userAgent : userAgents) {
+            if (userAgent.length() > DEFAULT_USER_AGENT_MAX_LENGTH) {
+                continue; // The analyzer never parses these
+            }
+            assertEquals(flatten(userAgent, false), flatten(userAgent, true), "Different result for: " + userAgent);
+        }
+    }
+
+    @Test
+    void validateAllPredefinedBrowsers() {
+        UserAgentAnalyzerTester uaa = UserAgentAnalyzerTester
+            .newBuilder()
+            .withTwoStageParsing()
+            .hideMatcherLoadStats()
+            .immediateInitialization()
+            .build();
+        assertTrue(uaa.getTwoStageParsing());
+        assertTrue(uaa.runTests(false, true, null, false, false));
+
+        UserAgentAnalyzerTester uaaDefault = UserAgentAnalyzerTester
+            .newBuilder()
+            .withTwoStageParsing()
+            .withoutTwoStageParsing()
+            .hideMatcherLoadStats()
+            .build();
+        assertFalse(uaaDefault.getTwoStageParsing());
+    }
+}
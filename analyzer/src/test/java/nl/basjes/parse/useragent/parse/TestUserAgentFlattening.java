@@ -24,8 +24,10 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.junit.jupiter.api.Test;
 
+import java.util.Arrays;
 import java.util.List;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.fail;
 
 // CHECKSTYLE.OFF: LineLength
@@ -1345,6 +1347,31 @@ class TestUserAgentFlattening {
 
     }
 
+    @Test
+    void testPrunedWalkGivesSameResults() {
+        // With only a few fields most of the parse tree is skipped.
+        // In verbose mode the entire parse tree is always walked.
+        UserAgentAnalyzer uaa = UserAgentAnalyzer
+            .newBuilder()
+            .withoutCache()
+            .hideMatcherLoadStats()
+            .withField("DeviceClass")
+            .withField("AgentNameVersionMajor")
+            .build();
+
+        for (String userAgentString : Arrays.asList(
+            "Mozilla/5.0 (Linux; Android 7.0; Nexus 6 Build/NBD90Z) AppleWebKit/537.36 " +
+                "(KHTML, like Gecko) Chrome/53.0.2785.124 Mobile Safari/537.36",
+            "Mozilla/5.0 (Windows NT 10.0; Win64; x64; rv:85.0) Gecko/20100101 Firefox/85.0",
+            "Mozilla/5.0 (compatible; Googlebot/2.1; +http://www.google.com/bot.html)")) {
+            UserAgent pruned = uaa.parse(userAgentString);
+            uaa.setVerbose(true);
+            UserAgent full = uaa.parse(userAgentString);
+            uaa.setVerbose(false);
+            assertEquals(full.toYamlTestCase(), pruned.toYamlTestCase());
+        }
+    }
+
     private void validateUserAgent(String useragent, String... requiredValues) {
 
         boolean developmentMode = requiredValues.length == 0;
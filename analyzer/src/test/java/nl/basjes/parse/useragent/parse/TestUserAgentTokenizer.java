@@ -0,0 +1,119 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.parse;
+
+import nl.basjes.parse.useragent.PreHeatCases;
+import nl.basjes.parse.useragent.debug.UserAgentAnalyzerTester;
+import nl.basjes.parse.useragent.parser.UserAgentLexer;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenSource;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestUserAgentTokenizer {
+
+    private static List<String> getAllTokens(TokenSource tokenSource) {
+        List<String> result = new ArrayList<>();
+        Token token;
+        do {
+            token = tokenSource.nextToken();
+            result.add(token.getType() + ":" + token.getChannel() +
+                " [" + token.getStartIndex() + "-" + token.getStopIndex() + "] " +
+                token.getLine() + ":" + token.getCharPositionInLine() + " >" + token.getText() + "<");
+        } while (token.getType() != Token.EOF);
+        return result;
+    }
+
+    private static void assertSameTokens(UserAgentTokenizer tokenizer, UserAgentLexer reusedLexer, String userAgent) {
+        String input = EvilManualUseragentStringHacks.fixIt(userAgent);
+        List<String> expected = getAllTokens(new UserAgentLexer(CharStreams.fromString(input)));
+
+        reusedLexer.setInputStream(CharStreams.fromString(input));
+        tokenizer.reset(input);
+        assertEquals(expected, getAllTokens(tokenizer), "Different tokens for: " + userAgent);
+    }
+
+    @Test
+    void sameTokensAsGeneratedLexer() {
+        UserAgentAnalyzerTester uaa = UserAgentAnalyzerTester.newBuilder().hideMatcherLoadStats().build();
+
+        Set<String> userAgents = new LinkedHashSet<>(PreHeatCases.USERAGENTS);
+        for (Map<String, Map<String, String>> testCase: uaa.getTestCases()) {
+            userAgents.add(testCase.get("input").get("user_agent_string"));
+        }
+        // The edge cases of the tokenizer
+        userAgents.addAll(Arrays.asList(
+            "",
+            "User-Agent: Mozilla/5.0 (Windows NT 10.0)",
+            "useragent=Foo/1.0",
+            "'User-Agent': Foo/1.0",
+            "Ubuntu/dapper Something/4.4.4",
+            "Ubuntu/Hardy-security Something/4.4.4",
+            "Foo/hardyx Bar/dapper1",
+            "Foo/1.0 (+http://www.example.com/bot.html)",
+            "Foo/1.0 (http://localhost:8080/foo)",
+            "Foo/1.0 (localhost; ftp://ftp.example.nl)",
+            "Foo/1.0 (//www.example.com; www.example.com; example.html)",
+            "Accept: application/json */* Foo/1.0",
+            "Foo 1,5 Bar,2 Baz ,3",
+            "Foo/1.0 (550e8400-e29b-41d4-a716-446655440000)",
+            "Foo/1.0 (QWxhZGRpbjpvcGVuIHNlc2FtZUFsYWRkaW46b3BlbiBzZXNhbWU=)",
+            "Foo/1.0 (QWxhZGRpbjpvcGVuIHNlc2Fz+ZUFsYWR/kaW46b3BlbiBzZXNhbWU)",
+            "Foo\\x41bar/1.0 \\\"quoted\\\" \\tTab",
+            "Foo/1.0\nBar/2.0 (Line\n2)",
+            "Foo Bar/1.0 Ƞ Baz",
+            "Foo/1.0 (bla@example.com)",
+            "Foo/1.0 (bla at example dot com)",
+            "Foo/1.0 (bla[at]example[dot]com)",
+            "Emoji/😀 1.0",
+            "Mozilla/4.0 (compatible; MSIE 8.0; .NET CLR 2.0.50727; _underscore; x86_64)",
+            "Foo/${version} Bar/@VERSION@ @Gibberish!",
+            "Foo/1.0 <http://www.example.com> <a href=\"http://www.example.com\">Example</a>",
+            "-Foo- --1.0 -",
+            "Foo/1.0;;;,,,===[[[]]]{{{}}}((()))::://///"
+        ));
+
+        UserAgentLexer lexer = new UserAgentLexer(CharStreams.fromString(""));
+        UserAgentTokenizer tokenizer = new UserAgentTokenizer(lexer);
+        for (String userAgent : userAgents) {
+            assertSameTokens(tokenizer, lexer, userAgent);
+        }
+    }
+
+    @Test
+    void validateAllPredefinedBrowsers() {
+        UserAgentAnalyzerTester uaa = UserAgentAnalyzerTester
+            .newBuilder()
+            .withTableDrivenTokenizer()
+            .hideMatcherLoadStats()
+            .immediateInitialization()
+            .build();
+        assertTrue(uaa.getTableDrivenTokenizer());
+        assertTrue(uaa.runTests(false, true, null, false, false));
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.serialization;
+
+import nl.basjes.parse.useragent.UserAgentAnalyzer;
+
+/**
+ * The same tests as TestUserAgentAnalyzerJavaSerialization but with the metrics enabled.
+ */
+class TestUserAgentAnalyzerWithMetricsJavaSerialization extends TestUserAgentAnalyzerJavaSerialization {
+
+    @Override
+    UserAgentAnalyzer create() {
+        UserAgentAnalyzer.UserAgentAnalyzerBuilder builder = UserAgentAnalyzer.newBuilder().withCache(1234).withMetrics();
+        configureTestInstance(builder);
+        return builder.build();
+    }
+
+}
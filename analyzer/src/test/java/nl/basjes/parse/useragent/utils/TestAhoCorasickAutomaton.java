@@ -0,0 +1,97 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestAhoCorasickAutomaton {
+
+    @Test
+    void testBasics() {
+        AhoCorasickAutomaton automaton = new AhoCorasickAutomaton(Arrays.asList("he", "she", "his", "hers"));
+        assertEquals(0, automaton.firstMatchingKey("ushers"));
+        assertEquals(0, automaton.firstMatchingKey("ushe"));
+        assertEquals(2, automaton.firstMatchingKey("this"));
+        assertEquals(-1, automaton.firstMatchingKey("hi"));
+        assertEquals(-1, automaton.firstMatchingKey(""));
+        assertTrue(automaton.containsAnyKey("ushers"));
+        assertFalse(automaton.containsAnyKey("hxsxr"));
+    }
+
+    @Test
+    void testPriorityOverlappingKeys() {
+        // The key that was provided first wins even if another key is found earlier in the input.
+        AhoCorasickAutomaton automaton = new AhoCorasickAutomaton(Arrays.asList("bot", "robot", "ro"));
+        assertEquals(0, automaton.firstMatchingKey("a robot"));
+        assertEquals(2, automaton.firstMatchingKey("a rob"));
+    }
+
+    @Test
+    void testEmptyKeys() {
+        assertEquals(-1, new AhoCorasickAutomaton(Collections.emptyList()).firstMatchingKey("something"));
+        assertFalse(new AhoCorasickAutomaton(Collections.emptyList()).containsAnyKey("something"));
+
+        // Just like String.contains("") the empty key is always present.
+        AhoCorasickAutomaton automaton = new AhoCorasickAutomaton(Arrays.asList("foo", ""));
+        assertEquals(1, automaton.firstMatchingKey(""));
+        assertEquals(0, automaton.firstMatchingKey("foo"));
+        assertTrue(automaton.containsAnyKey(""));
+    }
+
+    @Test
+    void testSameAsContains() {
+        Random random = new Random(42);
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            keys.add(randomString(random, 1 + random.nextInt(5)));
+        }
+        AhoCorasickAutomaton automaton = new AhoCorasickAutomaton(keys);
+
+        for (int i = 0; i < 2000; i++) {
+            String input = randomString(random, random.nextInt(30));
+            int expected = -1;
+            for (int keyIndex = 0; keyIndex < keys.size(); keyIndex++) {
+                if (input.contains(keys.get(keyIndex))) {
+                    expected = keyIndex;
+                    break;
+                }
+            }
+            assertEquals(expected, automaton.firstMatchingKey(input), "Wrong result for " + input);
+            assertEquals(expected >= 0, automaton.containsAnyKey(input), "Wrong result for " + input);
+        }
+    }
+
+    private String randomString(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(4)));
+        }
+        return sb.toString();
+    }
+
+}
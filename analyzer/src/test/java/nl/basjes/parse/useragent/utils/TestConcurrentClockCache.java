@@ -0,0 +1,143 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestConcurrentClockCache {
+
+    @Test
+    void testBasics() {
+        ConcurrentClockCache<String, String> cache = new ConcurrentClockCache<>(10);
+        assertNull(cache.get("One"));
+        assertNull(cache.put("One", "1"));
+        assertEquals("1", cache.get("One"));
+        assertEquals("1", cache.put("One", "Een"));
+        assertEquals("Een", cache.get("One"));
+        assertEquals(1, cache.size());
+        assertEquals("Een", cache.remove("One"));
+        assertNull(cache.get("One"));
+        assertEquals(0, cache.size());
+
+        cache.put("Two", "2");
+        cache.put("Three", "3");
+        assertEquals(2, cache.entrySet().size());
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get("Two"));
+    }
+
+    @Test
+    void testEvictionKeepsRecentlyUsed() {
+        ConcurrentClockCache<Integer, Integer> cache = new ConcurrentClockCache<>(10);
+        for (int i = 0; i < 10; i++) {
+            cache.put(i, i);
+        }
+        // Use the first one so it gets a second chance.
+        assertEquals(0, cache.get(0));
+
+        for (int i = 10; i < 15; i++) {
+            cache.put(i, i);
+        }
+        assertEquals(10, cache.size());
+        assertEquals(5, cache.getEvictionCount());
+        assertEquals(0, cache.get(0));  // Used so it was retained
+        assertNull(cache.get(1));       // Oldest unused one is gone
+        assertEquals(14, cache.get(14));
+    }
+
+    @Test
+    void testMaximumWeight() {
+        ConcurrentClockCache<String, String> cache =
+            new ConcurrentClockCache<>(0, 100, (key, value) -> key.length() + value.length(), 0, TimeUnit.SECONDS);
+
+        for (int i = 0; i < 100; i++) {
+            cache.put(String.format("Key%05d", i), "0123456789"); // Weight = 8 + 10 = 18
+        }
+        assertTrue(cache.getWeight() <= 100, "Weight is too high: " + cache.getWeight());
+        assertEquals(5, cache.size());
+        assertNotNull(cache.get("Key00099"));
+
+        cache.remove("Key00099");
+        assertEquals(4 * 18, cache.getWeight());
+    }
+
+    @Test
+    void testExpireAfterWrite() throws InterruptedException {
+        ConcurrentClockCache<String, String> cache =
+            new ConcurrentClockCache<>(10, 0, null, 50, TimeUnit.MILLISECONDS);
+        cache.put("One", "1");
+        assertEquals("1", cache.get("One"));
+        Thread.sleep(100);
+        assertNull(cache.get("One"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testBadSettings() {
+        assertThrows(IllegalArgumentException.class, () -> new ConcurrentClockCache<>(-1));
+        assertThrows(IllegalArgumentException.class,
+            () -> new ConcurrentClockCache<>(0, 10, null, 0, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testConcurrentAccess() throws InterruptedException, ExecutionException {
+        ConcurrentClockCache<Integer, Integer> cache = new ConcurrentClockCache<>(100);
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                final int offset = thread;
+                futures.add(executorService.submit(() -> {
+                    for (int i = 0; i < 100_000; i++) {
+                        int key = (i * 7 + offset) % 1000;
+                        Integer value = cache.get(key);
+                        if (value == null) {
+                            cache.put(key, key);
+                        } else {
+                            assertEquals(key, value);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdown();
+        }
+        // Eviction is best effort while other threads are writing; one final put must bring it back in line.
+        cache.put(-1, -1);
+        assertTrue(cache.size() <= 100, "Too many entries: " + cache.size());
+    }
+
+}
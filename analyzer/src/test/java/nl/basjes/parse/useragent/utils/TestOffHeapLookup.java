@@ -0,0 +1,145 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.utils;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.ByteBufferInput;
+import com.esotericsoftware.kryo.io.ByteBufferOutput;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestOffHeapLookup {
+
+    private Map<String, String> createMap() {
+        Map<String, String> map = new LinkedHashMap<>();
+        map.put("nexus 6", "Google");
+        map.put("iphone", "Apple");
+        map.put("",       "Empty");
+        map.put("ipad",   "Apple");
+        map.put("nexus",  "Google");
+        map.put("éè", "Accents");
+        return map;
+    }
+
+    @Test
+    void testMap() {
+        Map<String, String> map = createMap();
+        OffHeapLookup lookup = OffHeapLookup.of(map);
+
+        assertEquals(map.size(), lookup.size());
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            assertEquals(entry.getValue(), lookup.get(entry.getKey()));
+            assertTrue(lookup.containsKey(entry.getKey()));
+        }
+        assertNull(lookup.get("nexus 5"));
+        assertNull(lookup.get("nex"));
+        assertNull(lookup.get("iphones"));
+        assertNull(lookup.get(null));
+        assertNull(lookup.get(42));
+        assertFalse(lookup.containsKey("ipod"));
+
+        // Same order, same content
+        assertEquals(new ArrayList<>(map.keySet()), new ArrayList<>(lookup.keySet()));
+        assertEquals(new ArrayList<>(map.values()), new ArrayList<>(lookup.values()));
+        assertEquals(map, lookup);
+
+        // The distinct values are stored only once.
+        assertSame(lookup.get("iphone"), lookup.get("ipad"));
+
+        assertThrows(UnsupportedOperationException.class, () -> lookup.put("ipod", "Apple"));
+        assertThrows(IllegalArgumentException.class, () -> OffHeapLookup.of(Arrays.asList(null, "x").stream()
+            .collect(LinkedHashMap::new, (m, k) -> m.put(k, "v"), Map::putAll)));
+    }
+
+    @Test
+    void testSet() {
+        Set<String> set = new LinkedHashSet<>(Arrays.asList("windows", "linux", "mac os x"));
+        Set<String> offHeapSet = OffHeapLookup.setOf(set);
+        assertEquals(set, offHeapSet);
+        assertEquals(new ArrayList<>(set), new ArrayList<>(offHeapSet));
+        assertTrue(offHeapSet.contains("linux"));
+        assertFalse(offHeapSet.contains("Linux"));
+        assertSame(offHeapSet, OffHeapLookup.setOf(offHeapSet));
+    }
+
+    @Test
+    void testShared() {
+        OffHeapLookup lookup = OffHeapLookup.of(createMap());
+        assertSame(lookup, OffHeapLookup.of(createMap()));
+        assertSame(lookup, OffHeapLookup.of(lookup));
+
+        Map<String, String> other = createMap();
+        other.put("ipod", "Apple");
+        assertFalse(lookup == OffHeapLookup.of(other));
+        assertTrue(lookup.getOffHeapBytes() > 0);
+    }
+
+    @Test
+    void testJavaSerialization() throws IOException, ClassNotFoundException {
+        OffHeapLookup lookup = OffHeapLookup.of(createMap());
+        Set<String> set = OffHeapLookup.setOf(new LinkedHashSet<>(Arrays.asList("one", "two")));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(lookup);
+            out.writeObject(set);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            // Within the same JVM the existing off heap data is used.
+            assertSame(lookup, in.readObject());
+            assertEquals(set, in.readObject());
+        }
+    }
+
+    @Test
+    void testKryoSerialization() {
+        Kryo kryo = new Kryo();
+        kryo.setRegistrationRequired(true);
+        OffHeapLookup.configureKryo(kryo);
+
+        OffHeapLookup lookup = OffHeapLookup.of(createMap());
+        Set<String> set = OffHeapLookup.setOf(new LinkedHashSet<>(Arrays.asList("one", "two")));
+
+        ByteBufferOutput output = new ByteBufferOutput(10000);
+        kryo.writeClassAndObject(output, lookup);
+        kryo.writeClassAndObject(output, set);
+
+        ByteBufferInput input = new ByteBufferInput(output.toBytes());
+        assertSame(lookup, kryo.readClassAndObject(input));
+        assertEquals(set, kryo.readClassAndObject(input));
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.basjes.parse.useragent.utils;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestSourceText {
+
+    private static final String SOURCE = "Mozilla/5.0 (Linux; Android 7.0; Nexus 6 Build/NBD90Z) Chrome/53.0";
+
+    @Test
+    void testView() {
+        SourceText text = new SourceText(SOURCE, 13, 18);
+        assertEquals(5, text.length());
+        assertEquals('L', text.charAt(0));
+        assertEquals("Linux", text.toString());
+        assertSame(text.toString(), text.toString());
+        assertEquals("inu", text.subSequence(1, 4).toString());
+        assertEquals("", new SourceText(SOURCE, 3, 3).toString());
+
+        assertThrows(StringIndexOutOfBoundsException.class, () -> text.charAt(5));
+        assertThrows(StringIndexOutOfBoundsException.class, () -> text.subSequence(2, 6));
+        assertThrows(StringIndexOutOfBoundsException.class, () -> new SourceText(SOURCE, 10, 9));
+    }
+
+    private static final List<String> VALUES = Arrays.asList(
+        "", "a", "A", "Linux", "LINUX", "linu", "inux", "Lin", "nux", "Android", "ndro", "x",
+        "\u00DCn\u00EFc\u00F6d\u00E9", "\u00DCN\u00CFC\u00D6D\u00C9", "\u0130stanbul", "istanbul", "stra\u00DFe", "STRASSE", "ss");
+
+    @Test
+    void testComparisonsAreTheSameAsString() {
+        for (String value : VALUES) {
+            String source = "[" + value + "]";
+            CharSequence view = new SourceText(source, 1, source.length() - 1);
+            for (String other : VALUES) {
+                String lowerOther = other.toLowerCase(Locale.ROOT);
+                String message = value + " / " + other;
+                assertEquals(value.equalsIgnoreCase(other),
+                    SourceText.equalsIgnoreCase(view, other), message);
+                assertEquals(value.regionMatches(true, 0, other, 0, other.length()) && value.length() >= other.length(),
+                    SourceText.startsWithIgnoreCase(view, other), message);
+                assertEquals(value.length() >= other.length() &&
+                        value.regionMatches(true, value.length() - other.length(), other, 0, other.length()),
+                    SourceText.endsWithIgnoreCase(view, other), message);
+                assertEquals(value.toLowerCase(Locale.ROOT).contains(lowerOther),
+                    SourceText.containsIgnoreCase(view, lowerOther), message);
+
+                // The same on a plain String
+                assertEquals(value.equalsIgnoreCase(other), SourceText.equalsIgnoreCase(value, other), message);
+                assertEquals(value.toLowerCase(Locale.ROOT).contains(lowerOther),
+                    SourceText.containsIgnoreCase(value, lowerOther), message);
+            }
+        }
+    }
+
+    @Test
+    void testStringCharStream() {
+        CharStream stream = StringCharStream.fromString(SOURCE);
+        assertTrue(stream instanceof StringCharStream);
+
+        CharStream reference = CharStreams.fromString(SOURCE);
+        assertEquals(reference.size(), stream.size());
+        assertEquals(reference.getSourceName(), stream.getSourceName());
+        assertEquals(reference.toString(), stream.toString());
+        for (int i = 0; i <= SOURCE.length(); i++) {
+            assertEquals(reference.index(), stream.index());
+            for (int la = -2; la <= 2; la++) {
+                assertEquals(reference.LA(la), stream.LA(la));
+            }
+            if (i < SOURCE.length()) {
+                reference.consume();
+                stream.consume();
+            }
+        }
+        assertEquals(IntStream.EOF, stream.LA(1));
+        assertThrows(IllegalStateException.class, stream::consume);
+
+        stream.seek(13);
+        assertEquals('L', stream.LA(1));
+        assertEquals("Linux", stream.getText(new Interval(13, 17)));
+        assertEquals(SOURCE, stream.getText(new Interval(0, 1000)));
+    }
+
+    @Test
+    void testStringCharStreamOnlyForSingleCharCodePoints() {
+        // A surrogate pair is 2 chars but only 1 code point so then the normal CharStream is used.
+        assertFalse(StringCharStream.fromString("Foo \uD83D\uDE00 Bar") instanceof StringCharStream);
+        assertTrue(StringCharStream.fromString("Foo \u00E9 Bar") instanceof StringCharStream);
+    }
+}
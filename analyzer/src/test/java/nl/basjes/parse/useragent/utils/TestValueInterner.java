@@ -0,0 +1,115 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.utils;
+
+import nl.basjes.parse.useragent.UserAgent;
+import nl.basjes.parse.useragent.UserAgentAnalyzer;
+import nl.basjes.parse.useragent.metrics.AnalyzerMetrics;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestValueInterner {
+
+    @Test
+    void testBasics() {
+        ValueInterner interner = new ValueInterner(10);
+        assertEquals(16, interner.size());
+        assertEquals(1, new ValueInterner(1).size());
+        assertThrows(IllegalArgumentException.class, () -> new ValueInterner(0));
+
+        String first  = new String("Chrome 91");
+        String second = new String("Chrome 91");
+        assertNotSame(first, second);
+
+        assertSame(first, interner.intern(first));
+        assertSame(first, interner.intern(second));
+        assertNull(interner.intern(null));
+    }
+
+    @Test
+    void testCollisionReplaces() {
+        // With only a single slot every different value replaces the previous one.
+        ValueInterner interner = new ValueInterner(1);
+        String one = new String("One");
+        String two = new String("Two");
+        assertSame(one, interner.intern(one));
+        assertSame(two, interner.intern(two));
+        assertSame(two, interner.intern(new String("Two")));
+        assertEquals("One", interner.intern(new String("One")));
+    }
+
+    @Test
+    void testStatistics() {
+        ValueInterner interner = new ValueInterner(10);
+        ValueInterner.Statistics statistics = new ValueInterner.Statistics();
+        interner.intern(new String("Chrome 91"), statistics);
+        interner.intern(new String("Chrome 91"), statistics);
+        interner.intern(new String("Desktop"),   statistics);
+        interner.intern(null,                    statistics);
+        assertEquals(3, statistics.getValues());
+        assertEquals(1, statistics.getDeduplicated());
+        assertEquals(ValueInterner.estimateBytes("Chrome 91"), statistics.getBytesSaved());
+    }
+
+    @Test
+    void testAnalyzerInterning() {
+        UserAgentAnalyzer plain = UserAgentAnalyzer
+            .newBuilder()
+            .withoutCache()
+            .hideMatcherLoadStats()
+            .withField("AgentNameVersionMajor")
+            .withMetrics()
+            .build();
+
+        UserAgentAnalyzer interning = UserAgentAnalyzer
+            .newBuilder()
+            .withoutCache()
+            .hideMatcherLoadStats()
+            .withField("AgentNameVersionMajor")
+            .withValueInterning()
+            .withMetrics()
+            .build();
+
+        String chrome1 = "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/91.0.4472.77 Safari/537.36";
+        String chrome2 = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/91.0.4472.124 Safari/537.36";
+
+        UserAgent result1 = interning.parse(chrome1);
+        UserAgent result2 = interning.parse(chrome2);
+
+        // Interning must not change the results.
+        assertEquals(plain.parse(chrome1), result1);
+        assertEquals(plain.parse(chrome2), result2);
+
+        assertEquals("Chrome 91", result1.getValue("AgentNameVersionMajor"));
+        assertSame(result1.getValue("AgentNameVersionMajor"), result2.getValue("AgentNameVersionMajor"));
+
+        // The effect is reported via the metrics.
+        AnalyzerMetrics metrics = interning.getMetrics();
+        assertTrue(metrics.getInternedValues() > 0);
+        assertTrue(metrics.getDeduplicatedValues() > 0);
+        assertTrue(metrics.getDeduplicatedBytes() > 0);
+        assertEquals(0, plain.getMetrics().getInternedValues());
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.benchmarks;
+
+import nl.basjes.parse.useragent.PreHeatCases;
+import nl.basjes.parse.useragent.UserAgent;
+import nl.basjes.parse.useragent.UserAgentAnalyzer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares parsing with only the full LL prediction mode against
+ * parsing with the SLL prediction mode first (falling back to LL only if needed).
+ */
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TwoStageParsingBenchmarks {
+
+    @State(Scope.Benchmark)
+    public static class ThreadState {
+        @Param({"false", "true"})
+        boolean twoStageParsing;
+
+        UserAgentAnalyzer uaa;
+
+        @Setup
+        public void setup() {
+            UserAgentAnalyzer.UserAgentAnalyzerBuilder builder = UserAgentAnalyzer.newBuilder()
+                .withoutCache()
+                .hideMatcherLoadStats()
+                .immediateInitialization();
+            if (twoStageParsing) {
+                builder.withTwoStageParsing();
+            }
+            uaa = builder.build();
+        }
+    }
+
+    @Benchmark
+    public void preHeatCases(ThreadState state, Blackhole blackhole) {
+        for (String userAgent : PreHeatCases.USERAGENTS) {
+            blackhole.consume(state.uaa.parse(userAgent));
+        }
+    }
+
+    @Benchmark
+    public UserAgent win10Chrome51(ThreadState state) {
+        return state.uaa.parse("Mozilla/5.0 (Windows NT 10.0; WOW64) AppleWebKit/537.36 (KHTML, like Gecko) " +
+            "Chrome/51.0.2704.103 Safari/537.36");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+            .include(TwoStageParsingBenchmarks.class.getSimpleName())
+            .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.flink.table;
+
+import nl.basjes.parse.useragent.FieldSchema;
+import nl.basjes.parse.useragent.UserAgent.ImmutableUserAgent;
+import nl.basjes.parse.useragent.UserAgentAnalyzer;
+import org.apache.flink.table.api.DataTypes;
+import org.apache.flink.table.catalog.DataTypeFactory;
+import org.apache.flink.table.functions.FunctionContext;
+import org.apache.flink.table.functions.ScalarFunction;
+import org.apache.flink.table.types.DataType;
+import org.apache.flink.table.types.inference.TypeInference;
+import org.apache.flink.types.Row;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static nl.basjes.parse.useragent.UserAgent.USERAGENT_FIELDNAME;
+import static nl.basjes.parse.useragent.UserAgentAnalyzer.DEFAULT_PARSE_CACHE_SIZE;
+
+/**
+ * Returns the requested fields as a ROW (one column per field in the requested order)
+ * instead of a map. The values are retrieved using the index of the field in the
+ * result so no map is built for every record.
+ */
+public class AnalyzeUseragentRowFunction extends ScalarFunction {
+    private transient UserAgentAnalyzer userAgentAnalyzer;
+
+    private final int cacheSize;
+    private final List<String> extractedFields;
+
+    // The index of each field in the schema of the most recent result.
+    private transient FieldSchema lastFieldSchema;
+    private transient int[]       fieldIndexes;
+
+    /**
+     * Create a UserAgentAnalyzer that extracts only the specified fields
+     * @param desiredFields The list of desired field names.
+     */
+    public AnalyzeUseragentRowFunction(String... desiredFields) {
+        this(DEFAULT_PARSE_CACHE_SIZE, Arrays.asList(desiredFields));
+    }
+
+    /**
+     * Create a UserAgentAnalyzer that extracts only the specified fields
+     * @param desiredFields The list of desired field names.
+     */
+    public AnalyzeUseragentRowFunction(List<String> desiredFields) {
+        this(DEFAULT_PARSE_CACHE_SIZE, desiredFields);
+    }
+
+    /**
+     * Create a UserAgentAnalyzer that extracts only the specified fields
+     * @param cacheSize The desired size of the cache.
+     * @param desiredFields The list of desired field names.
+     */
+    public AnalyzeUseragentRowFunction(int cacheSize, String... desiredFields) {
+        this(cacheSize, Arrays.asList(desiredFields));
+    }
+
+    /**
+     * Create a UserAgentAnalyzer that extracts only the specified fields
+     * @param cacheSize The desired size of the cache.
+     * @param desiredFields The list of desired field names.
+     */
+    public AnalyzeUseragentRowFunction(int cacheSize, List<String> desiredFields) {
+        this.cacheSize = cacheSize;
+        this.extractedFields = new ArrayList<>(desiredFields);
+    }
+
+    // The type of the result is needed before the function is opened so all fields must be known here.
+    private List<String> getExtractedFields() {
+        if (extractedFields.isEmpty()) {
+            extractedFields.addAll(UserAgentAnalyzer
+                .newBuilder()
+                .hideMatcherLoadStats()
+                .delayInitialization()
+                .build()
+                .getAllPossibleFieldNamesSorted());
+        }
+        return extractedFields;
+    }
+
+    @Override
+    public TypeInference getTypeInference(DataTypeFactory typeFactory) {
+        List<DataTypes.Field> fields = new ArrayList<>();
+        for (String fieldName : getExtractedFields()) {
+            fields.add(DataTypes.FIELD(fieldName, DataTypes.STRING()));
+        }
+        DataType resultType = DataTypes.ROW(fields.toArray(new DataTypes.Field[0]));
+        return TypeInference
+            .newBuilder()
+            .typedArguments(DataTypes.STRING())
+            .outputTypeStrategy(callContext -> Optional.of(resultType))
+            .build();
+    }
+
+    @Override
+    public void open(FunctionContext context) {
+        userAgentAnalyzer = UserAgentAnalyzer
+            .newBuilder()
+            .withFields(getExtractedFields())
+            .withCache(cacheSize)
+            .immediateInitialization()
+            .build();
+        fieldIndexes = new int[extractedFields.size()];
+        lastFieldSchema = null;
+    }
+
+    public Row eval(String userAgentString) {
+        ImmutableUserAgent userAgent = userAgentAnalyzer.parse(userAgentString);
+        FieldSchema fieldSchema = userAgent.getFieldSchema();
+        if (fieldSchema != lastFieldSchema) {
+            for (int i = 0; i < fieldIndexes.length; i++) {
+                String fieldName = extractedFields.get(i);
+                // The Useragent itself is not stored as a field.
+                fieldIndexes[i] = USERAGENT_FIELDNAME.equals(fieldName) ? -1 : fieldSchema.indexOf(fieldName);
+            }
+            lastFieldSchema = fieldSchema;
+        }
+
+        Object[] values = new Object[fieldIndexes.length];
+        for (int i = 0; i < fieldIndexes.length; i++) {
+            int fieldIndex = fieldIndexes[i];
+            values[i] = fieldIndex < 0 ? userAgent.getValue(extractedFields.get(i)) : userAgent.getValue(fieldIndex);
+        }
+        return Row.of(values);
+    }
+}
@@ -274,4 +274,15 @@ class TestTableFunction {
         assertEquals("Chrome 70", result.get("AgentNameVersionMajor"));
     }
 
+    @Test
+    void testRowFunction() {
+        AnalyzeUseragentRowFunction function = new AnalyzeUseragentRowFunction("DeviceClass", "AgentNameVersionMajor", "Useragent");
+        function.open(null);
+        final Row result = function.eval(USERAGENT);
+        assertEquals(3,           result.getArity());
+        assertEquals("Desktop",   result.getField(0));
+        assertEquals("Chrome 70", result.getField(1));
+        assertEquals(USERAGENT,   result.getField(2));
+    }
+
 }
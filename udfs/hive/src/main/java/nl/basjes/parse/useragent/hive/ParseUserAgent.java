@@ -21,6 +21,7 @@ import nl.basjes.parse.useragent.UserAgent;
 import nl.basjes.parse.useragent.UserAgentAnalyzer;
 import org.apache.hadoop.hive.ql.exec.Description;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedExpressions;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDF;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
@@ -67,6 +68,7 @@ import java.util.List;
         "| Desktop       | Linux Intel x86_64          | Chrome 59              |\n" +
         "| Game Console  | Windows 10.0                | Edge 13                |\n" +
         "+---------------+-----------------------------+------------------------+\n")
+@VectorizedExpressions({VectorParseUserAgent.class})
 public class ParseUserAgent extends GenericUDF {
 
     private StringObjectInspector useragentOI = null;
@@ -91,11 +93,7 @@ public class ParseUserAgent extends GenericUDF {
 
         // ================================
         // Initialize the parser
-        userAgentAnalyzer = UserAgentAnalyzer
-            .newBuilder()
-            .hideMatcherLoadStats()
-            .delayInitialization()
-            .build();
+        userAgentAnalyzer = createAnalyzer();
 
         fieldNames = userAgentAnalyzer.getAllPossibleFieldNamesSorted();
 
@@ -112,6 +110,15 @@ public class ParseUserAgent extends GenericUDF {
         return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldObjectInspectors);
     }
 
+    // The row by row and the vectorized version must produce the same fields.
+    static UserAgentAnalyzer createAnalyzer() {
+        return UserAgentAnalyzer
+            .newBuilder()
+            .hideMatcherLoadStats()
+            .delayInitialization()
+            .build();
+    }
+
     @Override
     public Object evaluate(DeferredObject[] args) throws HiveException {
         String userAgentString = useragentOI.getPrimitiveJavaObject(args[0].get());
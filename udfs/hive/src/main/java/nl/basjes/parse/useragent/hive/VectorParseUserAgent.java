@@ -0,0 +1,152 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.hive;
+
+import nl.basjes.parse.useragent.UserAgentAnalyzer;
+import nl.basjes.parse.useragent.UserAgentColumnBatch;
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.StructColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorExpressionDescriptor;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.exec.vector.expressions.VectorExpression;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static nl.basjes.parse.useragent.UserAgentColumnBatch.NULL_CODE;
+
+/**
+ * The vectorized version of the ParseUserAgent UDF.
+ * A batch of useragents is analyzed at once (each distinct useragent only once) and
+ * each distinct value of an output field is converted into bytes only once per batch.
+ * The output is the same struct (same fields in the same order) as ParseUserAgent.
+ */
+public class VectorParseUserAgent extends VectorExpression {
+
+    private final int inputColumnNum;
+
+    private transient UserAgentColumnBatch columnBatch = null;
+
+    public VectorParseUserAgent(int inputColumnNum, int outputColumnNum) {
+        super(outputColumnNum);
+        this.inputColumnNum = inputColumnNum;
+    }
+
+    public VectorParseUserAgent() {
+        super();
+        // Dummy final assignments.
+        inputColumnNum = -1;
+    }
+
+    private UserAgentColumnBatch getColumnBatch() {
+        if (columnBatch == null) {
+            UserAgentAnalyzer userAgentAnalyzer = ParseUserAgent.createAnalyzer();
+            columnBatch = new UserAgentColumnBatch(userAgentAnalyzer, userAgentAnalyzer.getAllPossibleFieldNamesSorted());
+        }
+        return columnBatch;
+    }
+
+    @Override
+    public void evaluate(VectorizedRowBatch batch) throws HiveException {
+        if (childExpressions != null) {
+            super.evaluateChildren(batch);
+        }
+
+        int n = batch.size;
+        if (n == 0) {
+            // Nothing to do
+            return;
+        }
+
+        BytesColumnVector  inputColVector  = (BytesColumnVector)  batch.cols[inputColumnNum];
+        StructColumnVector outputColVector = (StructColumnVector) batch.cols[outputColumnNum];
+        int[]              sel             = batch.selected;
+        boolean            selectedInUse   = batch.selectedInUse;
+
+        List<String> userAgentStrings = new ArrayList<>(n);
+        for (int j = 0; j < n; j++) {
+            int row      = selectedInUse ? sel[j] : j;
+            int inputRow = inputColVector.isRepeating ? 0 : row;
+            if (!inputColVector.noNulls && inputColVector.isNull[inputRow]) {
+                userAgentStrings.add(null);
+            } else {
+                userAgentStrings.add(new String(
+                    inputColVector.vector[inputRow],
+                    inputColVector.start[inputRow],
+                    inputColVector.length[inputRow],
+                    StandardCharsets.UTF_8));
+            }
+        }
+
+        UserAgentColumnBatch columns = getColumnBatch();
+        columns.fill(userAgentStrings);
+
+        outputColVector.isRepeating = false;
+        for (int j = 0; j < n; j++) {
+            int row = selectedInUse ? sel[j] : j;
+            boolean isNull = userAgentStrings.get(j) == null;
+            outputColVector.isNull[row] = isNull;
+            if (isNull) {
+                outputColVector.noNulls = false;
+            }
+        }
+
+        for (int column = 0; column < columns.getFieldNames().size(); column++) {
+            BytesColumnVector fieldColVector = (BytesColumnVector) outputColVector.fields[column];
+            fieldColVector.initBuffer();
+            fieldColVector.isRepeating = false;
+
+            // Each distinct value is only converted once; all rows refer to the same bytes.
+            List<String> dictionary = columns.getDictionary(column);
+            byte[][]     values     = new byte[dictionary.size()][];
+            for (int code = 0; code < values.length; code++) {
+                values[code] = dictionary.get(code).getBytes(StandardCharsets.UTF_8);
+            }
+
+            int[] codes = columns.getCodes(column);
+            for (int j = 0; j < n; j++) {
+                int row  = selectedInUse ? sel[j] : j;
+                int code = codes[j];
+                if (code == NULL_CODE) {
+                    fieldColVector.isNull[row] = true;
+                    fieldColVector.noNulls = false;
+                } else {
+                    fieldColVector.isNull[row] = false;
+                    fieldColVector.setRef(row, values[code], 0, values[code].length);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String vectorExpressionParameters() {
+        return getColumnParamString(0, inputColumnNum);
+    }
+
+    @Override
+    public VectorExpressionDescriptor.Descriptor getDescriptor() {
+        return new VectorExpressionDescriptor.Builder()
+            .setMode(VectorExpressionDescriptor.Mode.PROJECTION)
+            .setNumArguments(1)
+            .setArgumentTypes(VectorExpressionDescriptor.ArgumentType.STRING_FAMILY)
+            .setInputExpressionTypes(VectorExpressionDescriptor.InputExpressionType.COLUMN)
+            .build();
+    }
+}
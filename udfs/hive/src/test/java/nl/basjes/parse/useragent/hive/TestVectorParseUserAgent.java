@@ -0,0 +1,83 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.hive;
+
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.StructColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StandardStructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestVectorParseUserAgent {
+
+    @Test
+    void testVectorized() throws HiveException {
+        String userAgent = "Mozilla/5.0 (Linux; Android 5.1.1; KFFOWI Build/LMY47O) AppleWebKit/537.36 (KHTML, like Gecko) " +
+            "Version/4.0 Chrome/41.51020.2250.0246 Mobile Safari/537.36 cordova-amazon-fireos/3.4.0 AmazonWebAppPlatform/3.4.0;2.0";
+
+        // The vectorized version must produce the same struct as the row by row version.
+        StandardStructObjectInspector resultInspector = (StandardStructObjectInspector) new ParseUserAgent()
+            .initialize(new ObjectInspector[]{
+                PrimitiveObjectInspectorFactory.javaStringObjectInspector
+            });
+
+        int numberOfFields = resultInspector.getAllStructFieldRefs().size();
+        ColumnVector[] fieldColVectors = new ColumnVector[numberOfFields];
+        for (int i = 0; i < numberOfFields; i++) {
+            fieldColVectors[i] = new BytesColumnVector();
+        }
+
+        BytesColumnVector input = new BytesColumnVector();
+        input.initBuffer();
+        byte[] userAgentBytes = userAgent.getBytes(StandardCharsets.UTF_8);
+        input.setVal(0, userAgentBytes, 0, userAgentBytes.length);
+        input.isNull[1] = true;
+        input.noNulls = false;
+        input.setVal(2, userAgentBytes, 0, userAgentBytes.length);
+
+        StructColumnVector output = new StructColumnVector(VectorizedRowBatch.DEFAULT_SIZE, fieldColVectors);
+
+        VectorizedRowBatch batch = new VectorizedRowBatch(2);
+        batch.cols[0] = input;
+        batch.cols[1] = output;
+        batch.size = 3;
+
+        new VectorParseUserAgent(0, 1).evaluate(batch);
+
+        int deviceClass = resultInspector.getStructFieldRef("DeviceClass").getFieldID();
+        int osNameVersion = resultInspector.getStructFieldRef("OperatingSystemNameVersion").getFieldID();
+
+        for (int row : new int[]{0, 2}) {
+            assertFalse(output.isNull[row]);
+            assertEquals("Tablet",       ((BytesColumnVector) output.fields[deviceClass]).toString(row));
+            assertEquals("FireOS 3.4.0", ((BytesColumnVector) output.fields[osNameVersion]).toString(row));
+        }
+        assertTrue(output.isNull[1]);
+    }
+
+}